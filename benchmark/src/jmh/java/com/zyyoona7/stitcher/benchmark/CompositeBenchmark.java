@@ -0,0 +1,121 @@
+package com.zyyoona7.stitcher.benchmark;
+
+import com.zyyoona7.stitcher.encoder.JpegStripEncoder;
+import com.zyyoona7.stitcher.encoder.PngStripEncoder;
+import com.zyyoona7.stitcher.encoder.StripEncoder;
+import com.zyyoona7.stitcher.raster.IntRaster;
+import com.zyyoona7.stitcher.raster.JavaRasterBackend;
+import com.zyyoona7.stitcher.raster.RasterBackend;
+import com.zyyoona7.stitcher.raster.RasterCompositor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 拼接绘制的逐行循环：缩放旋转绘制、填充、整体拼接以及条带编码
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompositeBenchmark {
+    private static final int WIDTH = 1080;
+    private static final int STRIP_HEIGHT = 256;
+
+    @Param({"0", "90"})
+    public int degree;
+
+    private JavaRasterBackend mBackend;
+    private IntRaster mSource;
+    private IntRaster mDest;
+    private int[] mDestRect;
+    private List<String> mPathList;
+    private int[] mRects;
+    private int[] mSize;
+
+    @Setup
+    public void setUp() {
+        mBackend = new JavaRasterBackend(new SyntheticDecoder());
+        String sourcePath = SyntheticDecoder.path(1440, 2560);
+        int[] meta = new int[RasterBackend.META_SIZE];
+        mBackend.probe(sourcePath, meta, 0);
+        mSource = mBackend.decode(sourcePath, meta, 0, 1440, 2560);
+        mDestRect = new int[]{0, 0, WIDTH, 1920};
+        mDest = mBackend.createSurface(WIDTH, 1920);
+        mPathList = new ArrayList<>();
+        int[] widths = new int[10];
+        int[] heights = new int[10];
+        for (int i = 0; i < widths.length; i++) {
+            widths[i] = 1080 + i * 120;
+            heights[i] = 1920 - i * 80;
+            mPathList.add(SyntheticDecoder.path(widths[i], heights[i]));
+        }
+        mSize = new int[2];
+        mRects = RasterCompositor.layoutVertical(widths, heights, WIDTH, 10, mSize);
+    }
+
+    @Benchmark
+    public IntRaster drawScaled() {
+        mBackend.draw(mDest, mSource, degree, mDestRect, null, 0, 0);
+        return mDest;
+    }
+
+    @Benchmark
+    public IntRaster fill() {
+        mBackend.fill(mDest, 0xFFFFFFFF);
+        return mDest;
+    }
+
+    @Benchmark
+    public IntRaster composeTenSources() {
+        IntRaster result = RasterCompositor.compose(mBackend, mPathList, mRects,
+                mSize[0], mSize[1], 0xFFFFFFFF);
+        mBackend.release(result);
+        return result;
+    }
+
+    @Benchmark
+    public int encodePngStrips() throws IOException {
+        return encodeStrips(new PngStripEncoder());
+    }
+
+    @Benchmark
+    public int encodeJpegStrips() throws IOException {
+        return encodeStrips(new JpegStripEncoder());
+    }
+
+    private int encodeStrips(StripEncoder encoder) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        RasterCompositor.encode(mBackend, mPathList, mRects, mSize[0], mSize[1], 0xFFFFFFFF,
+                STRIP_HEIGHT, encoder, out);
+        return out.mCount;
+    }
+
+    /**
+     * 只统计字节数，排除 IO 的影响
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private int mCount;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mCount += len;
+        }
+    }
+}
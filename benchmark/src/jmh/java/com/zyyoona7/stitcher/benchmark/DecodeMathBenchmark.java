@@ -0,0 +1,83 @@
+package com.zyyoona7.stitcher.benchmark;
+
+import com.zyyoona7.stitcher.raster.RasterCompositor;
+import com.zyyoona7.stitcher.util.DecodeMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StitcherUtils#calculateInSampleSize 和 StitcherUtils#canUseForInBitmap 的计算部分，
+ * 每次调用轮流使用一组预先生成的输入，避免常量折叠
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DecodeMathBenchmark {
+    private static final int COUNT = 1024;
+
+    private final int[] mWidths = new int[COUNT];
+    private final int[] mHeights = new int[COUNT];
+    private final int[] mReqWidths = new int[COUNT];
+    private final int[] mReqHeights = new int[COUNT];
+    private final int[] mCandidateWidths = new int[COUNT];
+    private final int[] mCandidateHeights = new int[COUNT];
+    private final int[] mCandidateBytes = new int[COUNT];
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        for (int i = 0; i < COUNT; i++) {
+            mWidths[i] = 480 + random.nextInt(4000);
+            mHeights[i] = 480 + random.nextInt(6000);
+            mReqWidths[i] = 360 + random.nextInt(1080);
+            mReqHeights[i] = 360 + random.nextInt(1920);
+            //池里的候选是之前解码出来的 ARGB_8888 图片
+            mCandidateWidths[i] = 360 + random.nextInt(1080);
+            mCandidateHeights[i] = 360 + random.nextInt(1920);
+            mCandidateBytes[i] = mCandidateWidths[i] * mCandidateHeights[i] * 4;
+        }
+    }
+
+    @Benchmark
+    public int calculateSampleSize() {
+        int i = next();
+        return RasterCompositor.calculateSampleSize(mWidths[i], mHeights[i],
+                mReqWidths[i], mReqHeights[i]);
+    }
+
+    @Benchmark
+    public boolean canReuse() {
+        int i = next();
+        int sampleSize = RasterCompositor.calculateSampleSize(mWidths[i], mHeights[i],
+                mReqWidths[i], mReqHeights[i]);
+        //与 StitcherUtils#calculateExactScale 一致，用较长的边计算 inDensity 和 inTargetDensity
+        int sampledWidth = mWidths[i] / sampleSize;
+        int sampledHeight = mHeights[i] / sampleSize;
+        boolean widthLonger = sampledWidth >= sampledHeight;
+        int density = widthLonger ? sampledWidth : sampledHeight;
+        int targetDensity = widthLonger ? mReqWidths[i] : mReqHeights[i];
+        boolean scaled = targetDensity < density;
+        int decodedWidth = DecodeMath.getDecodedSize(mWidths[i], sampleSize, scaled,
+                density, targetDensity);
+        int decodedHeight = DecodeMath.getDecodedSize(mHeights[i], sampleSize, scaled,
+                density, targetDensity);
+        return DecodeMath.canReuse(false, mCandidateWidths[i], mCandidateHeights[i],
+                mCandidateBytes[i], 4, mWidths[i], mHeights[i], sampleSize,
+                decodedWidth, decodedHeight);
+    }
+
+    private int next() {
+        mIndex = (mIndex + 1) & (COUNT - 1);
+        return mIndex;
+    }
+}
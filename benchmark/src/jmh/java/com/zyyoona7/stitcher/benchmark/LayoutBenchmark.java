@@ -0,0 +1,59 @@
+package com.zyyoona7.stitcher.benchmark;
+
+import com.zyyoona7.stitcher.raster.RasterCompositor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SizeEngine 和 StitcherEngine 的布局计算，元信息已经缓存时拼接前的全部测量开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LayoutBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int sourceCount;
+
+    private int[] mWidths;
+    private int[] mHeights;
+    private final int[] mSize = new int[2];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        mWidths = new int[sourceCount];
+        mHeights = new int[sourceCount];
+        for (int i = 0; i < sourceCount; i++) {
+            mWidths[i] = 720 + random.nextInt(3000);
+            mHeights[i] = 720 + random.nextInt(4000);
+        }
+    }
+
+    @Benchmark
+    public int[] verticalFixedWidth() {
+        return RasterCompositor.layoutVertical(mWidths, mHeights, 1080, 10, mSize);
+    }
+
+    @Benchmark
+    public int[] verticalScaleSmaller() {
+        return RasterCompositor.layoutVertical(mWidths, mHeights,
+                RasterCompositor.SCALE_SMALLER, 10, mSize);
+    }
+
+    @Benchmark
+    public int[] horizontalScaleLarger() {
+        return RasterCompositor.layoutHorizontal(mWidths, mHeights,
+                RasterCompositor.SCALE_LARGER, 10, mSize);
+    }
+}
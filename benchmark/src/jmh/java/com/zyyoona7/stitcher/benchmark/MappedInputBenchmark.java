@@ -0,0 +1,227 @@
+package com.zyyoona7.stitcher.benchmark;
+
+import com.zyyoona7.stitcher.util.ImageHeaderParser;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大尺寸相机 JPEG 的读取方式对比：
+ * 每次调用各自打开文件（尺寸探测、EXIF、像素解码各读一遍，与 decodeFile + ExifInterface(path) 一致），
+ * 和只读映射一次、文件头和像素都从映射中读取（StitchSource.fromMappedFile）
+ * 像素解码只模拟读取，逐块复制到解码器的缓冲区；bytesCopied 是复制到 Java 缓冲区的字节数，
+ * fileOpens 是打开文件的次数，都按每次操作统计
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MappedInputBenchmark {
+    //BitmapFactory 和 ExifInterface 读取流时的缓冲大小
+    private static final int BUFFER_SIZE = 16 * 1024;
+    //相机照片 APP1 中除 EXIF 外常见的 XMP、缩略图等数据
+    private static final int APP_PADDING = 60 * 1024;
+
+    @Param({"24"})
+    public int fileSizeMb;
+
+    private File mFile;
+    private MappedByteBuffer mMapped;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    //足够容纳 EXIF、APP 段和 SOF，与探测时读取的范围一致
+    private final byte[] mHeader = new byte[APP_PADDING + BUFFER_SIZE * 2];
+    private final int[] mMeta = new int[3];
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long bytesCopied;
+        public long fileOpens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesCopied = 0;
+            fileOpens = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("mapped", ".jpg");
+        writeJpeg(mFile, fileSizeMb * 1024L * 1024);
+        mMapped = map(mFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mMapped = null;
+        mFile.delete();
+    }
+
+    /**
+     * 尺寸和 EXIF 各打开一次文件，各自读到需要的位置
+     */
+    @Benchmark
+    public int[] perCallOpenProbe(Counters counters) throws IOException {
+        probeByOpening(counters);
+        return mMeta;
+    }
+
+    /**
+     * 映射已经存在，再次探测只访问文件头所在的页
+     */
+    @Benchmark
+    public int[] mappedProbe() {
+        ImageHeaderParser.parse(mMapped, mMeta);
+        return mMeta;
+    }
+
+    /**
+     * 包括建立映射的开销，对应第一次创建来源
+     */
+    @Benchmark
+    public int[] mapAndProbe(Counters counters) throws IOException {
+        counters.fileOpens++;
+        ImageHeaderParser.parse(map(mFile), mMeta);
+        return mMeta;
+    }
+
+    @Benchmark
+    public long perCallOpenDecode(Counters counters) throws IOException {
+        probeByOpening(counters);
+        counters.fileOpens++;
+        InputStream inputStream = new FileInputStream(mFile);
+        try {
+            long checksum = 0;
+            int count;
+            while ((count = inputStream.read(mBuffer)) != -1) {
+                counters.bytesCopied += count;
+                checksum += mBuffer[count - 1];
+            }
+            return checksum;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Benchmark
+    public long mappedDecode(Counters counters) {
+        ImageHeaderParser.parse(mMapped, mMeta);
+        //与 BitmapFactory.decodeStream 读取映射时一样逐块复制
+        ByteBuffer buffer = mMapped.duplicate();
+        long checksum = 0;
+        while (buffer.hasRemaining()) {
+            int count = Math.min(BUFFER_SIZE, buffer.remaining());
+            buffer.get(mBuffer, 0, count);
+            counters.bytesCopied += count;
+            checksum += mBuffer[count - 1];
+        }
+        return checksum;
+    }
+
+    private void probeByOpening(Counters counters) throws IOException {
+        //BitmapFactory 解码尺寸
+        readHeader(counters);
+        //ExifInterface(path) 重新打开
+        readHeader(counters);
+    }
+
+    /**
+     * 按缓冲大小读取文件头所在的部分，读完之后解析一次
+     * 缓冲区复用，只统计打开文件和复制的开销
+     */
+    private void readHeader(Counters counters) throws IOException {
+        counters.fileOpens++;
+        InputStream inputStream = new FileInputStream(mFile);
+        try {
+            byte[] header = mHeader;
+            int length = 0;
+            int count;
+            while (length < header.length
+                    && (count = inputStream.read(header, length,
+                    Math.min(BUFFER_SIZE, header.length - length))) != -1) {
+                length += count;
+                counters.bytesCopied += count;
+                //与映射的版本一样，解析出尺寸就不再读取
+                if (ImageHeaderParser.parse(ByteBuffer.wrap(header, 0, length), mMeta) != null) {
+                    return;
+                }
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 结构与相机照片相同：EXIF、较大的 APP 段、SOF，之后是随机的压缩数据
+     */
+    private static void writeJpeg(File file, long size) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            write(out, 0xFF, 0xD8);
+            write(out, 0xFF, 0xE1, 0, 2 + 6 + 8 + 2 + 12 + 4);
+            write(out, 'E', 'x', 'i', 'f', 0, 0);
+            write(out, 'I', 'I', 42, 0, 8, 0, 0, 0);
+            write(out, 1, 0);
+            write(out, 0x12, 0x01, 3, 0, 1, 0, 0, 0, 6, 0, 0, 0);
+            write(out, 0, 0, 0, 0);
+            Random random = new Random(7);
+            for (int written = 0; written < APP_PADDING; written += 0xFFFF) {
+                int length = Math.min(0xFFFF, APP_PADDING - written);
+                write(out, 0xFF, 0xE2, length >> 8, length & 0xFF);
+                byte[] padding = new byte[length - 2];
+                random.nextBytes(padding);
+                out.write(padding);
+            }
+            write(out, 0xFF, 0xC0, 0, 17, 8, 3000 >> 8, 3000 & 0xFF, 4000 >> 8, 4000 & 0xFF,
+                    3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1);
+            write(out, 0xFF, 0xDA, 0, 2);
+            byte[] data = new byte[BUFFER_SIZE];
+            for (long written = APP_PADDING; written < size; written += data.length) {
+                random.nextBytes(data);
+                out.write(data);
+            }
+            write(out, 0xFF, 0xD9);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void write(OutputStream out, int... values) throws IOException {
+        for (int value : values) {
+            out.write(value);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.zyyoona7.stitcher.benchmark;
+
+import com.zyyoona7.stitcher.util.GroupedLruPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReusableCache 底层 GroupedLruPool 的取出、放回，分组方式与 KitKat 以上的 ReusableCache 相同
+ * 多线程时所有线程共享同一个池，反映锁竞争的开销
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PoolBenchmark {
+    private static final Object ARGB_8888 = "ARGB_8888";
+    private static final Object RGB_565 = "RGB_565";
+
+    @State(Scope.Benchmark)
+    public static class SharedPool {
+        ItemPool pool;
+
+        @Setup
+        public void setUp() {
+            //上限小于预热的总量，会持续发生淘汰
+            pool = new ItemPool(48L * 1024 * 1024);
+            Random random = new Random(7);
+            for (int i = 0; i < 64; i++) {
+                pool.put(new Item(i % 4 == 0 ? RGB_565 : ARGB_8888,
+                        nextByteSize(random)));
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Requests {
+        final Random random = new Random(Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object getPut1Thread(SharedPool shared, Requests requests) {
+        return getPut(shared.pool, requests.random);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Object getPut2Threads(SharedPool shared, Requests requests) {
+        return getPut(shared.pool, requests.random);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object getPut4Threads(SharedPool shared, Requests requests) {
+        return getPut(shared.pool, requests.random);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object getPut8Threads(SharedPool shared, Requests requests) {
+        return getPut(shared.pool, requests.random);
+    }
+
+    private static Object getPut(ItemPool pool, Random random) {
+        Object group = random.nextInt(4) == 0 ? RGB_565 : ARGB_8888;
+        int byteSize = nextByteSize(random);
+        Item item = pool.get(group, byteSize);
+        if (item == null) {
+            //未命中时只记录大小，不真正分配，避免测到 GC
+            item = new Item(group, byteSize);
+        }
+        pool.put(item);
+        return item;
+    }
+
+    /**
+     * 常见的解码尺寸，720p 到 4K 按 1/2 采样
+     */
+    private static int nextByteSize(Random random) {
+        int width = 360 << random.nextInt(3);
+        int height = 640 << random.nextInt(3);
+        return width * height * 4;
+    }
+
+    static final class Item {
+        final Object group;
+        final int byteSize;
+
+        Item(Object group, int byteSize) {
+            this.group = group;
+            this.byteSize = byteSize;
+        }
+    }
+
+    static final class ItemPool extends GroupedLruPool<Item> {
+
+        ItemPool(long maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected Object getGroup(Item item) {
+            return item.group;
+        }
+
+        @Override
+        protected int getByteSize(Item item) {
+            return item.byteSize;
+        }
+
+        @Override
+        protected void onRemoved(Item item) {
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.zyyoona7.stitcher.benchmark;
+
+import com.zyyoona7.stitcher.raster.IntRaster;
+import com.zyyoona7.stitcher.raster.JavaRasterBackend;
+
+/**
+ * 按地址生成图片，地址格式为 "宽x高"，像素为渐变色，不读取文件
+ */
+final class SyntheticDecoder implements JavaRasterBackend.Decoder {
+
+    static String path(int width, int height) {
+        return width + "x" + height;
+    }
+
+    @Override
+    public boolean decodeBounds(String path, int[] outMeta) {
+        int index = path.indexOf('x');
+        outMeta[0] = Integer.parseInt(path.substring(0, index));
+        outMeta[1] = Integer.parseInt(path.substring(index + 1));
+        outMeta[2] = 0;
+        return true;
+    }
+
+    @Override
+    public IntRaster decode(String path, int sampleSize, JavaRasterBackend backend) {
+        int[] meta = new int[3];
+        decodeBounds(path, meta);
+        int width = Math.max(1, meta[0] / sampleSize);
+        int height = Math.max(1, meta[1] / sampleSize);
+        IntRaster raster = backend.obtainRaster(width, height);
+        int[] pixels = raster.getPixels();
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                pixels[offset + x] = 0xFF000000 | (x & 0xFF) << 16 | (y & 0xFF) << 8;
+            }
+        }
+        return raster;
+    }
+}
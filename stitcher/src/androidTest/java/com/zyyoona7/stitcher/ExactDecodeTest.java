@@ -0,0 +1,125 @@
+package com.zyyoona7.stitcher;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.zyyoona7.stitcher.engine.StitchOptions;
+import com.zyyoona7.stitcher.util.StitcherUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 对比默认的 2 的幂次采样解码和精确尺寸解码的输出尺寸和耗时
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExactDecodeTest {
+    private static final String TAG = "ExactDecodeTest";
+    private static final int SOURCE_WIDTH = 4000;
+    private static final int SOURCE_HEIGHT = 3000;
+    private static final int DEST_WIDTH = 1080;
+
+    private File mSourceFile;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mSourceFile = new File(context.getCacheDir(), "exact_decode_source.jpg");
+        Bitmap source = Bitmap.createBitmap(SOURCE_WIDTH, SOURCE_HEIGHT, Bitmap.Config.ARGB_8888);
+        source.eraseColor(Color.rgb(30, 144, 255));
+        OutputStream outputStream = new FileOutputStream(mSourceFile);
+        try {
+            source.compress(Bitmap.CompressFormat.JPEG, 90, outputStream);
+        } finally {
+            outputStream.close();
+            source.recycle();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        BitmapStitcher.clearCache();
+        mSourceFile.delete();
+    }
+
+    @Test
+    public void exactDecode_hitsTargetWidth() {
+        String path = mSourceFile.getAbsolutePath();
+        int destHeight = StitcherUtils.roundFloatToInt(DEST_WIDTH * SOURCE_HEIGHT * 1f / SOURCE_WIDTH);
+
+        BitmapFactory.Options sampleOptions = StitcherUtils.decodeBitmapBounds(path);
+        sampleOptions.inJustDecodeBounds = false;
+        sampleOptions.inSampleSize = StitcherUtils.calculateInSampleSize(sampleOptions,
+                DEST_WIDTH, destHeight);
+        long start = SystemClock.elapsedRealtimeNanos();
+        Bitmap sampled = StitcherUtils.decodeBitmap(path, sampleOptions);
+        long sampleNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        BitmapFactory.Options exactOptions = StitcherUtils.decodeBitmapBounds(path);
+        exactOptions.inJustDecodeBounds = false;
+        exactOptions.inSampleSize = StitcherUtils.calculateInSampleSize(exactOptions,
+                DEST_WIDTH, destHeight);
+        StitcherUtils.calculateExactScale(exactOptions, DEST_WIDTH, destHeight);
+        start = SystemClock.elapsedRealtimeNanos();
+        Bitmap exact = StitcherUtils.decodeBitmap(path, exactOptions);
+        long exactNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        assertNotNull(sampled);
+        assertNotNull(exact);
+        Log.d(TAG, "sampled=" + sampled.getWidth() + "x" + sampled.getHeight()
+                + " in " + sampleNanos / 1000 + "us, exact=" + exact.getWidth() + "x"
+                + exact.getHeight() + " in " + exactNanos / 1000 + "us");
+
+        assertEquals(2000, sampled.getWidth());
+        assertTrue(Math.abs(exact.getWidth() - DEST_WIDTH) <= 1);
+        assertTrue(Math.abs(exact.getHeight() - destHeight) <= 1);
+        assertEquals(StitcherUtils.getDecodedWidth(exactOptions), exact.getWidth());
+        assertTrue(exact.getByteCount() < sampled.getByteCount());
+        sampled.recycle();
+        exact.recycle();
+    }
+
+    @Test
+    public void exactDecode_sameStitchSizeAsDefault() {
+        List<String> pathList = Arrays.asList(mSourceFile.getAbsolutePath(),
+                mSourceFile.getAbsolutePath());
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        Bitmap normal = BitmapStitcher.stitchVertical(pathList, DEST_WIDTH, 10,
+                Color.WHITE, null);
+        long normalNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        Bitmap exact = BitmapStitcher.stitchVertical(pathList, DEST_WIDTH, 10,
+                Color.WHITE, new StitchOptions().setExactDecode(true));
+        long exactNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        assertNotNull(normal);
+        assertNotNull(exact);
+        Log.d(TAG, "stitch default " + normalNanos / 1000 + "us, exact " + exactNanos / 1000 + "us");
+        assertEquals(normal.getWidth(), exact.getWidth());
+        assertEquals(normal.getHeight(), exact.getHeight());
+        normal.recycle();
+        exact.recycle();
+    }
+}
@@ -1,5 +1,6 @@
 package com.zyyoona7.stitcher;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
@@ -11,11 +12,22 @@ import android.graphics.RectF;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import com.zyyoona7.stitcher.encoder.JpegStripEncoder;
+import com.zyyoona7.stitcher.encoder.PngStripEncoder;
+import com.zyyoona7.stitcher.encoder.StripEncoder;
+import com.zyyoona7.stitcher.engine.ClipEngine;
+import com.zyyoona7.stitcher.engine.MemoryPlanner;
 import com.zyyoona7.stitcher.engine.SizeEngine;
+import com.zyyoona7.stitcher.engine.StitchOptions;
+import com.zyyoona7.stitcher.engine.StitchTask;
 import com.zyyoona7.stitcher.engine.StitcherEngine;
+import com.zyyoona7.stitcher.source.StitchSource;
+import com.zyyoona7.stitcher.util.ImageMetaCache;
+import com.zyyoona7.stitcher.util.ResultCache;
 import com.zyyoona7.stitcher.util.ReusableCache;
 import com.zyyoona7.stitcher.util.StitcherUtils;
 
@@ -23,8 +35,10 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * 图片拼接、裁剪、保存外部调用类
@@ -35,6 +49,21 @@ public class BitmapStitcher {
     public static final int SCALE_LARGER = SizeEngine.SCALE_LARGER;
     //如果 宽/高 大于最小 宽/高 尺寸，则缩放至最小 宽/高 尺寸
     public static final int SCALE_SMALLER = SizeEngine.SCALE_SMALLER;
+    //宫格中图片的缩放方式
+    //等比缩放铺满单元格，超出的部分裁掉
+    public static final int CELL_CENTER_CROP = SizeEngine.CELL_CENTER_CROP;
+    //等比缩放完整显示在单元格中间
+    public static final int CELL_FIT_CENTER = SizeEngine.CELL_FIT_CENTER;
+
+    /**
+     * 初始化，之后拼接前会结合 ActivityManager 的内存信息判断可用内存
+     * 不调用时只根据 Runtime 的堆内存判断
+     *
+     * @param context context
+     */
+    public static void init(@NonNull Context context) {
+        MemoryPlanner.init(context);
+    }
 
     /*
        ---------- stitch bitmap area ----------
@@ -78,7 +107,26 @@ public class BitmapStitcher {
     @Nullable
     public static Bitmap stitchVertical(List<String> pathList, int destWidth,
                                         int verticalSpacing, @ColorInt int fillColor) {
-        return StitcherEngine.stitchVertical(pathList, destWidth, verticalSpacing, fillColor);
+        return StitcherEngine.getDefault().stitchVertical(pathList, destWidth, verticalSpacing,
+                fillColor);
+    }
+
+    /**
+     * 垂直方向排列，多张图片拼接
+     *
+     * @param pathList        图片地址列表
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @param stitchOptions   可选配置，如预解码、复用的拼接目标
+     * @return Bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap stitchVertical(List<String> pathList, int destWidth,
+                                        int verticalSpacing, @ColorInt int fillColor,
+                                        @Nullable StitchOptions stitchOptions) {
+        return StitcherEngine.getDefault().stitchVertical(pathList, destWidth, verticalSpacing,
+                fillColor, stitchOptions);
     }
 
     /**
@@ -123,10 +171,29 @@ public class BitmapStitcher {
     @Nullable
     public static Bitmap stitchVertical(String filePath, int stitchCount, int destWidth,
                                         int verticalSpacing, @ColorInt int fillColor) {
-        return StitcherEngine.stitchVertical(filePath, stitchCount, destWidth,
+        return StitcherEngine.getDefault().stitchVertical(filePath, stitchCount, destWidth,
                 verticalSpacing, fillColor);
     }
 
+    /**
+     * 垂直方向排列 单张图片 多次拼接
+     *
+     * @param filePath        图片地址
+     * @param stitchCount     拼接次数
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @param stitchOptions   可选配置，如复用的拼接目标
+     * @return Bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap stitchVertical(String filePath, int stitchCount, int destWidth,
+                                        int verticalSpacing, @ColorInt int fillColor,
+                                        @Nullable StitchOptions stitchOptions) {
+        return StitcherEngine.getDefault().stitchVertical(filePath, stitchCount, destWidth,
+                verticalSpacing, fillColor, stitchOptions);
+    }
+
     /**
      * 水平方向排列 多张图片拼接
      *
@@ -164,7 +231,26 @@ public class BitmapStitcher {
     @Nullable
     public static Bitmap stitchHorizontal(List<String> pathList, int destHeight,
                                           int horizontalSpacing, @ColorInt int fillColor) {
-        return StitcherEngine.stitchHorizontal(pathList, destHeight, horizontalSpacing, fillColor);
+        return StitcherEngine.getDefault().stitchHorizontal(pathList, destHeight,
+                horizontalSpacing, fillColor);
+    }
+
+    /**
+     * 水平方向排列 多张图片拼接
+     *
+     * @param pathList          图片地址列表
+     * @param destHeight        目标宽度
+     * @param horizontalSpacing 水平间距
+     * @param fillColor         间距或透明部分的填充颜色
+     * @param stitchOptions     可选配置，如预解码、复用的拼接目标
+     * @return Bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap stitchHorizontal(List<String> pathList, int destHeight,
+                                          int horizontalSpacing, @ColorInt int fillColor,
+                                          @Nullable StitchOptions stitchOptions) {
+        return StitcherEngine.getDefault().stitchHorizontal(pathList, destHeight,
+                horizontalSpacing, fillColor, stitchOptions);
     }
 
     /**
@@ -209,14 +295,402 @@ public class BitmapStitcher {
     @Nullable
     public static Bitmap stitchHorizontal(String filePath, int stitchCount, int destHeight,
                                           int horizontalSpacing, @ColorInt int fillColor) {
-        return StitcherEngine.stitchHorizontal(filePath, stitchCount, destHeight,
+        return StitcherEngine.getDefault().stitchHorizontal(filePath, stitchCount, destHeight,
                 horizontalSpacing, fillColor);
     }
 
+    /**
+     * 水平方向排列 单张图片多次拼接
+     *
+     * @param filePath          图片地址
+     * @param stitchCount       拼接次数
+     * @param destHeight        目标高度
+     * @param horizontalSpacing 水平间距
+     * @param fillColor         间距或透明部分的填充颜色
+     * @param stitchOptions     可选配置，如复用的拼接目标
+     * @return Bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap stitchHorizontal(String filePath, int stitchCount, int destHeight,
+                                          int horizontalSpacing, @ColorInt int fillColor,
+                                          @Nullable StitchOptions stitchOptions) {
+        return StitcherEngine.getDefault().stitchHorizontal(filePath, stitchCount, destHeight,
+                horizontalSpacing, fillColor, stitchOptions);
+    }
+
+    /**
+     * 宫格排列 多张图片拼接，图片铺满单元格
+     *
+     * @param pathList   图片地址列表，按行从左到右排列
+     * @param columns    列数
+     * @param cellWidth  单元格宽度
+     * @param cellHeight 单元格高度
+     * @return Bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap stitchGrid(List<String> pathList, int columns, int cellWidth,
+                                    int cellHeight) {
+        return stitchGrid(pathList, columns, cellWidth, cellHeight, 0, 0,
+                CELL_CENTER_CROP, Color.TRANSPARENT);
+    }
+
+    /**
+     * 宫格排列 多张图片拼接
+     *
+     * @param pathList          图片地址列表，按行从左到右排列
+     * @param columns           列数
+     * @param cellWidth         单元格宽度
+     * @param cellHeight        单元格高度
+     * @param horizontalSpacing 水平间距
+     * @param verticalSpacing   垂直间距
+     * @param scaleType         {@link #CELL_CENTER_CROP} or {@link #CELL_FIT_CENTER}
+     * @param fillColor         间距或空白部分的填充颜色
+     * @return Bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap stitchGrid(List<String> pathList, int columns, int cellWidth,
+                                    int cellHeight, int horizontalSpacing, int verticalSpacing,
+                                    int scaleType, @ColorInt int fillColor) {
+        return stitchGrid(pathList, columns, cellWidth, cellHeight, horizontalSpacing,
+                verticalSpacing, scaleType, fillColor, null);
+    }
+
+    /**
+     * 宫格排列 多张图片拼接
+     *
+     * @param pathList          图片地址列表，按行从左到右排列
+     * @param columns           列数
+     * @param cellWidth         单元格宽度
+     * @param cellHeight        单元格高度
+     * @param horizontalSpacing 水平间距
+     * @param verticalSpacing   垂直间距
+     * @param scaleType         {@link #CELL_CENTER_CROP} or {@link #CELL_FIT_CENTER}
+     * @param fillColor         间距或空白部分的填充颜色
+     * @param stitchOptions     可选配置，如精确解码、预解码
+     * @return Bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap stitchGrid(List<String> pathList, int columns, int cellWidth,
+                                    int cellHeight, int horizontalSpacing, int verticalSpacing,
+                                    int scaleType, @ColorInt int fillColor,
+                                    @Nullable StitchOptions stitchOptions) {
+        return StitcherEngine.getDefault().stitchGrid(pathList, columns, cellWidth, cellHeight,
+                horizontalSpacing, verticalSpacing, scaleType, fillColor, stitchOptions);
+    }
+
     /*
        ---------- stitch bitmap area ----------
      */
 
+    /*
+       ---------- stitch source area ----------
+     */
+
+    /**
+     * 垂直方向排列，拼接文件、FileDescriptor、Uri、内存数据等来源
+     *
+     * @param sources   图片来源列表
+     * @param destWidth 目标宽度
+     * @return Bitmap if null 出错
+     */
+    @Nullable
+    @WorkerThread
+    public static Bitmap stitchSourcesVertical(List<StitchSource> sources, int destWidth) {
+        return stitchSourcesVertical(sources, destWidth, 0, Color.TRANSPARENT, null);
+    }
+
+    /**
+     * 垂直方向排列，拼接文件、FileDescriptor、Uri、内存数据等来源
+     * 来源只在拼接期间注册，结束后不再被持有，来源本身仍由调用方关闭
+     *
+     * @param sources         图片来源列表
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @param stitchOptions   可选配置，如预解码、复用的拼接目标
+     * @return Bitmap if null 出错
+     */
+    @Nullable
+    @WorkerThread
+    public static Bitmap stitchSourcesVertical(List<StitchSource> sources, int destWidth,
+                                               int verticalSpacing, @ColorInt int fillColor,
+                                               @Nullable StitchOptions stitchOptions) {
+        if (sources == null || sources.isEmpty()) {
+            return null;
+        }
+        List<String> keys = StitchSource.acquire(sources);
+        try {
+            return stitchVertical(keys, destWidth, verticalSpacing, fillColor, stitchOptions);
+        } finally {
+            StitchSource.release(sources);
+        }
+    }
+
+    /**
+     * 水平方向排列，拼接文件、FileDescriptor、Uri、内存数据等来源
+     *
+     * @param sources    图片来源列表
+     * @param destHeight 目标高度
+     * @return Bitmap if null 出错
+     */
+    @Nullable
+    @WorkerThread
+    public static Bitmap stitchSourcesHorizontal(List<StitchSource> sources, int destHeight) {
+        return stitchSourcesHorizontal(sources, destHeight, 0, Color.TRANSPARENT, null);
+    }
+
+    /**
+     * 水平方向排列，拼接文件、FileDescriptor、Uri、内存数据等来源
+     * 来源只在拼接期间注册，结束后不再被持有，来源本身仍由调用方关闭
+     *
+     * @param sources           图片来源列表
+     * @param destHeight        目标高度
+     * @param horizontalSpacing 水平间距
+     * @param fillColor         间距或透明部分的填充颜色
+     * @param stitchOptions     可选配置，如预解码、复用的拼接目标
+     * @return Bitmap if null 出错
+     */
+    @Nullable
+    @WorkerThread
+    public static Bitmap stitchSourcesHorizontal(List<StitchSource> sources, int destHeight,
+                                                 int horizontalSpacing, @ColorInt int fillColor,
+                                                 @Nullable StitchOptions stitchOptions) {
+        if (sources == null || sources.isEmpty()) {
+            return null;
+        }
+        List<String> keys = StitchSource.acquire(sources);
+        try {
+            return stitchHorizontal(keys, destHeight, horizontalSpacing, fillColor,
+                    stitchOptions);
+        } finally {
+            StitchSource.release(sources);
+        }
+    }
+
+    /**
+     * 垂直方向排列，拼接文件、FileDescriptor、Uri、内存数据等来源并使用指定的编码器保存到本地
+     * 来源只在拼接期间注册，结束后不再被持有，来源本身仍由调用方关闭
+     *
+     * @param sources         图片来源列表
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @param outputFile      输出文件
+     * @param encoder         条带编码器
+     * @param stitchOptions   可选配置，如条带高度
+     * @return true if successfully
+     */
+    @WorkerThread
+    public static boolean stitchSourcesVerticalToFile(List<StitchSource> sources, int destWidth,
+                                                      int verticalSpacing,
+                                                      @ColorInt int fillColor, File outputFile,
+                                                      StripEncoder encoder,
+                                                      @Nullable StitchOptions stitchOptions) {
+        if (sources == null || sources.isEmpty()) {
+            return false;
+        }
+        List<String> keys = StitchSource.acquire(sources);
+        try {
+            return stitchVerticalToFile(keys, destWidth, verticalSpacing, fillColor, outputFile,
+                    encoder, stitchOptions);
+        } finally {
+            StitchSource.release(sources);
+        }
+    }
+
+    /*
+       ---------- stitch source area ----------
+     */
+
+    /*
+       ---------- stitch async area ----------
+     */
+
+    /**
+     * 垂直方向排列，异步拼接多张图片
+     *
+     * @param pathList        图片地址列表
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @param stitchOptions   可选配置，如进度监听
+     * @param executor        执行拼接的线程池 if null 使用默认的单线程
+     * @return 可以取消的任务，结果 if null 出错
+     */
+    @NonNull
+    public static StitchTask stitchVerticalAsync(List<String> pathList, int destWidth,
+                                                 int verticalSpacing, @ColorInt int fillColor,
+                                                 @Nullable StitchOptions stitchOptions,
+                                                 @Nullable Executor executor) {
+        return StitcherEngine.stitchAsync(true, pathList, destWidth, verticalSpacing,
+                fillColor, stitchOptions, executor);
+    }
+
+    /**
+     * 水平方向排列，异步拼接多张图片
+     *
+     * @param pathList          图片地址列表
+     * @param destHeight        目标高度
+     * @param horizontalSpacing 水平间距
+     * @param fillColor         间距或透明部分的填充颜色
+     * @param stitchOptions     可选配置，如进度监听
+     * @param executor          执行拼接的线程池 if null 使用默认的单线程
+     * @return 可以取消的任务，结果 if null 出错
+     */
+    @NonNull
+    public static StitchTask stitchHorizontalAsync(List<String> pathList, int destHeight,
+                                                   int horizontalSpacing, @ColorInt int fillColor,
+                                                   @Nullable StitchOptions stitchOptions,
+                                                   @Nullable Executor executor) {
+        return StitcherEngine.stitchAsync(false, pathList, destHeight, horizontalSpacing,
+                fillColor, stitchOptions, executor);
+    }
+
+    /*
+       ---------- stitch to file area ----------
+     */
+
+    /**
+     * 垂直方向排列，多张图片拼接并保存为 PNG
+     * 按条带渲染并边渲染边编码，不会创建完整尺寸的 Bitmap，不受完整尺寸 Bitmap 的内存限制
+     *
+     * @param pathList        图片地址列表
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @param outputFile      输出文件
+     * @return true if successfully
+     */
+    @WorkerThread
+    public static boolean stitchVerticalToFile(List<String> pathList, int destWidth,
+                                               int verticalSpacing, @ColorInt int fillColor,
+                                               File outputFile) {
+        return stitchVerticalToFile(pathList, destWidth, verticalSpacing, fillColor,
+                outputFile, null);
+    }
+
+    /**
+     * 垂直方向排列，多张图片拼接并保存为 PNG
+     * 按条带渲染并边渲染边编码，不会创建完整尺寸的 Bitmap，不受完整尺寸 Bitmap 的内存限制
+     *
+     * @param pathList        图片地址列表
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @param outputFile      输出文件
+     * @param stitchOptions   可选配置，如条带高度
+     * @return true if successfully
+     */
+    @WorkerThread
+    public static boolean stitchVerticalToFile(List<String> pathList, int destWidth,
+                                               int verticalSpacing, @ColorInt int fillColor,
+                                               File outputFile,
+                                               @Nullable StitchOptions stitchOptions) {
+        return stitchVerticalToFile(pathList, destWidth, verticalSpacing, fillColor,
+                outputFile, Bitmap.CompressFormat.PNG, 100, stitchOptions);
+    }
+
+    /**
+     * 垂直方向排列，多张图片拼接并保存到本地
+     * 按条带渲染并边渲染边编码，不会创建完整尺寸的 Bitmap，不受完整尺寸 Bitmap 的内存限制
+     *
+     * @param pathList        图片地址列表
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @param outputFile      输出文件
+     * @param format          转换类型，支持 JPEG 和 PNG
+     * @param quality         压缩质量，PNG 忽略该值
+     * @param stitchOptions   可选配置，如条带高度、结果缓存
+     * @return true if successfully
+     */
+    @WorkerThread
+    public static boolean stitchVerticalToFile(List<String> pathList, int destWidth,
+                                               int verticalSpacing, @ColorInt int fillColor,
+                                               File outputFile, Bitmap.CompressFormat format,
+                                               @IntRange(from = 0, to = 100) int quality,
+                                               @Nullable StitchOptions stitchOptions) {
+        if (pathList == null || pathList.isEmpty() || outputFile == null) {
+            return false;
+        }
+        //命中结果缓存时直接复制，不解码也不编码
+        ResultCache resultCache = stitchOptions != null ? stitchOptions.getResultCache() : null;
+        String cacheKey = null;
+        if (resultCache != null) {
+            cacheKey = ResultCache.createKey(pathList, "vertical," + destWidth + ","
+                    + verticalSpacing + "," + fillColor + "," + format + "," + quality + ","
+                    + stitchOptions.isExactDecode() + "," + stitchOptions.isDetectOverlap());
+            if (cacheKey != null && resultCache.copyTo(cacheKey, outputFile)) {
+                return true;
+            }
+        }
+        StripEncoder encoder;
+        if (format == Bitmap.CompressFormat.JPEG) {
+            encoder = new JpegStripEncoder(quality, JpegStripEncoder.SUBSAMPLING_420);
+        } else if (format == Bitmap.CompressFormat.PNG) {
+            encoder = new PngStripEncoder();
+        } else {
+            //WEBP 没有可以逐行写入的编码器
+            return false;
+        }
+        boolean success = stitchVerticalToFile(pathList, destWidth, verticalSpacing, fillColor,
+                outputFile, encoder, stitchOptions);
+        if (success && cacheKey != null) {
+            resultCache.put(cacheKey, outputFile);
+        }
+        return success;
+    }
+
+    /**
+     * 垂直方向排列，多张图片拼接并使用指定的编码器保存到本地
+     * 可以通过 {@link JpegStripEncoder} 设置色度抽样
+     *
+     * @param pathList        图片地址列表
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @param outputFile      输出文件
+     * @param encoder         条带编码器
+     * @param stitchOptions   可选配置，如条带高度
+     * @return true if successfully
+     */
+    @WorkerThread
+    public static boolean stitchVerticalToFile(List<String> pathList, int destWidth,
+                                                int verticalSpacing, @ColorInt int fillColor,
+                                                File outputFile, StripEncoder encoder,
+                                                @Nullable StitchOptions stitchOptions) {
+        if (pathList == null || pathList.isEmpty() || outputFile == null) {
+            return false;
+        }
+        boolean success = false;
+        OutputStream outputStream = null;
+        try {
+            outputStream = new BufferedOutputStream(new FileOutputStream(outputFile));
+            success = StitcherEngine.getDefault().stitchVertical(pathList, destWidth,
+                    verticalSpacing, fillColor, encoder, outputStream, stitchOptions);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    success = false;
+                    e.printStackTrace();
+                }
+            }
+            //失败时删除写了一半的文件
+            if (!success && outputFile.exists()) {
+                outputFile.delete();
+            }
+        }
+        return success;
+    }
+
+    /*
+       ---------- stitch to file area ----------
+     */
+
     /*
        ---------- save bitmap area ----------
      */
@@ -553,6 +1027,161 @@ public class BitmapStitcher {
         return clip(src, x, y, clipSize, clipSize);
     }
 
+    /**
+     * 从文件中裁剪图片，只解码裁剪区域，不需要先解码完整的图片
+     *
+     * @param filePath 图片地址
+     * @param x        x
+     * @param y        y
+     * @param width    clip width
+     * @param height   clip height
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clip(String filePath, int x, int y, int width, int height) {
+        return clip(filePath, x, y, width, height, 0, 0);
+    }
+
+    /**
+     * 从文件中裁剪图片并缩放到指定大小，只按需要的采样率解码裁剪区域
+     *
+     * @param filePath   图片地址
+     * @param x          x
+     * @param y          y
+     * @param width      clip width
+     * @param height     clip height
+     * @param destWidth  输出宽度 <=0 则与裁剪宽度一致
+     * @param destHeight 输出高度 <=0 则与裁剪高度一致
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clip(String filePath, int x, int y, int width, int height,
+                              int destWidth, int destHeight) {
+        return ClipEngine.clip(filePath, x, y, width, height, destWidth, destHeight);
+    }
+
+    /**
+     * 从输入流中裁剪图片并缩放到指定大小，输入流不会被关闭
+     *
+     * @param inputStream 输入流
+     * @param x           x
+     * @param y           y
+     * @param width       clip width
+     * @param height      clip height
+     * @param destWidth   输出宽度 <=0 则与裁剪宽度一致
+     * @param destHeight  输出高度 <=0 则与裁剪高度一致
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clip(InputStream inputStream, int x, int y, int width, int height,
+                              int destWidth, int destHeight) {
+        return ClipEngine.clip(inputStream, x, y, width, height, destWidth, destHeight);
+    }
+
+    /**
+     * 从文件中间位置裁剪图片到指定宽度
+     *
+     * @param filePath 图片地址
+     * @param width    裁剪宽度
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clipXFromCenter(String filePath, int width) {
+        return clipFromCenter(filePath, width, 0);
+    }
+
+    /**
+     * 从文件中间位置裁剪图片到指定高度
+     *
+     * @param filePath 图片地址
+     * @param height   裁剪高度
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clipYFromCenter(String filePath, int height) {
+        return clipFromCenter(filePath, 0, height);
+    }
+
+    /**
+     * 从文件中间位置裁剪图片
+     *
+     * @param filePath 图片地址
+     * @param width    clip width <=0 则为图片宽度
+     * @param height   clip height <=0 则为图片高度
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clipFromCenter(String filePath, int width, int height) {
+        return clipFromCenter(filePath, width, height, 0, 0);
+    }
+
+    /**
+     * 从文件中间位置裁剪图片并缩放到指定大小
+     *
+     * @param filePath   图片地址
+     * @param width      clip width <=0 则为图片宽度
+     * @param height     clip height <=0 则为图片高度
+     * @param destWidth  输出宽度 <=0 则与裁剪宽度一致
+     * @param destHeight 输出高度 <=0 则与裁剪高度一致
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clipFromCenter(String filePath, int width, int height,
+                                        int destWidth, int destHeight) {
+        return ClipEngine.clipFromCenter(filePath, width, height, destWidth, destHeight);
+    }
+
+    /**
+     * 从输入流中间位置裁剪图片并缩放到指定大小，输入流不会被关闭
+     *
+     * @param inputStream 输入流
+     * @param width       clip width <=0 则为图片宽度
+     * @param height      clip height <=0 则为图片高度
+     * @param destWidth   输出宽度 <=0 则与裁剪宽度一致
+     * @param destHeight  输出高度 <=0 则与裁剪高度一致
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clipFromCenter(InputStream inputStream, int width, int height,
+                                        int destWidth, int destHeight) {
+        return ClipEngine.clipFromCenter(inputStream, width, height, destWidth, destHeight);
+    }
+
+    /**
+     * 从文件中裁剪正方形
+     *
+     * @param filePath 图片地址
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clipToSquare(String filePath) {
+        return clipToSquare(filePath, 0);
+    }
+
+    /**
+     * 从文件中裁剪正方形并缩放到指定边长，适合生成封面
+     *
+     * @param filePath 图片地址
+     * @param destSize 输出边长 <=0 则与裁剪边长一致
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clipToSquare(String filePath, int destSize) {
+        return ClipEngine.clipToSquare(filePath, destSize);
+    }
+
+    /**
+     * 从输入流中裁剪正方形并缩放到指定边长，输入流不会被关闭
+     *
+     * @param inputStream 输入流
+     * @param destSize    输出边长 <=0 则与裁剪边长一致
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clipToSquare(InputStream inputStream, int destSize) {
+        return ClipEngine.clipToSquare(inputStream, destSize);
+    }
+
     /**
      * 裁剪 Bitmap 为圆形
      * modified from https://gist.github.com/jewelzqiu/c0633c9f3089677ecf85
@@ -628,9 +1257,10 @@ public class BitmapStitcher {
      */
 
     /**
-     * 清除Bitmap复用缓存
+     * 清除Bitmap复用缓存和图片元信息缓存
      */
     public static void clearCache() {
         ReusableCache.clearBitmap();
+        ImageMetaCache.clearImageMeta();
     }
 }
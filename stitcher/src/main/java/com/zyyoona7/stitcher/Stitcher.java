@@ -0,0 +1,132 @@
+package com.zyyoona7.stitcher;
+
+import android.graphics.Color;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.zyyoona7.stitcher.engine.StitchPlan;
+import com.zyyoona7.stitcher.source.StitchSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 构建可复用的拼接计划
+ * <pre>
+ * StitchPlan plan = Stitcher.vertical().sources(pathList).width(1080).spacing(10).build();
+ * Bitmap preview = plan.execute();
+ * plan.export(file, new JpegStripEncoder(), null);
+ * </pre>
+ */
+public final class Stitcher {
+
+    private Stitcher() {
+    }
+
+    /**
+     * @return 垂直方向排列的构建器
+     */
+    @NonNull
+    public static Builder vertical() {
+        return new Builder(true);
+    }
+
+    /**
+     * @return 水平方向排列的构建器
+     */
+    @NonNull
+    public static Builder horizontal() {
+        return new Builder(false);
+    }
+
+    public static final class Builder {
+        private final boolean mVertical;
+        private final List<String> mSources = new ArrayList<>();
+        @Nullable
+        private List<StitchSource> mSourceList;
+        private int mWidth = BitmapStitcher.SCALE_SMALLER;
+        private int mHeight = BitmapStitcher.SCALE_SMALLER;
+        private int mSpacing;
+        @ColorInt
+        private int mFillColor = Color.TRANSPARENT;
+
+        private Builder(boolean vertical) {
+            mVertical = vertical;
+        }
+
+        @NonNull
+        public Builder sources(@NonNull List<String> pathList) {
+            mSources.clear();
+            mSources.addAll(pathList);
+            mSourceList = null;
+            return this;
+        }
+
+        @NonNull
+        public Builder sources(@NonNull String... paths) {
+            return sources(Arrays.asList(paths));
+        }
+
+        /**
+         * 使用 FileDescriptor、Uri、内存数据等来源，只在测量和执行期间注册，执行拼接期间不要关闭
+         */
+        @NonNull
+        public Builder sources(@NonNull StitchSource... sources) {
+            mSources.clear();
+            mSourceList = new ArrayList<>(Arrays.asList(sources));
+            return this;
+        }
+
+        /**
+         * 垂直排列时的目标宽度，也可以是 {@link BitmapStitcher#SCALE_LARGER} 或
+         * {@link BitmapStitcher#SCALE_SMALLER}，默认 SCALE_SMALLER，水平排列时忽略
+         */
+        @NonNull
+        public Builder width(int width) {
+            mWidth = width;
+            return this;
+        }
+
+        /**
+         * 水平排列时的目标高度，也可以是 {@link BitmapStitcher#SCALE_LARGER} 或
+         * {@link BitmapStitcher#SCALE_SMALLER}，默认 SCALE_SMALLER，垂直排列时忽略
+         */
+        @NonNull
+        public Builder height(int height) {
+            mHeight = height;
+            return this;
+        }
+
+        @NonNull
+        public Builder spacing(int spacing) {
+            mSpacing = spacing;
+            return this;
+        }
+
+        @NonNull
+        public Builder fillColor(@ColorInt int fillColor) {
+            mFillColor = fillColor;
+            return this;
+        }
+
+        /**
+         * 测量尺寸并计算布局，只读取图片的元信息，不解码像素
+         *
+         * @return StitchPlan if null 测量出错
+         */
+        @Nullable
+        @WorkerThread
+        public StitchPlan build() {
+            int destSize = mVertical ? mWidth : mHeight;
+            if (mSourceList != null) {
+                return StitchPlan.createFromSources(mVertical, mSourceList, destSize, mSpacing,
+                        mFillColor);
+            }
+            return StitchPlan.create(mVertical, mSources, destSize, mSpacing, mFillColor);
+        }
+    }
+}
@@ -0,0 +1,557 @@
+package com.zyyoona7.stitcher.encoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 逐行写入的 baseline JPEG 编码器，按 MCU 行（8 或 16 行）攒够就编码并写出熵编码数据
+ * 使用标准量化表和 Huffman 表，支持设置压缩质量和色度抽样，透明通道会被忽略
+ * 参考 ITU-T T.81 和 IJG libjpeg 的浮点 DCT 实现
+ */
+public class JpegStripEncoder implements StripEncoder {
+    //4:4:4 不抽样，MCU 8x8
+    public static final int SUBSAMPLING_444 = 0;
+    //4:2:0 水平和垂直方向都抽样，MCU 16x16
+    public static final int SUBSAMPLING_420 = 1;
+
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    private static final int[] LUMINANCE_QUANT = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+
+    private static final int[] CHROMINANCE_QUANT = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    private static final int[] DC_LUMINANCE_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] DC_LUMINANCE_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private static final int[] DC_CHROMINANCE_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    private static final int[] DC_CHROMINANCE_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+    private static final int[] AC_LUMINANCE_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+    private static final int[] AC_LUMINANCE_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+    private static final int[] AC_CHROMINANCE_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+    private static final int[] AC_CHROMINANCE_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+            0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+
+    //AAN 浮点 DCT 的缩放系数
+    private static final double[] AAN_SCALE_FACTORS = {
+            1.0, 1.387039845, 1.306562965, 1.175875602,
+            1.0, 0.785694958, 0.541196100, 0.275899379
+    };
+
+    private static final int OUTPUT_BUFFER_SIZE = 8 * 1024;
+
+    private final int mQuality;
+    private final int mSubsampling;
+
+    //zigzag 顺序的量化表，写入 DQT
+    private final int[] mLuminanceTable = new int[64];
+    private final int[] mChrominanceTable = new int[64];
+    //自然顺序的量化除数，已包含 DCT 缩放系数
+    private final float[] mLuminanceDivisors = new float[64];
+    private final float[] mChrominanceDivisors = new float[64];
+
+    private final int[] mDcLuminanceCodes = new int[12];
+    private final int[] mDcLuminanceSizes = new int[12];
+    private final int[] mDcChrominanceCodes = new int[12];
+    private final int[] mDcChrominanceSizes = new int[12];
+    private final int[] mAcLuminanceCodes = new int[256];
+    private final int[] mAcLuminanceSizes = new int[256];
+    private final int[] mAcChrominanceCodes = new int[256];
+    private final int[] mAcChrominanceSizes = new int[256];
+
+    private final float[] mBlock = new float[64];
+    private final int[] mQuantized = new int[64];
+
+    private OutputStream mOut;
+    private byte[] mOutputBuffer;
+    private int mOutputLength;
+    private int mBitBuffer;
+    private int mBitCount;
+
+    private int mWidth;
+    private int mHeight;
+    private int mMcuSize;
+    private int mPaddedWidth;
+    private int[] mRowBuffer;
+    private int mBufferedRows;
+    private int mRowsWritten;
+    private float[] mYPlane;
+    private float[] mCbPlane;
+    private float[] mCrPlane;
+    private int mLastDcY;
+    private int mLastDcCb;
+    private int mLastDcCr;
+
+    public JpegStripEncoder() {
+        this(90, SUBSAMPLING_420);
+    }
+
+    /**
+     * @param quality     压缩质量 1-100
+     * @param subsampling 色度抽样 {@link #SUBSAMPLING_444} or {@link #SUBSAMPLING_420}
+     */
+    public JpegStripEncoder(int quality, int subsampling) {
+        mQuality = Math.max(1, Math.min(100, quality));
+        mSubsampling = subsampling == SUBSAMPLING_444 ? SUBSAMPLING_444 : SUBSAMPLING_420;
+        initQuantTables();
+        buildHuffmanTable(DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES, mDcLuminanceCodes, mDcLuminanceSizes);
+        buildHuffmanTable(DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES, mDcChrominanceCodes, mDcChrominanceSizes);
+        buildHuffmanTable(AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES, mAcLuminanceCodes, mAcLuminanceSizes);
+        buildHuffmanTable(AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES, mAcChrominanceCodes, mAcChrominanceSizes);
+    }
+
+    /**
+     * @return MCU 高度，按这个高度的整数倍写入行时不会产生额外的拷贝等待
+     */
+    public int getMcuHeight() {
+        return mSubsampling == SUBSAMPLING_420 ? 16 : 8;
+    }
+
+    @Override
+    public void begin(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0 || width > 65535 || height > 65535) {
+            throw new IllegalArgumentException("invalid size width=" + width + ",height=" + height);
+        }
+        mOut = out;
+        mWidth = width;
+        mHeight = height;
+        mMcuSize = getMcuHeight();
+        mPaddedWidth = (width + mMcuSize - 1) / mMcuSize * mMcuSize;
+        mRowBuffer = new int[width * mMcuSize];
+        mYPlane = new float[mPaddedWidth * mMcuSize];
+        mCbPlane = new float[mPaddedWidth * mMcuSize];
+        mCrPlane = new float[mPaddedWidth * mMcuSize];
+        mBufferedRows = 0;
+        mRowsWritten = 0;
+        mLastDcY = 0;
+        mLastDcCb = 0;
+        mLastDcCr = 0;
+        mOutputBuffer = new byte[OUTPUT_BUFFER_SIZE];
+        mOutputLength = 0;
+        mBitBuffer = 0;
+        mBitCount = 0;
+        writeHeaders();
+    }
+
+    @Override
+    public void writeRows(int[] pixels, int offset, int stride, int rowCount) throws IOException {
+        if (mRowsWritten + rowCount > mHeight) {
+            throw new IllegalStateException("too many rows, height=" + mHeight);
+        }
+        for (int y = 0; y < rowCount; y++) {
+            System.arraycopy(pixels, offset + y * stride, mRowBuffer,
+                    mBufferedRows * mWidth, mWidth);
+            mBufferedRows++;
+            if (mBufferedRows == mMcuSize) {
+                encodeMcuRow();
+                mBufferedRows = 0;
+            }
+        }
+        mRowsWritten += rowCount;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (mRowsWritten != mHeight) {
+            throw new IllegalStateException("rows written " + mRowsWritten
+                    + " not equal to height " + mHeight);
+        }
+        if (mBufferedRows > 0) {
+            //最后不足一个 MCU 的部分重复最后一行补齐
+            int lastRow = (mBufferedRows - 1) * mWidth;
+            for (int y = mBufferedRows; y < mMcuSize; y++) {
+                System.arraycopy(mRowBuffer, lastRow, mRowBuffer, y * mWidth, mWidth);
+            }
+            encodeMcuRow();
+            mBufferedRows = 0;
+        }
+        //用 1 填充剩余的位
+        writeBits(0x7f, 7);
+        flushBuffer();
+        mOut.write(0xff);
+        mOut.write(0xd9);
+        mOut.flush();
+    }
+
+    private void initQuantTables() {
+        int scale = mQuality < 50 ? 5000 / mQuality : 200 - mQuality * 2;
+        for (int i = 0; i < 64; i++) {
+            int natural = ZIGZAG[i];
+            mLuminanceTable[i] = clampQuant((LUMINANCE_QUANT[natural] * scale + 50) / 100);
+            mChrominanceTable[i] = clampQuant((CHROMINANCE_QUANT[natural] * scale + 50) / 100);
+        }
+        for (int i = 0; i < 64; i++) {
+            int natural = ZIGZAG[i];
+            int row = natural >> 3;
+            int col = natural & 7;
+            double factor = AAN_SCALE_FACTORS[row] * AAN_SCALE_FACTORS[col] * 8;
+            mLuminanceDivisors[natural] = (float) (1.0 / (mLuminanceTable[i] * factor));
+            mChrominanceDivisors[natural] = (float) (1.0 / (mChrominanceTable[i] * factor));
+        }
+    }
+
+    private static int clampQuant(int value) {
+        return Math.max(1, Math.min(255, value));
+    }
+
+    private static void buildHuffmanTable(int[] bits, int[] values, int[] codes, int[] sizes) {
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= 16; length++) {
+            for (int i = 0; i < bits[length - 1]; i++) {
+                codes[values[k]] = code;
+                sizes[values[k]] = length;
+                code++;
+                k++;
+            }
+            code <<= 1;
+        }
+    }
+
+    private void writeHeaders() throws IOException {
+        //SOI
+        writeByte(0xff);
+        writeByte(0xd8);
+
+        //APP0 JFIF
+        writeMarker(0xe0, 16);
+        writeByte('J');
+        writeByte('F');
+        writeByte('I');
+        writeByte('F');
+        writeByte(0);
+        writeByte(1);
+        writeByte(1);
+        writeByte(0);
+        writeShort(1);
+        writeShort(1);
+        writeByte(0);
+        writeByte(0);
+
+        //DQT
+        writeMarker(0xdb, 2 + 65 * 2);
+        writeByte(0);
+        for (int i = 0; i < 64; i++) {
+            writeByte(mLuminanceTable[i]);
+        }
+        writeByte(1);
+        for (int i = 0; i < 64; i++) {
+            writeByte(mChrominanceTable[i]);
+        }
+
+        //SOF0
+        int samplingFactor = mSubsampling == SUBSAMPLING_420 ? 0x22 : 0x11;
+        writeMarker(0xc0, 17);
+        writeByte(8);
+        writeShort(mHeight);
+        writeShort(mWidth);
+        writeByte(3);
+        writeByte(1);
+        writeByte(samplingFactor);
+        writeByte(0);
+        writeByte(2);
+        writeByte(0x11);
+        writeByte(1);
+        writeByte(3);
+        writeByte(0x11);
+        writeByte(1);
+
+        //DHT
+        int length = 2 + (17 + DC_LUMINANCE_VALUES.length) + (17 + AC_LUMINANCE_VALUES.length)
+                + (17 + DC_CHROMINANCE_VALUES.length) + (17 + AC_CHROMINANCE_VALUES.length);
+        writeMarker(0xc4, length);
+        writeHuffmanTable(0x00, DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES);
+        writeHuffmanTable(0x10, AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+        writeHuffmanTable(0x01, DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES);
+        writeHuffmanTable(0x11, AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+
+        //SOS
+        writeMarker(0xda, 12);
+        writeByte(3);
+        writeByte(1);
+        writeByte(0x00);
+        writeByte(2);
+        writeByte(0x11);
+        writeByte(3);
+        writeByte(0x11);
+        writeByte(0);
+        writeByte(63);
+        writeByte(0);
+    }
+
+    private void writeHuffmanTable(int tableClassId, int[] bits, int[] values) throws IOException {
+        writeByte(tableClassId);
+        for (int bit : bits) {
+            writeByte(bit);
+        }
+        for (int value : values) {
+            writeByte(value);
+        }
+    }
+
+    private void writeMarker(int marker, int length) throws IOException {
+        writeByte(0xff);
+        writeByte(marker);
+        writeShort(length);
+    }
+
+    private void writeShort(int value) throws IOException {
+        writeByte(value >> 8);
+        writeByte(value);
+    }
+
+    /**
+     * 把缓存的一个 MCU 行转换成 YCbCr 并编码
+     */
+    private void encodeMcuRow() throws IOException {
+        int size = mMcuSize;
+        for (int y = 0; y < size; y++) {
+            int rowOffset = y * mWidth;
+            int planeOffset = y * mPaddedWidth;
+            for (int x = 0; x < mPaddedWidth; x++) {
+                //右边不足一个 MCU 的部分重复最后一列
+                int color = mRowBuffer[rowOffset + Math.min(x, mWidth - 1)];
+                int r = (color >> 16) & 0xff;
+                int g = (color >> 8) & 0xff;
+                int b = color & 0xff;
+                mYPlane[planeOffset + x] = 0.299f * r + 0.587f * g + 0.114f * b - 128f;
+                mCbPlane[planeOffset + x] = -0.168736f * r - 0.331264f * g + 0.5f * b;
+                mCrPlane[planeOffset + x] = 0.5f * r - 0.418688f * g - 0.081312f * b;
+            }
+        }
+
+        for (int mcuX = 0; mcuX < mPaddedWidth; mcuX += size) {
+            if (mSubsampling == SUBSAMPLING_420) {
+                mLastDcY = encodeBlock(mYPlane, mcuX, 0, mLuminanceDivisors, mLastDcY, true);
+                mLastDcY = encodeBlock(mYPlane, mcuX + 8, 0, mLuminanceDivisors, mLastDcY, true);
+                mLastDcY = encodeBlock(mYPlane, mcuX, 8, mLuminanceDivisors, mLastDcY, true);
+                mLastDcY = encodeBlock(mYPlane, mcuX + 8, 8, mLuminanceDivisors, mLastDcY, true);
+                mLastDcCb = encodeSubsampledBlock(mCbPlane, mcuX, mLastDcCb);
+                mLastDcCr = encodeSubsampledBlock(mCrPlane, mcuX, mLastDcCr);
+            } else {
+                mLastDcY = encodeBlock(mYPlane, mcuX, 0, mLuminanceDivisors, mLastDcY, true);
+                mLastDcCb = encodeBlock(mCbPlane, mcuX, 0, mChrominanceDivisors, mLastDcCb, false);
+                mLastDcCr = encodeBlock(mCrPlane, mcuX, 0, mChrominanceDivisors, mLastDcCr, false);
+            }
+        }
+    }
+
+    private int encodeBlock(float[] plane, int left, int top, float[] divisors,
+                            int lastDc, boolean luminance) throws IOException {
+        float[] block = mBlock;
+        for (int y = 0; y < 8; y++) {
+            System.arraycopy(plane, (top + y) * mPaddedWidth + left, block, y * 8, 8);
+        }
+        return encodeDctBlock(divisors, lastDc, luminance);
+    }
+
+    private int encodeSubsampledBlock(float[] plane, int left, int lastDc) throws IOException {
+        float[] block = mBlock;
+        int stride = mPaddedWidth;
+        for (int y = 0; y < 8; y++) {
+            int offset = (y * 2) * stride + left;
+            for (int x = 0; x < 8; x++) {
+                int index = offset + x * 2;
+                block[y * 8 + x] = (plane[index] + plane[index + 1]
+                        + plane[index + stride] + plane[index + stride + 1]) * 0.25f;
+            }
+        }
+        return encodeDctBlock(mChrominanceDivisors, lastDc, false);
+    }
+
+    private int encodeDctBlock(float[] divisors, int lastDc, boolean luminance) throws IOException {
+        float[] block = mBlock;
+        forwardDct(block);
+        int[] quantized = mQuantized;
+        for (int i = 0; i < 64; i++) {
+            int natural = ZIGZAG[i];
+            quantized[i] = Math.round(block[natural] * divisors[natural]);
+        }
+
+        int[] dcCodes = luminance ? mDcLuminanceCodes : mDcChrominanceCodes;
+        int[] dcSizes = luminance ? mDcLuminanceSizes : mDcChrominanceSizes;
+        int[] acCodes = luminance ? mAcLuminanceCodes : mAcChrominanceCodes;
+        int[] acSizes = luminance ? mAcLuminanceSizes : mAcChrominanceSizes;
+
+        int dc = quantized[0];
+        int diff = dc - lastDc;
+        int category = getCategory(diff);
+        writeBits(dcCodes[category], dcSizes[category]);
+        if (category > 0) {
+            writeBits(getMagnitudeBits(diff, category), category);
+        }
+
+        int run = 0;
+        for (int i = 1; i < 64; i++) {
+            int value = quantized[i];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                //ZRL
+                writeBits(acCodes[0xf0], acSizes[0xf0]);
+                run -= 16;
+            }
+            category = getCategory(value);
+            int symbol = (run << 4) | category;
+            writeBits(acCodes[symbol], acSizes[symbol]);
+            writeBits(getMagnitudeBits(value, category), category);
+            run = 0;
+        }
+        if (run > 0) {
+            //EOB
+            writeBits(acCodes[0x00], acSizes[0x00]);
+        }
+        return dc;
+    }
+
+    private static int getCategory(int value) {
+        int abs = value < 0 ? -value : value;
+        return 32 - Integer.numberOfLeadingZeros(abs);
+    }
+
+    private static int getMagnitudeBits(int value, int category) {
+        return value < 0 ? value + (1 << category) - 1 : value;
+    }
+
+    /**
+     * AAN 浮点前向 DCT，结果未归一化，量化时由 divisors 补偿
+     */
+    private static void forwardDct(float[] data) {
+        for (int pass = 0; pass < 2; pass++) {
+            //第一遍处理行，第二遍处理列
+            int step = pass == 0 ? 1 : 8;
+            int next = pass == 0 ? 8 : 1;
+            for (int i = 0; i < 8; i++) {
+                int p = i * next;
+                float d0 = data[p];
+                float d1 = data[p + step];
+                float d2 = data[p + step * 2];
+                float d3 = data[p + step * 3];
+                float d4 = data[p + step * 4];
+                float d5 = data[p + step * 5];
+                float d6 = data[p + step * 6];
+                float d7 = data[p + step * 7];
+
+                float tmp0 = d0 + d7;
+                float tmp7 = d0 - d7;
+                float tmp1 = d1 + d6;
+                float tmp6 = d1 - d6;
+                float tmp2 = d2 + d5;
+                float tmp5 = d2 - d5;
+                float tmp3 = d3 + d4;
+                float tmp4 = d3 - d4;
+
+                float tmp10 = tmp0 + tmp3;
+                float tmp13 = tmp0 - tmp3;
+                float tmp11 = tmp1 + tmp2;
+                float tmp12 = tmp1 - tmp2;
+
+                data[p] = tmp10 + tmp11;
+                data[p + step * 4] = tmp10 - tmp11;
+
+                float z1 = (tmp12 + tmp13) * 0.707106781f;
+                data[p + step * 2] = tmp13 + z1;
+                data[p + step * 6] = tmp13 - z1;
+
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+
+                float z5 = (tmp10 - tmp12) * 0.382683433f;
+                float z2 = 0.541196100f * tmp10 + z5;
+                float z4 = 1.306562965f * tmp12 + z5;
+                float z3 = tmp11 * 0.707106781f;
+
+                float z11 = tmp7 + z3;
+                float z13 = tmp7 - z3;
+
+                data[p + step * 5] = z13 + z2;
+                data[p + step * 3] = z13 - z2;
+                data[p + step] = z11 + z4;
+                data[p + step * 7] = z11 - z4;
+            }
+        }
+    }
+
+    private void writeBits(int bits, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        mBitBuffer = (mBitBuffer << count) | (bits & ((1 << count) - 1));
+        mBitCount += count;
+        while (mBitCount >= 8) {
+            int b = (mBitBuffer >> (mBitCount - 8)) & 0xff;
+            writeByte(b);
+            //熵编码数据中的 0xFF 需要填充 0x00
+            if (b == 0xff) {
+                writeByte(0);
+            }
+            mBitCount -= 8;
+        }
+    }
+
+    private void writeByte(int value) throws IOException {
+        if (mOutputLength == mOutputBuffer.length) {
+            flushBuffer();
+        }
+        mOutputBuffer[mOutputLength++] = (byte) value;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mOutputLength > 0) {
+            mOut.write(mOutputBuffer, 0, mOutputLength);
+            mOutputLength = 0;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.zyyoona7.stitcher.encoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 逐行写入的 PNG 编码器，8 位 RGBA/RGB，每行使用 Sub 过滤，
+ * 压缩后的数据攒满一个 IDAT 块就写出，内存占用与图片高度无关
+ */
+public class PngStripEncoder implements StripEncoder {
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final byte[] TYPE_IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] TYPE_IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] TYPE_IEND = {'I', 'E', 'N', 'D'};
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int FILTER_SUB = 1;
+    private static final int IDAT_SIZE = 64 * 1024;
+
+    private final boolean mHasAlpha;
+    private final int mCompressionLevel;
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mIntBuffer = new byte[4];
+
+    private OutputStream mOut;
+    private Deflater mDeflater;
+    private byte[] mRowBytes;
+    private byte[] mIdatBuffer;
+    private int mIdatLength;
+    private int mWidth;
+    private int mHeight;
+    private int mRowsWritten;
+
+    public PngStripEncoder() {
+        this(true, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param hasAlpha         是否保留透明通道，false 时输出 RGB
+     * @param compressionLevel Deflater 压缩级别 0-9，-1 为默认
+     */
+    public PngStripEncoder(boolean hasAlpha, int compressionLevel) {
+        mHasAlpha = hasAlpha;
+        mCompressionLevel = compressionLevel;
+    }
+
+    @Override
+    public void begin(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid size width=" + width + ",height=" + height);
+        }
+        mOut = out;
+        mWidth = width;
+        mHeight = height;
+        mRowsWritten = 0;
+        mRowBytes = new byte[1 + width * getBytesPerPixel()];
+        mIdatBuffer = new byte[IDAT_SIZE];
+        mIdatLength = 0;
+        mDeflater = new Deflater(mCompressionLevel);
+
+        out.write(SIGNATURE);
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = 8;
+        ihdr[9] = (byte) (mHasAlpha ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB);
+        //压缩方式、过滤方式、不隔行扫描
+        ihdr[10] = 0;
+        ihdr[11] = 0;
+        ihdr[12] = 0;
+        writeChunk(TYPE_IHDR, ihdr, ihdr.length);
+    }
+
+    @Override
+    public void writeRows(int[] pixels, int offset, int stride, int rowCount) throws IOException {
+        if (mRowsWritten + rowCount > mHeight) {
+            throw new IllegalStateException("too many rows, height=" + mHeight);
+        }
+        int bpp = getBytesPerPixel();
+        byte[] row = mRowBytes;
+        for (int y = 0; y < rowCount; y++) {
+            int index = offset + y * stride;
+            row[0] = FILTER_SUB;
+            int prevR = 0, prevG = 0, prevB = 0, prevA = 0;
+            int pos = 1;
+            for (int x = 0; x < mWidth; x++) {
+                int color = pixels[index + x];
+                int a = color >>> 24;
+                int r = (color >> 16) & 0xff;
+                int g = (color >> 8) & 0xff;
+                int b = color & 0xff;
+                row[pos] = (byte) (r - prevR);
+                row[pos + 1] = (byte) (g - prevG);
+                row[pos + 2] = (byte) (b - prevB);
+                if (bpp == 4) {
+                    row[pos + 3] = (byte) (a - prevA);
+                }
+                prevR = r;
+                prevG = g;
+                prevB = b;
+                prevA = a;
+                pos += bpp;
+            }
+            mDeflater.setInput(row, 0, row.length);
+            while (!mDeflater.needsInput()) {
+                deflate();
+            }
+        }
+        mRowsWritten += rowCount;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        try {
+            if (mRowsWritten != mHeight) {
+                throw new IllegalStateException("rows written " + mRowsWritten
+                        + " not equal to height " + mHeight);
+            }
+            mDeflater.finish();
+            while (!mDeflater.finished()) {
+                deflate();
+            }
+            if (mIdatLength > 0) {
+                writeChunk(TYPE_IDAT, mIdatBuffer, mIdatLength);
+                mIdatLength = 0;
+            }
+            writeChunk(TYPE_IEND, mIdatBuffer, 0);
+            mOut.flush();
+        } finally {
+            mDeflater.end();
+        }
+    }
+
+    private void deflate() throws IOException {
+        int length = mDeflater.deflate(mIdatBuffer, mIdatLength, mIdatBuffer.length - mIdatLength);
+        mIdatLength += length;
+        if (mIdatLength == mIdatBuffer.length) {
+            writeChunk(TYPE_IDAT, mIdatBuffer, mIdatLength);
+            mIdatLength = 0;
+        }
+    }
+
+    private void writeChunk(byte[] type, byte[] data, int length) throws IOException {
+        putInt(mIntBuffer, 0, length);
+        mOut.write(mIntBuffer);
+        mOut.write(type);
+        mOut.write(data, 0, length);
+        mCrc.reset();
+        mCrc.update(type);
+        mCrc.update(data, 0, length);
+        putInt(mIntBuffer, 0, (int) mCrc.getValue());
+        mOut.write(mIntBuffer);
+    }
+
+    private int getBytesPerPixel() {
+        return mHasAlpha ? 4 : 3;
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,35 @@
+package com.zyyoona7.stitcher.encoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 按行写入像素的增量编码器，拼接时按条带渲染后依次写入，不需要完整尺寸的 Bitmap
+ * 像素格式为非预乘的 ARGB int，与 Bitmap#getPixels() 一致
+ */
+public interface StripEncoder {
+
+    /**
+     * 开始编码，写入文件头
+     *
+     * @param out    输出流，编码器不会关闭它
+     * @param width  图片宽度
+     * @param height 图片高度
+     */
+    void begin(OutputStream out, int width, int height) throws IOException;
+
+    /**
+     * 写入若干行像素，行数累计不能超过 begin() 时的高度
+     *
+     * @param pixels   ARGB 像素
+     * @param offset   第一个像素在数组中的偏移
+     * @param stride   每行的像素跨度
+     * @param rowCount 行数
+     */
+    void writeRows(int[] pixels, int offset, int stride, int rowCount) throws IOException;
+
+    /**
+     * 写完所有行后结束编码，写入文件尾并释放编码器资源
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,286 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.source.StitchSource;
+import com.zyyoona7.stitcher.util.ImageMeta;
+import com.zyyoona7.stitcher.util.ImageMetaCache;
+import com.zyyoona7.stitcher.util.StitcherUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 直接从文件或输入流裁剪图片的引擎
+ * 使用 BitmapRegionDecoder 配合 inSampleSize 只解码需要的区域，不需要先解码完整的图片
+ * 裁剪区域都是旋转后（即显示方向）的坐标，内部会根据 EXIF 方向映射到原始图片坐标
+ */
+public class ClipEngine {
+    private static final String TAG = "ClipEngine";
+
+    //按指定的 x、y 裁剪
+    private static final int MODE_RECT = 0;
+    //从中间位置裁剪
+    private static final int MODE_CENTER = 1;
+    //从中间裁剪为正方形
+    private static final int MODE_SQUARE = 2;
+
+    private ClipEngine() {
+    }
+
+    /**
+     * 从文件中裁剪指定区域
+     *
+     * @param filePath   文件路径
+     * @param x          x
+     * @param y          y
+     * @param width      clip width
+     * @param height     clip height
+     * @param destWidth  输出宽度 <=0 则与裁剪宽度一致
+     * @param destHeight 输出高度 <=0 则与裁剪高度一致
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clip(String filePath, int x, int y, int width, int height,
+                              int destWidth, int destHeight) {
+        return clip(filePath, MODE_RECT, x, y, width, height, destWidth, destHeight);
+    }
+
+    /**
+     * 从文件中间位置裁剪
+     *
+     * @param filePath   文件路径
+     * @param width      clip width <=0 则为图片宽度
+     * @param height     clip height <=0 则为图片高度
+     * @param destWidth  输出宽度 <=0 则与裁剪宽度一致
+     * @param destHeight 输出高度 <=0 则与裁剪高度一致
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clipFromCenter(String filePath, int width, int height,
+                                        int destWidth, int destHeight) {
+        return clip(filePath, MODE_CENTER, 0, 0, width, height, destWidth, destHeight);
+    }
+
+    /**
+     * 从文件中间位置裁剪为正方形
+     *
+     * @param filePath 文件路径
+     * @param destSize 输出边长 <=0 则与裁剪边长一致
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clipToSquare(String filePath, int destSize) {
+        return clip(filePath, MODE_SQUARE, 0, 0, 0, 0, destSize, destSize);
+    }
+
+    /**
+     * 从输入流中裁剪指定区域，输入流不会被关闭
+     *
+     * @param inputStream 输入流
+     * @param x           x
+     * @param y           y
+     * @param width       clip width
+     * @param height      clip height
+     * @param destWidth   输出宽度 <=0 则与裁剪宽度一致
+     * @param destHeight  输出高度 <=0 则与裁剪高度一致
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clip(InputStream inputStream, int x, int y, int width, int height,
+                              int destWidth, int destHeight) {
+        return clip(inputStream, MODE_RECT, x, y, width, height, destWidth, destHeight);
+    }
+
+    /**
+     * 从输入流中间位置裁剪，输入流不会被关闭
+     *
+     * @param inputStream 输入流
+     * @param width       clip width <=0 则为图片宽度
+     * @param height      clip height <=0 则为图片高度
+     * @param destWidth   输出宽度 <=0 则与裁剪宽度一致
+     * @param destHeight  输出高度 <=0 则与裁剪高度一致
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clipFromCenter(InputStream inputStream, int width, int height,
+                                        int destWidth, int destHeight) {
+        return clip(inputStream, MODE_CENTER, 0, 0, width, height, destWidth, destHeight);
+    }
+
+    /**
+     * 从输入流中间位置裁剪为正方形，输入流不会被关闭
+     *
+     * @param inputStream 输入流
+     * @param destSize    输出边长 <=0 则与裁剪边长一致
+     * @return bitmap if null 出错
+     */
+    @Nullable
+    public static Bitmap clipToSquare(InputStream inputStream, int destSize) {
+        return clip(inputStream, MODE_SQUARE, 0, 0, 0, 0, destSize, destSize);
+    }
+
+    @Nullable
+    private static Bitmap clip(String filePath, int mode, int x, int y, int width, int height,
+                               int destWidth, int destHeight) {
+        ImageMeta meta = ImageMetaCache.getImageMeta(filePath);
+        if (!meta.isValid()) {
+            return null;
+        }
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = StitchSource.forKey(filePath).newRegionDecoder();
+            return clip(decoder, meta.getDegree(), mode, x, y, width, height,
+                    destWidth, destHeight);
+        } catch (IOException e) {
+            Log.w(TAG, "region decode not supported path=" + filePath, e);
+            return null;
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+        }
+    }
+
+    @Nullable
+    private static Bitmap clip(InputStream inputStream, int mode, int x, int y, int width, int height,
+                               int destWidth, int destHeight) {
+        if (inputStream == null) {
+            return null;
+        }
+        BitmapRegionDecoder decoder = null;
+        try {
+            //BitmapRegionDecoder 本身也会把不可 seek 的流完整读入内存，这里读一次同时用于 EXIF 和解码
+            byte[] data = readFully(inputStream);
+            int degree = StitcherUtils.getBitmapDegree(new ByteArrayInputStream(data));
+            decoder = BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+            return clip(decoder, degree, mode, x, y, width, height, destWidth, destHeight);
+        } catch (IOException e) {
+            Log.w(TAG, "region decode from stream failed.", e);
+            return null;
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+        }
+    }
+
+    @Nullable
+    private static Bitmap clip(@NonNull BitmapRegionDecoder decoder, int degree, int mode,
+                               int x, int y, int width, int height,
+                               int destWidth, int destHeight) {
+        int rawWidth = decoder.getWidth();
+        int rawHeight = decoder.getHeight();
+        boolean swap = degree == 90 || degree == 270;
+        //显示方向的宽高
+        int srcWidth = swap ? rawHeight : rawWidth;
+        int srcHeight = swap ? rawWidth : rawHeight;
+
+        if (mode == MODE_SQUARE) {
+            width = Math.min(srcWidth, srcHeight);
+            height = width;
+        }
+        if (mode != MODE_RECT) {
+            if (width <= 0) {
+                width = srcWidth;
+            }
+            if (height <= 0) {
+                height = srcHeight;
+            }
+            x = (srcWidth - width) / 2;
+            y = (srcHeight - height) / 2;
+        }
+        if (x < 0 || x > srcWidth) {
+            x = 0;
+        }
+        if (y < 0 || y > srcHeight) {
+            y = 0;
+        }
+        //超出范围不裁剪，与 BitmapStitcher#clip(Bitmap...) 保持一致
+        if (width <= 0 || height <= 0 || width > srcWidth || height > srcHeight
+                || x + width > srcWidth || y + height > srcHeight) {
+            x = 0;
+            y = 0;
+            width = srcWidth;
+            height = srcHeight;
+        }
+        if (destWidth <= 0 || destHeight <= 0) {
+            destWidth = width;
+            destHeight = height;
+        }
+
+        Rect region = mapToRawRect(x, y, width, height, rawWidth, rawHeight, degree);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        //用显示方向的尺寸计算采样率，宽高比一致
+        options.outWidth = width;
+        options.outHeight = height;
+        options.inSampleSize = StitcherUtils.calculateInSampleSize(options, destWidth, destHeight);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        Bitmap regionBitmap = decoder.decodeRegion(region, options);
+        if (StitcherUtils.isEmptyBitmap(regionBitmap)) {
+            return null;
+        }
+        if (degree == 0 && regionBitmap.getWidth() == destWidth
+                && regionBitmap.getHeight() == destHeight) {
+            return regionBitmap;
+        }
+
+        //旋转和缩放一次完成，只额外创建输出大小的 bitmap
+        Bitmap output = StitcherEngine.createBitmap(destWidth, destHeight);
+        Canvas canvas = StitcherEngine.createCanvas(output);
+        Paint paint = StitcherEngine.createPaint();
+        Matrix matrix = new Matrix();
+        StitcherUtils.setRotateScaleMatrix(matrix, regionBitmap.getWidth(), regionBitmap.getHeight(),
+                degree, new Rect(0, 0, destWidth, destHeight));
+        try {
+            canvas.drawBitmap(regionBitmap, matrix, paint);
+        } finally {
+            regionBitmap.recycle();
+        }
+        return output;
+    }
+
+    /**
+     * 将显示方向的区域映射为原始图片（传感器方向）的区域
+     */
+    @NonNull
+    static Rect mapToRawRect(int x, int y, int width, int height,
+                             int rawWidth, int rawHeight, int degree) {
+        switch (degree) {
+            case 90:
+                return new Rect(y, rawHeight - x - width, y + height, rawHeight - x);
+            case 180:
+                return new Rect(rawWidth - x - width, rawHeight - y - height,
+                        rawWidth - x, rawHeight - y);
+            case 270:
+                return new Rect(rawWidth - y - height, x, rawWidth - y, x + width);
+            default:
+                return new Rect(x, y, x + width, y + height);
+        }
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(
+                Math.max(inputStream.available(), 32 * 1024));
+        byte[] buffer = new byte[16 * 1024];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, length);
+        }
+        return outputStream.toByteArray();
+    }
+}
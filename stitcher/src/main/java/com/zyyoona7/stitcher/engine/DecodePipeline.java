@@ -0,0 +1,217 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.raster.AndroidRasterBackend;
+import com.zyyoona7.stitcher.raster.RasterBackend;
+import com.zyyoona7.stitcher.raster.RasterStitcher;
+import com.zyyoona7.stitcher.util.ImageMetaCache;
+import com.zyyoona7.stitcher.util.ReusableCache;
+import com.zyyoona7.stitcher.util.StitcherUtils;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多张图片拼接的预解码流水线
+ * 工作线程按顺序提前解码图片，调用线程按顺序取出绘制，
+ * 已解码但还未绘制完成的 Bitmap 总字节数不超过 maxInFlightBytes
+ * 每个工作线程使用各自的 {@link EngineBackend} 解码，解码参数与调用线程的 RasterStitcher 一致，
+ * 复用缓存和元信息缓存与调用的引擎共用
+ */
+final class DecodePipeline implements RasterStitcher.SourceQueue<Bitmap> {
+    private static final String TAG = "DecodePipeline";
+
+    private static final ExecutorService sExecutor =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "stitcher-decode-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final List<String> mPathList;
+    private final ReusableCache mCache;
+    private final ImageMetaCache mMetaCache;
+    //每张图片探测得到的信息和解码的目标尺寸
+    private final int[] mMetas;
+    private final int[] mReqSizes;
+    private final boolean mExactDecode;
+    private final long[] mByteCounts;
+    private final Bitmap[] mBitmaps;
+    private final boolean[] mDone;
+    private final long mMaxInFlightBytes;
+    @Nullable
+    private final StitchReport mReport;
+
+    private final Object mLock = new Object();
+    private long mInFlightBytes;
+    private int mNextIndex;
+    private boolean mClosed;
+
+    /**
+     * @param stitcher 已经完成探测和布局，按它当前的绘制尺寸解码
+     * @param backend  调用线程的 backend，工作线程使用它的复用缓存和元信息缓存
+     */
+    DecodePipeline(List<String> pathList, RasterStitcher<Bitmap> stitcher,
+                   AndroidRasterBackend backend, boolean exactDecode, long maxInFlightBytes,
+                   @Nullable StitchReport report) {
+        mPathList = pathList;
+        mCache = backend.getCache();
+        mMetaCache = backend.getMetaCache();
+        mReport = report;
+        mExactDecode = exactDecode;
+        mMaxInFlightBytes = maxInFlightBytes;
+        int size = stitcher.getCount();
+        mMetas = new int[size * RasterBackend.META_SIZE];
+        mReqSizes = new int[size * 2];
+        mByteCounts = new long[size];
+        mBitmaps = new Bitmap[size];
+        mDone = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            stitcher.copyMeta(i, mMetas, i * RasterBackend.META_SIZE);
+            mReqSizes[i * 2] = stitcher.getDrawWidth(i);
+            mReqSizes[i * 2 + 1] = stitcher.getDrawHeight(i);
+            mByteCounts[i] = stitcher.estimateDecodeBytes(i, exactDecode);
+        }
+    }
+
+    void start(int threadCount) {
+        int count = Math.min(threadCount, mByteCounts.length);
+        for (int i = 0; i < count; i++) {
+            sExecutor.execute(new DecodeWorker());
+        }
+    }
+
+    /**
+     * 按顺序获取已解码的 Bitmap，未解码完成时阻塞等待
+     * 绘制完成后必须调用 {@link #release(int)}，等待时被中断按取消处理
+     *
+     * @param index 图片下标
+     * @return Bitmap if null 解码失败
+     */
+    @Nullable
+    @Override
+    public Bitmap take(int index) {
+        synchronized (mLock) {
+            try {
+                while (!mDone[index] && !mClosed) {
+                    mLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new OperationCanceledException();
+            }
+            Bitmap bitmap = mBitmaps[index];
+            mBitmaps[index] = null;
+            return bitmap;
+        }
+    }
+
+    /**
+     * 释放图片占用的字节额度，让工作线程继续解码后续图片
+     *
+     * @param index 图片下标
+     */
+    @Override
+    public void release(int index) {
+        synchronized (mLock) {
+            mInFlightBytes -= mByteCounts[index];
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * 结束流水线，未被取出的 Bitmap 放回复用缓存
+     */
+    void close() {
+        synchronized (mLock) {
+            mClosed = true;
+            for (int i = 0; i < mBitmaps.length; i++) {
+                if (mBitmaps[i] != null) {
+                    mCache.put(mBitmaps[i]);
+                    mBitmaps[i] = null;
+                }
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    private boolean canReserve(long byteCount) {
+        //没有在途的 Bitmap 时总是允许，防止单张超过上限时死锁
+        return mInFlightBytes == 0 || mInFlightBytes + byteCount <= mMaxInFlightBytes;
+    }
+
+    static long estimateByteCount(BitmapFactory.Options options) {
+        //多估一行一列，采样时不同格式的取整方式不一样
+        long width = StitcherUtils.getDecodedWidth(options) + 1;
+        long height = StitcherUtils.getDecodedHeight(options) + 1;
+        return width * height * 4;
+    }
+
+    private class DecodeWorker implements Runnable {
+
+        @Override
+        public void run() {
+            EngineBackend backend = new EngineBackend(mCache, mMetaCache);
+            backend.setExactDecode(mExactDecode);
+            backend.setReport(mReport);
+            while (true) {
+                int index;
+                synchronized (mLock) {
+                    //按顺序领取下标并占用额度，保证调用线程等待的那张一定能先被解码
+                    try {
+                        while (!mClosed && mNextIndex < mByteCounts.length
+                                && !canReserve(mByteCounts[mNextIndex])) {
+                            mLock.wait();
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (mClosed || mNextIndex >= mByteCounts.length) {
+                        return;
+                    }
+                    index = mNextIndex++;
+                    mInFlightBytes += mByteCounts[index];
+                }
+
+                Bitmap bitmap = null;
+                try {
+                    //探测失败的图片留空
+                    if (mMetas[index * RasterBackend.META_SIZE] > 0) {
+                        bitmap = backend.decode(mPathList.get(index), mMetas,
+                                index * RasterBackend.META_SIZE, mReqSizes[index * 2],
+                                mReqSizes[index * 2 + 1]);
+                    }
+                } catch (Throwable e) {
+                    Log.w(TAG, "decode bitmap failed path=" + mPathList.get(index), e);
+                }
+
+                synchronized (mLock) {
+                    if (mClosed) {
+                        if (bitmap != null) {
+                            mCache.put(bitmap);
+                        }
+                    } else {
+                        mBitmaps[index] = bitmap;
+                    }
+                    mDone[index] = true;
+                    mLock.notifyAll();
+                }
+            }
+        }
+    }
+}
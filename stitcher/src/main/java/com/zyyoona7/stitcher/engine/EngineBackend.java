@@ -0,0 +1,148 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.raster.AndroidRasterBackend;
+import com.zyyoona7.stitcher.util.ImageMeta;
+import com.zyyoona7.stitcher.util.ImageMetaCache;
+import com.zyyoona7.stitcher.util.ReusableCache;
+import com.zyyoona7.stitcher.util.StitchTrace;
+import com.zyyoona7.stitcher.util.StitcherUtils;
+
+/**
+ * StitcherEngine 使用的 {@link AndroidRasterBackend}，在探测、解码和绘制之外记录统计和 trace，
+ * 并让拼接结果使用 {@link StitchTarget} 持有的 Bitmap
+ * 草稿模式下的预览整体计入 {@link StitchReport.Phase#PREVIEW}，不再单独统计
+ */
+final class EngineBackend extends AndroidRasterBackend {
+    //探测宽高和读取 EXIF 的耗时
+    private final long[] mProbeNanos = new long[2];
+    @Nullable
+    private StitchReport mReport;
+    @Nullable
+    private StitchTarget mTarget;
+
+    EngineBackend(@NonNull ReusableCache cache, @NonNull ImageMetaCache metaCache) {
+        super(cache, metaCache);
+    }
+
+    void setReport(@Nullable StitchReport report) {
+        mReport = report;
+    }
+
+    /**
+     * @param target 之后创建的画布使用它持有的 Bitmap if null 按尺寸创建
+     */
+    void setTarget(@Nullable StitchTarget target) {
+        mTarget = target;
+    }
+
+    @NonNull
+    @Override
+    protected ImageMeta getImageMeta(@NonNull String path) {
+        StitchReport report = mReport;
+        if (report == null) {
+            return super.getImageMeta(path);
+        }
+        ImageMeta meta = getMetaCache().get(path, mProbeNanos);
+        report.addNanos(StitchReport.Phase.PROBE, mProbeNanos[0]);
+        report.addNanos(StitchReport.Phase.EXIF, mProbeNanos[1]);
+        mProbeNanos[0] = 0;
+        mProbeNanos[1] = 0;
+        return meta;
+    }
+
+    @NonNull
+    @Override
+    public Bitmap createSurface(int width, int height) {
+        Bitmap.Config config = getConfig();
+        Bitmap bitmap;
+        boolean allocated = true;
+        if (mTarget != null) {
+            bitmap = mTarget.obtain(width, height, config, getCache());
+            allocated = mTarget.isAllocated();
+        } else {
+            //拼接结果交给调用方，按尺寸创建，不从复用缓存取出可能大很多的 Bitmap
+            bitmap = Bitmap.createBitmap(width, height, config);
+        }
+        StitchReport report = getReport();
+        if (report != null) {
+            report.setConfig(config);
+            if (allocated) {
+                report.onAllocated(StitcherUtils.getAllocationByteCount(bitmap));
+            }
+        }
+        return bitmap;
+    }
+
+    @Nullable
+    @Override
+    public Bitmap decode(@NonNull String path, @NonNull int[] meta, int offset,
+                         int reqWidth, int reqHeight) {
+        StitchReport report = getReport();
+        long start = report != null ? System.nanoTime() : 0;
+        boolean traced = StitchTrace.beginSection(StitchTrace.SECTION_DECODE, report != null);
+        Bitmap bitmap;
+        try {
+            bitmap = super.decode(path, meta, offset, reqWidth, reqHeight);
+        } finally {
+            StitchTrace.endSection(traced);
+        }
+        if (report != null) {
+            report.onDecoded(bitmap, getDecodeOptions().inBitmap, System.nanoTime() - start);
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void draw(@NonNull Bitmap dest, @NonNull Bitmap src, int degree, @NonNull int[] rects,
+                     @Nullable int[] clips, int offset, int offsetY) {
+        StitchReport report = getReport();
+        long start = report != null ? System.nanoTime() : 0;
+        boolean traced = StitchTrace.beginSection(StitchTrace.SECTION_DRAW, report != null);
+        try {
+            super.draw(dest, src, degree, rects, clips, offset, offsetY);
+        } finally {
+            StitchTrace.endSection(traced);
+        }
+        if (report != null) {
+            report.onDrawn(getDrawnPixels(dest, rects, clips, offset, offsetY),
+                    System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void release(@NonNull Bitmap surface) {
+        //StitchTarget 持有的 Bitmap 由它自己管理
+        if (mTarget != null && mTarget.getBitmap() == surface) {
+            return;
+        }
+        super.release(surface);
+    }
+
+    @Nullable
+    private StitchReport getReport() {
+        return isDraft() ? null : mReport;
+    }
+
+    /**
+     * @return 绘制区域、裁剪区域和 dest 相交部分的像素数
+     */
+    private static long getDrawnPixels(Bitmap dest, int[] rects, @Nullable int[] clips,
+                                       int offset, int offsetY) {
+        int left = Math.max(rects[offset], 0);
+        int top = Math.max(rects[offset + 1], offsetY);
+        int right = Math.min(rects[offset + 2], dest.getWidth());
+        int bottom = Math.min(rects[offset + 3], offsetY + dest.getHeight());
+        if (clips != null) {
+            left = Math.max(left, clips[offset]);
+            top = Math.max(top, clips[offset + 1]);
+            right = Math.min(right, clips[offset + 2]);
+            bottom = Math.min(bottom, clips[offset + 3]);
+        }
+        return right > left && bottom > top ? (long) (right - left) * (bottom - top) : 0;
+    }
+}
@@ -0,0 +1,108 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 一次拼接的内存计划，由 {@link MemoryPlanner} 根据预估的峰值内存生成
+ */
+public final class MemoryPlan {
+
+    /**
+     * 拒绝拼接的原因
+     */
+    public enum Reason {
+        //没有拒绝
+        NONE,
+        //尺寸为空
+        EMPTY_SIZE,
+        //目标 Bitmap 字节数超过 int 范围，无法创建
+        OVER_BITMAP_LIMIT,
+        //可用内存不足
+        OUT_OF_MEMORY
+    }
+
+    @Nullable
+    private final Bitmap.Config mConfig;
+    private final float mScale;
+    @NonNull
+    private final Reason mReason;
+    private final long mEstimatedBytes;
+    private final long mAvailableBytes;
+
+    MemoryPlan(@Nullable Bitmap.Config config, float scale, @NonNull Reason reason,
+               long estimatedBytes, long availableBytes) {
+        mConfig = config;
+        mScale = scale;
+        mReason = reason;
+        mEstimatedBytes = estimatedBytes;
+        mAvailableBytes = availableBytes;
+    }
+
+    static MemoryPlan reject(@NonNull Reason reason, long estimatedBytes, long availableBytes) {
+        return new MemoryPlan(null, 0f, reason, estimatedBytes, availableBytes);
+    }
+
+    public boolean isRejected() {
+        return mReason != Reason.NONE;
+    }
+
+    @NonNull
+    public Reason getReason() {
+        return mReason;
+    }
+
+    /**
+     * @return 目标 Bitmap 的 config，被拒绝时为 null
+     */
+    @Nullable
+    public Bitmap.Config getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * @return 目标尺寸的缩放比例，1 表示不缩小
+     */
+    public float getScale() {
+        return mScale;
+    }
+
+    /**
+     * @return 预估的峰值字节数
+     */
+    public long getEstimatedBytes() {
+        return mEstimatedBytes;
+    }
+
+    /**
+     * @return 生成计划时的可用字节数
+     */
+    public long getAvailableBytes() {
+        return mAvailableBytes;
+    }
+
+    /**
+     * 按计划的比例缩放一个长度，如间距，0 仍然是 0
+     */
+    int scale(int value) {
+        if (mScale >= 1f) {
+            return value;
+        }
+        return Math.round(value * mScale);
+    }
+
+    /**
+     * 按计划的比例缩放一个宽或高，至少为 1
+     */
+    int scaleSize(int size) {
+        return Math.max(1, scale(size));
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryPlan{config=" + mConfig + ", scale=" + mScale + ", reason=" + mReason
+                + ", estimatedBytes=" + mEstimatedBytes + ", availableBytes=" + mAvailableBytes + "}";
+    }
+}
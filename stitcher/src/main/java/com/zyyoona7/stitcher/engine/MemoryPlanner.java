@@ -0,0 +1,168 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.util.StitcherUtils;
+
+/**
+ * 拼接前的内存准入控制
+ * 根据目标 Bitmap、解码中的图片以及编码缓冲等预估峰值内存，和当前可用内存比较后
+ * 决定使用的 config、是否缩小，或者带原因拒绝，代替固定的 7000*7000 和 4000*4000 阈值
+ */
+public final class MemoryPlanner {
+    //给界面和其他对象预留的堆内存比例
+    private static final float HEAP_RESERVE_RATIO = 0.1f;
+    //缩小到这个比例以下结果基本不可用，直接拒绝
+    private static final float MIN_SCALE = 0.25f;
+    //Bitmap 的字节数用 int 表示
+    private static final long MAX_BITMAP_BYTES = Integer.MAX_VALUE;
+
+    @Nullable
+    private static volatile Context sContext;
+
+    private MemoryPlanner() {
+    }
+
+    /**
+     * 设置 Context 后可以读取 ActivityManager 的内存信息，不设置时只根据 Runtime 估算
+     *
+     * @param context context
+     */
+    public static void init(@NonNull Context context) {
+        sContext = context.getApplicationContext();
+    }
+
+    /**
+     * @return 应用堆内存上限
+     */
+    public static long getHeapLimit() {
+        long limit = Runtime.getRuntime().maxMemory();
+        ActivityManager am = getActivityManager();
+        if (am != null) {
+            Context context = sContext;
+            boolean largeHeap = context != null
+                    && (context.getApplicationInfo().flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0;
+            long memoryClass = (largeHeap ? am.getLargeMemoryClass() : am.getMemoryClass())
+                    * 1024L * 1024L;
+            if (memoryClass > 0) {
+                limit = Math.min(limit, memoryClass);
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * 当前可以用来分配 Bitmap 的字节数
+     * Android 8.0 开始 Bitmap 像素分配在 native 内存，设置了 Context 时按系统可用内存估算
+     *
+     * @return 字节数
+     */
+    public static long getAvailableBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        long limit = getHeapLimit();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        long available = limit - used - (long) (limit * HEAP_RESERVE_RATIO);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            ActivityManager am = getActivityManager();
+            if (am != null) {
+                ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+                am.getMemoryInfo(memoryInfo);
+                //低于 threshold 系统开始杀进程，只用剩余部分的一半
+                long nativeAvailable = (memoryInfo.availMem - memoryInfo.threshold) / 2;
+                available = Math.max(available, nativeAvailable);
+            }
+        }
+        return Math.max(0, available);
+    }
+
+    /**
+     * 为拼接生成内存计划
+     * 优先 ARGB_8888，放不下时尝试 RGB_565，仍然放不下并且允许缩小时按比例缩小目标尺寸
+     *
+     * @param width          目标宽度
+     * @param height         目标高度
+     * @param transientBytes 拼接过程中同时存在的其他内存，如解码中的图片、缩放用的临时 Bitmap
+     * @param reusableBytes  可以复用的目标 Bitmap 字节数，这部分不需要重新分配
+     * @param stitchOptions  可选配置 if null 使用默认配置
+     * @return 内存计划
+     */
+    @NonNull
+    public static MemoryPlan plan(int width, int height, long transientBytes, long reusableBytes,
+                                  @Nullable StitchOptions stitchOptions) {
+        if (width <= 0 || height <= 0) {
+            return MemoryPlan.reject(MemoryPlan.Reason.EMPTY_SIZE, 0, 0);
+        }
+        long available = getAvailableBytes();
+        long pixelCount = (long) width * height;
+        boolean allowRgb565 = stitchOptions == null || stitchOptions.isAllowRgb565();
+        boolean allowDownscale = stitchOptions != null && stitchOptions.isAllowDownscale();
+
+        Bitmap.Config config = Bitmap.Config.ARGB_8888;
+        long destBytes = pixelCount * StitcherUtils.getBytesPerPixel(config);
+        if (destBytes <= MAX_BITMAP_BYTES
+                && fits(destBytes, transientBytes, reusableBytes, available)) {
+            return new MemoryPlan(config, 1f, MemoryPlan.Reason.NONE,
+                    destBytes + transientBytes, available);
+        }
+        if (allowRgb565) {
+            config = Bitmap.Config.RGB_565;
+            destBytes = pixelCount * StitcherUtils.getBytesPerPixel(config);
+            if (destBytes <= MAX_BITMAP_BYTES
+                    && fits(destBytes, transientBytes, reusableBytes, available)) {
+                return new MemoryPlan(config, 1f, MemoryPlan.Reason.NONE,
+                        destBytes + transientBytes, available);
+            }
+        }
+
+        MemoryPlan.Reason reason = destBytes > MAX_BITMAP_BYTES
+                ? MemoryPlan.Reason.OVER_BITMAP_LIMIT : MemoryPlan.Reason.OUT_OF_MEMORY;
+        if (!allowDownscale) {
+            return MemoryPlan.reject(reason, destBytes + transientBytes, available);
+        }
+        //解码的图片会随目标尺寸一起变小，这里按原大小计算，结果偏保守
+        long destBudget = Math.min(available - transientBytes, MAX_BITMAP_BYTES);
+        float scale = destBudget <= 0 ? 0f : (float) Math.sqrt(destBudget * 1.0 / destBytes);
+        if (scale < MIN_SCALE) {
+            return MemoryPlan.reject(reason, destBytes + transientBytes, available);
+        }
+        return new MemoryPlan(config, scale, MemoryPlan.Reason.NONE,
+                (long) (destBytes * scale * scale) + transientBytes, available);
+    }
+
+    /**
+     * 检查固定大小的峰值内存是否可用，用于不创建完整目标 Bitmap 的流式拼接
+     *
+     * @param peakBytes 峰值字节数
+     * @return 内存计划，config 为 ARGB_8888
+     */
+    @NonNull
+    public static MemoryPlan check(long peakBytes) {
+        long available = getAvailableBytes();
+        if (peakBytes > available) {
+            return MemoryPlan.reject(MemoryPlan.Reason.OUT_OF_MEMORY, peakBytes, available);
+        }
+        return new MemoryPlan(Bitmap.Config.ARGB_8888, 1f, MemoryPlan.Reason.NONE,
+                peakBytes, available);
+    }
+
+    private static boolean fits(long destBytes, long transientBytes, long reusableBytes,
+                                long available) {
+        return Math.max(0, destBytes - reusableBytes) + transientBytes <= available;
+    }
+
+    @Nullable
+    private static ActivityManager getActivityManager() {
+        Context context = sContext;
+        if (context == null) {
+            return null;
+        }
+        return (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    }
+}
@@ -0,0 +1,18 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 拼接预览监听
+ */
+public interface OnStitchPreviewListener {
+
+    /**
+     * 低分辨率的预览绘制完成后回调，之后继续完整尺寸的拼接，在拼接的线程执行
+     *
+     * @param preview 预览 Bitmap，由调用方持有，不会被复用
+     */
+    void onPreview(@NonNull Bitmap preview);
+}
@@ -0,0 +1,15 @@
+package com.zyyoona7.stitcher.engine;
+
+/**
+ * 拼接进度监听
+ */
+public interface OnStitchProgressListener {
+
+    /**
+     * 每张图片绘制完成后回调，在拼接的线程执行
+     *
+     * @param current 已经绘制完成的图片数量
+     * @param total   图片总数
+     */
+    void onProgress(int current, int total);
+}
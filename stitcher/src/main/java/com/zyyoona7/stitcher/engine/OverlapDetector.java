@@ -0,0 +1,117 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.raster.RasterStitcher;
+import com.zyyoona7.stitcher.raster.RowHashMatcher;
+import com.zyyoona7.stitcher.util.ReusableCache;
+import com.zyyoona7.stitcher.util.StitchTrace;
+import com.zyyoona7.stitcher.util.StitcherUtils;
+
+import java.util.List;
+
+/**
+ * 检测相邻滚动截图的重叠区域，计算每张图片绘制时顶部和底部需要裁掉的行数
+ * 每张图片只解码一次并计算行哈希，同时只持有相邻两张的哈希，比较由 {@link RowHashMatcher} 完成
+ */
+final class OverlapDetector {
+    private static final String TAG = "OverlapDetector";
+    //横向每 4 列取一个像素计算亮度
+    private static final int COLUMN_STEP = 4;
+    //每次读取的行数
+    private static final int CHUNK_ROWS = 64;
+    //重叠至少 16 行才认为有效，避免纯色区域误判
+    private static final int MIN_OVERLAP_ROWS = 16;
+    //重叠区域内允许 2% 的行不同
+    private static final float MAX_MISMATCH_RATIO = 0.02f;
+
+    private OverlapDetector() {
+    }
+
+    /**
+     * @param stitcher 已经完成探测，宽高和旋转角度使用探测的结果
+     * @param cache    解码时复用的缓存
+     * @return crops[0][i] 为第 i 张顶部裁掉的行数，crops[1][i] 为底部裁掉的行数，
+     * 都是按 EXIF 旋转后、原始分辨率的行数
+     */
+    static int[][] detect(List<String> pathList, RasterStitcher<?> stitcher, ReusableCache cache,
+                          @Nullable StitchOptions stitchOptions, @Nullable StitchReport report) {
+        int count = stitcher.getCount();
+        int[][] crops = new int[2][count];
+        long start = report != null ? System.nanoTime() : 0;
+        boolean traced = StitchTrace.beginSection(StitchTrace.SECTION_OVERLAP, report != null);
+        try {
+            int[] result = new int[3];
+            int[] buffer = null;
+            long[] prev = null;
+            int prevWidth = 0;
+            int prevRows = 0;
+            for (int i = 0; i < count; i++) {
+                if (stitchOptions != null) {
+                    stitchOptions.throwIfCanceled();
+                }
+                String path = pathList.get(i);
+                int width = stitcher.getSourceWidth(i);
+                int rows = stitcher.getSourceHeight(i);
+                long[] next = null;
+                //旋转过的图片不是截图，不参与检测
+                if (width > 0 && rows > 0 && stitcher.getSourceDegree(i) == 0) {
+                    if (buffer == null || buffer.length < width * CHUNK_ROWS) {
+                        buffer = new int[width * CHUNK_ROWS];
+                    }
+                    next = hashRows(path, width, rows, buffer, cache);
+                }
+                if (prev != null && next != null && prevWidth == width
+                        && RowHashMatcher.match(prev, prevRows, next, rows, MIN_OVERLAP_ROWS,
+                        MAX_MISMATCH_RATIO, result)) {
+                    RowHashMatcher.applyCrops(result, prevRows, rows, crops, i);
+                }
+                prev = next;
+                prevWidth = width;
+                prevRows = rows;
+            }
+        } finally {
+            StitchTrace.endSection(traced);
+        }
+        if (report != null) {
+            report.addNanos(StitchReport.Phase.OVERLAP, System.nanoTime() - start);
+        }
+        return crops;
+    }
+
+    /**
+     * 按原始分辨率解码并计算每一行的哈希
+     *
+     * @return 行哈希 if null 解码失败
+     */
+    @Nullable
+    private static long[] hashRows(String path, int srcWidth, int srcHeight, int[] buffer,
+                                   ReusableCache cache) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = srcWidth;
+        options.outHeight = srcHeight;
+        //只检测没有旋转的图片
+        Bitmap bitmap = StitcherUtils.decodeUnrotatedBitmap(path, options, 0, cache);
+        if (bitmap == null) {
+            Log.w(TAG, "decode failed: " + path);
+            return null;
+        }
+        try {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            long[] hashes = new long[height];
+            for (int row = 0; row < height; row += CHUNK_ROWS) {
+                int rows = Math.min(CHUNK_ROWS, height - row);
+                bitmap.getPixels(buffer, 0, width, 0, row, width, rows);
+                RowHashMatcher.hashRows(buffer, 0, width, width, rows, COLUMN_STEP, hashes, row);
+            }
+            return hashes;
+        } finally {
+            cache.put(bitmap);
+        }
+    }
+}
@@ -1,15 +1,25 @@
 package com.zyyoona7.stitcher.engine;
 
-import android.graphics.BitmapFactory;
+import android.graphics.Bitmap;
 import android.view.View;
 
 import androidx.annotation.NonNull;
 
+import com.zyyoona7.stitcher.raster.AndroidRasterBackend;
+import com.zyyoona7.stitcher.raster.RasterCompositor;
+import com.zyyoona7.stitcher.raster.RasterStitcher;
 import com.zyyoona7.stitcher.size.StitchSize;
+import com.zyyoona7.stitcher.util.ImageMeta;
+import com.zyyoona7.stitcher.util.ImageMetaCache;
+import com.zyyoona7.stitcher.util.ReusableCache;
 import com.zyyoona7.stitcher.util.StitcherUtils;
 
 import java.util.List;
 
+/**
+ * 计算拼接结果的尺寸，探测和布局与 StitcherEngine 使用同一个 {@link RasterStitcher}
+ * 宽高保存在实例持有的 RasterStitcher 中，长度不够时才重新分配；实例不是线程安全的
+ */
 public class SizeEngine {
 
     //缩放策略
@@ -18,7 +28,30 @@ public class SizeEngine {
     //如果 宽/高 大于最小 宽/高 尺寸，则缩放至最小 宽/高 尺寸
     public static final int SCALE_SMALLER = -1;
 
-    private SizeEngine() {
+    //宫格中图片的缩放方式
+    //等比缩放铺满单元格，超出的部分裁掉
+    public static final int CELL_CENTER_CROP = RasterCompositor.CELL_CENTER_CROP;
+    //等比缩放完整显示在单元格中间
+    public static final int CELL_FIT_CENTER = RasterCompositor.CELL_FIT_CENTER;
+
+    private final ImageMetaCache mMetaCache;
+    //只用于探测和布局，不会解码
+    private final RasterStitcher<Bitmap> mStitcher;
+
+    /**
+     * 使用全局的 ImageMetaCache
+     */
+    public SizeEngine() {
+        this(ImageMetaCache.getDefault());
+    }
+
+    /**
+     * @param metaCache 图片元信息的缓存
+     */
+    public SizeEngine(@NonNull ImageMetaCache metaCache) {
+        mMetaCache = metaCache;
+        mStitcher = new RasterStitcher<>(new AndroidRasterBackend(ReusableCache.getDefault(),
+                metaCache));
     }
 
     /**
@@ -31,80 +64,13 @@ public class SizeEngine {
      * @return 测量后的总宽高
      */
     @NonNull
-    public static StitchSize calculateVerticalSize(List<String> pathList, int destWidth, int verticalSpacing) {
-
-        if (pathList == null || pathList.size() == 0) {
-            return new StitchSize(0, 0);
-        }
-
-        //图片列表中宽度最大值和宽度最小值
-        int maxWidth = -1;
-        int minWidth = -1;
-
-        if (destWidth <= SCALE_LARGER) {
-            //找出 最大宽度和最小宽度
-            try {
-                for (String filePath : pathList) {
-                    BitmapFactory.Options options = StitcherUtils.decodeBitmapBounds(filePath);
-                    if (maxWidth == -1) {
-                        maxWidth = options.outWidth;
-                    } else if (options.outWidth > maxWidth) {
-                        maxWidth = options.outWidth;
-                    }
-
-                    if (minWidth == -1) {
-                        minWidth = options.outWidth;
-                    } else if (options.outWidth < minWidth) {
-                        minWidth = options.outWidth;
-                    }
-                }
-            } catch (Exception e) {
-                return new StitchSize(0, 0);
-            }
-        }
-
-        int totalHeight = 0;
-
-        try {
-            for (String filePath : pathList) {
-                BitmapFactory.Options options = StitcherUtils.decodeBitmapBounds(filePath);
-                int width = options.outWidth;
-                int height = options.outHeight;
-                float ratio = height * 1f / width;
-
-                if (destWidth > 0) {
-                    width = destWidth;
-                    height = StitcherUtils.roundFloatToInt(width * ratio);
-                } else if (destWidth == SCALE_LARGER) {
-                    //缩放到最大宽度 比例
-                    if (width < maxWidth) {
-                        width = maxWidth;
-                        height = StitcherUtils.roundFloatToInt(width * ratio);
-                    }
-                } else if (width > minWidth) {
-                    //缩放到最小宽度 比例
-                    width = minWidth;
-                    height = StitcherUtils.roundFloatToInt(width * ratio);
-                }
-
-                totalHeight += height;
-            }
-        } catch (Exception e) {
+    public StitchSize calculateVerticalSize(List<String> pathList, int destWidth, int verticalSpacing) {
+        if (!probe(pathList)) {
             return new StitchSize(0, 0);
         }
-
-        //加上间距
-        if (verticalSpacing > 0) {
-            totalHeight += verticalSpacing * (pathList.size() - 1);
-        }
-
-        int totalWidth = destWidth;
-        if (destWidth == SCALE_LARGER) {
-            totalWidth = maxWidth;
-        } else if (destWidth < 0) {
-            totalWidth = minWidth;
-        }
-        return new StitchSize(totalWidth, totalHeight);
+        //缩放和间距的计算与 StitcherEngine 的布局共用
+        mStitcher.layoutVertical(destWidth, verticalSpacing);
+        return new StitchSize(mStitcher.getWidth(), mStitcher.getHeight());
     }
 
     /**
@@ -117,31 +83,27 @@ public class SizeEngine {
      * @return 测量后的总宽高
      */
     @NonNull
-    public static StitchSize calculateVerticalSize(String filePath, int stitchCount,
-                                                   int destWidth, int verticalSpacing) {
-        if (stitchCount <= 0) {
+    public StitchSize calculateVerticalSize(String filePath, int stitchCount,
+                                            int destWidth, int verticalSpacing) {
+        ImageMeta meta = mMetaCache.get(filePath);
+        if (stitchCount <= 0 || !meta.isValid()) {
             return new StitchSize(0, 0);
         }
-        try {
-            BitmapFactory.Options options = StitcherUtils.decodeBitmapBounds(filePath);
-            int width = options.outWidth;
-            int height = options.outHeight;
-            float ratio = height * 1f / width;
+        int width = meta.getRotatedWidth();
+        int height = meta.getRotatedHeight();
+        float ratio = height * 1f / width;
 
-            if (destWidth > 0) {
-                width = destWidth;
-                height = StitcherUtils.roundFloatToInt(width * ratio);
-            }
-
-            int totalHeight = height * stitchCount + verticalSpacing * (stitchCount - 1);
-            return new StitchSize(destWidth > 0 ? destWidth : width, totalHeight);
-        } catch (Exception e) {
-            return new StitchSize(0, 0);
+        if (destWidth > 0) {
+            width = destWidth;
+            height = StitcherUtils.roundFloatToInt(width * ratio);
         }
+
+        int totalHeight = height * stitchCount + verticalSpacing * (stitchCount - 1);
+        return new StitchSize(width, totalHeight);
     }
 
-    public static StitchSize calculateVerticalSize(View view,int stitchCount,
-                                                   int destWidth, int verticalSpacing){
+    public StitchSize calculateVerticalSize(View view,int stitchCount,
+                                            int destWidth, int verticalSpacing){
         if (stitchCount<=0||view==null) {
             return new StitchSize(0,0);
         }
@@ -168,80 +130,12 @@ public class SizeEngine {
      * @return 测量后的总宽高
      */
     @NonNull
-    public static StitchSize calculateHorizontalSize(List<String> pathList, int destHeight, int horizontalSpacing) {
-
-        if (pathList == null || pathList.size() == 0) {
-            return new StitchSize(0, 0);
-        }
-
-        //图片列表中高度度最大值和宽度最小值
-        int maxHeight = -1;
-        int minHeight = -1;
-
-        if (destHeight <= SCALE_LARGER) {
-            //找出 最大高度和最小高度
-            try {
-                for (String filePath : pathList) {
-                    BitmapFactory.Options options = StitcherUtils.decodeBitmapBounds(filePath);
-                    if (maxHeight == -1) {
-                        maxHeight = options.outHeight;
-                    } else if (options.outHeight > maxHeight) {
-                        maxHeight = options.outHeight;
-                    }
-
-                    if (minHeight == -1) {
-                        minHeight = options.outHeight;
-                    } else if (options.outHeight < minHeight) {
-                        minHeight = options.outHeight;
-                    }
-                }
-            } catch (Exception e) {
-                return new StitchSize(0, 0);
-            }
-        }
-
-        int totalWidth = 0;
-
-        try {
-            for (String filePath : pathList) {
-                BitmapFactory.Options options = StitcherUtils.decodeBitmapBounds(filePath);
-                int width = options.outWidth;
-                int height = options.outHeight;
-                float ratio = width * 1f / height;
-
-                if (destHeight > 0) {
-                    height = destHeight;
-                    width = StitcherUtils.roundFloatToInt(height * ratio);
-                } else if (destHeight == SCALE_LARGER) {
-                    //缩放到最大宽度 比例
-                    if (height < maxHeight) {
-                        height = maxHeight;
-                        width = StitcherUtils.roundFloatToInt(height * ratio);
-                    }
-                } else if (height > minHeight) {
-                    //缩放到最小宽度 比例
-                    height = minHeight;
-                    width = StitcherUtils.roundFloatToInt(height * ratio);
-                }
-
-                totalWidth += width;
-            }
-        } catch (Exception e) {
+    public StitchSize calculateHorizontalSize(List<String> pathList, int destHeight, int horizontalSpacing) {
+        if (!probe(pathList)) {
             return new StitchSize(0, 0);
         }
-
-        //加上间距
-        if (horizontalSpacing > 0) {
-            totalWidth += horizontalSpacing * (pathList.size() - 1);
-        }
-
-        int totalHeight = destHeight;
-        if (destHeight == SCALE_LARGER) {
-            totalHeight = maxHeight;
-        } else if (destHeight < 0) {
-            totalHeight = minHeight;
-        }
-        return new StitchSize(totalWidth, totalHeight);
+        mStitcher.layoutHorizontal(destHeight, horizontalSpacing);
+        return new StitchSize(mStitcher.getWidth(), mStitcher.getHeight());
     }
 
     /**
@@ -254,26 +148,30 @@ public class SizeEngine {
      * @return 测量后的总宽高
      */
     @NonNull
-    public static StitchSize calculateHorizontalSize(String filePath, int stitchCount,
-                                                     int destHeight, int horizontalSpacing) {
-        if (stitchCount <= 0) {
+    public StitchSize calculateHorizontalSize(String filePath, int stitchCount,
+                                              int destHeight, int horizontalSpacing) {
+        ImageMeta meta = mMetaCache.get(filePath);
+        if (stitchCount <= 0 || !meta.isValid()) {
             return new StitchSize(0, 0);
         }
+        int width = meta.getRotatedWidth();
+        int height = meta.getRotatedHeight();
+        float ratio = width * 1f / height;
 
-        try {
-            BitmapFactory.Options options = StitcherUtils.decodeBitmapBounds(filePath);
-            int width = options.outWidth;
-            int height = options.outHeight;
-            float ratio = width * 1f / height;
-
-            if (destHeight > 0) {
-                height = destHeight;
-                width = StitcherUtils.roundFloatToInt(height * ratio);
-            }
-            int totalWidth = width * stitchCount + horizontalSpacing * (stitchCount - 1);
-            return new StitchSize(totalWidth, destHeight > 0 ? destHeight : height);
-        } catch (Exception e) {
-            return new StitchSize(0, 0);
+        if (destHeight > 0) {
+            height = destHeight;
+            width = StitcherUtils.roundFloatToInt(height * ratio);
         }
+        int totalWidth = width * stitchCount + horizontalSpacing * (stitchCount - 1);
+        return new StitchSize(totalWidth, height);
+    }
+
+    /**
+     * 探测每张图片旋转后的宽高，只探测一次，元信息来自 ImageMetaCache
+     *
+     * @return false 列表为空或探测出错
+     */
+    private boolean probe(List<String> pathList) {
+        return pathList != null && mStitcher.probe(pathList);
     }
 }
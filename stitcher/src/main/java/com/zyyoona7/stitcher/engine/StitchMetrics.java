@@ -0,0 +1,17 @@
+package com.zyyoona7.stitcher.engine;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 拼接的性能统计监听，通过 {@link StitchOptions#setMetrics(StitchMetrics)} 设置
+ * 没有设置时不会计时，也不会创建统计对象
+ */
+public interface StitchMetrics {
+
+    /**
+     * 一次拼接结束后回调，在拼接的线程执行
+     *
+     * @param report 这次拼接的统计
+     */
+    void onStitchFinished(@NonNull StitchReport report);
+}
@@ -0,0 +1,325 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.os.CancellationSignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.util.ResultCache;
+
+/**
+ * 拼接的可选配置，不设置时与默认的顺序拼接行为一致
+ */
+public class StitchOptions {
+    //预解码时默认最多同时持有的已解码 Bitmap 字节数
+    public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 32 * 1024 * 1024;
+    //流式拼接时默认的条带高度，16 的倍数便于 JPEG 按 MCU 编码
+    public static final int DEFAULT_STRIP_HEIGHT = 256;
+
+    //预解码线程数，0 表示在调用线程上顺序解码
+    private int mPrefetchThreadCount;
+    private long mMaxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+    private int mStripHeight = DEFAULT_STRIP_HEIGHT;
+    //是否直接解码到目标尺寸
+    private boolean mExactDecode;
+    @Nullable
+    private StitchTarget mStitchTarget;
+    //内存不足时是否允许使用 RGB_565
+    private boolean mAllowRgb565 = true;
+    //内存不足时是否允许缩小目标尺寸
+    private boolean mAllowDownscale;
+    //纵向拼接时是否检测并去掉相邻图片的重叠区域
+    private boolean mDetectOverlap;
+    @Nullable
+    private ResultCache mResultCache;
+    //预览的最大边长，0 表示不生成预览
+    private int mPreviewMaxSize;
+    @Nullable
+    private OnStitchPreviewListener mPreviewListener;
+    @Nullable
+    private CancellationSignal mCancellationSignal;
+    @Nullable
+    private OnStitchProgressListener mProgressListener;
+    @Nullable
+    private StitchMetrics mMetrics;
+
+    public StitchOptions() {
+    }
+
+    /**
+     * 开启多张图片拼接时的预解码
+     * 工作线程提前解码后续的图片，调用线程只负责绘制，输出结果与顺序拼接一致
+     *
+     * @param threadCount 预解码线程数，<=0 表示关闭
+     * @return this
+     */
+    @NonNull
+    public StitchOptions setPrefetchThreadCount(int threadCount) {
+        mPrefetchThreadCount = Math.max(0, threadCount);
+        return this;
+    }
+
+    public int getPrefetchThreadCount() {
+        return mPrefetchThreadCount;
+    }
+
+    /**
+     * 设置预解码时最多同时持有的已解码 Bitmap 字节数（包括正在绘制的那张）
+     * 单张图片超过该值时仍会解码，但此时不会再有其他图片同时解码
+     *
+     * @param maxInFlightBytes 字节数
+     * @return this
+     */
+    @NonNull
+    public StitchOptions setMaxInFlightBytes(long maxInFlightBytes) {
+        mMaxInFlightBytes = Math.max(0, maxInFlightBytes);
+        return this;
+    }
+
+    public long getMaxInFlightBytes() {
+        return mMaxInFlightBytes;
+    }
+
+    /**
+     * 设置流式拼接时每次渲染的条带高度，内存占用为 宽度*条带高度*4 字节
+     *
+     * @param stripHeight 条带高度
+     * @return this
+     */
+    @NonNull
+    public StitchOptions setStripHeight(int stripHeight) {
+        mStripHeight = Math.max(1, stripHeight);
+        return this;
+    }
+
+    public int getStripHeight() {
+        return mStripHeight;
+    }
+
+    /**
+     * 开启精确尺寸解码
+     * 默认只按 2 的幂次采样，绘制时再缩放到目标区域；开启后解码时就缩放到目标尺寸，
+     * 减少解码内存，绘制变为 1:1 拷贝
+     *
+     * @param exactDecode 是否开启
+     * @return this
+     */
+    @NonNull
+    public StitchOptions setExactDecode(boolean exactDecode) {
+        mExactDecode = exactDecode;
+        return this;
+    }
+
+    public boolean isExactDecode() {
+        return mExactDecode;
+    }
+
+    /**
+     * 设置可复用的拼接目标，拼接结果绘制到 target 持有的 Bitmap 上并复用它的 Canvas 和 Paint
+     *
+     * @param stitchTarget 拼接目标 if null 每次创建新的 Bitmap
+     * @return this
+     */
+    @NonNull
+    public StitchOptions setStitchTarget(@Nullable StitchTarget stitchTarget) {
+        mStitchTarget = stitchTarget;
+        return this;
+    }
+
+    @Nullable
+    public StitchTarget getStitchTarget() {
+        return mStitchTarget;
+    }
+
+    /**
+     * 设置 ARGB_8888 的目标 Bitmap 内存不够时是否使用 RGB_565，默认允许
+     *
+     * @param allowRgb565 是否允许
+     * @return this
+     */
+    @NonNull
+    public StitchOptions setAllowRgb565(boolean allowRgb565) {
+        mAllowRgb565 = allowRgb565;
+        return this;
+    }
+
+    public boolean isAllowRgb565() {
+        return mAllowRgb565;
+    }
+
+    /**
+     * 设置内存不够时是否按比例缩小拼接结果，默认不允许，内存不够时拼接失败
+     *
+     * @param allowDownscale 是否允许
+     * @return this
+     * @see MemoryPlanner
+     */
+    @NonNull
+    public StitchOptions setAllowDownscale(boolean allowDownscale) {
+        mAllowDownscale = allowDownscale;
+        return this;
+    }
+
+    public boolean isAllowDownscale() {
+        return mAllowDownscale;
+    }
+
+    /**
+     * 设置纵向拼接时是否检测相邻图片的重叠区域，默认不检测
+     * 适用于连续的滚动截图，会去掉重复的内容以及重复的固定头部、底部，只对未旋转且宽度相同的相邻图片生效
+     * 每张图片会多解码一次用于计算行哈希
+     *
+     * @param detectOverlap 是否检测
+     * @return this
+     */
+    @NonNull
+    public StitchOptions setDetectOverlap(boolean detectOverlap) {
+        mDetectOverlap = detectOverlap;
+        return this;
+    }
+
+    public boolean isDetectOverlap() {
+        return mDetectOverlap;
+    }
+
+    /**
+     * 设置拼接结果的磁盘缓存，拼接到文件时源文件和参数都相同则直接复制缓存的文件
+     *
+     * @param resultCache 磁盘缓存 if null 不使用缓存
+     * @return this
+     */
+    @NonNull
+    public StitchOptions setResultCache(@Nullable ResultCache resultCache) {
+        mResultCache = resultCache;
+        return this;
+    }
+
+    @Nullable
+    public ResultCache getResultCache() {
+        return mResultCache;
+    }
+
+    /**
+     * 设置先生成低分辨率预览再拼接完整尺寸
+     * 预览使用较大的 inSampleSize 和 RGB_565 解码，绘制时不做过滤，完成后立即回调，
+     * 之后的完整拼接复用已经读取的图片元信息，结果与不设置预览时一致
+     *
+     * @param maxSize         预览的最大边长，<=0 表示关闭
+     * @param previewListener 预览回调 if null 关闭
+     * @return this
+     */
+    @NonNull
+    public StitchOptions setPreview(int maxSize, @Nullable OnStitchPreviewListener previewListener) {
+        mPreviewMaxSize = Math.max(0, maxSize);
+        mPreviewListener = previewListener;
+        return this;
+    }
+
+    public int getPreviewMaxSize() {
+        return mPreviewMaxSize;
+    }
+
+    @Nullable
+    public OnStitchPreviewListener getPreviewListener() {
+        return mPreviewListener;
+    }
+
+    /**
+     * 设置取消信号，取消后拼接会在下一次解码或绘制前停止并返回失败，已经占用的 Bitmap 会立即释放
+     * 异步拼接时取消信号同样有效，任务结束前会占用它的 OnCancelListener
+     *
+     * @param cancellationSignal 取消信号
+     * @return this
+     */
+    @NonNull
+    public StitchOptions setCancellationSignal(@Nullable CancellationSignal cancellationSignal) {
+        mCancellationSignal = cancellationSignal;
+        return this;
+    }
+
+    @Nullable
+    public CancellationSignal getCancellationSignal() {
+        return mCancellationSignal;
+    }
+
+    /**
+     * 设置拼接进度监听，在拼接的线程回调
+     *
+     * @param progressListener 进度监听
+     * @return this
+     */
+    @NonNull
+    public StitchOptions setProgressListener(@Nullable OnStitchProgressListener progressListener) {
+        mProgressListener = progressListener;
+        return this;
+    }
+
+    @Nullable
+    public OnStitchProgressListener getProgressListener() {
+        return mProgressListener;
+    }
+
+    /**
+     * 设置性能统计监听，每次拼接结束后回调各阶段耗时、像素数、内存分配和复用缓存命中情况
+     * 不设置时不会计时
+     *
+     * @param metrics 统计监听
+     * @return this
+     */
+    @NonNull
+    public StitchOptions setMetrics(@Nullable StitchMetrics metrics) {
+        mMetrics = metrics;
+        return this;
+    }
+
+    @Nullable
+    public StitchMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * @return 所有配置都相同的副本
+     */
+    @NonNull
+    public StitchOptions copy() {
+        StitchOptions options = new StitchOptions();
+        options.mPrefetchThreadCount = mPrefetchThreadCount;
+        options.mMaxInFlightBytes = mMaxInFlightBytes;
+        options.mStripHeight = mStripHeight;
+        options.mExactDecode = mExactDecode;
+        options.mStitchTarget = mStitchTarget;
+        options.mAllowRgb565 = mAllowRgb565;
+        options.mAllowDownscale = mAllowDownscale;
+        options.mDetectOverlap = mDetectOverlap;
+        options.mResultCache = mResultCache;
+        options.mPreviewMaxSize = mPreviewMaxSize;
+        options.mPreviewListener = mPreviewListener;
+        options.mCancellationSignal = mCancellationSignal;
+        options.mProgressListener = mProgressListener;
+        options.mMetrics = mMetrics;
+        return options;
+    }
+
+    /**
+     * 已经取消时抛出 OperationCanceledException
+     */
+    void throwIfCanceled() {
+        if (mCancellationSignal != null) {
+            mCancellationSignal.throwIfCanceled();
+        }
+    }
+
+    void notifyProgress(int current, int total) {
+        if (mProgressListener != null) {
+            mProgressListener.onProgress(current, total);
+        }
+    }
+
+    boolean isPrefetchEnabled() {
+        return mPrefetchThreadCount > 0;
+    }
+
+    boolean isPreviewEnabled() {
+        return mPreviewMaxSize > 0 && mPreviewListener != null;
+    }
+}
@@ -0,0 +1,306 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.util.Log;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.zyyoona7.stitcher.encoder.StripEncoder;
+import com.zyyoona7.stitcher.size.StitchSize;
+import com.zyyoona7.stitcher.source.StitchSource;
+import com.zyyoona7.stitcher.util.StitcherUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 已经计算好布局的拼接计划，不可变
+ * 尺寸和每张图片的目标位置只计算一次，之后可以多次执行、序列化保存，
+ * 或者在不解码的情况下查询结果占用的内存，适合先预览再导出的场景
+ * 由 StitchSource 创建的计划只在计算和每次执行期间注册来源，序列化后不再持有来源
+ */
+public final class StitchPlan implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String TAG = "StitchPlan";
+
+    private final boolean mVertical;
+    private final String[] mSources;
+    private final int mWidth;
+    private final int mHeight;
+    //每张图片的目标位置，依次为 left, top, right, bottom
+    private final int[] mRects;
+    private final int mSpacing;
+    @ColorInt
+    private final int mFillColor;
+    //执行期间注册的来源 if null 都是文件路径
+    @Nullable
+    private final transient List<StitchSource> mSourceList;
+
+    private StitchPlan(boolean vertical, String[] sources,
+                       @Nullable List<StitchSource> sourceList, int width, int height,
+                       int[] rects, int spacing, @ColorInt int fillColor) {
+        mVertical = vertical;
+        mSources = sources;
+        mSourceList = sourceList;
+        mWidth = width;
+        mHeight = height;
+        mRects = rects;
+        mSpacing = spacing;
+        mFillColor = fillColor;
+    }
+
+    /**
+     * 计算拼接计划
+     *
+     * @param vertical  是否垂直方向排列
+     * @param pathList  图片地址列表
+     * @param destSize  垂直排列时为目标宽度，水平排列时为目标高度
+     * @param spacing   间距
+     * @param fillColor 间距或透明部分的填充颜色
+     * @return StitchPlan if null 测量出错
+     */
+    @Nullable
+    public static StitchPlan create(boolean vertical, List<String> pathList, int destSize,
+                                    int spacing, @ColorInt int fillColor) {
+        return create(vertical, pathList, null, destSize, spacing, fillColor);
+    }
+
+    /**
+     * 计算拼接计划，来源只在计算和之后每次执行期间注册，来源本身仍由调用方关闭
+     *
+     * @param vertical  是否垂直方向排列
+     * @param sources   图片来源列表
+     * @param destSize  垂直排列时为目标宽度，水平排列时为目标高度
+     * @param spacing   间距
+     * @param fillColor 间距或透明部分的填充颜色
+     * @return StitchPlan if null 测量出错
+     */
+    @Nullable
+    public static StitchPlan createFromSources(boolean vertical, List<StitchSource> sources,
+                                               int destSize, int spacing,
+                                               @ColorInt int fillColor) {
+        if (sources == null || sources.isEmpty()) {
+            return null;
+        }
+        List<String> keys = StitchSource.acquire(sources);
+        try {
+            return create(vertical, keys, new ArrayList<>(sources), destSize, spacing,
+                    fillColor);
+        } finally {
+            StitchSource.release(sources);
+        }
+    }
+
+    @Nullable
+    private static StitchPlan create(boolean vertical, List<String> pathList,
+                                     @Nullable List<StitchSource> sourceList, int destSize,
+                                     int spacing, @ColorInt int fillColor) {
+        if (pathList == null || pathList.isEmpty()) {
+            return null;
+        }
+        StitcherEngine engine = StitcherEngine.getDefault();
+        SizeEngine sizeEngine = engine.getSizeEngine();
+        StitchSize size = vertical
+                ? sizeEngine.calculateVerticalSize(pathList, destSize, spacing)
+                : sizeEngine.calculateHorizontalSize(pathList, destSize, spacing);
+        if (size.isEmpty()) {
+            Log.w(TAG, "stitch size error width=" + size.getWidth()
+                    + ",height=" + size.getHeight() + ".");
+            return null;
+        }
+        Rect[] rects = vertical
+                ? engine.layoutVertical(pathList, size, spacing)
+                : engine.layoutHorizontal(pathList, size, spacing);
+        int[] values = new int[rects.length * 4];
+        for (int i = 0; i < rects.length; i++) {
+            values[i * 4] = rects[i].left;
+            values[i * 4 + 1] = rects[i].top;
+            values[i * 4 + 2] = rects[i].right;
+            values[i * 4 + 3] = rects[i].bottom;
+        }
+        return new StitchPlan(vertical, pathList.toArray(new String[pathList.size()]),
+                sourceList, size.getWidth(), size.getHeight(), values, spacing, fillColor);
+    }
+
+    /**
+     * 执行拼接
+     *
+     * @return Bitmap if null 拼接出错
+     */
+    @Nullable
+    @WorkerThread
+    public Bitmap execute() {
+        return execute(null);
+    }
+
+    /**
+     * 执行拼接
+     *
+     * @param stitchOptions 可选配置 if null 使用默认配置
+     * @return Bitmap if null 拼接出错
+     */
+    @Nullable
+    @WorkerThread
+    public Bitmap execute(@Nullable StitchOptions stitchOptions) {
+        List<String> pathList = acquireSources();
+        try {
+            return StitcherEngine.getDefault().stitchLayout(pathList, toRects(),
+                    new StitchSize(mWidth, mHeight), mFillColor, stitchOptions);
+        } finally {
+            releaseSources();
+        }
+    }
+
+    /**
+     * 异步执行拼接，进度通过 {@link StitchOptions#setProgressListener} 在拼接线程回调
+     *
+     * @param executor      执行拼接的线程池 if null 使用默认的单线程
+     * @param stitchOptions 可选配置 if null 使用默认配置
+     * @return 可以取消的任务，结果 if null 拼接出错
+     */
+    @NonNull
+    public StitchTask executeAsync(@Nullable Executor executor,
+                                   @Nullable StitchOptions stitchOptions) {
+        return StitchTask.submit(executor, stitchOptions, new StitchTask.Stitch() {
+            @Override
+            public Bitmap stitch(@NonNull StitchOptions options) {
+                return execute(options);
+            }
+        });
+    }
+
+    /**
+     * 按条带渲染并编码写入输出流，不会创建完整尺寸的 Bitmap
+     *
+     * @param outputStream  输出流，不会被关闭
+     * @param encoder       条带编码器
+     * @param stitchOptions 可选配置，如条带高度
+     * @return true if successfully
+     */
+    @WorkerThread
+    public boolean export(@NonNull OutputStream outputStream, @NonNull StripEncoder encoder,
+                          @Nullable StitchOptions stitchOptions) {
+        List<String> pathList = acquireSources();
+        try {
+            return StitcherEngine.getDefault().encodeLayout(pathList, toRects(),
+                    new StitchSize(mWidth, mHeight), mFillColor, encoder, outputStream,
+                    stitchOptions);
+        } finally {
+            releaseSources();
+        }
+    }
+
+    /**
+     * 按条带渲染并编码写入文件，失败时删除写了一半的文件
+     *
+     * @param outputFile    输出文件
+     * @param encoder       条带编码器
+     * @param stitchOptions 可选配置，如条带高度
+     * @return true if successfully
+     */
+    @WorkerThread
+    public boolean export(@NonNull File outputFile, @NonNull StripEncoder encoder,
+                          @Nullable StitchOptions stitchOptions) {
+        boolean success = false;
+        OutputStream outputStream = null;
+        try {
+            outputStream = new BufferedOutputStream(new FileOutputStream(outputFile));
+            success = export(outputStream, encoder, stitchOptions);
+        } catch (IOException e) {
+            Log.w(TAG, "export failed.", e);
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    success = false;
+                }
+            }
+            if (!success && outputFile.exists()) {
+                outputFile.delete();
+            }
+        }
+        return success;
+    }
+
+    /**
+     * @return 拼接结果为 ARGB_8888 时占用的字节数
+     */
+    public long getExpectedByteCount() {
+        return getExpectedByteCount(Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @param config 结果的 config
+     * @return 拼接结果占用的字节数
+     */
+    public long getExpectedByteCount(@NonNull Bitmap.Config config) {
+        return (long) mWidth * mHeight * StitcherUtils.getBytesPerPixel(config);
+    }
+
+    public boolean isVertical() {
+        return mVertical;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getSpacing() {
+        return mSpacing;
+    }
+
+    @ColorInt
+    public int getFillColor() {
+        return mFillColor;
+    }
+
+    @NonNull
+    public List<String> getSources() {
+        return Collections.unmodifiableList(Arrays.asList(mSources));
+    }
+
+    /**
+     * @return 每张图片的目标位置，依次为 left, top, right, bottom，返回的是副本
+     */
+    @NonNull
+    public int[] getRects() {
+        return mRects.clone();
+    }
+
+    private List<String> acquireSources() {
+        return mSourceList != null ? StitchSource.acquire(mSourceList) : getSources();
+    }
+
+    private void releaseSources() {
+        if (mSourceList != null) {
+            StitchSource.release(mSourceList);
+        }
+    }
+
+    private Rect[] toRects() {
+        Rect[] rects = new Rect[mSources.length];
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = new Rect(mRects[i * 4], mRects[i * 4 + 1],
+                    mRects[i * 4 + 2], mRects[i * 4 + 3]);
+        }
+        return rects;
+    }
+}
@@ -0,0 +1,190 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.util.ReusableCache;
+import com.zyyoona7.stitcher.util.StitcherUtils;
+
+/**
+ * 一次拼接的性能统计
+ * 复用缓存的命中、未命中、回收次数是拼接期间引擎所用缓存计数的差值，其他拼接共用这个缓存时会包含它们的部分
+ */
+public final class StitchReport {
+
+    /**
+     * 拼接的阶段
+     */
+    public enum Phase {
+        //探测图片宽高
+        PROBE,
+        //读取 EXIF 方向
+        EXIF,
+        //解码
+        DECODE,
+        //绘制到目标，多张拼接时旋转通过矩阵在这个阶段完成
+        DRAW,
+        //单张重复拼接时预先旋转、缩放单元格
+        ROTATE,
+        //流式拼接时的编码
+        COMPRESS,
+        //滚动截图的重叠检测
+        OVERLAP,
+        //低分辨率预览，包含预览的解码和绘制
+        PREVIEW
+    }
+
+    private final long mStartNanos = System.nanoTime();
+    private final ReusableCache mCache;
+    private final long mStartPoolHitCount;
+    private final long mStartPoolMissCount;
+    private final long mStartPoolEvictionCount;
+
+    private final long[] mPhaseNanos = new long[Phase.values().length];
+    private long mTotalNanos;
+    private int mSourceCount;
+    private long mDecodedPixels;
+    private long mDrawnPixels;
+    private long mAllocatedBytes;
+    private long mPoolHitCount;
+    private long mPoolMissCount;
+    private long mPoolEvictionCount;
+    @Nullable
+    private Bitmap.Config mConfig;
+    private boolean mSuccess;
+
+    StitchReport(@NonNull ReusableCache cache) {
+        mCache = cache;
+        mStartPoolHitCount = cache.getPoolHitCount();
+        mStartPoolMissCount = cache.getPoolMissCount();
+        mStartPoolEvictionCount = cache.getPoolEvictionCount();
+    }
+
+    synchronized void addNanos(@NonNull Phase phase, long nanos) {
+        mPhaseNanos[phase.ordinal()] += nanos;
+    }
+
+    /**
+     * 记录一次解码，没有复用 inBitmap 时计入新分配的字节数
+     */
+    synchronized void onDecoded(@Nullable Bitmap bitmap, @Nullable Bitmap inBitmap, long nanos) {
+        mPhaseNanos[Phase.DECODE.ordinal()] += nanos;
+        mSourceCount++;
+        if (bitmap == null) {
+            return;
+        }
+        mDecodedPixels += (long) bitmap.getWidth() * bitmap.getHeight();
+        if (bitmap != inBitmap) {
+            mAllocatedBytes += StitcherUtils.getAllocationByteCount(bitmap);
+        }
+    }
+
+    synchronized void onDrawn(long pixels, long nanos) {
+        mPhaseNanos[Phase.DRAW.ordinal()] += nanos;
+        mDrawnPixels += pixels;
+    }
+
+    synchronized void onAllocated(long bytes) {
+        mAllocatedBytes += bytes;
+    }
+
+    synchronized void setConfig(@Nullable Bitmap.Config config) {
+        mConfig = config;
+    }
+
+    synchronized void finish(boolean success) {
+        mSuccess = success;
+        mTotalNanos = System.nanoTime() - mStartNanos;
+        mPoolHitCount = mCache.getPoolHitCount() - mStartPoolHitCount;
+        mPoolMissCount = mCache.getPoolMissCount() - mStartPoolMissCount;
+        mPoolEvictionCount = mCache.getPoolEvictionCount() - mStartPoolEvictionCount;
+    }
+
+    /**
+     * @param phase 阶段
+     * @return 这个阶段的总耗时，单位纳秒
+     */
+    public synchronized long getNanos(@NonNull Phase phase) {
+        return mPhaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return 整个拼接的耗时，单位纳秒
+     */
+    public synchronized long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    /**
+     * @return 解码的图片数量
+     */
+    public synchronized int getSourceCount() {
+        return mSourceCount;
+    }
+
+    /**
+     * @return 解码出的像素数
+     */
+    public synchronized long getDecodedPixels() {
+        return mDecodedPixels;
+    }
+
+    /**
+     * @return 绘制到目标上的像素数，远小于解码像素数时说明采样过多
+     */
+    public synchronized long getDrawnPixels() {
+        return mDrawnPixels;
+    }
+
+    /**
+     * @return 新分配的 Bitmap 和缓冲区字节数，复用的不计入
+     */
+    public synchronized long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    public synchronized long getPoolHitCount() {
+        return mPoolHitCount;
+    }
+
+    public synchronized long getPoolMissCount() {
+        return mPoolMissCount;
+    }
+
+    public synchronized long getPoolEvictionCount() {
+        return mPoolEvictionCount;
+    }
+
+    /**
+     * @return 目标 Bitmap 的 config，流式拼接时为条带的 config
+     */
+    @Nullable
+    public synchronized Bitmap.Config getConfig() {
+        return mConfig;
+    }
+
+    public synchronized boolean isSuccess() {
+        return mSuccess;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("StitchReport{success=").append(mSuccess)
+                .append(", totalMs=").append(mTotalNanos / 1000000f);
+        for (Phase phase : Phase.values()) {
+            builder.append(", ").append(phase.name().toLowerCase()).append("Ms=")
+                    .append(mPhaseNanos[phase.ordinal()] / 1000000f);
+        }
+        return builder.append(", sources=").append(mSourceCount)
+                .append(", decodedPixels=").append(mDecodedPixels)
+                .append(", drawnPixels=").append(mDrawnPixels)
+                .append(", allocatedBytes=").append(mAllocatedBytes)
+                .append(", poolHit=").append(mPoolHitCount)
+                .append(", poolMiss=").append(mPoolMissCount)
+                .append(", poolEviction=").append(mPoolEvictionCount)
+                .append(", config=").append(mConfig)
+                .append('}').toString();
+    }
+}
@@ -0,0 +1,445 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.zyyoona7.stitcher.encoder.StripEncoder;
+import com.zyyoona7.stitcher.raster.RasterCompositor;
+import com.zyyoona7.stitcher.util.ImageMeta;
+import com.zyyoona7.stitcher.util.ImageMetaCache;
+import com.zyyoona7.stitcher.util.ReusableCache;
+import com.zyyoona7.stitcher.util.StitcherUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 垂直方向的增量拼接，适合长截图逐页追加
+ * 每次追加只解码、绘制新的图片，已经拼好的部分按图片分段保存，不会重新解码
+ * 设置了溢出目录时，内存中的分段超过上限后把最早的分段以像素写入文件，
+ * 导出时按行读取，不需要完整尺寸的 Bitmap
+ * 所有方法都是同步的，不再使用时调用 {@link #release()} 释放分段
+ */
+public final class StitchSession {
+    private static final String TAG = "StitchSession";
+    //读写分段时每次处理的行数
+    private static final int CHUNK_ROWS = StitchOptions.DEFAULT_STRIP_HEIGHT;
+
+    private final int mSpacing;
+    @ColorInt
+    private final int mFillColor;
+    @Nullable
+    private final File mSpillDir;
+    private final long mMaxMemoryBytes;
+    private final List<Segment> mSegments = new ArrayList<>();
+    private final Paint mPaint = StitcherEngine.createPaint();
+    private final Matrix mMatrix = new Matrix();
+
+    private int mWidth;
+    private int mHeight;
+    private long mMemoryBytes;
+    private boolean mReleased;
+    //读写分段文件的缓冲
+    private int[] mPixels;
+    private ByteBuffer mByteBuffer;
+
+    private StitchSession(int destWidth, int spacing, @ColorInt int fillColor,
+                          @Nullable File spillDir, long maxMemoryBytes) {
+        mWidth = Math.max(0, destWidth);
+        mSpacing = Math.max(0, spacing);
+        mFillColor = fillColor;
+        mSpillDir = spillDir;
+        mMaxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * 创建只使用内存的会话
+     *
+     * @param destWidth 目标宽度，小于等于 0 时使用第一张图片的宽度
+     * @param spacing   垂直间距
+     * @param fillColor 间距或透明部分的填充颜色
+     */
+    @NonNull
+    public static StitchSession create(int destWidth, int spacing, @ColorInt int fillColor) {
+        return new StitchSession(destWidth, spacing, fillColor, null, Long.MAX_VALUE);
+    }
+
+    /**
+     * 创建可以把分段写入文件的会话
+     *
+     * @param destWidth      目标宽度，小于等于 0 时使用第一张图片的宽度
+     * @param spacing        垂直间距
+     * @param fillColor      间距或透明部分的填充颜色
+     * @param spillDir       分段文件目录
+     * @param maxMemoryBytes 内存中分段的字节数上限，超过后最早的分段写入文件
+     */
+    @NonNull
+    public static StitchSession create(int destWidth, int spacing, @ColorInt int fillColor,
+                                       @NonNull File spillDir, long maxMemoryBytes) {
+        return new StitchSession(destWidth, spacing, fillColor, spillDir,
+                Math.max(0, maxMemoryBytes));
+    }
+
+    /**
+     * 追加一张图片
+     *
+     * @param filePath 图片地址
+     * @return true if successfully
+     */
+    @WorkerThread
+    public boolean append(@NonNull String filePath) {
+        return append(filePath, null);
+    }
+
+    /**
+     * 追加一张图片
+     *
+     * @param filePath      图片地址
+     * @param stitchOptions 可选配置，如精确解码
+     * @return true if successfully
+     */
+    @WorkerThread
+    public synchronized boolean append(@NonNull String filePath,
+                                       @Nullable StitchOptions stitchOptions) {
+        if (mReleased) {
+            Log.w(TAG, "session has been released.");
+            return false;
+        }
+        //元信息只读取一次，解码和绘制都使用它
+        ImageMeta meta = ImageMetaCache.getImageMeta(filePath);
+        BitmapFactory.Options options = StitcherUtils.decodeBitmapBounds(meta);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(TAG, "decode bounds failed: " + filePath);
+            return false;
+        }
+        int width = mWidth > 0 ? mWidth : options.outWidth;
+        int[] size = new int[2];
+        int[] rect = RasterCompositor.layoutVertical(new int[]{options.outWidth},
+                new int[]{options.outHeight}, width, 0, size);
+        int height = size[1];
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = StitcherUtils.calculateInSampleSize(options, width, height);
+        if (stitchOptions != null && stitchOptions.isExactDecode()) {
+            StitcherUtils.calculateExactScale(options, width, height);
+        }
+        long segmentBytes = (long) width * height * 4;
+        MemoryPlan plan = MemoryPlanner.check(segmentBytes
+                + DecodePipeline.estimateByteCount(options));
+        if (plan.isRejected()) {
+            Log.w(TAG, "append rejected by memory plan: " + plan);
+            return false;
+        }
+
+        Bitmap source = StitcherUtils.decodeUnrotatedBitmap(filePath, options,
+                meta.getDegree());
+        if (source == null) {
+            Log.w(TAG, "decode failed: " + filePath);
+            return false;
+        }
+        Bitmap segment = ReusableCache.getBitmap(width, height, Bitmap.Config.ARGB_8888);
+        if (segment == null) {
+            segment = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        try {
+            segment.eraseColor(mFillColor);
+            source.setDensity(Bitmap.DENSITY_NONE);
+            StitcherUtils.drawBitmap(new Canvas(segment), source, meta.getDegree(),
+                    new Rect(rect[0], rect[1], rect[2], rect[3]), mPaint, mMatrix);
+        } finally {
+            ReusableCache.putBitmap(source);
+        }
+
+        mWidth = width;
+        mHeight += (mSegments.isEmpty() ? 0 : mSpacing) + height;
+        mSegments.add(new Segment(segment, height));
+        mMemoryBytes += segmentBytes;
+        spillIfNeeded();
+        return true;
+    }
+
+    /**
+     * 生成当前拼接结果，会话可以继续追加
+     *
+     * @return Bitmap if null 没有图片或内存不足，可以改用 {@link #export}
+     */
+    @Nullable
+    @WorkerThread
+    public synchronized Bitmap toBitmap() {
+        if (mReleased || mSegments.isEmpty()) {
+            return null;
+        }
+        MemoryPlan plan = MemoryPlanner.plan(mWidth, mHeight, 0, 0, null);
+        if (plan.isRejected() || plan.getScale() < 1f) {
+            Log.w(TAG, "toBitmap rejected by memory plan: " + plan);
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(mWidth, mHeight, plan.getConfig());
+        bitmap.eraseColor(mFillColor);
+        Canvas canvas = new Canvas(bitmap);
+        int top = 0;
+        try {
+            for (Segment segment : mSegments) {
+                if (segment.bitmap != null) {
+                    canvas.drawBitmap(segment.bitmap, 0, top, null);
+                } else {
+                    FileChannel channel = new FileInputStream(segment.file).getChannel();
+                    try {
+                        for (int row = 0; row < segment.height; row += CHUNK_ROWS) {
+                            int rows = Math.min(CHUNK_ROWS, segment.height - row);
+                            readRows(channel, rows);
+                            bitmap.setPixels(mPixels, 0, mWidth, 0, top + row, mWidth, rows);
+                        }
+                    } finally {
+                        channel.close();
+                    }
+                }
+                top += segment.height + mSpacing;
+            }
+            return bitmap;
+        } catch (IOException e) {
+            Log.w(TAG, "read segment failed.", e);
+            bitmap.recycle();
+            return null;
+        }
+    }
+
+    /**
+     * 把当前拼接结果编码写入输出流，不会创建完整尺寸的 Bitmap，会话可以继续追加
+     *
+     * @param outputStream 输出流，不会被关闭
+     * @param encoder      条带编码器
+     * @return true if successfully
+     */
+    @WorkerThread
+    public synchronized boolean export(@NonNull OutputStream outputStream,
+                                       @NonNull StripEncoder encoder) {
+        if (mReleased || mSegments.isEmpty()) {
+            return false;
+        }
+        try {
+            encoder.begin(outputStream, mWidth, mHeight);
+            ensureBuffer();
+            for (int i = 0; i < mSegments.size(); i++) {
+                if (i > 0) {
+                    writeSpacing(encoder);
+                }
+                Segment segment = mSegments.get(i);
+                FileChannel channel = segment.file != null
+                        ? new FileInputStream(segment.file).getChannel() : null;
+                try {
+                    for (int row = 0; row < segment.height; row += CHUNK_ROWS) {
+                        int rows = Math.min(CHUNK_ROWS, segment.height - row);
+                        if (channel != null) {
+                            readRows(channel, rows);
+                        } else {
+                            segment.bitmap.getPixels(mPixels, 0, mWidth, 0, row, mWidth, rows);
+                        }
+                        encoder.writeRows(mPixels, 0, mWidth, rows);
+                    }
+                } finally {
+                    if (channel != null) {
+                        channel.close();
+                    }
+                }
+            }
+            encoder.finish();
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "export failed.", e);
+            return false;
+        }
+    }
+
+    /**
+     * 把当前拼接结果编码写入文件，失败时删除写了一半的文件
+     *
+     * @param outputFile 输出文件
+     * @param encoder    条带编码器
+     * @return true if successfully
+     */
+    @WorkerThread
+    public boolean export(@NonNull File outputFile, @NonNull StripEncoder encoder) {
+        boolean success = false;
+        OutputStream outputStream = null;
+        try {
+            outputStream = new BufferedOutputStream(new FileOutputStream(outputFile));
+            success = export(outputStream, encoder);
+        } catch (IOException e) {
+            Log.w(TAG, "export failed.", e);
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    success = false;
+                }
+            }
+            if (!success && outputFile.exists()) {
+                outputFile.delete();
+            }
+        }
+        return success;
+    }
+
+    public synchronized int getWidth() {
+        return mWidth;
+    }
+
+    public synchronized int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return 已经追加的图片数量
+     */
+    public synchronized int getCount() {
+        return mSegments.size();
+    }
+
+    /**
+     * @return 内存中分段占用的字节数
+     */
+    public synchronized long getMemoryBytes() {
+        return mMemoryBytes;
+    }
+
+    /**
+     * 释放所有分段并删除分段文件，之后不能再使用
+     */
+    public synchronized void release() {
+        for (Segment segment : mSegments) {
+            if (segment.bitmap != null) {
+                ReusableCache.putBitmap(segment.bitmap);
+            }
+            if (segment.file != null) {
+                segment.file.delete();
+            }
+        }
+        mSegments.clear();
+        mMemoryBytes = 0;
+        mPixels = null;
+        mByteBuffer = null;
+        mReleased = true;
+    }
+
+    /**
+     * 内存中的分段超过上限时，从最早的开始写入文件，写入失败的继续留在内存中
+     */
+    private void spillIfNeeded() {
+        if (mSpillDir == null) {
+            return;
+        }
+        for (int i = 0; i < mSegments.size() && mMemoryBytes > mMaxMemoryBytes; i++) {
+            Segment segment = mSegments.get(i);
+            if (segment.bitmap == null) {
+                continue;
+            }
+            try {
+                segment.file = writeSegment(segment);
+                mMemoryBytes -= (long) mWidth * segment.height * 4;
+                ReusableCache.putBitmap(segment.bitmap);
+                segment.bitmap = null;
+            } catch (IOException e) {
+                Log.w(TAG, "spill segment failed.", e);
+                return;
+            }
+        }
+    }
+
+    private File writeSegment(Segment segment) throws IOException {
+        if (!mSpillDir.exists()) {
+            mSpillDir.mkdirs();
+        }
+        File file = File.createTempFile("stitch", ".seg", mSpillDir);
+        ensureBuffer();
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        boolean success = false;
+        try {
+            for (int row = 0; row < segment.height; row += CHUNK_ROWS) {
+                int rows = Math.min(CHUNK_ROWS, segment.height - row);
+                segment.bitmap.getPixels(mPixels, 0, mWidth, 0, row, mWidth, rows);
+                mByteBuffer.clear();
+                mByteBuffer.asIntBuffer().put(mPixels, 0, mWidth * rows);
+                mByteBuffer.limit(mWidth * rows * 4);
+                while (mByteBuffer.hasRemaining()) {
+                    channel.write(mByteBuffer);
+                }
+            }
+            success = true;
+        } finally {
+            channel.close();
+            if (!success) {
+                file.delete();
+            }
+        }
+        return file;
+    }
+
+    private void readRows(FileChannel channel, int rows) throws IOException {
+        ensureBuffer();
+        mByteBuffer.clear();
+        mByteBuffer.limit(mWidth * rows * 4);
+        while (mByteBuffer.hasRemaining()) {
+            if (channel.read(mByteBuffer) < 0) {
+                throw new IOException("segment file truncated.");
+            }
+        }
+        mByteBuffer.flip();
+        mByteBuffer.asIntBuffer().get(mPixels, 0, mWidth * rows);
+    }
+
+    private void writeSpacing(StripEncoder encoder) throws IOException {
+        if (mSpacing <= 0) {
+            return;
+        }
+        int rows = Math.min(mSpacing, CHUNK_ROWS);
+        Arrays.fill(mPixels, 0, mWidth * rows, mFillColor);
+        for (int row = 0; row < mSpacing; row += rows) {
+            encoder.writeRows(mPixels, 0, mWidth, Math.min(rows, mSpacing - row));
+        }
+    }
+
+    private void ensureBuffer() {
+        int length = mWidth * CHUNK_ROWS;
+        if (mPixels == null || mPixels.length < length) {
+            mPixels = new int[length];
+            mByteBuffer = ByteBuffer.allocate(length * 4);
+        }
+    }
+
+    /**
+     * 一张图片绘制好的分段，在内存中时 bitmap 不为空，写入文件后 file 不为空
+     */
+    private static final class Segment {
+        @Nullable
+        Bitmap bitmap;
+        @Nullable
+        File file;
+        final int height;
+
+        Segment(@Nullable Bitmap bitmap, int height) {
+            this.bitmap = bitmap;
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.util.ReusableCache;
+import com.zyyoona7.stitcher.util.StitcherUtils;
+
+/**
+ * 可复用的拼接目标，持有目标 Bitmap
+ * 同一个拼接反复执行（如修改间距、填充颜色后重新拼接）时，容量足够就通过 reconfigure() 复用 Bitmap，
+ * 稳定状态下每次拼接不再分配大块内存
+ * <p>
+ * 拼接返回的 Bitmap 就是 {@link #getBitmap()}，下次拼接会覆盖它的内容，不要回收它；
+ * 不再使用时调用 {@link #release()}。不是线程安全的，一个实例同一时间只能用于一次拼接
+ */
+public class StitchTarget {
+
+    @Nullable
+    private Bitmap mBitmap;
+    //最近一次 obtain 使用的复用缓存，release 时放回这里
+    private ReusableCache mCache = ReusableCache.getDefault();
+    //最近一次 obtain 是否新创建了 Bitmap
+    private boolean mAllocated;
+
+    public StitchTarget() {
+    }
+
+    /**
+     * @param bitmap 调用方提供的目标 Bitmap，必须是可变的；容量不够时会被放回复用缓存并替换
+     */
+    public StitchTarget(@Nullable Bitmap bitmap) {
+        mBitmap = bitmap;
+    }
+
+    /**
+     * 获取指定尺寸的目标 Bitmap，并清空为透明
+     * 优先 reconfigure 当前的 Bitmap，其次从复用缓存获取，最后才创建新的
+     *
+     * @param cache 拼接引擎使用的复用缓存
+     */
+    @NonNull
+    Bitmap obtain(int width, int height, Bitmap.Config config, @NonNull ReusableCache cache) {
+        mCache = cache;
+        Bitmap bitmap = mBitmap;
+        if (bitmap != null && !canReconfigure(bitmap, width, height, config)) {
+            cache.put(bitmap);
+            bitmap = null;
+        }
+        if (bitmap == null) {
+            bitmap = cache.get(width, height, config);
+        }
+        if (bitmap != null && (bitmap.getWidth() != width || bitmap.getHeight() != height
+                || bitmap.getConfig() != config)) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                bitmap.reconfigure(width, height, config);
+            } else {
+                //KitKat 之前不能 reconfigure，canReconfigure 和复用缓存的分组保证不会走到这里
+                cache.put(bitmap);
+                bitmap = null;
+            }
+        }
+        mAllocated = bitmap == null;
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+        }
+        mBitmap = bitmap;
+        return bitmap;
+    }
+
+    boolean isAllocated() {
+        return mAllocated;
+    }
+
+    /**
+     * @return 当前持有的 Bitmap 可以复用的字节数
+     */
+    long getReusableBytes() {
+        Bitmap bitmap = mBitmap;
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return 0;
+        }
+        return StitcherUtils.getAllocationByteCount(bitmap);
+    }
+
+    /**
+     * @return 最近一次拼接的结果
+     */
+    @Nullable
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /**
+     * 释放目标 Bitmap，放回复用缓存
+     */
+    public void release() {
+        if (mBitmap != null) {
+            mCache.put(mBitmap);
+            mBitmap = null;
+        }
+    }
+
+    private static boolean canReconfigure(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        if (bitmap.isRecycled() || !bitmap.isMutable()) {
+            return false;
+        }
+        if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                && bitmap.getConfig() == config) {
+            return true;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return false;
+        }
+        long byteCount = (long) width * height * StitcherUtils.getBytesPerPixel(config);
+        return byteCount <= StitcherUtils.getAllocationByteCount(bitmap);
+    }
+}
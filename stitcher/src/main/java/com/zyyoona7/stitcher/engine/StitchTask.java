@@ -0,0 +1,119 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.util.ReusableCache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 异步拼接任务，可以通过 {@link #cancel(boolean)} 取消
+ * 取消后拼接在下一次解码或绘制前停止，已经占用的 Bitmap 立即放回复用缓存，{@link #get()} 抛出 CancellationException
+ */
+public final class StitchTask extends FutureTask<Bitmap> {
+
+    private final CancellationSignal mCancellationSignal;
+    @Nullable
+    private final StitchTarget mStitchTarget;
+    //调用方在配置中设置的取消信号，任务结束后解除关联
+    @Nullable
+    private final CancellationSignal mCallerSignal;
+
+    private StitchTask(Callable<Bitmap> callable, CancellationSignal cancellationSignal,
+                       @Nullable StitchTarget stitchTarget,
+                       @Nullable CancellationSignal callerSignal) {
+        super(callable);
+        mCancellationSignal = cancellationSignal;
+        mStitchTarget = stitchTarget;
+        mCallerSignal = callerSignal;
+    }
+
+    /**
+     * 在指定的线程池执行拼接
+     *
+     * @param executor      执行拼接的线程池 if null 使用默认的单线程
+     * @param stitchOptions 可选配置，会复制一份并替换为任务自己的取消信号；
+     *                      其中调用方的取消信号取消时任务也会取消，任务结束前会占用它的 OnCancelListener
+     * @param stitch        拼接操作，传入的是复制后的配置
+     * @return 已经提交的任务
+     */
+    @NonNull
+    static StitchTask submit(@Nullable Executor executor, @Nullable StitchOptions stitchOptions,
+                             @NonNull final Stitch stitch) {
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        CancellationSignal callerSignal = stitchOptions != null
+                ? stitchOptions.getCancellationSignal() : null;
+        final StitchOptions options = (stitchOptions != null ? stitchOptions.copy()
+                : new StitchOptions()).setCancellationSignal(cancellationSignal);
+        final StitchTask task = new StitchTask(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return stitch.stitch(options);
+            }
+        }, cancellationSignal, options.getStitchTarget(), callerSignal);
+        if (callerSignal != null) {
+            //已经取消时会立即回调，任务不会再执行拼接
+            callerSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    task.cancel(false);
+                }
+            });
+        }
+        (executor != null ? executor : DefaultExecutorHolder.EXECUTOR).execute(task);
+        return task;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        mCancellationSignal.cancel();
+        return super.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    protected void done() {
+        //解除关联，调用方的信号不再持有任务
+        if (mCallerSignal != null) {
+            mCallerSignal.setOnCancelListener(null);
+        }
+    }
+
+    @Override
+    protected void set(Bitmap bitmap) {
+        super.set(bitmap);
+        //拼接完成前被取消，结果不会再被取走
+        if (isCancelled() && bitmap != null && mStitchTarget == null) {
+            ReusableCache.putBitmap(bitmap);
+        }
+    }
+
+    /**
+     * 在任务线程执行的拼接操作
+     */
+    interface Stitch {
+
+        @Nullable
+        Bitmap stitch(@NonNull StitchOptions stitchOptions);
+    }
+
+    private static class DefaultExecutorHolder {
+        private static final ExecutorService EXECUTOR =
+                Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable r) {
+                        Thread thread = new Thread(r, "stitcher-task");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
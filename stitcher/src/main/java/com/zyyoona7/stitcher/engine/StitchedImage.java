@@ -0,0 +1,379 @@
+package com.zyyoona7.stitcher.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.zyyoona7.stitcher.raster.RasterCompositor;
+import com.zyyoona7.stitcher.size.StitchSize;
+import com.zyyoona7.stitcher.source.StitchSource;
+import com.zyyoona7.stitcher.util.ImageMeta;
+import com.zyyoona7.stitcher.util.ImageMetaCache;
+import com.zyyoona7.stitcher.util.ReusableCache;
+import com.zyyoona7.stitcher.util.StitcherUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按布局按需渲染的拼接图，不会创建完整尺寸的 Bitmap
+ * 每次只渲染可见区域，与可见区域相交的图片按可见的缩放比例分块解码，
+ * 支持区域解码时使用 BitmapRegionDecoder 只解码相交的块，否则整张按采样率解码
+ * 解码的块放在 LRU 缓存中，滚动时相邻区域不需要重新解码，内存占用只与可见区域和缓存上限有关
+ * 所有方法都是同步的，不再使用时调用 {@link #release()} 释放缓存
+ */
+public final class StitchedImage {
+    private static final String TAG = "StitchedImage";
+    //默认最多缓存的块的字节数
+    public static final int DEFAULT_MAX_TILE_BYTES = 16 * 1024 * 1024;
+    //块的边长，按解码后的像素计算
+    private static final int TILE_SIZE = 512;
+    //同时打开的 BitmapRegionDecoder 数量
+    private static final int MAX_DECODERS = 4;
+
+    private final List<String> mPathList;
+    private final Rect[] mRects;
+    private final int mWidth;
+    private final int mHeight;
+    @ColorInt
+    private final int mFillColor;
+    private final LruCache<String, Bitmap> mTiles;
+    private final LruCache<Integer, BitmapRegionDecoder> mDecoders;
+    //不支持区域解码的图片，整张解码
+    private final boolean[] mRegionUnsupported;
+    private final Paint mPaint = StitcherEngine.createPaint();
+    private final Matrix mMatrix = new Matrix();
+    private final Rect mDest = new Rect();
+    private boolean mReleased;
+
+    private StitchedImage(List<String> pathList, Rect[] rects, StitchSize size,
+                          @ColorInt int fillColor, int maxTileBytes) {
+        mPathList = new ArrayList<>(pathList);
+        mRects = rects;
+        mWidth = size.getWidth();
+        mHeight = size.getHeight();
+        mFillColor = fillColor;
+        mRegionUnsupported = new boolean[rects.length];
+        mTiles = new LruCache<String, Bitmap>(Math.max(1, maxTileBytes)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return StitcherUtils.getAllocationByteCount(value);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                                        Bitmap newValue) {
+                if (oldValue != newValue) {
+                    ReusableCache.putBitmap(oldValue);
+                }
+            }
+        };
+        mDecoders = new LruCache<Integer, BitmapRegionDecoder>(MAX_DECODERS) {
+            @Override
+            protected void entryRemoved(boolean evicted, Integer key,
+                                        BitmapRegionDecoder oldValue,
+                                        BitmapRegionDecoder newValue) {
+                if (oldValue != newValue) {
+                    oldValue.recycle();
+                }
+            }
+        };
+    }
+
+    /**
+     * 垂直方向排列，布局与 {@link StitcherEngine#stitchVertical(List, int, int, int)} 一致
+     *
+     * @param pathList        图片地址列表
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @return StitchedImage if null 尺寸出错
+     */
+    @Nullable
+    public static StitchedImage vertical(List<String> pathList, int destWidth,
+                                         int verticalSpacing, @ColorInt int fillColor) {
+        return vertical(pathList, destWidth, verticalSpacing, fillColor, DEFAULT_MAX_TILE_BYTES);
+    }
+
+    /**
+     * 垂直方向排列，布局与 {@link StitcherEngine#stitchVertical(List, int, int, int)} 一致
+     *
+     * @param pathList        图片地址列表
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @param maxTileBytes    最多缓存的块的字节数
+     * @return StitchedImage if null 尺寸出错
+     */
+    @Nullable
+    public static StitchedImage vertical(List<String> pathList, int destWidth,
+                                         int verticalSpacing, @ColorInt int fillColor,
+                                         int maxTileBytes) {
+        StitcherEngine engine = StitcherEngine.getDefault();
+        StitchSize size = engine.getSizeEngine().calculateVerticalSize(pathList, destWidth,
+                verticalSpacing);
+        if (size.isEmpty()) {
+            Log.w(TAG, "stitch size error width=" + size.getWidth()
+                    + ",height=" + size.getHeight() + ".");
+            return null;
+        }
+        return new StitchedImage(pathList,
+                engine.layoutVertical(pathList, size, verticalSpacing), size,
+                fillColor, maxTileBytes);
+    }
+
+    /**
+     * 水平方向排列，布局与 {@link StitcherEngine#stitchHorizontal(List, int, int, int)} 一致
+     *
+     * @param pathList          图片地址列表
+     * @param destHeight        目标高度
+     * @param horizontalSpacing 水平间距
+     * @param fillColor         间距或透明部分的填充颜色
+     * @return StitchedImage if null 尺寸出错
+     */
+    @Nullable
+    public static StitchedImage horizontal(List<String> pathList, int destHeight,
+                                           int horizontalSpacing, @ColorInt int fillColor) {
+        return horizontal(pathList, destHeight, horizontalSpacing, fillColor,
+                DEFAULT_MAX_TILE_BYTES);
+    }
+
+    /**
+     * 水平方向排列，布局与 {@link StitcherEngine#stitchHorizontal(List, int, int, int)} 一致
+     *
+     * @param pathList          图片地址列表
+     * @param destHeight        目标高度
+     * @param horizontalSpacing 水平间距
+     * @param fillColor         间距或透明部分的填充颜色
+     * @param maxTileBytes      最多缓存的块的字节数
+     * @return StitchedImage if null 尺寸出错
+     */
+    @Nullable
+    public static StitchedImage horizontal(List<String> pathList, int destHeight,
+                                           int horizontalSpacing, @ColorInt int fillColor,
+                                           int maxTileBytes) {
+        StitcherEngine engine = StitcherEngine.getDefault();
+        StitchSize size = engine.getSizeEngine().calculateHorizontalSize(pathList, destHeight,
+                horizontalSpacing);
+        if (size.isEmpty()) {
+            Log.w(TAG, "stitch size error width=" + size.getWidth()
+                    + ",height=" + size.getHeight() + ".");
+            return null;
+        }
+        return new StitchedImage(pathList,
+                engine.layoutHorizontal(pathList, size, horizontalSpacing), size,
+                fillColor, maxTileBytes);
+    }
+
+    /**
+     * 渲染拼接图的一个区域
+     * into 先用填充色清空，再把 viewport 按 scale 缩放后绘制到 into 的左上角
+     *
+     * @param viewport 拼接图中的区域
+     * @param scale    缩放比例，viewport 的宽高乘以 scale 为绘制到 into 的宽高
+     * @param into     可变的目标 Bitmap
+     * @return true if successfully，有图片解码失败时为 false，其余部分仍会绘制
+     */
+    @WorkerThread
+    public synchronized boolean renderRegion(@NonNull Rect viewport, float scale,
+                                             @NonNull Bitmap into) {
+        if (mReleased) {
+            Log.w(TAG, "image has been released.");
+            return false;
+        }
+        if (viewport.isEmpty() || scale <= 0 || !into.isMutable()) {
+            return false;
+        }
+        into.eraseColor(mFillColor);
+        Canvas canvas = StitcherEngine.createCanvas(into);
+        boolean success = true;
+        for (int i = 0; i < mRects.length; i++) {
+            if (!mRects[i].isEmpty() && Rect.intersects(mRects[i], viewport)
+                    && !renderSource(canvas, i, viewport, scale)) {
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return 当前缓存的块的字节数
+     */
+    public synchronized int getTileCacheBytes() {
+        return mTiles.size();
+    }
+
+    /**
+     * 释放缓存的块和解码器，之后不能再渲染
+     */
+    public synchronized void release() {
+        mReleased = true;
+        mTiles.evictAll();
+        mDecoders.evictAll();
+    }
+
+    /**
+     * 绘制一张图片与 viewport 相交的部分
+     */
+    private boolean renderSource(Canvas canvas, int index, Rect viewport, float scale) {
+        String filePath = mPathList.get(index);
+        ImageMeta meta = ImageMetaCache.getImageMeta(filePath);
+        //显示方向的宽高
+        BitmapFactory.Options bounds = StitcherUtils.decodeBitmapBounds(meta);
+        int srcWidth = bounds.outWidth;
+        int srcHeight = bounds.outHeight;
+        if (srcWidth <= 0 || srcHeight <= 0) {
+            return false;
+        }
+        Rect rect = mRects[index];
+        int sampleSize = StitcherUtils.calculateInSampleSize(bounds,
+                Math.max(1, StitcherUtils.roundFloatToInt(rect.width() * scale)),
+                Math.max(1, StitcherUtils.roundFloatToInt(rect.height() * scale)));
+
+        BitmapRegionDecoder decoder = obtainDecoder(index, filePath);
+        if (decoder == null) {
+            String key = index + ":" + sampleSize;
+            Bitmap bitmap = mTiles.get(key);
+            boolean cached = bitmap != null;
+            if (!cached) {
+                bounds.inJustDecodeBounds = false;
+                bounds.inSampleSize = sampleSize;
+                bitmap = StitcherUtils.decodeUnrotatedBitmap(filePath, bounds, meta.getDegree());
+                if (bitmap == null) {
+                    Log.w(TAG, "decode failed: " + filePath);
+                    return false;
+                }
+            }
+            drawTile(canvas, bitmap, meta.getDegree(), rect, 0, 0, srcWidth, srcHeight,
+                    srcWidth, srcHeight, viewport, scale);
+            //绘制完再放入缓存，超过上限被淘汰时不会影响这次绘制
+            if (!cached) {
+                mTiles.put(key, bitmap);
+            }
+            return true;
+        }
+
+        //可见区域映射到图片（显示方向）的坐标
+        float ratioX = srcWidth / (float) rect.width();
+        float ratioY = srcHeight / (float) rect.height();
+        int left = Math.max(0, (int) ((Math.max(viewport.left, rect.left) - rect.left) * ratioX));
+        int top = Math.max(0, (int) ((Math.max(viewport.top, rect.top) - rect.top) * ratioY));
+        int right = Math.min(srcWidth, (int) Math.ceil(
+                (Math.min(viewport.right, rect.right) - rect.left) * ratioX));
+        int bottom = Math.min(srcHeight, (int) Math.ceil(
+                (Math.min(viewport.bottom, rect.bottom) - rect.top) * ratioY));
+        int span = TILE_SIZE * sampleSize;
+        boolean success = true;
+        for (int tileTop = top / span * span; tileTop < bottom; tileTop += span) {
+            for (int tileLeft = left / span * span; tileLeft < right; tileLeft += span) {
+                int tileRight = Math.min(srcWidth, tileLeft + span);
+                int tileBottom = Math.min(srcHeight, tileTop + span);
+                String key = index + ":" + sampleSize + ":" + tileLeft + ":" + tileTop;
+                Bitmap tile = mTiles.get(key);
+                boolean cached = tile != null;
+                if (!cached) {
+                    tile = decodeTile(decoder, meta.getDegree(), sampleSize,
+                            tileLeft, tileTop, tileRight, tileBottom);
+                    if (tile == null) {
+                        success = false;
+                        continue;
+                    }
+                }
+                drawTile(canvas, tile, meta.getDegree(), rect, tileLeft, tileTop,
+                        tileRight, tileBottom, srcWidth, srcHeight, viewport, scale);
+                if (!cached) {
+                    mTiles.put(key, tile);
+                }
+            }
+        }
+        return success;
+    }
+
+    /**
+     * @return 区域解码器 if null 这张图片不支持区域解码
+     */
+    @Nullable
+    private BitmapRegionDecoder obtainDecoder(int index, String filePath) {
+        if (mRegionUnsupported[index]) {
+            return null;
+        }
+        BitmapRegionDecoder decoder = mDecoders.get(index);
+        if (decoder != null) {
+            return decoder;
+        }
+        try {
+            decoder = StitchSource.forKey(filePath).newRegionDecoder();
+        } catch (IOException e) {
+            Log.w(TAG, "region decode not supported path=" + filePath, e);
+            mRegionUnsupported[index] = true;
+            return null;
+        }
+        mDecoders.put(index, decoder);
+        return decoder;
+    }
+
+    /**
+     * 解码一个块，区域是显示方向的坐标，返回的是未旋转的 bitmap
+     */
+    @Nullable
+    private static Bitmap decodeTile(BitmapRegionDecoder decoder, int degree, int sampleSize,
+                                     int left, int top, int right, int bottom) {
+        Rect region = ClipEngine.mapToRawRect(left, top, right - left, bottom - top,
+                decoder.getWidth(), decoder.getHeight(), degree);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        try {
+            Bitmap tile = decoder.decodeRegion(region, options);
+            if (tile != null) {
+                tile.setDensity(Bitmap.DENSITY_NONE);
+            }
+            return tile;
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "decode region failed: " + region, e);
+            return null;
+        }
+    }
+
+    /**
+     * 把图片中 [left, right) x [top, bottom) 的部分绘制到目标，
+     * 目标坐标统一按 viewport 偏移和 scale 取整，相邻的块和图片不会出现缝隙
+     */
+    private void drawTile(Canvas canvas, Bitmap tile, int degree, Rect rect,
+                          int left, int top, int right, int bottom,
+                          int srcWidth, int srcHeight, Rect viewport, float scale) {
+        float ratioX = rect.width() / (float) srcWidth;
+        float ratioY = rect.height() / (float) srcHeight;
+        mDest.set(toTarget(rect.left + left * ratioX, viewport.left, scale),
+                toTarget(rect.top + top * ratioY, viewport.top, scale),
+                toTarget(rect.left + right * ratioX, viewport.left, scale),
+                toTarget(rect.top + bottom * ratioY, viewport.top, scale));
+        if (!mDest.isEmpty()) {
+            StitcherUtils.drawBitmap(canvas, tile, degree, mDest, mPaint, mMatrix);
+        }
+    }
+
+    private static int toTarget(float value, int origin, float scale) {
+        return RasterCompositor.mapToViewport(value, origin, scale);
+    }
+}
@@ -1,12 +1,15 @@
 package com.zyyoona7.stitcher.engine;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.Shader;
 import android.graphics.drawable.Drawable;
+import android.os.OperationCanceledException;
 import android.util.Log;
 import android.view.View;
 
@@ -14,19 +17,110 @@ import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.zyyoona7.stitcher.encoder.StripEncoder;
+import com.zyyoona7.stitcher.raster.RasterBackend;
+import com.zyyoona7.stitcher.raster.RasterCompositor;
+import com.zyyoona7.stitcher.raster.RasterStitcher;
 import com.zyyoona7.stitcher.size.StitchSize;
+import com.zyyoona7.stitcher.util.ImageMetaCache;
 import com.zyyoona7.stitcher.util.ReusableCache;
+import com.zyyoona7.stitcher.util.StitchTrace;
 import com.zyyoona7.stitcher.util.StitcherUtils;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * 图片拼接的引擎
+ * 多张图片的探测、布局、解码、绘制和条带编码都由 {@link RasterStitcher} 通过 {@link EngineBackend}
+ * 完成，与 JVM 上测试的是同一个循环；这里负责预览、内存计划、重叠检测、预解码和统计
+ * <p>
+ * 每个实例持有自己的复用缓存、元信息缓存，以及 RasterStitcher、解码参数、Canvas、Matrix 等临时对象，
+ * 预热之后重复拼接不再为它们分配内存。实例不是线程安全的，拼接期间的回调中也不能再使用同一个实例，
+ * {@link #getDefault()} 返回当前线程的实例
  */
 public class StitcherEngine {
     private static final String TAG = "StitcherEngine";
-    //创建 Bitmap 大小的阈值，如果宽高超过这个值则 Config 使用 RGB_565 减少开销
-    private static final int CONFIG_THRESHOLD = 4000 * 4000;
+
+    private static final ThreadLocal<StitcherEngine> sEngines = new ThreadLocal<StitcherEngine>() {
+        @Override
+        protected StitcherEngine initialValue() {
+            return new StitcherEngine();
+        }
+    };
+
+    private final ReusableCache mCache;
+    private final ImageMetaCache mMetaCache;
+    private final SizeEngine mSizeEngine;
+    private final EngineBackend mBackend;
+    private final RasterStitcher<Bitmap> mStitcher;
+    private final OptionsCallback mCallback = new OptionsCallback();
+    //单张图片多次拼接时的探测列表、单元格和拼接结果的宽高、元信息
+    private final List<String> mSingleList = new ArrayList<>(1);
+    private final int[] mSingleSize = new int[4];
+    private final int[] mSingleRect = new int[4];
+    private final int[] mSingleMeta = new int[RasterBackend.META_SIZE];
+    //单张图片多次拼接时的目标画布和单元格画布
+    private final Canvas mCanvas = new Canvas();
+    private final Canvas mCellCanvas = new Canvas();
+    private final Paint mPaint = createPaint();
+    private final Paint mShaderPaint = new Paint();
+    private final Matrix mMatrix = new Matrix();
+    private final Rect mRect = new Rect();
+    //Rect[] 布局转换后的数组，长度不够时才重新分配
+    private int[] mRectValues = new int[0];
+    private boolean mBusy;
+
+    /**
+     * 使用全局的 ReusableCache 和 ImageMetaCache
+     */
+    public StitcherEngine() {
+        this(ReusableCache.getDefault(), ImageMetaCache.getDefault());
+    }
+
+    /**
+     * @param cache     解码、画布和单元格复用的缓存
+     * @param metaCache 图片元信息的缓存
+     */
+    public StitcherEngine(@NonNull ReusableCache cache, @NonNull ImageMetaCache metaCache) {
+        mCache = cache;
+        mMetaCache = metaCache;
+        mSizeEngine = new SizeEngine(metaCache);
+        mBackend = new EngineBackend(cache, metaCache);
+        mStitcher = new RasterStitcher<>(mBackend);
+        mStitcher.setCallback(mCallback);
+    }
+
+    /**
+     * 获取当前线程的实例，使用全局的缓存
+     * 在这个实例拼接期间的回调中再次获取时，返回共用缓存的新实例
+     */
+    @NonNull
+    public static StitcherEngine getDefault() {
+        StitcherEngine engine = sEngines.get();
+        return engine.mBusy ? new StitcherEngine(engine.mCache, engine.mMetaCache) : engine;
+    }
+
+    /**
+     * @return 使用同一个元信息缓存计算尺寸的 SizeEngine
+     */
+    @NonNull
+    public SizeEngine getSizeEngine() {
+        return mSizeEngine;
+    }
+
+    @NonNull
+    public ReusableCache getCache() {
+        return mCache;
+    }
+
+    @NonNull
+    public ImageMetaCache getMetaCache() {
+        return mMetaCache;
+    }
 
     /**
      * 垂直方向排列多张图片拼接
@@ -38,148 +132,307 @@ public class StitcherEngine {
      * @return Bitmap if null 拼接出错
      */
     @Nullable
-    public static Bitmap stitchVertical(List<String> pathList, int destWidth,
-                                        int verticalSpacing, @ColorInt int fillColor) {
-        //测量尺寸
-        StitchSize size = SizeEngine.calculateVerticalSize(pathList, destWidth, verticalSpacing);
-
-        if (size.isEmpty()) {
-            Log.w(TAG, "stitch size error width=" + size.getWidth()
-                    + ",height=" + size.getHeight() + ".");
-            return null;
-        }
-        if (size.isOverMaxSize()) {
-            Log.w(TAG, "stitch size over max size,the max size is 7000*7000.");
-            return null;
-        }
-
-        Bitmap destBitmap = createBitmap(size);
-        Canvas canvas = createCanvas(destBitmap);
-        Paint paint = createPaint();
-        if (fillColor != Color.TRANSPARENT) {
-            canvas.drawColor(fillColor);
-        }
-        int currentY = 0;
+    public Bitmap stitchVertical(List<String> pathList, int destWidth,
+                                 int verticalSpacing, @ColorInt int fillColor) {
+        return stitchVertical(pathList, destWidth, verticalSpacing, fillColor, null);
+    }
 
+    /**
+     * 垂直方向排列多张图片拼接
+     *
+     * @param pathList        图片地址列表
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @param stitchOptions   可选配置 if null 使用默认配置
+     * @return Bitmap if null 拼接出错
+     */
+    @Nullable
+    public Bitmap stitchVertical(List<String> pathList, int destWidth,
+                                 int verticalSpacing, @ColorInt int fillColor,
+                                 @Nullable StitchOptions stitchOptions) {
+        StitchReport report = begin(stitchOptions);
         try {
-            for (String filePath : pathList) {
-                BitmapFactory.Options options = StitcherUtils.decodeBitmapBounds(filePath);
-                int width = options.outWidth;
-                int height = options.outHeight;
-                float ratio = height * 1f / width;
-
-                if (width != size.getWidth()) {
-                    width = size.getWidth();
-                    height = StitcherUtils.roundFloatToInt(width * ratio);
-                }
-
-                int bottom = currentY + height;
-                Rect rect = new Rect(0, currentY, width, bottom);
-
-                options.inJustDecodeBounds = false;
-                options.inSampleSize = StitcherUtils.calculateInSampleSize(options, width, height);
-
-                Bitmap bitmap = StitcherUtils.decodeBitmap(filePath, options);
-                if (bitmap == null) {
-                    continue;
-                }
-                try {
-                    bitmap.setDensity(Bitmap.DENSITY_NONE);
-                    canvas.drawBitmap(bitmap, null, rect, paint);
-                } finally {
-//                    if (!bitmap.isRecycled()) {
-//                        bitmap.recycle();
-//                    }
-                    ReusableCache.putBitmap(bitmap);
-                }
-
-                currentY = rect.bottom + verticalSpacing;
+            //元信息只读取一次，之后的布局、解码和绘制都使用探测的结果
+            if (!layoutVertical(pathList, destWidth, verticalSpacing, stitchOptions, report)) {
+                finishReport(report, false, stitchOptions);
+                return null;
             }
+            return stitchLayout(pathList, fillColor, stitchOptions, report);
         } catch (Exception e) {
+            finishReport(report, false, stitchOptions);
             return null;
+        } finally {
+            end();
         }
-        return destBitmap;
     }
 
     /**
-     * 垂直方向排列单张图片多次拼接
+     * 垂直方向排列多张图片拼接，按条带渲染并直接编码写入输出流
+     * 不会创建完整尺寸的 Bitmap，内存占用只与条带大小有关
      *
-     * @param filePath        文件路径
-     * @param stitchCount     拼接次数
+     * @param pathList        图片地址列表
      * @param destWidth       目标宽度
      * @param verticalSpacing 垂直间距
      * @param fillColor       间距或透明部分的填充颜色
+     * @param encoder         条带编码器
+     * @param outputStream    输出流，不会被关闭
+     * @param stitchOptions   可选配置，如条带高度
+     * @return true if successfully
+     */
+    public boolean stitchVertical(List<String> pathList, int destWidth,
+                                  int verticalSpacing, @ColorInt int fillColor,
+                                  @NonNull StripEncoder encoder,
+                                  @NonNull OutputStream outputStream,
+                                  @Nullable StitchOptions stitchOptions) {
+        StitchReport report = begin(stitchOptions);
+        try {
+            if (!layoutVertical(pathList, destWidth, verticalSpacing, stitchOptions, report)) {
+                finishReport(report, false, stitchOptions);
+                return false;
+            }
+            return encodeLayout(pathList, fillColor, encoder, outputStream, stitchOptions,
+                    report);
+        } catch (Exception e) {
+            Log.w(TAG, "stitch to stream failed.", e);
+            finishReport(report, false, stitchOptions);
+            return false;
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * 异步拼接多张图片，进度通过 {@link StitchOptions#setProgressListener} 在拼接线程回调
+     * 在拼接线程上使用 {@link #getDefault()} 的实例
+     *
+     * @param vertical      是否垂直方向排列
+     * @param pathList      图片地址列表
+     * @param destSize      垂直排列时为目标宽度，水平排列时为目标高度
+     * @param spacing       间距
+     * @param fillColor     间距或透明部分的填充颜色
+     * @param stitchOptions 可选配置 if null 使用默认配置
+     * @param executor      执行拼接的线程池 if null 使用默认的单线程
+     * @return 可以取消的任务，结果 if null 拼接出错
+     */
+    @NonNull
+    public static StitchTask stitchAsync(final boolean vertical, final List<String> pathList,
+                                         final int destSize, final int spacing,
+                                         @ColorInt final int fillColor,
+                                         @Nullable StitchOptions stitchOptions,
+                                         @Nullable Executor executor) {
+        return StitchTask.submit(executor, stitchOptions, new StitchTask.Stitch() {
+            @Override
+            public Bitmap stitch(@NonNull StitchOptions options) {
+                StitcherEngine engine = getDefault();
+                return vertical
+                        ? engine.stitchVertical(pathList, destSize, spacing, fillColor, options)
+                        : engine.stitchHorizontal(pathList, destSize, spacing, fillColor,
+                        options);
+            }
+        });
+    }
+
+    /**
+     * 宫格排列多张图片拼接，一次完成，不需要先拼接每一行
+     * 每张图片按绘制尺寸直接解码，CENTER_CROP 时超出单元格的部分在绘制时裁掉
+     *
+     * @param pathList          图片地址列表，按行从左到右排列
+     * @param columns           列数
+     * @param cellWidth         单元格宽度
+     * @param cellHeight        单元格高度
+     * @param horizontalSpacing 水平间距
+     * @param verticalSpacing   垂直间距
+     * @param scaleType         {@link SizeEngine#CELL_CENTER_CROP} or {@link SizeEngine#CELL_FIT_CENTER}
+     * @param fillColor         间距或空白部分的填充颜色
+     * @param stitchOptions     可选配置 if null 使用默认配置
      * @return Bitmap if null 拼接出错
      */
     @Nullable
-    public static Bitmap stitchVertical(String filePath, int stitchCount, int destWidth,
-                                        int verticalSpacing, @ColorInt int fillColor) {
-        //测量尺寸
-        StitchSize size = SizeEngine.calculateVerticalSize(filePath, stitchCount,
-                destWidth, verticalSpacing);
-
-        if (size.isEmpty()) {
-            Log.w(TAG, "stitch size error width=" + size.getWidth()
-                    + ",height=" + size.getHeight() + ".");
-            return null;
-        }
-        if (size.isOverMaxSize()) {
-            Log.w(TAG, "stitch size over max size,the max size is 7000*7000.");
+    public Bitmap stitchGrid(List<String> pathList, int columns, int cellWidth,
+                             int cellHeight, int horizontalSpacing, int verticalSpacing,
+                             int scaleType, @ColorInt int fillColor,
+                             @Nullable StitchOptions stitchOptions) {
+        StitchReport report = begin(stitchOptions);
+        try {
+            if (pathList == null || pathList.isEmpty() || columns <= 0
+                    || cellWidth <= 0 || cellHeight <= 0) {
+                Log.w(TAG, "stitch grid error columns=" + columns + ",cellWidth=" + cellWidth
+                        + ",cellHeight=" + cellHeight + ".");
+                finishReport(report, false, stitchOptions);
+                return null;
+            }
+            if (!probe(pathList)) {
+                finishReport(report, false, stitchOptions);
+                return null;
+            }
+            mStitcher.layoutGrid(columns, cellWidth, cellHeight, horizontalSpacing,
+                    verticalSpacing, scaleType);
+            return stitchLayout(pathList, fillColor, stitchOptions, report);
+        } catch (Exception e) {
+            Log.w(TAG, "stitch grid failed.", e);
+            finishReport(report, false, stitchOptions);
             return null;
+        } finally {
+            end();
         }
+    }
 
-        Bitmap destBitmap = createBitmap(size);
-        Canvas canvas = createCanvas(destBitmap);
-        Paint paint = createPaint();
-        if (fillColor != Color.TRANSPARENT) {
-            canvas.drawColor(fillColor);
+    /**
+     * 按已经计算好的布局拼接
+     *
+     * @param pathList      图片地址列表
+     * @param rects         每张图片的目标位置，和 pathList 一一对应
+     * @param size          拼接结果尺寸
+     * @param fillColor     间距或透明部分的填充颜色
+     * @param stitchOptions 可选配置 if null 使用默认配置
+     * @return Bitmap if null 拼接出错
+     */
+    @Nullable
+    public Bitmap stitchLayout(List<String> pathList, Rect[] rects, StitchSize size,
+                               @ColorInt int fillColor, @Nullable StitchOptions stitchOptions) {
+        StitchReport report = begin(stitchOptions);
+        try {
+            //探测失败的图片留空
+            mStitcher.probe(pathList);
+            mStitcher.setLayout(toValues(rects), null, size.getWidth(), size.getHeight());
+            return stitchLayout(pathList, fillColor, stitchOptions, report);
+        } finally {
+            end();
         }
-        int currentY = 0;
+    }
 
+    /**
+     * 按 mStitcher 当前的布局拼接：先预览，再按内存计划缩小布局，最后逐张解码绘制
+     */
+    @Nullable
+    private Bitmap stitchLayout(List<String> pathList, @ColorInt int fillColor,
+                                @Nullable StitchOptions stitchOptions,
+                                @Nullable StitchReport report) {
+        boolean success = false;
         try {
-            BitmapFactory.Options options = StitcherUtils.decodeBitmapBounds(filePath);
-            int width = options.outWidth;
-            int height = options.outHeight;
-            float ratio = height * 1f / width;
-
-            if (width != size.getWidth()) {
-                width = size.getWidth();
-                height = StitcherUtils.roundFloatToInt(width * ratio);
-            }
-
-            options.inJustDecodeBounds = false;
-            options.inSampleSize = StitcherUtils.calculateInSampleSize(options, width, height);
-
-            Bitmap bitmap = StitcherUtils.decodeBitmap(filePath, options);
-            if (bitmap == null) {
+            renderPreview(pathList, fillColor, stitchOptions, report);
+            MemoryPlan plan = planMemory(mStitcher.getWidth(), mStitcher.getHeight(), 0,
+                    stitchOptions);
+            if (plan.isRejected()) {
+                Log.w(TAG, "stitch rejected by memory plan: " + plan);
                 return null;
             }
-            try {
-                for (int i = 0; i < stitchCount; i++) {
-                    int bottom = currentY + height;
-                    Rect rect = new Rect(0, currentY, width, bottom);
+            //按比例缩小布局，解码尺寸也随之变小
+            mStitcher.setScale(plan.getScale());
+            mBackend.setConfig(plan.getConfig());
+            mBackend.setTarget(stitchOptions != null ? stitchOptions.getStitchTarget() : null);
+            Bitmap destBitmap = compose(pathList, fillColor, stitchOptions, report);
+            success = true;
+            return destBitmap;
+        } catch (Exception e) {
+            return null;
+        } finally {
+            finishReport(report, success, stitchOptions);
+        }
+    }
 
-                    bitmap.setDensity(Bitmap.DENSITY_NONE);
-                    canvas.drawBitmap(bitmap, null, rect, paint);
+    /**
+     * 按已经计算好的布局拼接，按条带渲染并直接编码写入输出流
+     * 条带从上到下渲染，rects 需要按 top 排列
+     *
+     * @param pathList      图片地址列表
+     * @param rects         每张图片的目标位置，和 pathList 一一对应
+     * @param size          拼接结果尺寸
+     * @param fillColor     间距或透明部分的填充颜色
+     * @param encoder       条带编码器
+     * @param outputStream  输出流，不会被关闭
+     * @param stitchOptions 可选配置，如条带高度
+     * @return true if successfully
+     */
+    public boolean encodeLayout(List<String> pathList, Rect[] rects, StitchSize size,
+                                @ColorInt int fillColor,
+                                @NonNull StripEncoder encoder,
+                                @NonNull OutputStream outputStream,
+                                @Nullable StitchOptions stitchOptions) {
+        StitchReport report = begin(stitchOptions);
+        try {
+            mStitcher.probe(pathList);
+            mStitcher.setLayout(toValues(rects), null, size.getWidth(), size.getHeight());
+            return encodeLayout(pathList, fillColor, encoder, outputStream, stitchOptions,
+                    report);
+        } finally {
+            end();
+        }
+    }
 
-                    currentY = rect.bottom + verticalSpacing;
-                }
-            } finally {
-//                if (!bitmap.isRecycled()) {
-//                    bitmap.recycle();
-//                }
-                ReusableCache.putBitmap(bitmap);
+    /**
+     * 按 mStitcher 当前的布局流式拼接，有裁剪区域时条带按裁剪区域判断图片是否可见
+     */
+    private boolean encodeLayout(List<String> pathList, @ColorInt int fillColor,
+                                 @NonNull StripEncoder encoder,
+                                 @NonNull OutputStream outputStream,
+                                 @Nullable StitchOptions stitchOptions,
+                                 @Nullable StitchReport report) {
+        boolean success = false;
+        int stripHeight = Math.min(stitchOptions != null ? stitchOptions.getStripHeight()
+                : StitchOptions.DEFAULT_STRIP_HEIGHT, mStitcher.getHeight());
+        try {
+            renderPreview(pathList, fillColor, stitchOptions, report);
+            MemoryPlan plan = MemoryPlanner.check(mStitcher.estimateStreamingBytes(stripHeight,
+                    isExactDecode(stitchOptions)));
+            if (plan.isRejected()) {
+                Log.w(TAG, "stitch rejected by memory plan: " + plan);
+                return false;
             }
+            mBackend.setConfig(Bitmap.Config.ARGB_8888);
+            mStitcher.encode(pathList, fillColor, stripHeight,
+                    report != null ? new ReportingEncoder(encoder, report) : encoder,
+                    outputStream);
+            success = true;
+            return true;
         } catch (Exception e) {
-            return null;
+            Log.w(TAG, "stitch to stream failed.", e);
+            return false;
+        } finally {
+            finishReport(report, success, stitchOptions);
         }
-        return destBitmap;
     }
 
-    public static Bitmap stitchVertical(View view, int stitchCount, int destWidth,
-                                        int verticalSpacing, @ColorInt int fillColor) {
+    /**
+     * 垂直方向排列单张图片多次拼接
+     *
+     * @param filePath        文件路径
+     * @param stitchCount     拼接次数
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @return Bitmap if null 拼接出错
+     */
+    @Nullable
+    public Bitmap stitchVertical(String filePath, int stitchCount, int destWidth,
+                                 int verticalSpacing, @ColorInt int fillColor) {
+        return stitchVertical(filePath, stitchCount, destWidth, verticalSpacing, fillColor, null);
+    }
+
+    /**
+     * 垂直方向排列单张图片多次拼接
+     *
+     * @param filePath        文件路径
+     * @param stitchCount     拼接次数
+     * @param destWidth       目标宽度
+     * @param verticalSpacing 垂直间距
+     * @param fillColor       间距或透明部分的填充颜色
+     * @param stitchOptions   可选配置 if null 使用默认配置
+     * @return Bitmap if null 拼接出错
+     */
+    @Nullable
+    public Bitmap stitchVertical(String filePath, int stitchCount, int destWidth,
+                                 int verticalSpacing, @ColorInt int fillColor,
+                                 @Nullable StitchOptions stitchOptions) {
+        return stitchSingle(filePath, stitchCount, destWidth, verticalSpacing, true, fillColor,
+                stitchOptions);
+    }
+
+    public Bitmap stitchVertical(View view, int stitchCount, int destWidth,
+                                 int verticalSpacing, @ColorInt int fillColor) {
         //测量尺寸
-        StitchSize size = SizeEngine.calculateVerticalSize(view, stitchCount,
+        StitchSize size = mSizeEngine.calculateVerticalSize(view, stitchCount,
                 destWidth, verticalSpacing);
 
         if (size.isEmpty()) {
@@ -187,18 +440,21 @@ public class StitcherEngine {
                     + ",height=" + size.getHeight() + ".");
             return null;
         }
-        if (size.isOverMaxSize()) {
-            Log.w(TAG, "stitch size over max size,the max size is 7000*7000.");
+        //View 的截图和缩放后的截图同时存在
+        long viewBytes = (long) view.getWidth() * view.getHeight() * 4;
+        MemoryPlan plan = MemoryPlanner.plan(size.getWidth(), size.getHeight(),
+                viewBytes * 2, 0, null);
+        if (plan.isRejected()) {
+            Log.w(TAG, "stitch rejected by memory plan: " + plan);
             return null;
         }
 
-        Bitmap destBitmap = createBitmap(size);
-        Canvas canvas = createCanvas(destBitmap);
-        Paint paint = createPaint();
+        begin(null);
+        Bitmap destBitmap = Bitmap.createBitmap(size.getWidth(), size.getHeight(), plan.getConfig());
+        mCanvas.setBitmap(destBitmap);
         if (fillColor != Color.TRANSPARENT) {
-            canvas.drawColor(fillColor);
+            mCanvas.drawColor(fillColor);
         }
-        int currentY = 0;
 
         try {
             int width = view.getWidth();
@@ -215,23 +471,19 @@ public class StitcherEngine {
                 return null;
             }
             try {
-                for (int i = 0; i < stitchCount; i++) {
-                    int bottom = currentY + height;
-                    Rect rect = new Rect(0, currentY, width, bottom);
-
-                    bitmap.setDensity(Bitmap.DENSITY_NONE);
-                    canvas.drawBitmap(bitmap, null, rect, paint);
-
-                    currentY = rect.bottom + verticalSpacing;
-                }
+                drawRepeated(mCanvas, bitmap, 0, width, height, stitchCount, verticalSpacing,
+                        true, null);
             } finally {
 //                if (!bitmap.isRecycled()) {
 //                    bitmap.recycle();
 //                }
-                ReusableCache.putBitmap(bitmap);
+                mCache.put(bitmap);
             }
         } catch (Exception e) {
             return null;
+        } finally {
+            mCanvas.setBitmap(null);
+            end();
         }
         return destBitmap;
     }
@@ -246,67 +498,43 @@ public class StitcherEngine {
      * @return Bitmap if null 拼接出错
      */
     @Nullable
-    public static Bitmap stitchHorizontal(List<String> pathList, int destHeight,
-                                          int horizontalSpacing, @ColorInt int fillColor) {
-        //测量尺寸
-        StitchSize size = SizeEngine.calculateHorizontalSize(pathList, destHeight, horizontalSpacing);
-
-        if (size.isEmpty()) {
-            Log.w(TAG, "stitch size error width=" + size.getWidth()
-                    + ",height=" + size.getHeight() + ".");
-            return null;
-        }
-        if (size.isOverMaxSize()) {
-            Log.w(TAG, "stitch size over max size,the max size is 7000*7000.");
-            return null;
-        }
-
-        Bitmap destBitmap = createBitmap(size);
-        Canvas canvas = createCanvas(destBitmap);
-        Paint paint = createPaint();
-        if (fillColor != Color.TRANSPARENT) {
-            canvas.drawColor(fillColor);
-        }
-        int currentX = 0;
+    public Bitmap stitchHorizontal(List<String> pathList, int destHeight,
+                                   int horizontalSpacing, @ColorInt int fillColor) {
+        return stitchHorizontal(pathList, destHeight, horizontalSpacing, fillColor, null);
+    }
 
+    /**
+     * 水平方向排列多张图片拼接
+     *
+     * @param pathList          图片地址列表
+     * @param destHeight        目标高度
+     * @param horizontalSpacing 水平间距
+     * @param fillColor         间距或透明部分的填充颜色
+     * @param stitchOptions     可选配置 if null 使用默认配置
+     * @return Bitmap if null 拼接出错
+     */
+    @Nullable
+    public Bitmap stitchHorizontal(List<String> pathList, int destHeight,
+                                   int horizontalSpacing, @ColorInt int fillColor,
+                                   @Nullable StitchOptions stitchOptions) {
+        StitchReport report = begin(stitchOptions);
         try {
-            for (String filePath : pathList) {
-                BitmapFactory.Options options = StitcherUtils.decodeBitmapBounds(filePath);
-                int width = options.outWidth;
-                int height = options.outHeight;
-                float ratio = width * 1f / height;
-
-                if (height != size.getHeight()) {
-                    height = size.getHeight();
-                    width = StitcherUtils.roundFloatToInt(height * ratio);
-                }
-
-                int right = currentX + width;
-                Rect rect = new Rect(currentX, 0, right, height);
-
-                options.inJustDecodeBounds = false;
-                options.inSampleSize = StitcherUtils.calculateInSampleSize(options, width, height);
-
-                Bitmap bitmap = StitcherUtils.decodeBitmap(filePath, options);
-                if (bitmap == null) {
-                    continue;
-                }
-                try {
-                    bitmap.setDensity(Bitmap.DENSITY_NONE);
-                    canvas.drawBitmap(bitmap, null, rect, paint);
-                } finally {
-//                    if (!bitmap.isRecycled()) {
-//                        bitmap.recycle();
-//                    }
-                    ReusableCache.putBitmap(bitmap);
-                }
-
-                currentX = rect.right + horizontalSpacing;
+            if (!probe(pathList)) {
+                finishReport(report, false, stitchOptions);
+                return null;
             }
-        } catch (Exception e) {
-            return null;
+            //测量尺寸
+            mStitcher.layoutHorizontal(destHeight, horizontalSpacing);
+            if (mStitcher.isEmpty()) {
+                Log.w(TAG, "stitch size error width=" + mStitcher.getWidth()
+                        + ",height=" + mStitcher.getHeight() + ".");
+                finishReport(report, false, stitchOptions);
+                return null;
+            }
+            return stitchLayout(pathList, fillColor, stitchOptions, report);
+        } finally {
+            end();
         }
-        return destBitmap;
     }
 
     /**
@@ -320,71 +548,429 @@ public class StitcherEngine {
      * @return Bitmap if null 拼接出错
      */
     @Nullable
-    public static Bitmap stitchHorizontal(String filePath, int stitchCount, int destHeight,
-                                          int horizontalSpacing, @ColorInt int fillColor) {
-        //测量尺寸
-        StitchSize size = SizeEngine.calculateHorizontalSize(filePath, stitchCount,
-                destHeight, horizontalSpacing);
-
-        if (size.isEmpty()) {
-            Log.w(TAG, "stitch size error width=" + size.getWidth()
-                    + ",height=" + size.getHeight() + ".");
-            return null;
-        }
-        if (size.isOverMaxSize()) {
-            Log.w(TAG, "stitch size over max size,the max size is 7000*7000.");
-            return null;
-        }
+    public Bitmap stitchHorizontal(String filePath, int stitchCount, int destHeight,
+                                   int horizontalSpacing, @ColorInt int fillColor) {
+        return stitchHorizontal(filePath, stitchCount, destHeight, horizontalSpacing,
+                fillColor, null);
+    }
 
-        Bitmap destBitmap = createBitmap(size);
-        Canvas canvas = createCanvas(destBitmap);
-        Paint paint = createPaint();
-        if (fillColor != Color.TRANSPARENT) {
-            canvas.drawColor(fillColor);
-        }
-        int currentX = 0;
+    /**
+     * 水平方向排列单张图片多次拼接
+     *
+     * @param filePath          图片地址
+     * @param stitchCount       拼接次数
+     * @param destHeight        目标高度
+     * @param horizontalSpacing 水平间距
+     * @param fillColor         间距或透明部分的填充颜色
+     * @param stitchOptions     可选配置 if null 使用默认配置
+     * @return Bitmap if null 拼接出错
+     */
+    @Nullable
+    public Bitmap stitchHorizontal(String filePath, int stitchCount, int destHeight,
+                                   int horizontalSpacing, @ColorInt int fillColor,
+                                   @Nullable StitchOptions stitchOptions) {
+        return stitchSingle(filePath, stitchCount, destHeight, horizontalSpacing, false,
+                fillColor, stitchOptions);
+    }
 
+    /**
+     * 单张图片多次拼接，目标 Bitmap、解码和填充经过 EngineBackend，重复绘制使用 BitmapShader
+     */
+    @Nullable
+    private Bitmap stitchSingle(String filePath, int stitchCount, int destSize,
+                                int spacing, boolean vertical, @ColorInt int fillColor,
+                                @Nullable StitchOptions stitchOptions) {
+        StitchReport report = begin(stitchOptions);
+        Bitmap destBitmap = null;
+        boolean success = false;
         try {
+            //单元格和拼接结果的宽高
+            int[] size = mSingleSize;
+            size[2] = 0;
+            size[3] = 0;
+            mSingleList.clear();
+            mSingleList.add(filePath);
+            if (stitchCount > 0 && mStitcher.probe(mSingleList)) {
+                layoutSingle(stitchCount, destSize, spacing, vertical);
+            }
+            if (size[2] <= 0 || size[3] <= 0) {
+                Log.w(TAG, "stitch size error width=" + size[2] + ",height=" + size[3] + ".");
+                return null;
+            }
 
-            BitmapFactory.Options options = StitcherUtils.decodeBitmapBounds(filePath);
-            int width = options.outWidth;
-            int height = options.outHeight;
-            float ratio = width * 1f / height;
-
-            if (height != size.getHeight()) {
-                height = size.getHeight();
-                width = StitcherUtils.roundFloatToInt(height * ratio);
+            MemoryPlan plan = planMemory(size[2], size[3], (long) size[0] * size[1] * 4,
+                    stitchOptions);
+            if (plan.isRejected()) {
+                Log.w(TAG, "stitch rejected by memory plan: " + plan);
+                return null;
+            }
+            if (plan.getScale() < 1f) {
+                spacing = plan.scale(spacing);
+                layoutSingle(stitchCount, plan.scaleSize(vertical ? size[2] : size[3]), spacing,
+                        vertical);
             }
 
-            options.inJustDecodeBounds = false;
-            options.inSampleSize = StitcherUtils.calculateInSampleSize(options, width, height);
+            mBackend.setConfig(plan.getConfig());
+            mBackend.setTarget(stitchOptions != null ? stitchOptions.getStitchTarget() : null);
+            destBitmap = mBackend.createSurface(size[2], size[3]);
+            mBackend.fill(destBitmap, fillColor);
 
-            Bitmap bitmap = StitcherUtils.decodeBitmap(filePath, options);
+            throwIfCanceled(stitchOptions);
+            int[] meta = mSingleMeta;
+            mStitcher.copyMeta(0, meta, 0);
+            Bitmap bitmap = mBackend.decode(filePath, meta, 0, size[0], size[1]);
             if (bitmap == null) {
+                mBackend.release(destBitmap);
                 return null;
             }
+            mCanvas.setBitmap(destBitmap);
             try {
-                for (int i = 0; i < stitchCount; i++) {
-                    int right = currentX + width;
-                    Rect rect = new Rect(currentX, 0, right, height);
-
-                    bitmap.setDensity(Bitmap.DENSITY_NONE);
-                    canvas.drawBitmap(bitmap, null, rect, paint);
+                throwIfCanceled(stitchOptions);
+                drawRepeated(mCanvas, bitmap, meta[2], size[0], size[1], stitchCount, spacing,
+                        vertical, report);
+            } finally {
+                mCanvas.setBitmap(null);
+                mBackend.release(bitmap);
+            }
+            if (stitchOptions != null) {
+                stitchOptions.notifyProgress(1, 1);
+            }
+            success = true;
+            return destBitmap;
+        } catch (Exception e) {
+            if (destBitmap != null) {
+                mBackend.release(destBitmap);
+            }
+            return null;
+        } finally {
+            mSingleList.clear();
+            finishReport(report, success, stitchOptions);
+            end();
+        }
+    }
 
-                    currentX = rect.right + horizontalSpacing;
+    /**
+     * 单张图片多次拼接：先缩放到目标单元格大小一次，再不缩放地逐个绘制
+     * 没有间距时使用 REPEAT 的 BitmapShader 一次绘制完成，单元格从实例的复用缓存获取
+     */
+    private void drawRepeated(Canvas canvas, Bitmap bitmap, int degree, int cellWidth,
+                              int cellHeight, int count, int spacing, boolean vertical,
+                              @Nullable StitchReport report) {
+        Paint paint = mPaint;
+        bitmap.setDensity(Bitmap.DENSITY_NONE);
+        Bitmap cell = bitmap;
+        if (degree != 0 || bitmap.getWidth() != cellWidth || bitmap.getHeight() != cellHeight) {
+            long start = report != null ? System.nanoTime() : 0;
+            boolean traced = StitchTrace.beginSection(StitchTrace.SECTION_ROTATE, report != null);
+            try {
+                cell = mCache.get(cellWidth, cellHeight, Bitmap.Config.ARGB_8888);
+                if (cell == null) {
+                    cell = Bitmap.createBitmap(cellWidth, cellHeight, Bitmap.Config.ARGB_8888);
+                    if (report != null) {
+                        report.onAllocated(StitcherUtils.getAllocationByteCount(cell));
+                    }
+                } else {
+                    cell.eraseColor(Color.TRANSPARENT);
                 }
+                cell.setDensity(Bitmap.DENSITY_NONE);
+                //旋转和缩放只做一次
+                mCellCanvas.setBitmap(cell);
+                mRect.set(0, 0, cellWidth, cellHeight);
+                StitcherUtils.drawBitmap(mCellCanvas, bitmap, degree, mRect, paint, mMatrix);
             } finally {
-//                if (!bitmap.isRecycled()) {
-//                    bitmap.recycle();
-//                }
-                ReusableCache.putBitmap(bitmap);
+                mCellCanvas.setBitmap(null);
+                StitchTrace.endSection(traced);
+            }
+            if (report != null) {
+                report.addNanos(StitchReport.Phase.ROTATE, System.nanoTime() - start);
+            }
+        }
+        long start = report != null ? System.nanoTime() : 0;
+        boolean traced = StitchTrace.beginSection(StitchTrace.SECTION_DRAW, report != null);
+        try {
+            if (spacing == 0 && count > 1) {
+                Shader.TileMode repeat = Shader.TileMode.REPEAT;
+                Shader.TileMode clamp = Shader.TileMode.CLAMP;
+                //复制 paint，RGB_565 目标同样需要抖动
+                mShaderPaint.set(paint);
+                mShaderPaint.setShader(new BitmapShader(cell, vertical ? clamp : repeat,
+                        vertical ? repeat : clamp));
+                canvas.drawRect(0, 0, vertical ? cellWidth : cellWidth * count,
+                        vertical ? cellHeight * count : cellHeight, mShaderPaint);
+                //不再持有单元格
+                mShaderPaint.setShader(null);
+                return;
             }
+            int current = 0;
+            for (int i = 0; i < count; i++) {
+                //尺寸一致不需要过滤，仍然使用 paint，RGB_565 目标需要抖动
+                canvas.drawBitmap(cell, vertical ? 0 : current, vertical ? current : 0, paint);
+                current += (vertical ? cellHeight : cellWidth) + spacing;
+            }
+        } finally {
+            StitchTrace.endSection(traced);
+            if (report != null) {
+                report.onDrawn((long) cellWidth * cellHeight * count, System.nanoTime() - start);
+            }
+            if (cell != bitmap) {
+                mCache.put(cell);
+            }
+        }
+    }
 
-        } catch (Exception e) {
-            return null;
+    /**
+     * 计算单张图片多次拼接时单元格和拼接结果的尺寸，与 SizeEngine 一致，写入 mSingleSize，
+     * 并把单元格设置为 mStitcher 的布局，用于预估解码的内存
+     */
+    private void layoutSingle(int stitchCount, int destSize, int spacing, boolean vertical) {
+        int width = mStitcher.getSourceWidth(0);
+        int height = mStitcher.getSourceHeight(0);
+        if (vertical && destSize > 0) {
+            height = StitcherUtils.roundFloatToInt(destSize * (height * 1f / width));
+            width = destSize;
+        } else if (!vertical && destSize > 0) {
+            width = StitcherUtils.roundFloatToInt(destSize * (width * 1f / height));
+            height = destSize;
         }
+        int[] size = mSingleSize;
+        size[0] = width;
+        size[1] = height;
+        size[2] = vertical ? width : width * stitchCount + spacing * (stitchCount - 1);
+        size[3] = vertical ? height * stitchCount + spacing * (stitchCount - 1) : height;
+        mSingleRect[2] = width;
+        mSingleRect[3] = height;
+        mStitcher.setLayout(mSingleRect, null, width, height);
+    }
 
-        return destBitmap;
+    /**
+     * 计算垂直方向排列时每张图片的目标位置，与拼接使用同一个 RasterStitcher 布局
+     */
+    Rect[] layoutVertical(List<String> pathList, StitchSize size, int verticalSpacing) {
+        begin(null);
+        try {
+            mStitcher.probe(pathList);
+            mStitcher.layoutVertical(size.getWidth(), verticalSpacing);
+            return copyRects();
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * 计算水平方向排列时每张图片的目标位置，与拼接使用同一个 RasterStitcher 布局
+     */
+    Rect[] layoutHorizontal(List<String> pathList, StitchSize size, int horizontalSpacing) {
+        begin(null);
+        try {
+            mStitcher.probe(pathList);
+            mStitcher.layoutHorizontal(size.getHeight(), horizontalSpacing);
+            return copyRects();
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * 探测并计算垂直方向排列的布局，开启重叠检测时去掉相邻图片的重叠区域
+     *
+     * @return false 探测出错或尺寸为空
+     */
+    private boolean layoutVertical(List<String> pathList, int destWidth, int verticalSpacing,
+                                   @Nullable StitchOptions stitchOptions,
+                                   @Nullable StitchReport report) {
+        if (!probe(pathList)) {
+            return false;
+        }
+        //测量尺寸
+        mStitcher.layoutVertical(destWidth, verticalSpacing);
+        if (mStitcher.isEmpty()) {
+            Log.w(TAG, "stitch size error width=" + mStitcher.getWidth()
+                    + ",height=" + mStitcher.getHeight() + ".");
+            return false;
+        }
+        if (stitchOptions != null && stitchOptions.isDetectOverlap()) {
+            int[][] crops = OverlapDetector.detect(pathList, mStitcher, mCache, stitchOptions,
+                    report);
+            mStitcher.layoutOverlapped(crops[0], crops[1], destWidth, verticalSpacing);
+        }
+        return true;
+    }
+
+    /**
+     * 每张图片的元信息在一次拼接中只读取一次，之后的布局、解码和绘制都使用探测的结果
+     *
+     * @return false 列表为空或有图片探测失败
+     */
+    private boolean probe(@Nullable List<String> pathList) {
+        if (pathList == null || !mStitcher.probe(pathList)) {
+            Log.w(TAG, "decode bounds failed: " + pathList);
+            return false;
+        }
+        return true;
+    }
+
+    private int[] toValues(Rect[] rects) {
+        if (mRectValues.length < rects.length * 4) {
+            mRectValues = new int[rects.length * 4];
+        }
+        int[] values = mRectValues;
+        for (int i = 0; i < rects.length; i++) {
+            values[i * 4] = rects[i].left;
+            values[i * 4 + 1] = rects[i].top;
+            values[i * 4 + 2] = rects[i].right;
+            values[i * 4 + 3] = rects[i].bottom;
+        }
+        return values;
+    }
+
+    private Rect[] copyRects() {
+        int count = mStitcher.getCount();
+        if (mRectValues.length < count * 4) {
+            mRectValues = new int[count * 4];
+        }
+        int[] values = mRectValues;
+        mStitcher.copyRects(values);
+        Rect[] rects = new Rect[count];
+        for (int i = 0; i < count; i++) {
+            rects[i] = new Rect(values[i * 4], values[i * 4 + 1],
+                    values[i * 4 + 2], values[i * 4 + 3]);
+        }
+        return rects;
+    }
+
+    /**
+     * 绘制低分辨率预览并回调，与完整拼接共用探测结果和布局，草稿模式解码和绘制
+     * 预览失败不影响完整拼接，取消时直接抛出
+     */
+    private void renderPreview(List<String> pathList, @ColorInt int fillColor,
+                               @Nullable StitchOptions stitchOptions,
+                               @Nullable StitchReport report) {
+        if (stitchOptions == null || !stitchOptions.isPreviewEnabled()) {
+            return;
+        }
+        long start = report != null ? System.nanoTime() : 0;
+        boolean traced = StitchTrace.beginSection(StitchTrace.SECTION_PREVIEW, report != null);
+        Bitmap preview;
+        try {
+            mStitcher.setScale(RasterCompositor.calculatePreviewScale(mStitcher.getWidth(),
+                    mStitcher.getHeight(), stitchOptions.getPreviewMaxSize()));
+            //预览不回调进度
+            mCallback.set(stitchOptions, false);
+            mBackend.setDraft(true);
+            preview = mStitcher.compose(pathList, fillColor);
+        } catch (OperationCanceledException e) {
+            throw e;
+        } catch (RuntimeException | OutOfMemoryError e) {
+            Log.w(TAG, "render preview failed.", e);
+            return;
+        } finally {
+            mBackend.setDraft(false);
+            mCallback.set(stitchOptions, true);
+            mStitcher.setScale(1f);
+            StitchTrace.endSection(traced);
+            if (report != null) {
+                report.addNanos(StitchReport.Phase.PREVIEW, System.nanoTime() - start);
+            }
+        }
+        OnStitchPreviewListener listener = stitchOptions.getPreviewListener();
+        if (listener != null) {
+            listener.onPreview(preview);
+        }
+    }
+
+    /**
+     * 预估拼接的峰值内存并生成内存计划，每张图片解码的字节数按 mStitcher 当前的布局预估
+     * 旋转在绘制时通过矩阵完成，不需要额外的旋转副本
+     *
+     * @param extraBytes 其他临时内存，如单张拼接时缩放好的单元格
+     */
+    private MemoryPlan planMemory(int width, int height, long extraBytes,
+                                  @Nullable StitchOptions stitchOptions) {
+        boolean exact = isExactDecode(stitchOptions);
+        long largest = 0;
+        long total = 0;
+        for (int i = 0; i < mStitcher.getCount(); i++) {
+            long byteCount = mStitcher.estimateDecodeBytes(i, exact);
+            largest = Math.max(largest, byteCount);
+            total += byteCount;
+        }
+        long decodeBytes = largest;
+        if (stitchOptions != null && stitchOptions.isPrefetchEnabled()) {
+            //预解码时最多同时持有 maxInFlightBytes，单张超过时只持有这一张
+            decodeBytes = Math.max(largest, Math.min(total, stitchOptions.getMaxInFlightBytes()));
+        }
+        StitchTarget target = stitchOptions != null ? stitchOptions.getStitchTarget() : null;
+        long reusableBytes = target != null ? target.getReusableBytes() : 0;
+        return MemoryPlanner.plan(width, height, decodeBytes + extraBytes, reusableBytes,
+                stitchOptions);
+    }
+
+    /**
+     * 按顺序解码并绘制每张图片，开启预解码时由工作线程提前解码
+     */
+    private Bitmap compose(List<String> pathList, @ColorInt int fillColor,
+                           @Nullable StitchOptions stitchOptions, @Nullable StitchReport report) {
+        if (stitchOptions == null || !stitchOptions.isPrefetchEnabled()) {
+            return mStitcher.compose(pathList, fillColor);
+        }
+        DecodePipeline pipeline = new DecodePipeline(pathList, mStitcher, mBackend,
+                stitchOptions.isExactDecode(), stitchOptions.getMaxInFlightBytes(), report);
+        pipeline.start(stitchOptions.getPrefetchThreadCount());
+        try {
+            return mStitcher.compose(pathList, fillColor, pipeline);
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    /**
+     * 开始一次拼接，按配置设置 backend 和回调
+     *
+     * @return 需要统计时的 StitchReport if null 不统计
+     */
+    @Nullable
+    private StitchReport begin(@Nullable StitchOptions stitchOptions) {
+        if (mBusy) {
+            throw new IllegalStateException("StitcherEngine is not reentrant,"
+                    + " use StitcherEngine.getDefault() or another instance in callbacks.");
+        }
+        mBusy = true;
+        StitchReport report = stitchOptions != null && stitchOptions.getMetrics() != null
+                ? new StitchReport(mCache) : null;
+        mBackend.setReport(report);
+        mBackend.setExactDecode(isExactDecode(stitchOptions));
+        mBackend.setConfig(Bitmap.Config.ARGB_8888);
+        mCallback.set(stitchOptions, true);
+        return report;
+    }
+
+    /**
+     * 结束一次拼接，不再持有这次的配置、统计和目标
+     */
+    private void end() {
+        mBackend.setReport(null);
+        mBackend.setTarget(null);
+        mCallback.set(null, false);
+        mBusy = false;
+    }
+
+    private static boolean isExactDecode(@Nullable StitchOptions stitchOptions) {
+        return stitchOptions != null && stitchOptions.isExactDecode();
+    }
+
+    private static void finishReport(@Nullable StitchReport report, boolean success,
+                                     @Nullable StitchOptions stitchOptions) {
+        if (report == null || stitchOptions == null || stitchOptions.getMetrics() == null) {
+            return;
+        }
+        report.finish(success);
+        stitchOptions.getMetrics().onStitchFinished(report);
+    }
+
+    private static void throwIfCanceled(@Nullable StitchOptions stitchOptions) {
+        if (stitchOptions != null) {
+            stitchOptions.throwIfCanceled();
+        }
     }
 
     private static Bitmap convertView2Bitmap(View view, int width, int height) {
@@ -420,10 +1006,6 @@ public class StitcherEngine {
         return output;
     }
 
-    private static Bitmap createBitmap(@NonNull StitchSize size) {
-        return createBitmap(size.getWidth(), size.getHeight());
-    }
-
     public static Bitmap createBitmap(int width, int height) {
         return Bitmap.createBitmap(width, height,
                 getConfigBySize(width, height));
@@ -442,17 +1024,86 @@ public class StitcherEngine {
 
     /**
      * 根据大小获取 config
-     * 如果尺寸很大还使用 Bitmap.Config.ARGB_8888 的话可能导致 OOM
+     * ARGB_8888 放不下时使用 RGB_565，由 {@link MemoryPlanner} 根据当前可用内存判断
      *
      * @param width  创建 Bitmap 的宽
      * @param height 创建 Bitmap 的高
      * @return Bitmap config ARGB_8888 or RGB_565
      */
     private static Bitmap.Config getConfigBySize(int width, int height) {
-        if (width * height > CONFIG_THRESHOLD) {
-            return Bitmap.Config.RGB_565;
-        } else {
-            return Bitmap.Config.ARGB_8888;
+        MemoryPlan plan = MemoryPlanner.plan(width, height, 0, 0, null);
+        return plan.isRejected() ? Bitmap.Config.RGB_565 : plan.getConfig();
+    }
+
+
+    /**
+     * 把 StitchOptions 的取消和进度交给 RasterStitcher，每次拼接开始时重新设置
+     */
+    private static final class OptionsCallback implements RasterStitcher.Callback {
+        @Nullable
+        private StitchOptions mOptions;
+        private boolean mNotifyProgress;
+
+        void set(@Nullable StitchOptions options, boolean notifyProgress) {
+            mOptions = options;
+            mNotifyProgress = notifyProgress;
+        }
+
+        @Override
+        public void throwIfCanceled() {
+            if (mOptions != null) {
+                mOptions.throwIfCanceled();
+            }
+        }
+
+        @Override
+        public void onProgress(int completed, int total) {
+            if (mNotifyProgress && mOptions != null) {
+                mOptions.notifyProgress(completed, total);
+            }
+        }
+    }
+
+    /**
+     * 统计编码器写入和结束的耗时，计入 {@link StitchReport.Phase#COMPRESS}
+     */
+    private static final class ReportingEncoder implements StripEncoder {
+        private final StripEncoder mEncoder;
+        private final StitchReport mReport;
+
+        ReportingEncoder(StripEncoder encoder, StitchReport report) {
+            mEncoder = encoder;
+            mReport = report;
+        }
+
+        @Override
+        public void begin(@NonNull OutputStream out, int width, int height) throws IOException {
+            mEncoder.begin(out, width, height);
+        }
+
+        @Override
+        public void writeRows(@NonNull int[] pixels, int offset, int stride, int rowCount)
+                throws IOException {
+            long start = System.nanoTime();
+            boolean traced = StitchTrace.beginSection(StitchTrace.SECTION_COMPRESS, true);
+            try {
+                mEncoder.writeRows(pixels, offset, stride, rowCount);
+            } finally {
+                StitchTrace.endSection(traced);
+                mReport.addNanos(StitchReport.Phase.COMPRESS, System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            long start = System.nanoTime();
+            boolean traced = StitchTrace.beginSection(StitchTrace.SECTION_COMPRESS, true);
+            try {
+                mEncoder.finish();
+            } finally {
+                StitchTrace.endSection(traced);
+                mReport.addNanos(StitchReport.Phase.COMPRESS, System.nanoTime() - start);
+            }
         }
     }
 }
@@ -0,0 +1,213 @@
+package com.zyyoona7.stitcher.raster;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.encoder.StripEncoder;
+import com.zyyoona7.stitcher.engine.StitcherEngine;
+import com.zyyoona7.stitcher.util.ImageMeta;
+import com.zyyoona7.stitcher.util.ImageMetaCache;
+import com.zyyoona7.stitcher.util.ReusableCache;
+import com.zyyoona7.stitcher.util.StitcherUtils;
+
+import java.io.IOException;
+
+/**
+ * 基于 Bitmap 和 Canvas 的实现，StitcherEngine 的解码、绘制、填充和编码都经过这里
+ * 元信息来自实例持有的 ImageMetaCache，画布和解码结果都从实例持有的 ReusableCache 复用
+ * 解码参数、inTempStorage、Canvas、Matrix 和 Rect 在每张图片之间复用，每个线程使用各自的实例
+ */
+public class AndroidRasterBackend implements RasterBackend<Bitmap> {
+    //解码时的临时缓冲，与 BitmapFactory 默认分配的大小一致
+    private static final int TEMP_STORAGE_SIZE = 16 * 1024;
+
+    private final ReusableCache mCache;
+    private final ImageMetaCache mMetaCache;
+    private final Canvas mCanvas = new Canvas();
+    private final Paint mPaint = StitcherEngine.createPaint();
+    //预览不做过滤和抖动，只求快
+    private final Paint mDraftPaint = new Paint();
+    private final Matrix mMatrix = new Matrix();
+    private final Rect mRect = new Rect();
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+    private Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+    private boolean mExactDecode;
+    private boolean mDraft;
+
+    /**
+     * 使用全局的 ReusableCache 和 ImageMetaCache
+     */
+    public AndroidRasterBackend() {
+        this(ReusableCache.getDefault(), ImageMetaCache.getDefault());
+    }
+
+    /**
+     * @param cache     实例使用的复用缓存
+     * @param metaCache 实例使用的元信息缓存
+     */
+    public AndroidRasterBackend(@NonNull ReusableCache cache, @NonNull ImageMetaCache metaCache) {
+        mCache = cache;
+        mMetaCache = metaCache;
+        mOptions.inTempStorage = new byte[TEMP_STORAGE_SIZE];
+    }
+
+    /**
+     * @param config 之后创建的画布的 config，默认 ARGB_8888
+     */
+    public void setConfig(@NonNull Bitmap.Config config) {
+        mConfig = config;
+    }
+
+    /**
+     * @param exactDecode true 解码时通过 inDensity 直接缩放到目标尺寸，见
+     *                    {@link StitcherUtils#calculateExactScale}
+     */
+    public void setExactDecode(boolean exactDecode) {
+        mExactDecode = exactDecode;
+    }
+
+    /**
+     * 草稿模式用于低分辨率预览：不精确解码，JPEG 用 RGB_565 解码，绘制时不做过滤和抖动
+     */
+    public void setDraft(boolean draft) {
+        mDraft = draft;
+    }
+
+    @Override
+    public boolean probe(@NonNull String path, @NonNull int[] outMeta, int offset) {
+        ImageMeta meta = getImageMeta(path);
+        if (meta.getWidth() <= 0 || meta.getHeight() <= 0) {
+            return false;
+        }
+        outMeta[offset] = meta.getRotatedWidth();
+        outMeta[offset + 1] = meta.getRotatedHeight();
+        outMeta[offset + 2] = meta.getDegree();
+        outMeta[offset + 3] = "image/jpeg".equals(meta.getMimeType()) ? FLAG_OPAQUE : 0;
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public Bitmap createSurface(int width, int height) {
+        Bitmap bitmap = mCache.get(width, height, mConfig);
+        return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, mConfig);
+    }
+
+    @Nullable
+    @Override
+    public Bitmap decode(@NonNull String path, @NonNull int[] meta, int offset,
+                         int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = mOptions;
+        //上一次解码写入的字段都需要重置
+        options.inJustDecodeBounds = false;
+        options.inBitmap = null;
+        //JPEG 没有透明通道，预览时用 RGB_565 解码内存减半
+        options.inPreferredConfig = mDraft && (meta[offset + 3] & FLAG_OPAQUE) != 0
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        options.inScaled = true;
+        options.inDensity = 0;
+        options.inTargetDensity = 0;
+        options.outWidth = meta[offset];
+        options.outHeight = meta[offset + 1];
+        options.inSampleSize = StitcherUtils.calculateInSampleSize(options, reqWidth, reqHeight);
+        if (mExactDecode && !mDraft) {
+            StitcherUtils.calculateExactScale(options, reqWidth, reqHeight);
+        }
+        Bitmap bitmap = StitcherUtils.decodeUnrotatedBitmap(path, options, meta[offset + 2],
+                mCache);
+        if (bitmap != null) {
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+        }
+        return bitmap;
+    }
+
+    @Override
+    public int getWidth(@NonNull Bitmap surface) {
+        return surface.getWidth();
+    }
+
+    @Override
+    public int getHeight(@NonNull Bitmap surface) {
+        return surface.getHeight();
+    }
+
+    @Override
+    public void fill(@NonNull Bitmap surface, int color) {
+        //复用的 Bitmap 带有上次的内容，直接用填充色覆盖，效果与透明底上 drawColor 一致
+        surface.eraseColor(color);
+    }
+
+    @Override
+    public void draw(@NonNull Bitmap dest, @NonNull Bitmap src, int degree, @NonNull int[] rects,
+                     @Nullable int[] clips, int offset, int offsetY) {
+        mCanvas.setBitmap(dest);
+        try {
+            if (clips != null) {
+                mCanvas.clipRect(clips[offset], clips[offset + 1] - offsetY, clips[offset + 2],
+                        clips[offset + 3] - offsetY);
+            }
+            mRect.set(rects[offset], rects[offset + 1] - offsetY, rects[offset + 2],
+                    rects[offset + 3] - offsetY);
+            StitcherUtils.drawBitmap(mCanvas, src, degree, mRect, mDraft ? mDraftPaint : mPaint,
+                    mMatrix);
+        } finally {
+            //重新设置 Bitmap 时裁剪区域也会重置
+            mCanvas.setBitmap(null);
+        }
+    }
+
+    @Override
+    public void encode(@NonNull Bitmap surface, int rowCount, @NonNull int[] buffer,
+                       @NonNull StripEncoder encoder) throws IOException {
+        int width = surface.getWidth();
+        surface.getPixels(buffer, 0, width, 0, 0, width, rowCount);
+        encoder.writeRows(buffer, 0, width, rowCount);
+    }
+
+    @Override
+    public void release(@NonNull Bitmap surface) {
+        mCache.put(surface);
+    }
+
+    /**
+     * 探测时读取元信息，子类可以在这里统计耗时
+     */
+    @NonNull
+    protected ImageMeta getImageMeta(@NonNull String path) {
+        return mMetaCache.get(path);
+    }
+
+    /**
+     * @return 最近一次解码使用的参数，inBitmap 为复用的 Bitmap
+     */
+    @NonNull
+    protected BitmapFactory.Options getDecodeOptions() {
+        return mOptions;
+    }
+
+    @NonNull
+    public ReusableCache getCache() {
+        return mCache;
+    }
+
+    @NonNull
+    public ImageMetaCache getMetaCache() {
+        return mMetaCache;
+    }
+
+    @NonNull
+    public Bitmap.Config getConfig() {
+        return mConfig;
+    }
+
+    public boolean isDraft() {
+        return mDraft;
+    }
+}
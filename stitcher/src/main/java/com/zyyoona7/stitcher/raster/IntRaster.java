@@ -0,0 +1,64 @@
+package com.zyyoona7.stitcher.raster;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 纯 Java 的画布，像素为非预乘的 ARGB int，按行存放，与 Bitmap#getPixels() 一致
+ * 像素数组可以比 宽 * 高 更长，复用时不需要重新分配，{@link JavaRasterBackend} 会修改宽高后复用
+ */
+public final class IntRaster {
+
+    private int mWidth;
+    private int mHeight;
+    private final int[] mPixels;
+
+    public IntRaster(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    public IntRaster(int width, int height, @NonNull int[] pixels) {
+        if (width <= 0 || height <= 0 || pixels.length < width * height) {
+            throw new IllegalArgumentException("invalid raster " + width + "x" + height
+                    + ", pixels=" + pixels.length);
+        }
+        mWidth = width;
+        mHeight = height;
+        mPixels = pixels;
+    }
+
+    /**
+     * 复用时修改宽高，像素数组必须足够
+     */
+    void setSize(int width, int height) {
+        if (width <= 0 || height <= 0 || mPixels.length < width * height) {
+            throw new IllegalArgumentException("invalid raster " + width + "x" + height
+                    + ", pixels=" + mPixels.length);
+        }
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return 像素数组，第 y 行从 y * width 开始
+     */
+    @NonNull
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    public int getPixel(int x, int y) {
+        return mPixels[y * mWidth + x];
+    }
+
+    public void setPixel(int x, int y, int color) {
+        mPixels[y * mWidth + x] = color;
+    }
+}
@@ -0,0 +1,304 @@
+package com.zyyoona7.stitcher.raster;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.encoder.StripEncoder;
+import com.zyyoona7.stitcher.util.GroupedLruPool;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 不依赖 Android 的实现，画布为 {@link IntRaster}，可以在 JVM 上测试和基准测试
+ * 图片格式的读取交给 {@link Decoder}，绘制为最近邻采样加 src-over 混合，
+ * 像素数组通过 GroupedLruPool 复用，命中率与 ReusableCache 的行为一致
+ * 最近释放的几个画布连同 IntRaster 对象一起保留，预热之后逐张解码、绘制不再分配对象
+ */
+public class JavaRasterBackend implements RasterBackend<IntRaster> {
+    //默认复用池上限
+    private static final long DEFAULT_MAX_POOL_BYTES = 64L * 1024 * 1024;
+    //所有像素数组都可以互相复用，只有一个分组
+    private static final Object GROUP = new Object();
+    //直接保留的已释放画布数量
+    private static final int MAX_FREE_RASTERS = 4;
+    //与 GroupedLruPool 一致，最多取出所需大小 8 倍的画布
+    private static final int MAX_OVER_SIZE_MULTIPLE = 8;
+
+    private final Decoder mDecoder;
+    private final PixelPool mPool;
+    //绘制时每列、每行对应的源像素偏移，长度不够时才重新分配
+    private int[] mColumnOffsets = new int[0];
+    private int[] mRowOffsets = new int[0];
+    private final int[] mMeta = new int[3];
+    private final IntRaster[] mFreeRasters = new IntRaster[MAX_FREE_RASTERS];
+    private int mFreeCount;
+    private long mFreeHitCount;
+
+    public JavaRasterBackend(@NonNull Decoder decoder) {
+        this(decoder, DEFAULT_MAX_POOL_BYTES);
+    }
+
+    /**
+     * @param decoder      图片读取
+     * @param maxPoolBytes 像素数组复用池的字节数上限，0 不复用
+     */
+    public JavaRasterBackend(@NonNull Decoder decoder, long maxPoolBytes) {
+        mDecoder = decoder;
+        mPool = new PixelPool(maxPoolBytes);
+    }
+
+    @Override
+    public boolean probe(@NonNull String path, @NonNull int[] outMeta, int offset) {
+        if (!mDecoder.decodeBounds(path, mMeta) || mMeta[0] <= 0 || mMeta[1] <= 0) {
+            return false;
+        }
+        boolean swap = mMeta[2] == 90 || mMeta[2] == 270;
+        outMeta[offset] = swap ? mMeta[1] : mMeta[0];
+        outMeta[offset + 1] = swap ? mMeta[0] : mMeta[1];
+        outMeta[offset + 2] = mMeta[2];
+        outMeta[offset + 3] = 0;
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public IntRaster createSurface(int width, int height) {
+        return obtainRaster(width, height);
+    }
+
+    @Nullable
+    @Override
+    public IntRaster decode(@NonNull String path, @NonNull int[] meta, int offset,
+                            int reqWidth, int reqHeight) {
+        int sampleSize = RasterCompositor.calculateSampleSize(meta[offset], meta[offset + 1],
+                reqWidth, reqHeight);
+        return mDecoder.decode(path, sampleSize, this);
+    }
+
+    @Override
+    public int getWidth(@NonNull IntRaster surface) {
+        return surface.getWidth();
+    }
+
+    @Override
+    public int getHeight(@NonNull IntRaster surface) {
+        return surface.getHeight();
+    }
+
+    @Override
+    public void fill(@NonNull IntRaster surface, int color) {
+        Arrays.fill(surface.getPixels(), 0, surface.getWidth() * surface.getHeight(), color);
+    }
+
+    @Override
+    public void draw(@NonNull IntRaster dest, @NonNull IntRaster src, int degree,
+                     @NonNull int[] rects, @Nullable int[] clips, int offset, int offsetY) {
+        int left = rects[offset];
+        int top = rects[offset + 1] - offsetY;
+        int destWidth = rects[offset + 2] - left;
+        int destHeight = rects[offset + 3] - rects[offset + 1];
+        int startX = Math.max(left, 0);
+        int endX = Math.min(left + destWidth, dest.getWidth());
+        int startY = Math.max(top, 0);
+        int endY = Math.min(top + destHeight, dest.getHeight());
+        if (clips != null) {
+            startX = Math.max(startX, clips[offset]);
+            endX = Math.min(endX, clips[offset + 2]);
+            startY = Math.max(startY, clips[offset + 1] - offsetY);
+            endY = Math.min(endY, clips[offset + 3] - offsetY);
+        }
+        if (destWidth <= 0 || destHeight <= 0 || startX >= endX || startY >= endY) {
+            return;
+        }
+        int srcWidth = src.getWidth();
+        int srcHeight = src.getHeight();
+        if (mColumnOffsets.length < destWidth) {
+            mColumnOffsets = new int[destWidth];
+        }
+        if (mRowOffsets.length < destHeight) {
+            mRowOffsets = new int[destHeight];
+        }
+        //旋转 0/180 度时目标的列对应源的列，90/270 度时目标的列对应源的行
+        boolean swap = degree == 90 || degree == 270;
+        boolean flipColumn = degree == 90 || degree == 180;
+        boolean flipRow = degree == 180 || degree == 270;
+        for (int x = 0; x < destWidth; x++) {
+            int index = sample(flipColumn ? destWidth - 1 - x : x, destWidth,
+                    swap ? srcHeight : srcWidth);
+            mColumnOffsets[x] = swap ? index * srcWidth : index;
+        }
+        for (int y = 0; y < destHeight; y++) {
+            int index = sample(flipRow ? destHeight - 1 - y : y, destHeight,
+                    swap ? srcWidth : srcHeight);
+            mRowOffsets[y] = swap ? index : index * srcWidth;
+        }
+
+        int[] srcPixels = src.getPixels();
+        int[] destPixels = dest.getPixels();
+        int stride = dest.getWidth();
+        for (int y = startY; y < endY; y++) {
+            int rowOffset = mRowOffsets[y - top];
+            int destOffset = y * stride;
+            for (int x = startX; x < endX; x++) {
+                int color = srcPixels[rowOffset + mColumnOffsets[x - left]];
+                int alpha = color >>> 24;
+                if (alpha == 0xFF) {
+                    destPixels[destOffset + x] = color;
+                } else if (alpha != 0) {
+                    destPixels[destOffset + x] = blend(color, destPixels[destOffset + x]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void encode(@NonNull IntRaster surface, int rowCount, @NonNull int[] buffer,
+                       @NonNull StripEncoder encoder) throws IOException {
+        //像素格式和编码器一致，直接写入不需要拷贝
+        encoder.writeRows(surface.getPixels(), 0, surface.getWidth(), rowCount);
+    }
+
+    @Override
+    public void release(@NonNull IntRaster surface) {
+        for (int i = 0; i < mFreeCount; i++) {
+            if (mFreeRasters[i] == surface) {
+                return;
+            }
+        }
+        if (mFreeCount < MAX_FREE_RASTERS) {
+            mFreeRasters[mFreeCount++] = surface;
+        } else {
+            mPool.put(surface.getPixels());
+        }
+    }
+
+    /**
+     * 获取指定尺寸的画布，优先复用最近释放的画布，其次从复用池取像素数组，供 {@link Decoder} 使用
+     * 内容是未定义的
+     */
+    @NonNull
+    public IntRaster obtainRaster(int width, int height) {
+        int length = width * height;
+        int best = -1;
+        for (int i = 0; i < mFreeCount; i++) {
+            int capacity = mFreeRasters[i].getPixels().length;
+            if (capacity >= length && capacity <= (long) length * MAX_OVER_SIZE_MULTIPLE
+                    && (best == -1 || capacity < mFreeRasters[best].getPixels().length)) {
+                best = i;
+            }
+        }
+        if (best == -1) {
+            return new IntRaster(width, height, obtainPixels(length));
+        }
+        IntRaster raster = mFreeRasters[best];
+        mFreeRasters[best] = mFreeRasters[--mFreeCount];
+        mFreeRasters[mFreeCount] = null;
+        raster.setSize(width, height);
+        mFreeHitCount++;
+        return raster;
+    }
+
+    /**
+     * 获取至少 length 长度的像素数组，优先从复用池取，供 {@link Decoder} 使用
+     */
+    @NonNull
+    public int[] obtainPixels(int length) {
+        int[] pixels = mPool.get(GROUP, length * 4);
+        return pixels != null ? pixels : new int[length];
+    }
+
+    /**
+     * @return 复用的次数，包括直接复用已释放的画布
+     */
+    public long getPoolHitCount() {
+        return mPool.getHitCount() + mFreeHitCount;
+    }
+
+    public long getPoolMissCount() {
+        return mPool.getMissCount();
+    }
+
+    public long getPoolEvictionCount() {
+        return mPool.getEvictionCount();
+    }
+
+    public long getPoolBytes() {
+        return mPool.getCurrentBytes();
+    }
+
+    /**
+     * 目标第 index 个像素中心对应的源像素
+     */
+    private static int sample(int index, int destLength, int srcLength) {
+        int result = (int) ((index + 0.5f) * srcLength / destLength);
+        return Math.min(result, srcLength - 1);
+    }
+
+    /**
+     * 非预乘 ARGB 的 src-over 混合
+     */
+    private static int blend(int src, int dest) {
+        int srcAlpha = src >>> 24;
+        int destAlpha = dest >>> 24;
+        int inverse = 255 - srcAlpha;
+        int outAlpha = srcAlpha + destAlpha * inverse / 255;
+        if (outAlpha == 0) {
+            return 0;
+        }
+        int red = blendChannel((src >> 16) & 0xFF, (dest >> 16) & 0xFF,
+                srcAlpha, destAlpha, inverse, outAlpha);
+        int green = blendChannel((src >> 8) & 0xFF, (dest >> 8) & 0xFF,
+                srcAlpha, destAlpha, inverse, outAlpha);
+        int blue = blendChannel(src & 0xFF, dest & 0xFF, srcAlpha, destAlpha, inverse, outAlpha);
+        return (outAlpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    private static int blendChannel(int src, int dest, int srcAlpha, int destAlpha,
+                                    int inverse, int outAlpha) {
+        return (src * srcAlpha + dest * destAlpha * inverse / 255) / outAlpha;
+    }
+
+    /**
+     * 图片读取，可以接入任意纯 Java 的解码库或直接生成测试数据
+     */
+    public interface Decoder {
+
+        /**
+         * @param outMeta 依次写入未旋转的宽、高和 EXIF 旋转角度
+         * @return true 读取成功
+         */
+        boolean decodeBounds(@NonNull String path, @NonNull int[] outMeta);
+
+        /**
+         * 按采样率解码，不处理旋转
+         *
+         * @param sampleSize 2 的幂，宽高都缩小为 1/sampleSize
+         * @param backend    可以通过 {@link #obtainRaster} 复用画布
+         * @return 未旋转的画布 if null 解码失败
+         */
+        @Nullable
+        IntRaster decode(@NonNull String path, int sampleSize, @NonNull JavaRasterBackend backend);
+    }
+
+    private static class PixelPool extends GroupedLruPool<int[]> {
+
+        PixelPool(long maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected Object getGroup(int[] item) {
+            return GROUP;
+        }
+
+        @Override
+        protected int getByteSize(int[] item) {
+            return item.length * 4;
+        }
+
+        @Override
+        protected void onRemoved(int[] item) {
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.zyyoona7.stitcher.raster;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.encoder.StripEncoder;
+
+import java.io.IOException;
+
+/**
+ * 拼接需要的像素操作：创建画布、按尺寸解码、缩放旋转绘制、填充和编码
+ * {@link RasterStitcher} 只通过这个接口操作像素，StitcherEngine 通过 {@link AndroidRasterBackend}
+ * 使用同一个循环，在 JVM 上可以用 {@link JavaRasterBackend} 运行这个循环的测试与基准测试
+ * 实现不要求线程安全，一次拼接使用一个实例
+ *
+ * @param <S> 画布类型
+ */
+public interface RasterBackend<S> {
+    //每张图片探测得到的信息个数：旋转后的宽、高、旋转角度和格式标记
+    int META_SIZE = 4;
+    //格式标记，图片格式没有透明通道，如 JPEG
+    int FLAG_OPAQUE = 1;
+
+    /**
+     * 探测图片信息
+     *
+     * @param path    图片地址
+     * @param outMeta 从 offset 开始依次写入按 EXIF 旋转后的宽、高、旋转角度和格式标记
+     * @return true 探测成功
+     */
+    boolean probe(@NonNull String path, @NonNull int[] outMeta, int offset);
+
+    /**
+     * 创建画布，内容未定义，需要先 {@link #fill}
+     */
+    @NonNull
+    S createSurface(int width, int height);
+
+    /**
+     * 按目标尺寸采样解码，不处理 EXIF 旋转，图片信息使用 {@link #probe} 的结果，不再重新探测
+     *
+     * @param meta      {@link #probe} 写入的信息，从 offset 开始
+     * @param reqWidth  目标宽度，旋转后的方向
+     * @param reqHeight 目标高度，旋转后的方向
+     * @return 未旋转的画布 if null 解码失败
+     */
+    @Nullable
+    S decode(@NonNull String path, @NonNull int[] meta, int offset, int reqWidth, int reqHeight);
+
+    int getWidth(@NonNull S surface);
+
+    int getHeight(@NonNull S surface);
+
+    /**
+     * 用颜色覆盖整个画布
+     */
+    void fill(@NonNull S surface, int color);
+
+    /**
+     * 把未旋转的 src 按角度旋转并缩放绘制到 dest 的目标区域，超出 dest 或裁剪区域的部分裁掉
+     *
+     * @param rects   从 offset 开始依次为 left, top, right, bottom
+     * @param clips   裁剪区域，与 rects 的排列一致 if null 不裁剪
+     * @param offsetY dest 第一行在拼接结果中的位置，条带渲染时不为 0
+     */
+    void draw(@NonNull S dest, @NonNull S src, int degree, @NonNull int[] rects,
+              @Nullable int[] clips, int offset, int offsetY);
+
+    /**
+     * 把画布前 rowCount 行写入编码器
+     *
+     * @param buffer 长度不小于 宽 * rowCount 的临时数组，实现可以不使用
+     */
+    void encode(@NonNull S surface, int rowCount, @NonNull int[] buffer,
+                @NonNull StripEncoder encoder) throws IOException;
+
+    /**
+     * 画布不再使用，可以放回复用池
+     */
+    void release(@NonNull S surface);
+}
@@ -0,0 +1,352 @@
+package com.zyyoona7.stitcher.raster;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.encoder.StripEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * 与具体像素实现无关的布局计算，拼接和条带编码交给 {@link RasterStitcher}
+ * 布局的计算与 SizeEngine、StitcherEngine 一致，StitcherEngine 的布局、重叠布局、缩放和
+ * StitchedImage 的 viewport 映射也由这里计算；
+ * 配合 {@link JavaRasterBackend} 可以在没有设备的情况下测试和基准测试
+ * 这里不使用 android 的任何类
+ */
+public final class RasterCompositor {
+
+    //缩放策略，与 SizeEngine 相同
+    public static final int SCALE_LARGER = 0;
+    public static final int SCALE_SMALLER = -1;
+
+    //宫格中图片的缩放方式
+    //等比缩放铺满单元格，超出的部分裁掉
+    public static final int CELL_CENTER_CROP = 0;
+    //等比缩放完整显示在单元格中间，空白部分为填充色
+    public static final int CELL_FIT_CENTER = 1;
+
+    private RasterCompositor() {
+    }
+
+    /**
+     * 计算垂直方向排列时每张图片的目标位置
+     *
+     * @param widths    每张图片旋转后的宽度
+     * @param heights   每张图片旋转后的高度
+     * @param destWidth 目标宽度，也可以是 {@link #SCALE_LARGER} 或 {@link #SCALE_SMALLER}
+     * @param spacing   垂直间距
+     * @param outSize   长度为 2，写入拼接结果的宽高
+     * @return 目标位置，依次为 left, top, right, bottom
+     */
+    @NonNull
+    public static int[] layoutVertical(@NonNull int[] widths, @NonNull int[] heights,
+                                       int destWidth, int spacing, @NonNull int[] outSize) {
+        return layout(widths, heights, widths.length, destWidth, spacing, true,
+                new int[widths.length * 4], outSize);
+    }
+
+    /**
+     * 计算水平方向排列时每张图片的目标位置
+     *
+     * @param widths     每张图片旋转后的宽度
+     * @param heights    每张图片旋转后的高度
+     * @param destHeight 目标高度，也可以是 {@link #SCALE_LARGER} 或 {@link #SCALE_SMALLER}
+     * @param spacing    水平间距
+     * @param outSize    长度为 2，写入拼接结果的宽高
+     * @return 目标位置，依次为 left, top, right, bottom
+     */
+    @NonNull
+    public static int[] layoutHorizontal(@NonNull int[] widths, @NonNull int[] heights,
+                                         int destHeight, int spacing, @NonNull int[] outSize) {
+        return layout(heights, widths, widths.length, destHeight, spacing, false,
+                new int[widths.length * 4], outSize);
+    }
+
+    /**
+     * 以主轴方向统一计算，垂直排列时 cross 为宽度、main 为高度，水平排列时相反
+     * 只使用前 count 个尺寸，结果写入 outRects，数组可以比需要的长，便于复用
+     */
+    static int[] layout(int[] crossSizes, int[] mainSizes, int count, int destCross,
+                        int spacing, boolean vertical, int[] outRects, int[] outSize) {
+        int maxCross = -1;
+        int minCross = -1;
+        for (int i = 0; i < count; i++) {
+            int cross = crossSizes[i];
+            if (maxCross == -1 || cross > maxCross) {
+                maxCross = cross;
+            }
+            if (minCross == -1 || cross < minCross) {
+                minCross = cross;
+            }
+        }
+        int targetCross = destCross;
+        if (destCross == SCALE_LARGER) {
+            targetCross = maxCross;
+        } else if (destCross < 0) {
+            targetCross = minCross;
+        }
+
+        int[] rects = outRects;
+        int current = 0;
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            int cross = crossSizes[i];
+            int main = mainSizes[i];
+            if (cross != targetCross) {
+                main = roundFloatToInt(targetCross * (main * 1f / cross));
+                cross = targetCross;
+            }
+            int offset = i * 4;
+            rects[offset] = vertical ? 0 : current;
+            rects[offset + 1] = vertical ? current : 0;
+            rects[offset + 2] = vertical ? cross : current + main;
+            rects[offset + 3] = vertical ? current + main : cross;
+            current += main + spacing;
+            total += main;
+        }
+        //与 SizeEngine 一致，负的间距只影响位置，不计入总尺寸
+        if (spacing > 0) {
+            total += spacing * (count - 1);
+        }
+        outSize[0] = vertical ? Math.max(targetCross, 0) : total;
+        outSize[1] = vertical ? total : Math.max(targetCross, 0);
+        return rects;
+    }
+
+    /**
+     * 去掉重叠区域后计算垂直方向排列时每张图片的位置
+     * 按裁剪后的高度排列得到可见区域，再向上下延伸被裁掉的部分得到完整图片的绘制区域
+     *
+     * @param widths       每张图片旋转后的宽度
+     * @param heights      每张图片旋转后的高度
+     * @param topCrops     每张图片顶部裁掉的行数，至少保留一行
+     * @param bottomCrops  每张图片底部裁掉的行数
+     * @param destWidth    目标宽度，也可以是 {@link #SCALE_LARGER} 或 {@link #SCALE_SMALLER}
+     * @param spacing      垂直间距
+     * @param outClipRects 长度不小于 图片数 * 4，写入每张图片的可见区域，绘制时作为裁剪区域
+     * @param outSize      长度为 2，写入拼接结果的宽高
+     * @return 完整图片的绘制位置，依次为 left, top, right, bottom
+     */
+    @NonNull
+    public static int[] layoutOverlapped(@NonNull int[] widths, @NonNull int[] heights,
+                                         @NonNull int[] topCrops, @NonNull int[] bottomCrops,
+                                         int destWidth, int spacing,
+                                         @NonNull int[] outClipRects, @NonNull int[] outSize) {
+        int count = widths.length;
+        int[] rects = new int[count * 4];
+        layoutOverlapped(widths, heights, count, topCrops, bottomCrops, destWidth, spacing,
+                new int[count], rects, outClipRects, outSize);
+        return rects;
+    }
+
+    /**
+     * 只使用前 count 张图片，结果写入 outRects，visibleHeights 为长度不小于 count 的临时数组，
+     * 数组都可以比需要的长，供 {@link RasterStitcher} 复用
+     */
+    static void layoutOverlapped(int[] widths, int[] heights, int count, int[] topCrops,
+                                 int[] bottomCrops, int destWidth, int spacing,
+                                 int[] visibleHeights, int[] outRects, int[] outClipRects,
+                                 int[] outSize) {
+        for (int i = 0; i < count; i++) {
+            visibleHeights[i] = heights[i] - topCrops[i] - bottomCrops[i];
+        }
+        layout(widths, visibleHeights, count, destWidth, spacing, true, outClipRects, outSize);
+        for (int i = 0; i < count; i++) {
+            int offset = i * 4;
+            int clipHeight = outClipRects[offset + 3] - outClipRects[offset + 1];
+            float scale = visibleHeights[i] > 0 ? clipHeight / (float) visibleHeights[i] : 0f;
+            //裁掉的行数可以是 0，用 Math.round 取整
+            outRects[offset] = outClipRects[offset];
+            outRects[offset + 1] = outClipRects[offset + 1] - Math.round(topCrops[i] * scale);
+            outRects[offset + 2] = outClipRects[offset + 2];
+            outRects[offset + 3] = outClipRects[offset + 3] + Math.round(bottomCrops[i] * scale);
+        }
+    }
+
+    /**
+     * 按比例缩小布局，如内存不足时和预览，相邻的边按同样的方式取整，不会出现缝隙
+     * 边是坐标不是尺寸，用 Math.round 取整，0 仍然是 0
+     *
+     * @param rects 依次为 left, top, right, bottom
+     * @param scale 缩放比例，不小于 1 时直接返回 rects
+     * @return 缩小后的位置
+     */
+    @NonNull
+    public static int[] scaleRects(@NonNull int[] rects, float scale) {
+        if (scale >= 1f) {
+            return rects;
+        }
+        int[] scaled = new int[rects.length];
+        for (int i = 0; i < rects.length; i++) {
+            scaled[i] = Math.round(rects[i] * scale);
+        }
+        return scaled;
+    }
+
+    /**
+     * 预览的缩放比例，较长的一边不超过 maxSize，不放大
+     *
+     * @param width   拼接结果的宽度
+     * @param height  拼接结果的高度
+     * @param maxSize 预览较长一边的最大尺寸
+     */
+    public static float calculatePreviewScale(int width, int height, int maxSize) {
+        return Math.min(1f, maxSize / (float) Math.max(width, height));
+    }
+
+    /**
+     * 把拼接结果中的坐标映射到 viewport 绘制的目标上，坐标可以是 0 或负数，用 Math.round 取整
+     *
+     * @param value  拼接结果中的坐标
+     * @param origin viewport 的起点
+     * @param scale  viewport 的缩放比例
+     */
+    public static int mapToViewport(float value, int origin, float scale) {
+        return Math.round((value - origin) * scale);
+    }
+
+    /**
+     * 计算宫格排列时每张图片的绘制位置，按行从左到右排列
+     *
+     * @param widths     每张图片旋转后的宽度
+     * @param heights    每张图片旋转后的高度
+     * @param columns    列数
+     * @param cellWidth  单元格宽度
+     * @param cellHeight 单元格高度
+     * @param hSpacing   水平间距，小于 0 时按 0 处理
+     * @param vSpacing   垂直间距，小于 0 时按 0 处理
+     * @param scaleType  {@link #CELL_CENTER_CROP} or {@link #CELL_FIT_CENTER}
+     * @param outCells   长度不小于 图片数 * 4，写入每个单元格的位置，绘制时需要裁剪到单元格内
+     * @param outSize    长度为 2，写入拼接结果的宽高
+     * @return 绘制位置，依次为 left, top, right, bottom，CENTER_CROP 时会超出单元格
+     */
+    @NonNull
+    public static int[] layoutGrid(@NonNull int[] widths, @NonNull int[] heights, int columns,
+                                   int cellWidth, int cellHeight, int hSpacing, int vSpacing,
+                                   int scaleType, @NonNull int[] outCells,
+                                   @NonNull int[] outSize) {
+        int count = widths.length;
+        int[] rects = new int[count * 4];
+        layoutGrid(widths, heights, count, columns, cellWidth, cellHeight, hSpacing, vSpacing,
+                scaleType, rects, outCells, outSize);
+        return rects;
+    }
+
+    /**
+     * 只使用前 count 张图片，结果写入 outRects，数组可以比需要的长，供 {@link RasterStitcher} 复用
+     */
+    static void layoutGrid(int[] widths, int[] heights, int count, int columns, int cellWidth,
+                           int cellHeight, int hSpacing, int vSpacing, int scaleType,
+                           int[] outRects, int[] outCells, int[] outSize) {
+        columns = Math.max(1, Math.min(columns, count));
+        int rows = (count + columns - 1) / columns;
+        hSpacing = Math.max(0, hSpacing);
+        vSpacing = Math.max(0, vSpacing);
+
+        int[] rects = outRects;
+        for (int i = 0; i < count; i++) {
+            int cellLeft = (i % columns) * (cellWidth + hSpacing);
+            int cellTop = (i / columns) * (cellHeight + vSpacing);
+            float scaleX = cellWidth * 1f / widths[i];
+            float scaleY = cellHeight * 1f / heights[i];
+            float scale = scaleType == CELL_FIT_CENTER
+                    ? Math.min(scaleX, scaleY) : Math.max(scaleX, scaleY);
+            int width = roundFloatToInt(widths[i] * scale);
+            int height = roundFloatToInt(heights[i] * scale);
+            int offset = i * 4;
+            outCells[offset] = cellLeft;
+            outCells[offset + 1] = cellTop;
+            outCells[offset + 2] = cellLeft + cellWidth;
+            outCells[offset + 3] = cellTop + cellHeight;
+            rects[offset] = cellLeft + (cellWidth - width) / 2;
+            rects[offset + 1] = cellTop + (cellHeight - height) / 2;
+            rects[offset + 2] = rects[offset] + width;
+            rects[offset + 3] = rects[offset + 1] + height;
+        }
+        outSize[0] = count > 0 ? columns * cellWidth + (columns - 1) * hSpacing : 0;
+        outSize[1] = count > 0 ? rows * cellHeight + (rows - 1) * vSpacing : 0;
+    }
+
+    /**
+     * 探测图片并按垂直方向拼接
+     *
+     * @return 拼接结果 if null 探测出错
+     */
+    @Nullable
+    public static <S> S stitchVertical(@NonNull RasterBackend<S> backend,
+                                       @NonNull List<String> pathList, int destWidth,
+                                       int spacing, int fillColor) {
+        return new RasterStitcher<>(backend).stitchVertical(pathList, destWidth, spacing,
+                fillColor);
+    }
+
+    /**
+     * 探测图片并按水平方向拼接
+     *
+     * @return 拼接结果 if null 探测出错
+     */
+    @Nullable
+    public static <S> S stitchHorizontal(@NonNull RasterBackend<S> backend,
+                                         @NonNull List<String> pathList, int destHeight,
+                                         int spacing, int fillColor) {
+        return new RasterStitcher<>(backend).stitchHorizontal(pathList, destHeight, spacing,
+                fillColor);
+    }
+
+    /**
+     * 按已经计算好的布局拼接，解码失败的图片留空
+     *
+     * @param rects 每张图片的目标位置，依次为 left, top, right, bottom
+     * @return 拼接结果，不再使用时交给 {@link RasterBackend#release}
+     */
+    @NonNull
+    public static <S> S compose(@NonNull RasterBackend<S> backend, @NonNull List<String> pathList,
+                                @NonNull int[] rects, int width, int height, int fillColor) {
+        RasterStitcher<S> stitcher = new RasterStitcher<>(backend);
+        stitcher.probe(pathList);
+        stitcher.setLayout(rects, null, width, height);
+        return stitcher.compose(pathList, fillColor);
+    }
+
+    /**
+     * 按已经计算好的布局拼接，按条带渲染并编码写入输出流，rects 需要按 top 排列
+     *
+     * @param stripHeight 条带高度
+     */
+    public static <S> void encode(@NonNull RasterBackend<S> backend, @NonNull List<String> pathList,
+                                  @NonNull int[] rects, int width, int height, int fillColor,
+                                  int stripHeight, @NonNull StripEncoder encoder,
+                                  @NonNull OutputStream outputStream) throws IOException {
+        RasterStitcher<S> stitcher = new RasterStitcher<>(backend);
+        stitcher.probe(pathList);
+        stitcher.setLayout(rects, null, width, height);
+        stitcher.encode(pathList, fillColor, stripHeight, encoder, outputStream);
+    }
+
+    /**
+     * 采样率为 2 的幂，并且采样后的宽高都不小于目标宽高，与 BitmapFactory 的 inSampleSize 一致
+     */
+    public static int calculateSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        if (height > reqHeight || width > reqWidth) {
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+            while ((halfHeight / sampleSize) > reqHeight
+                    && (halfWidth / sampleSize) > reqWidth) {
+                sampleSize *= 2;
+            }
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 四舍五入，最小为 1，与 StitcherUtils#roundFloatToInt 一致
+     */
+    public static int roundFloatToInt(float value) {
+        int result = Math.round(value);
+        return result == 0 ? 1 : result;
+    }
+}
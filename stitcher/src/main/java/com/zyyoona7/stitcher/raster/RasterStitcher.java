@@ -0,0 +1,539 @@
+package com.zyyoona7.stitcher.raster;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.encoder.StripEncoder;
+import com.zyyoona7.stitcher.util.DecodeMath;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * 可以实例化的拼接循环：探测、布局、按比例缩小、逐张解码绘制和条带编码
+ * StitcherEngine 通过 {@link AndroidRasterBackend} 使用这个循环，在 JVM 上配合
+ * {@link JavaRasterBackend} 测试的就是同一份代码
+ * 尺寸、布局和元信息保存在实例的数组中，长度不够时才重新分配，预热之后每次拼接不再分配 Java 对象
+ * 实例不是线程安全的，每个工作线程使用各自的实例
+ * <pre>
+ * RasterStitcher&lt;Bitmap&gt; stitcher = new RasterStitcher&lt;&gt;(
+ *         new AndroidRasterBackend(new ReusableCache(maxBytes), new ImageMetaCache()));
+ * Bitmap bitmap = stitcher.stitchVertical(pathList, 1080, 0, Color.WHITE);
+ * </pre>
+ *
+ * @param <S> 画布类型
+ */
+public final class RasterStitcher<S> {
+    private static final int META_SIZE = RasterBackend.META_SIZE;
+
+    private final RasterBackend<S> mBackend;
+    @Nullable
+    private Callback mCallback;
+    private final int[] mSize = new int[2];
+    private int mCount;
+    private int mLayoutWidth;
+    private int mLayoutHeight;
+    private int mWidth;
+    private int mHeight;
+    private boolean mHasClips;
+    private int[] mMetas = new int[0];
+    private int[] mWidths = new int[0];
+    private int[] mHeights = new int[0];
+    private int[] mVisibleHeights = new int[0];
+    //布局得到的位置和裁剪区域，缩小时由它们计算绘制用的 mRects 和 mClips
+    private int[] mLayoutRects = new int[0];
+    private int[] mLayoutClips = new int[0];
+    private int[] mRects = new int[0];
+    private int[] mClips = new int[0];
+    //条带编码时已解码的图片和临时像素数组
+    private Object[] mSources = new Object[0];
+    private boolean[] mDecoded = new boolean[0];
+    private int[] mBuffer = new int[0];
+
+    public RasterStitcher(@NonNull RasterBackend<S> backend) {
+        mBackend = backend;
+    }
+
+    /**
+     * @param callback 取消和进度 if null 不检查取消也不回调进度
+     */
+    public void setCallback(@Nullable Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * 探测图片并按垂直方向拼接，布局与 {@link RasterCompositor#layoutVertical} 一致
+     *
+     * @param destWidth 目标宽度，也可以是 {@link RasterCompositor#SCALE_LARGER} 或
+     *                  {@link RasterCompositor#SCALE_SMALLER}
+     * @return 拼接结果 if null 探测出错，不再使用时交给 {@link #release}
+     */
+    @Nullable
+    public S stitchVertical(@NonNull List<String> pathList, int destWidth, int spacing,
+                            int fillColor) {
+        if (!probe(pathList)) {
+            return null;
+        }
+        layoutVertical(destWidth, spacing);
+        return isEmpty() ? null : compose(pathList, fillColor);
+    }
+
+    /**
+     * 探测图片并按水平方向拼接，布局与 {@link RasterCompositor#layoutHorizontal} 一致
+     *
+     * @param destHeight 目标高度，也可以是 {@link RasterCompositor#SCALE_LARGER} 或
+     *                   {@link RasterCompositor#SCALE_SMALLER}
+     * @return 拼接结果 if null 探测出错，不再使用时交给 {@link #release}
+     */
+    @Nullable
+    public S stitchHorizontal(@NonNull List<String> pathList, int destHeight, int spacing,
+                              int fillColor) {
+        if (!probe(pathList)) {
+            return null;
+        }
+        layoutHorizontal(destHeight, spacing);
+        return isEmpty() ? null : compose(pathList, fillColor);
+    }
+
+    /**
+     * 探测每张图片，每张只探测一次，之后的布局、解码和绘制都使用探测的结果
+     * 探测失败的图片宽高记为 0，拼接时留空
+     *
+     * @return true 列表不为空并且每张都探测成功
+     */
+    public boolean probe(@NonNull List<String> pathList) {
+        int count = pathList.size();
+        ensureCapacity(count);
+        mCount = count;
+        boolean success = count > 0;
+        for (int i = 0; i < count; i++) {
+            int offset = i * META_SIZE;
+            if (!mBackend.probe(pathList.get(i), mMetas, offset)) {
+                mMetas[offset] = 0;
+                mMetas[offset + 1] = 0;
+                mMetas[offset + 2] = 0;
+                mMetas[offset + 3] = 0;
+                success = false;
+            }
+            mWidths[i] = mMetas[offset];
+            mHeights[i] = mMetas[offset + 1];
+        }
+        return success;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return 第 index 张图片旋转后的宽度，探测失败时为 0
+     */
+    public int getSourceWidth(int index) {
+        return mMetas[index * META_SIZE];
+    }
+
+    /**
+     * @return 第 index 张图片旋转后的高度，探测失败时为 0
+     */
+    public int getSourceHeight(int index) {
+        return mMetas[index * META_SIZE + 1];
+    }
+
+    /**
+     * @return 第 index 张图片的 EXIF 旋转角度
+     */
+    public int getSourceDegree(int index) {
+        return mMetas[index * META_SIZE + 2];
+    }
+
+    /**
+     * 把第 index 张图片探测得到的信息复制到 outMeta，供其他线程的 {@link RasterBackend#decode} 使用
+     */
+    public void copyMeta(int index, @NonNull int[] outMeta, int offset) {
+        System.arraycopy(mMetas, index * META_SIZE, outMeta, offset, META_SIZE);
+    }
+
+    /**
+     * 垂直方向排列，与 {@link RasterCompositor#layoutVertical} 一致
+     */
+    public void layoutVertical(int destWidth, int spacing) {
+        RasterCompositor.layout(mWidths, mHeights, mCount, destWidth, spacing, true,
+                mLayoutRects, mSize);
+        onLayout(false);
+    }
+
+    /**
+     * 水平方向排列，与 {@link RasterCompositor#layoutHorizontal} 一致
+     */
+    public void layoutHorizontal(int destHeight, int spacing) {
+        RasterCompositor.layout(mHeights, mWidths, mCount, destHeight, spacing, false,
+                mLayoutRects, mSize);
+        onLayout(false);
+    }
+
+    /**
+     * 去掉重叠区域后垂直方向排列，与 {@link RasterCompositor#layoutOverlapped} 一致，
+     * 绘制时裁剪到可见区域
+     */
+    public void layoutOverlapped(@NonNull int[] topCrops, @NonNull int[] bottomCrops,
+                                 int destWidth, int spacing) {
+        RasterCompositor.layoutOverlapped(mWidths, mHeights, mCount, topCrops, bottomCrops,
+                destWidth, spacing, mVisibleHeights, mLayoutRects, mLayoutClips, mSize);
+        onLayout(true);
+    }
+
+    /**
+     * 宫格排列，与 {@link RasterCompositor#layoutGrid} 一致，绘制时裁剪到单元格内
+     */
+    public void layoutGrid(int columns, int cellWidth, int cellHeight, int hSpacing,
+                           int vSpacing, int scaleType) {
+        RasterCompositor.layoutGrid(mWidths, mHeights, mCount, columns, cellWidth, cellHeight,
+                hSpacing, vSpacing, scaleType, mLayoutRects, mLayoutClips, mSize);
+        onLayout(true);
+    }
+
+    /**
+     * 使用已经计算好的布局，需要先 {@link #probe}
+     *
+     * @param rects 每张图片的目标位置，依次为 left, top, right, bottom
+     * @param clips 每张图片的裁剪区域 if null 不裁剪
+     */
+    public void setLayout(@NonNull int[] rects, @Nullable int[] clips, int width, int height) {
+        System.arraycopy(rects, 0, mLayoutRects, 0, mCount * 4);
+        if (clips != null) {
+            System.arraycopy(clips, 0, mLayoutClips, 0, mCount * 4);
+        }
+        mSize[0] = width;
+        mSize[1] = height;
+        onLayout(clips != null);
+    }
+
+    /**
+     * 按比例缩小布局，如内存不足时和预览，与 {@link RasterCompositor#scaleRects} 一致
+     * 总是以布局的结果为基准，不会累积缩小
+     *
+     * @param scale 缩放比例，不小于 1 时恢复为布局的尺寸
+     */
+    public void setScale(float scale) {
+        int length = mCount * 4;
+        if (scale >= 1f) {
+            System.arraycopy(mLayoutRects, 0, mRects, 0, length);
+            System.arraycopy(mLayoutClips, 0, mClips, 0, mHasClips ? length : 0);
+            mWidth = mLayoutWidth;
+            mHeight = mLayoutHeight;
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            mRects[i] = Math.round(mLayoutRects[i] * scale);
+            if (mHasClips) {
+                mClips[i] = Math.round(mLayoutClips[i] * scale);
+            }
+        }
+        mWidth = RasterCompositor.roundFloatToInt(mLayoutWidth * scale);
+        mHeight = RasterCompositor.roundFloatToInt(mLayoutHeight * scale);
+    }
+
+    /**
+     * @return 拼接结果的宽度，已经按 {@link #setScale} 缩小
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public boolean isEmpty() {
+        return mWidth <= 0 || mHeight <= 0;
+    }
+
+    /**
+     * 把绘制位置写入 outRects，依次为 left, top, right, bottom
+     */
+    public void copyRects(@NonNull int[] outRects) {
+        System.arraycopy(mRects, 0, outRects, 0, mCount * 4);
+    }
+
+    /**
+     * @return 第 index 张图片的绘制宽度，也是解码的目标宽度
+     */
+    public int getDrawWidth(int index) {
+        return mRects[index * 4 + 2] - mRects[index * 4];
+    }
+
+    public int getDrawHeight(int index) {
+        return mRects[index * 4 + 3] - mRects[index * 4 + 1];
+    }
+
+    /**
+     * 预估按当前布局解码第 index 张图片的字节数，与 inSampleSize 和 inDensity 的计算一致
+     *
+     * @param exact 是否按目标尺寸精确解码，见 StitcherUtils#calculateExactScale
+     */
+    public long estimateDecodeBytes(int index, boolean exact) {
+        int width = getSourceWidth(index);
+        int height = getSourceHeight(index);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        int reqWidth = getDrawWidth(index);
+        int reqHeight = getDrawHeight(index);
+        int sampleSize = RasterCompositor.calculateSampleSize(width, height, reqWidth, reqHeight);
+        int decodedWidth = width / sampleSize;
+        int decodedHeight = height / sampleSize;
+        //用较长的边计算缩放比例，只缩小不放大
+        int density = Math.max(decodedWidth, decodedHeight);
+        int targetDensity = decodedWidth >= decodedHeight ? reqWidth : reqHeight;
+        if (exact && targetDensity > 0 && targetDensity < density) {
+            decodedWidth = DecodeMath.getDecodedSize(decodedWidth, 1, true, density, targetDensity);
+            decodedHeight = DecodeMath.getDecodedSize(decodedHeight, 1, true, density,
+                    targetDensity);
+        }
+        //多估一行一列，采样时不同格式的取整方式不一样
+        return (decodedWidth + 1L) * (decodedHeight + 1L) * 4;
+    }
+
+    /**
+     * 预估 {@link #encode} 的峰值内存：条带画布、像素数组和编码缓冲各不超过一个条带，
+     * 加上同一个条带内同时持有的已解码图片
+     */
+    public long estimateStreamingBytes(int stripHeight, boolean exact) {
+        stripHeight = Math.max(1, Math.min(stripHeight, mHeight));
+        int[] visibleRects = mHasClips ? mClips : mRects;
+        long maxDecodeBytes = 0;
+        int first = 0;
+        for (int stripTop = 0; stripTop < mHeight; stripTop += stripHeight) {
+            int stripBottom = Math.min(stripTop + stripHeight, mHeight);
+            while (first < mCount && visibleRects[first * 4 + 3] <= stripTop) {
+                first++;
+            }
+            long decodeBytes = 0;
+            for (int i = first; i < mCount && visibleRects[i * 4 + 1] < stripBottom; i++) {
+                decodeBytes += estimateDecodeBytes(i, exact);
+            }
+            maxDecodeBytes = Math.max(maxDecodeBytes, decodeBytes);
+        }
+        return (long) mWidth * stripHeight * 4 * 3 + maxDecodeBytes;
+    }
+
+    /**
+     * 按当前布局逐张解码并绘制，解码失败的图片留空
+     *
+     * @return 拼接结果，不再使用时交给 {@link #release}
+     */
+    @NonNull
+    public S compose(@NonNull List<String> pathList, int fillColor) {
+        return compose(pathList, fillColor, null);
+    }
+
+    /**
+     * 按当前布局逐张绘制，图片由 queue 按顺序提供，如工作线程提前解码
+     *
+     * @param queue 已解码的图片 if null 在当前线程逐张解码
+     * @return 拼接结果，出错时已经释放
+     */
+    @NonNull
+    public S compose(@NonNull List<String> pathList, int fillColor,
+                     @Nullable SourceQueue<S> queue) {
+        S dest = mBackend.createSurface(mWidth, mHeight);
+        boolean success = false;
+        try {
+            mBackend.fill(dest, fillColor);
+            int[] clips = mHasClips ? mClips : null;
+            for (int i = 0; i < mCount; i++) {
+                S src;
+                if (queue != null) {
+                    src = queue.take(i);
+                } else {
+                    throwIfCanceled();
+                    src = decode(pathList, i);
+                }
+                try {
+                    if (src != null) {
+                        //解码期间可能已经取消，不再绘制
+                        throwIfCanceled();
+                        mBackend.draw(dest, src, getSourceDegree(i), mRects, clips, i * 4, 0);
+                    }
+                } finally {
+                    if (src != null) {
+                        mBackend.release(src);
+                    }
+                    if (queue != null) {
+                        queue.release(i);
+                    }
+                }
+                if (mCallback != null) {
+                    mCallback.onProgress(i + 1, mCount);
+                }
+            }
+            success = true;
+            return dest;
+        } finally {
+            if (!success) {
+                mBackend.release(dest);
+            }
+        }
+    }
+
+    /**
+     * 按当前布局从上到下按条带渲染并编码写入输出流，不会创建完整尺寸的画布
+     * 布局需要按 top 排列，条带之前的图片绘制完成后立即释放
+     *
+     * @param stripHeight  条带高度
+     * @param outputStream 输出流，不会被关闭
+     */
+    public void encode(@NonNull List<String> pathList, int fillColor, int stripHeight,
+                       @NonNull StripEncoder encoder, @NonNull OutputStream outputStream)
+            throws IOException {
+        int count = mCount;
+        int width = mWidth;
+        int height = mHeight;
+        stripHeight = Math.max(1, Math.min(stripHeight, height));
+        int[] clips = mHasClips ? mClips : null;
+        int[] visibleRects = mHasClips ? mClips : mRects;
+        if (mBuffer.length < width * stripHeight) {
+            mBuffer = new int[width * stripHeight];
+        }
+        S strip = mBackend.createSurface(width, stripHeight);
+        try {
+            encoder.begin(outputStream, width, height);
+            //条带之前的图片都已绘制完成，可以释放
+            int first = 0;
+            int completed = 0;
+            for (int stripTop = 0; stripTop < height; stripTop += stripHeight) {
+                throwIfCanceled();
+                int rows = Math.min(stripHeight, height - stripTop);
+                int stripBottom = stripTop + rows;
+                mBackend.fill(strip, fillColor);
+                while (first < count && visibleRects[first * 4 + 3] <= stripTop) {
+                    releaseSource(first);
+                    first++;
+                }
+                for (int i = first; i < count && visibleRects[i * 4 + 1] < stripBottom; i++) {
+                    if (!mDecoded[i]) {
+                        throwIfCanceled();
+                        mSources[i] = decode(pathList, i);
+                        mDecoded[i] = true;
+                    }
+                    @SuppressWarnings("unchecked")
+                    S src = (S) mSources[i];
+                    if (src != null) {
+                        mBackend.draw(strip, src, getSourceDegree(i), mRects, clips, i * 4,
+                                stripTop);
+                    }
+                    //底边落在这个条带内，这张图片已经全部绘制
+                    if (visibleRects[i * 4 + 3] <= stripBottom && mCallback != null) {
+                        mCallback.onProgress(++completed, count);
+                    }
+                }
+                mBackend.encode(strip, rows, mBuffer, encoder);
+            }
+            encoder.finish();
+        } finally {
+            for (int i = 0; i < count; i++) {
+                releaseSource(i);
+                mDecoded[i] = false;
+            }
+            mBackend.release(strip);
+        }
+    }
+
+    /**
+     * 拼接结果不再使用，放回实例的复用池
+     */
+    public void release(@NonNull S surface) {
+        mBackend.release(surface);
+    }
+
+    @NonNull
+    public RasterBackend<S> getBackend() {
+        return mBackend;
+    }
+
+    @Nullable
+    private S decode(List<String> pathList, int index) {
+        int offset = index * META_SIZE;
+        //探测失败的图片留空
+        if (mMetas[offset] <= 0 || mMetas[offset + 1] <= 0) {
+            return null;
+        }
+        return mBackend.decode(pathList.get(index), mMetas, offset, getDrawWidth(index),
+                getDrawHeight(index));
+    }
+
+    private void releaseSource(int index) {
+        @SuppressWarnings("unchecked")
+        S src = (S) mSources[index];
+        if (src != null) {
+            mBackend.release(src);
+            mSources[index] = null;
+        }
+    }
+
+    private void throwIfCanceled() {
+        if (mCallback != null) {
+            mCallback.throwIfCanceled();
+        }
+    }
+
+    private void onLayout(boolean hasClips) {
+        mHasClips = hasClips;
+        mLayoutWidth = mSize[0];
+        mLayoutHeight = mSize[1];
+        setScale(1f);
+    }
+
+    private void ensureCapacity(int count) {
+        if (mWidths.length < count) {
+            mMetas = new int[count * META_SIZE];
+            mWidths = new int[count];
+            mHeights = new int[count];
+            mVisibleHeights = new int[count];
+            mLayoutRects = new int[count * 4];
+            mLayoutClips = new int[count * 4];
+            mRects = new int[count * 4];
+            mClips = new int[count * 4];
+            mSources = new Object[count];
+            mDecoded = new boolean[count];
+        }
+    }
+
+    /**
+     * 拼接过程中的取消和进度
+     */
+    public interface Callback {
+
+        /**
+         * 每张图片解码前、绘制前和每个条带开始前调用，抛出异常中断拼接
+         */
+        void throwIfCanceled();
+
+        /**
+         * 一张图片绘制完成，在拼接线程回调
+         */
+        void onProgress(int completed, int total);
+    }
+
+    /**
+     * 按顺序提供已解码的图片，如工作线程提前解码
+     *
+     * @param <S> 画布类型
+     */
+    public interface SourceQueue<S> {
+
+        /**
+         * 按顺序获取第 index 张图片，未解码完成时阻塞等待
+         *
+         * @return 未旋转的画布，绘制后交给 {@link RasterBackend#release} if null 解码失败
+         */
+        @Nullable
+        S take(int index);
+
+        /**
+         * 第 index 张图片已经绘制完成
+         */
+        void release(int index);
+    }
+}
@@ -0,0 +1,123 @@
+package com.zyyoona7.stitcher.raster;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 连续滚动截图的重叠检测
+ * 每一行按列抽样计算亮度，量化后做多项式哈希，比较相邻两张图片的行哈希序列：
+ * 开头相同的行是固定的头部（状态栏、标题栏），结尾相同的行是固定的底部（导航栏、输入框），
+ * 去掉它们之后，上一张内容的末尾与下一张内容的开头相同的最长一段就是重叠区域
+ * 只使用基本类型数组，计算过程中不分配内存
+ */
+public final class RowHashMatcher {
+    //亮度量化的位数，忽略抖动和轻微的压缩误差
+    private static final int LUMA_SHIFT = 3;
+    private static final long HASH_PRIME = 1000003L;
+    //固定头部、底部最多占高度的比例，避免没有滚动时把内容当作头部
+    private static final int MAX_FIXED_DIVISOR = 3;
+
+    private RowHashMatcher() {
+    }
+
+    /**
+     * 计算若干行的哈希
+     *
+     * @param pixels     ARGB 像素
+     * @param offset     第一行第一个像素的偏移
+     * @param stride     每行的像素跨度
+     * @param width      行宽
+     * @param rowCount   行数
+     * @param columnStep 每隔多少列取一个像素，相当于横向缩小
+     * @param outHashes  写入的哈希数组
+     * @param outOffset  写入的起始位置
+     */
+    public static void hashRows(@NonNull int[] pixels, int offset, int stride, int width,
+                                int rowCount, int columnStep, @NonNull long[] outHashes,
+                                int outOffset) {
+        int step = Math.max(1, columnStep);
+        for (int row = 0; row < rowCount; row++) {
+            int start = offset + row * stride;
+            int end = start + width;
+            long hash = 1;
+            for (int i = start; i < end; i += step) {
+                int color = pixels[i];
+                int luma = (((color >> 16) & 0xFF) * 77 + ((color >> 8) & 0xFF) * 150
+                        + (color & 0xFF) * 29) >> 8;
+                hash = hash * HASH_PRIME + (luma >> LUMA_SHIFT);
+            }
+            outHashes[outOffset + row] = hash;
+        }
+    }
+
+    /**
+     * 比较相邻两张图片的行哈希
+     *
+     * @param prev             上一张的行哈希
+     * @param prevRows         上一张的行数
+     * @param next             下一张的行哈希
+     * @param nextRows         下一张的行数
+     * @param minOverlap       重叠至少多少行才认为有效
+     * @param maxMismatchRatio 重叠区域内允许不同的行的比例，如光标闪烁
+     * @param out              长度为 3，依次写入固定头部行数、固定底部行数和重叠行数
+     * @return true 找到了重叠区域
+     */
+    public static boolean match(@NonNull long[] prev, int prevRows, @NonNull long[] next,
+                                int nextRows, int minOverlap, float maxMismatchRatio,
+                                @NonNull int[] out) {
+        out[0] = 0;
+        out[1] = 0;
+        out[2] = 0;
+        int maxFixed = Math.min(prevRows, nextRows) / MAX_FIXED_DIVISOR;
+        int header = 0;
+        while (header < maxFixed && prev[header] == next[header]) {
+            header++;
+        }
+        int footer = 0;
+        while (footer < maxFixed
+                && prev[prevRows - 1 - footer] == next[nextRows - 1 - footer]) {
+            footer++;
+        }
+
+        int prevEnd = prevRows - footer;
+        int nextStart = header;
+        int maxOverlap = Math.min(prevEnd - header, nextRows - footer - nextStart);
+        minOverlap = Math.max(1, minOverlap);
+        //从最长的开始找，第一个满足条件的就是重叠区域
+        for (int overlap = maxOverlap; overlap >= minOverlap; overlap--) {
+            int allowed = (int) (overlap * maxMismatchRatio);
+            int mismatches = 0;
+            int prevStart = prevEnd - overlap;
+            int i = 0;
+            for (; i < overlap; i++) {
+                if (prev[prevStart + i] != next[nextStart + i] && ++mismatches > allowed) {
+                    break;
+                }
+            }
+            if (i == overlap) {
+                out[0] = header;
+                out[1] = footer;
+                out[2] = overlap;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 根据 {@link #match} 的结果计算相邻两张图片的裁剪行数
+     * 上一张去掉固定底部，下一张去掉固定头部和重叠区域，两张都至少保留一行，
+     * 下一张完全落在重叠区域内时也是如此
+     *
+     * @param match    {@link #match} 写入的结果
+     * @param prevRows 上一张的行数
+     * @param nextRows 下一张的行数
+     * @param crops    crops[0][i] 为第 i 张顶部裁掉的行数，crops[1][i] 为底部裁掉的行数
+     * @param index    下一张的位置
+     */
+    public static void applyCrops(@NonNull int[] match, int prevRows, int nextRows,
+                                  @NonNull int[][] crops, int index) {
+        crops[1][index - 1] = Math.max(0,
+                Math.min(match[1], prevRows - crops[0][index - 1] - 1));
+        crops[0][index] = Math.max(0, Math.min(match[0] + match[2], nextRows - 1));
+    }
+}
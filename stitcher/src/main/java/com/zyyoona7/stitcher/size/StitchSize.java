@@ -29,7 +29,18 @@ public final class StitchSize {
         return mWidth <= 0 || mHeight <= 0;
     }
 
+    /**
+     * @return 像素数，用 long 计算避免宽高很大时溢出
+     */
+    public long getPixelCount() {
+        return (long) mWidth * mHeight;
+    }
+
+    /**
+     * @deprecated 拼接前改用 {@link com.zyyoona7.stitcher.engine.MemoryPlanner} 根据可用内存判断
+     */
+    @Deprecated
     public boolean isOverMaxSize(){
-        return mWidth*mHeight>MAX_SIZE;
+        return getPixelCount()>MAX_SIZE;
     }
 }
\ No newline at end of file
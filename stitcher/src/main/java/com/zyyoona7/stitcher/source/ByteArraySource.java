@@ -0,0 +1,55 @@
+package com.zyyoona7.stitcher.source;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 内存中的图片数据，直接从数组解码，不需要写入临时文件
+ */
+final class ByteArraySource extends StitchSource {
+    private final byte[] mData;
+    private final int mOffset;
+    private final int mLength;
+
+    ByteArraySource(@NonNull String key, @NonNull byte[] data, int offset, int length) {
+        super(key);
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + ",length=" + length
+                    + ",data.length=" + data.length);
+        }
+        mData = data;
+        mOffset = offset;
+        mLength = length;
+    }
+
+    @Override
+    public long getLength() {
+        return mLength;
+    }
+
+    @NonNull
+    @Override
+    public InputStream openStream() {
+        return new ByteArrayInputStream(mData, mOffset, mLength);
+    }
+
+    @Nullable
+    @Override
+    public Bitmap decode(@NonNull BitmapFactory.Options options) {
+        return BitmapFactory.decodeByteArray(mData, mOffset, mLength, options);
+    }
+
+    @NonNull
+    @Override
+    public BitmapRegionDecoder newRegionDecoder() throws IOException {
+        return BitmapRegionDecoder.newInstance(mData, mOffset, mLength, false);
+    }
+}
@@ -0,0 +1,111 @@
+package com.zyyoona7.stitcher.source;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.util.ImageHeaderParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 没有底层数组的 ByteBuffer，如 direct buffer 或内存映射的文件，通过流读取
+ * 每次读取都使用 buffer 的副本，不会改变原 buffer 的 position
+ * JPEG 和 PNG 的文件头直接在 buffer 中解析，不经过流
+ */
+class ByteBufferSource extends StitchSource {
+    final ByteBuffer mBuffer;
+
+    ByteBufferSource(@NonNull String key, @NonNull ByteBuffer buffer) {
+        super(key);
+        mBuffer = buffer;
+    }
+
+    @Override
+    public long getLength() {
+        return mBuffer.remaining();
+    }
+
+    @Nullable
+    @Override
+    public String parseHeader(@NonNull int[] outMeta) {
+        return ImageHeaderParser.parse(mBuffer, outMeta);
+    }
+
+    @NonNull
+    @Override
+    public InputStream openStream() {
+        return new ByteBufferInputStream(mBuffer.duplicate());
+    }
+
+    @Nullable
+    @Override
+    public Bitmap decode(@NonNull BitmapFactory.Options options) {
+        return BitmapFactory.decodeStream(openStream(), null, options);
+    }
+
+    @NonNull
+    @Override
+    public BitmapRegionDecoder newRegionDecoder() throws IOException {
+        return BitmapRegionDecoder.newInstance(openStream(), false);
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+            mBuffer.mark();
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+            mBuffer.position(mBuffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mBuffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            mBuffer.reset();
+        }
+    }
+}
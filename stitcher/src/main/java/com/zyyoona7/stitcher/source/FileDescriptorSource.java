@@ -0,0 +1,159 @@
+package com.zyyoona7.stitcher.source;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 文件描述符来源，只打开一次，探测和解码都通过同一个文件描述符
+ * 探测使用按位置读取的流，不改变文件描述符的偏移；解码需要先 seek，同一个来源的解码是串行的
+ */
+final class FileDescriptorSource extends StitchSource {
+    private static final String TAG = "FileDescriptorSource";
+
+    private final FileDescriptor mFd;
+    private final long mOffset;
+    private final long mLength;
+    //不关闭，关闭会连同文件描述符一起关闭
+    private final FileChannel mChannel;
+    //打开文件描述符的对象，关闭来源时一起关闭 if null 由调用方关闭
+    @Nullable
+    private final Closeable mOwner;
+
+    /**
+     * @param length 数据长度，未知时为 -1，读到文件末尾
+     */
+    FileDescriptorSource(@NonNull String key, @NonNull FileDescriptor fd, long offset,
+                         long length, @Nullable Closeable owner) {
+        super(key);
+        mFd = fd;
+        mOffset = offset;
+        mLength = length;
+        mChannel = new FileInputStream(fd).getChannel();
+        mOwner = owner;
+    }
+
+    @Override
+    public long getLength() {
+        if (mLength >= 0) {
+            return mLength;
+        }
+        try {
+            return mChannel.size() - mOffset;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @NonNull
+    @Override
+    public InputStream openStream() {
+        return new ChannelInputStream(mChannel, mOffset,
+                mLength >= 0 ? mOffset + mLength : Long.MAX_VALUE);
+    }
+
+    @Nullable
+    @Override
+    public synchronized Bitmap decode(@NonNull BitmapFactory.Options options) {
+        try {
+            //decodeFileDescriptor 从当前偏移开始读取，结束后恢复偏移
+            mChannel.position(mOffset);
+        } catch (IOException e) {
+            Log.w(TAG, "seek failed: " + getKey(), e);
+            return null;
+        }
+        return BitmapFactory.decodeFileDescriptor(mFd, null, options);
+    }
+
+    @NonNull
+    @Override
+    public synchronized BitmapRegionDecoder newRegionDecoder() throws IOException {
+        if (mOffset == 0 && mLength < 0) {
+            mChannel.position(0);
+            return BitmapRegionDecoder.newInstance(mFd, false);
+        }
+        //只是文件的一部分，如 content Uri 对应的 asset，只能通过流读取
+        return BitmapRegionDecoder.newInstance(openStream(), false);
+    }
+
+    @Override
+    void onClose() {
+        closeQuietly(mOwner);
+    }
+
+    /**
+     * 按位置读取 channel，多个流可以同时读取
+     */
+    private static final class ChannelInputStream extends InputStream {
+        private final FileChannel mChannel;
+        private final long mEnd;
+        private long mPosition;
+        private long mMark;
+        private byte[] mSingle;
+
+        ChannelInputStream(FileChannel channel, long start, long end) {
+            mChannel = channel;
+            mEnd = end;
+            mPosition = start;
+            mMark = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mSingle == null) {
+                mSingle = new byte[1];
+            }
+            return read(mSingle, 0, 1) == 1 ? mSingle[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int count = (int) Math.min(len, mEnd - mPosition);
+            if (count <= 0) {
+                return -1;
+            }
+            count = mChannel.read(ByteBuffer.wrap(b, off, count), mPosition);
+            if (count > 0) {
+                mPosition += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = Math.max(0, Math.min(n, Math.min(mEnd, mChannel.size()) - mPosition));
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mMark = mPosition;
+        }
+
+        @Override
+        public synchronized void reset() {
+            mPosition = mMark;
+        }
+    }
+}
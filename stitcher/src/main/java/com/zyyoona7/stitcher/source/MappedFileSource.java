@@ -0,0 +1,36 @@
+package com.zyyoona7.stitcher.source;
+
+import android.graphics.BitmapRegionDecoder;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+
+/**
+ * 只读映射的文件，探测和解码都从映射中读取，不再打开文件
+ * 映射在来源不再被引用后由 GC 释放
+ */
+final class MappedFileSource extends ByteBufferSource {
+    private final String mFilePath;
+    private final long mLastModified;
+
+    MappedFileSource(@NonNull String key, @NonNull String filePath,
+                     @NonNull MappedByteBuffer buffer, long lastModified) {
+        super(key, buffer);
+        mFilePath = filePath;
+        mLastModified = lastModified;
+    }
+
+    @Override
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    @NonNull
+    @Override
+    public BitmapRegionDecoder newRegionDecoder() throws IOException {
+        //通过流创建会把整个文件再复制一份到 native 内存，直接按路径打开
+        return BitmapRegionDecoder.newInstance(mFilePath, false);
+    }
+}
@@ -0,0 +1,101 @@
+package com.zyyoona7.stitcher.source;
+
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 文件来源，key 就是文件路径
+ * 使用期间第一次读取时打开文件，之后的长度、文件头、EXIF 和像素都通过同一个文件描述符读取，
+ * 注销或关闭时关闭；没有在使用的来源每次读取都重新打开文件
+ */
+final class PathSource extends StitchSource {
+    private static final String TAG = "PathSource";
+
+    @Nullable
+    private FileDescriptorSource mOpened;
+    //打开时读取一次，使用期间不再访问文件系统
+    private long mLength;
+    private long mLastModified;
+
+    PathSource(@NonNull String filePath) {
+        super(filePath);
+    }
+
+    @Override
+    public long getLength() {
+        return open() != null ? mLength : new File(getKey()).length();
+    }
+
+    @Override
+    public long getLastModified() {
+        return open() != null ? mLastModified : new File(getKey()).lastModified();
+    }
+
+    @NonNull
+    @Override
+    public InputStream openStream() throws IOException {
+        FileDescriptorSource opened = open();
+        return opened != null ? opened.openStream() : new FileInputStream(getKey());
+    }
+
+    @Nullable
+    @Override
+    public Bitmap decode(@NonNull BitmapFactory.Options options) {
+        FileDescriptorSource opened = open();
+        return opened != null ? opened.decode(options)
+                : BitmapFactory.decodeFile(getKey(), options);
+    }
+
+    @NonNull
+    @Override
+    public BitmapRegionDecoder newRegionDecoder() throws IOException {
+        FileDescriptorSource opened = open();
+        return opened != null ? opened.newRegionDecoder()
+                : BitmapRegionDecoder.newInstance(getKey(), false);
+    }
+
+    @Override
+    synchronized void onRelease() {
+        //元信息以长度和修改时间校验，不需要移除
+        if (mOpened != null) {
+            mOpened.onClose();
+            mOpened = null;
+        }
+    }
+
+    /**
+     * @return 使用期间打开的文件 if null 没有在使用或打开失败
+     */
+    @Nullable
+    private synchronized FileDescriptorSource open() {
+        if (mOpened != null || !isInUse()) {
+            return mOpened;
+        }
+        File file = new File(getKey());
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            mLength = inputStream.getChannel().size();
+            mLastModified = file.lastModified();
+            mOpened = new FileDescriptorSource(getKey(), inputStream.getFD(), 0,
+                    AssetFileDescriptor.UNKNOWN_LENGTH, inputStream);
+            inputStream = null;
+        } catch (IOException e) {
+            Log.w(TAG, "open file failed path=" + getKey(), e);
+        } finally {
+            closeQuietly(inputStream);
+        }
+        return mOpened;
+    }
+}
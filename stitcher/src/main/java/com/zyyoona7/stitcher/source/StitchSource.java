@@ -0,0 +1,373 @@
+package com.zyyoona7.stitcher.source;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.zyyoona7.stitcher.util.ImageMetaCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图片来源，可以是文件路径、内存映射的文件、FileDescriptor、content Uri、byte[] 或 ByteBuffer
+ * EXIF、尺寸和像素都从同一个来源读取，不需要先写入临时文件，不再使用时调用 {@link #close()}
+ * 来源只在使用它的调用期间按 key 注册，调用结束后注销，不会被全局持有
+ * <pre>
+ * StitchSource source = StitchSource.fromUri(getContentResolver(), uri);
+ * Bitmap bitmap = BitmapStitcher.stitchSourcesVertical(
+ *         Arrays.asList(StitchSource.fromPath(path), source), 1080);
+ * source.close();
+ * </pre>
+ * 需要自己把 key 传给接受路径的接口时，用 {@link #acquire(List)} 和 {@link #release(List)} 包住这段调用
+ */
+public abstract class StitchSource implements Closeable {
+    private static final String TAG = "StitchSource";
+
+    private static final Map<String, StitchSource> SOURCES = new HashMap<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private final String mKey;
+    //正在使用这个来源的调用数，在 SOURCES 的锁内修改
+    private volatile int mUseCount;
+    private boolean mClosed;
+
+    StitchSource(@NonNull String key) {
+        mKey = key;
+    }
+
+    /**
+     * @param filePath 文件路径
+     * @return 文件来源，key 就是文件路径，使用期间只打开一次文件
+     */
+    @NonNull
+    public static StitchSource fromPath(@NonNull String filePath) {
+        return new PathSource(filePath);
+    }
+
+    /**
+     * 从文件描述符读取，调用方负责关闭文件描述符，需要支持 seek
+     *
+     * @param fd 文件描述符，从开头读取
+     * @return StitchSource
+     */
+    @NonNull
+    public static StitchSource fromFileDescriptor(@NonNull FileDescriptor fd) {
+        return new FileDescriptorSource(createKey("fd", null), fd, 0,
+                AssetFileDescriptor.UNKNOWN_LENGTH, null);
+    }
+
+    /**
+     * 通过 ContentResolver 打开一次，之后的探测和解码都使用同一个文件描述符，
+     * 不支持 seek 的 Uri（如管道）读入内存
+     *
+     * @return StitchSource if null 打开失败
+     */
+    @Nullable
+    @WorkerThread
+    public static StitchSource fromUri(@NonNull ContentResolver resolver, @NonNull Uri uri) {
+        String key = createKey("uri", uri.toString());
+        AssetFileDescriptor afd = null;
+        try {
+            afd = resolver.openAssetFileDescriptor(uri, "r");
+            if (afd != null && isSeekable(afd.getFileDescriptor(), afd.getStartOffset())) {
+                StitchSource source = new FileDescriptorSource(key, afd.getFileDescriptor(),
+                        afd.getStartOffset(), afd.getLength(), afd);
+                afd = null;
+                return source;
+            }
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "open file descriptor failed uri=" + uri, e);
+        } finally {
+            closeQuietly(afd);
+        }
+        InputStream inputStream = null;
+        try {
+            inputStream = resolver.openInputStream(uri);
+            if (inputStream == null) {
+                return null;
+            }
+            byte[] data = readFully(inputStream);
+            return new ByteArraySource(key, data, 0, data.length);
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "open uri failed uri=" + uri, e);
+            return null;
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * @param data 图片数据，使用期间不要修改
+     * @return StitchSource
+     */
+    @NonNull
+    public static StitchSource fromBytes(@NonNull byte[] data) {
+        return fromBytes(data, 0, data.length);
+    }
+
+    @NonNull
+    public static StitchSource fromBytes(@NonNull byte[] data, int offset, int length) {
+        return new ByteArraySource(createKey("bytes", null), data, offset, length);
+    }
+
+    /**
+     * 读取 position 到 limit 之间的数据，不会改变 buffer 的 position，使用期间不要修改
+     *
+     * @return StitchSource
+     */
+    @NonNull
+    public static StitchSource fromByteBuffer(@NonNull ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new ByteArraySource(createKey("bytes", null), buffer.array(),
+                    buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        return new ByteBufferSource(createKey("buffer", null), buffer.slice());
+    }
+
+    /**
+     * 只读映射整个文件，文件头、EXIF 和像素都从同一个映射中读取，页缓存是唯一的一份数据，
+     * 适合反复探测和解码的大文件，映射期间文件不应被修改
+     *
+     * @param filePath 文件路径
+     * @return StitchSource if null 映射失败
+     */
+    @Nullable
+    @WorkerThread
+    public static StitchSource fromMappedFile(@NonNull String filePath) {
+        File file = new File(filePath);
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            long length = randomAccessFile.length();
+            if (length <= 0 || length > Integer.MAX_VALUE) {
+                Log.w(TAG, "can not map file length=" + length + ",path=" + filePath);
+                return null;
+            }
+            //关闭 channel 后映射仍然有效，不占用文件描述符
+            MappedByteBuffer buffer = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return new MappedFileSource(createKey("mapped", filePath), filePath,
+                    buffer, file.lastModified());
+        } catch (IOException e) {
+            Log.w(TAG, "map file failed path=" + filePath, e);
+            return null;
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+    }
+
+    /**
+     * 根据 key 查找正在使用的来源，没有注册的 key 当作文件路径
+     *
+     * @param key {@link #getKey()} 或文件路径
+     * @return StitchSource
+     */
+    @NonNull
+    public static StitchSource forKey(@NonNull String key) {
+        StitchSource source;
+        synchronized (SOURCES) {
+            source = SOURCES.get(key);
+        }
+        return source != null ? source : new PathSource(key);
+    }
+
+    /**
+     * 在一次调用期间注册来源，同一个来源可以同时被多个调用使用，每次 acquire 都要对应一次 release
+     *
+     * @return 每个来源的 key，release 之前可以代替路径列表使用
+     */
+    @NonNull
+    public static List<String> acquire(@NonNull List<? extends StitchSource> sources) {
+        List<String> keys = new ArrayList<>(sources.size());
+        synchronized (SOURCES) {
+            for (int i = 0; i < sources.size(); i++) {
+                StitchSource source = sources.get(i);
+                //同一个 key 已经被其他调用注册时共用先注册的来源
+                StitchSource registered = SOURCES.get(source.mKey);
+                if (registered == null && !source.mClosed) {
+                    SOURCES.put(source.mKey, source);
+                    registered = source;
+                }
+                if (registered != null) {
+                    registered.mUseCount++;
+                }
+                keys.add(source.mKey);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 结束 {@link #acquire(List)} 开始的使用，没有调用在使用时注销 key，来源本身仍由调用方关闭
+     */
+    public static void release(@NonNull List<? extends StitchSource> sources) {
+        for (int i = 0; i < sources.size(); i++) {
+            String key = sources.get(i).getKey();
+            StitchSource released = null;
+            synchronized (SOURCES) {
+                StitchSource registered = SOURCES.get(key);
+                if (registered != null && --registered.mUseCount <= 0) {
+                    SOURCES.remove(key);
+                    registered.mUseCount = 0;
+                    released = registered;
+                }
+            }
+            if (released != null) {
+                released.onRelease();
+            }
+        }
+    }
+
+    /**
+     * @return 使用期间代替文件路径的 key，文件来源就是文件路径
+     */
+    @NonNull
+    public final String getKey() {
+        return mKey;
+    }
+
+    /**
+     * @return 数据长度，与 {@link #getLastModified()} 一起判断元信息缓存是否有效，未知时为 -1
+     */
+    public abstract long getLength();
+
+    /**
+     * @return 修改时间，只有文件和映射的文件有，其他来源为 0
+     */
+    public long getLastModified() {
+        return 0;
+    }
+
+    /**
+     * 不经过 BitmapFactory 直接解析文件头，内存中的来源才支持
+     *
+     * @param outMeta 依次写入未旋转的宽、高和 EXIF orientation
+     * @return mime type if null 不支持，需要通过 {@link #openStream()} 探测
+     */
+    @Nullable
+    public String parseHeader(@NonNull int[] outMeta) {
+        return null;
+    }
+
+    /**
+     * 从开头读取的流，支持 mark/reset，关闭流不会关闭来源
+     */
+    @NonNull
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * 按 options 解码，不处理 EXIF 旋转
+     *
+     * @return bitmap if null 解码失败
+     */
+    @Nullable
+    public abstract Bitmap decode(@NonNull BitmapFactory.Options options);
+
+    /**
+     * @return 区域解码器，使用完需要 recycle
+     */
+    @NonNull
+    public abstract BitmapRegionDecoder newRegionDecoder() throws IOException;
+
+    /**
+     * 释放持有的文件描述符，还在使用时一并注销 key
+     */
+    @Override
+    public void close() {
+        synchronized (SOURCES) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (SOURCES.get(mKey) == this) {
+                SOURCES.remove(mKey);
+                mUseCount = 0;
+            }
+        }
+        onRelease();
+        onClose();
+    }
+
+    /**
+     * @return true 正在被 {@link #acquire(List)} 开始的调用使用
+     */
+    final boolean isInUse() {
+        return mUseCount > 0;
+    }
+
+    /**
+     * 没有调用在使用时回调，key 不再有效，移除它的元信息
+     */
+    void onRelease() {
+        ImageMetaCache.removeImageMeta(mKey);
+    }
+
+    void onClose() {
+    }
+
+    @Override
+    public String toString() {
+        return mKey;
+    }
+
+    /**
+     * 不会和文件路径冲突的 key，每个来源都不同
+     */
+    private static String createKey(String type, @Nullable String name) {
+        String key = "stitch-source://" + type + "/" + NEXT_ID.incrementAndGet();
+        return name != null ? key + "/" + name : key;
+    }
+
+    private static boolean isSeekable(FileDescriptor fd, long offset) {
+        try {
+            //只创建 channel，不关闭，否则会关闭文件描述符
+            new FileInputStream(fd).getChannel().position(offset);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(
+                Math.max(inputStream.available(), 32 * 1024));
+        byte[] buffer = new byte[16 * 1024];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, length);
+        }
+        return outputStream.toByteArray();
+    }
+
+    static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
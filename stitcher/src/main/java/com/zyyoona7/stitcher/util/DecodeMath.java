@@ -0,0 +1,59 @@
+package com.zyyoona7.stitcher.util;
+
+/**
+ * 解码尺寸和 inBitmap 复用条件的计算，只使用基本类型，
+ * 由 {@link StitcherUtils} 调用，也可以在 JVM 上做基准测试
+ */
+public final class DecodeMath {
+
+    private DecodeMath() {
+    }
+
+    /**
+     * @param size          原始尺寸
+     * @param sampleSize    inSampleSize
+     * @param scaled        inScaled
+     * @param density       inDensity
+     * @param targetDensity inTargetDensity
+     * @return 解码后的尺寸
+     */
+    public static int getDecodedSize(int size, int sampleSize, boolean scaled,
+                                     int density, int targetDensity) {
+        size /= Math.max(1, sampleSize);
+        if (scaled && density > 0 && targetDensity > 0 && density != targetDensity) {
+            return (int) (size * targetDensity / (float) density + 0.5f);
+        }
+        return size;
+    }
+
+    /**
+     * 判断候选 Bitmap 能否作为 inBitmap
+     *
+     * @param exactMatch               KitKat 以下需要尺寸完全一致并且不能缩放
+     * @param candidateWidth           候选宽度
+     * @param candidateHeight          候选高度
+     * @param candidateAllocationBytes 候选实际分配的字节数
+     * @param candidateBytesPerPixel   候选每个像素的字节数
+     * @param outWidth                 原始宽度
+     * @param outHeight                原始高度
+     * @param sampleSize               inSampleSize
+     * @param decodedWidth             解码后的宽度
+     * @param decodedHeight            解码后的高度
+     */
+    public static boolean canReuse(boolean exactMatch, int candidateWidth, int candidateHeight,
+                                   int candidateAllocationBytes, int candidateBytesPerPixel,
+                                   int outWidth, int outHeight, int sampleSize,
+                                   int decodedWidth, int decodedHeight) {
+        if (!exactMatch) {
+            // From Android 4.4 (KitKat) onward we can re-use if the byte size of
+            // the new bitmap is smaller than the reusable bitmap candidate
+            // allocation byte count.
+            return decodedWidth * decodedHeight * candidateBytesPerPixel <= candidateAllocationBytes;
+        }
+        // On earlier versions, the dimensions must match exactly and the inSampleSize must be 1
+        return candidateWidth == outWidth
+                && candidateHeight == outHeight
+                && sampleSize == 1
+                && decodedWidth == outWidth;
+    }
+}
@@ -0,0 +1,216 @@
+package com.zyyoona7.stitcher.util;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 按分组和字节大小组织的对象池，总字节数超过上限时按 LRU 淘汰
+ * 每个分组内用 TreeMap 以字节大小排序，获取时 O(log n) 找到不小于所需大小的最小对象
+ * 不依赖 Android 类，便于在 JVM 上测试和基准测试
+ *
+ * @param <T> 池中的对象类型
+ */
+public abstract class GroupedLruPool<T> {
+    //最多允许取出所需大小多少倍的对象，避免小图占用大块内存
+    private static final int MAX_OVER_SIZE_MULTIPLE = 8;
+
+    private final Map<Object, TreeMap<Integer, ArrayDeque<Node<T>>>> mGroups = new HashMap<>();
+    private final IdentityHashMap<T, Node<T>> mNodes = new IdentityHashMap<>();
+    //LRU 双向链表，head 为最久未使用
+    private Node<T> mHead;
+    private Node<T> mTail;
+
+    private long mMaxBytes;
+    private long mCurrentBytes;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    protected GroupedLruPool(long maxBytes) {
+        mMaxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * @return 对象所属的分组，只有同一分组的对象可以互相复用
+     */
+    protected abstract Object getGroup(T item);
+
+    /**
+     * @return 对象占用的字节数
+     */
+    protected abstract int getByteSize(T item);
+
+    /**
+     * 对象被淘汰或清空时回调，用于释放资源
+     */
+    protected abstract void onRemoved(T item);
+
+    /**
+     * 放入对象
+     *
+     * @param item 对象
+     * @return true 对象在池中，已经放入过的不会重复放入；false 对象超过上限没有放入
+     */
+    public synchronized boolean put(T item) {
+        if (item == null) {
+            return false;
+        }
+        if (mNodes.containsKey(item)) {
+            return true;
+        }
+        int byteSize = getByteSize(item);
+        if (byteSize <= 0 || byteSize > mMaxBytes) {
+            return false;
+        }
+        Node<T> node = new Node<>(item, getGroup(item), byteSize);
+        TreeMap<Integer, ArrayDeque<Node<T>>> sizeMap = mGroups.get(node.group);
+        if (sizeMap == null) {
+            sizeMap = new TreeMap<>();
+            mGroups.put(node.group, sizeMap);
+        }
+        ArrayDeque<Node<T>> bucket = sizeMap.get(byteSize);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            sizeMap.put(byteSize, bucket);
+        }
+        bucket.addLast(node);
+        mNodes.put(item, node);
+        linkLast(node);
+        mCurrentBytes += byteSize;
+        trimToSize(mMaxBytes);
+        return true;
+    }
+
+    /**
+     * 取出同一分组中不小于 minByteSize 的最小对象
+     *
+     * @param group       分组
+     * @param minByteSize 所需字节数
+     * @return 对象 if null 没有合适的
+     */
+    public synchronized T get(Object group, int minByteSize) {
+        TreeMap<Integer, ArrayDeque<Node<T>>> sizeMap = mGroups.get(group);
+        Map.Entry<Integer, ArrayDeque<Node<T>>> entry = sizeMap != null
+                ? sizeMap.ceilingEntry(minByteSize) : null;
+        if (entry == null || entry.getKey() > (long) minByteSize * MAX_OVER_SIZE_MULTIPLE) {
+            mMissCount++;
+            return null;
+        }
+        //同样大小的取最近放入的
+        Node<T> node = entry.getValue().pollLast();
+        if (entry.getValue().isEmpty()) {
+            sizeMap.remove(entry.getKey());
+            if (sizeMap.isEmpty()) {
+                mGroups.remove(group);
+            }
+        }
+        mNodes.remove(node.item);
+        unlink(node);
+        mCurrentBytes -= node.byteSize;
+        mHitCount++;
+        return node.item;
+    }
+
+    /**
+     * 修改总字节数上限，超出的部分立即淘汰
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = Math.max(0, maxBytes);
+        trimToSize(mMaxBytes);
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    public synchronized int getCount() {
+        return mNodes.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private void trimToSize(long maxBytes) {
+        while (mCurrentBytes > maxBytes && mHead != null) {
+            Node<T> node = mHead;
+            unlink(node);
+            //最久未使用的节点一定在所属桶的队首
+            TreeMap<Integer, ArrayDeque<Node<T>>> sizeMap = mGroups.get(node.group);
+            ArrayDeque<Node<T>> bucket = sizeMap.get(node.byteSize);
+            bucket.pollFirst();
+            if (bucket.isEmpty()) {
+                sizeMap.remove(node.byteSize);
+                if (sizeMap.isEmpty()) {
+                    mGroups.remove(node.group);
+                }
+            }
+            mNodes.remove(node.item);
+            mCurrentBytes -= node.byteSize;
+            if (maxBytes > 0) {
+                mEvictionCount++;
+            }
+            onRemoved(node.item);
+        }
+    }
+
+    private void linkLast(Node<T> node) {
+        node.prev = mTail;
+        node.next = null;
+        if (mTail != null) {
+            mTail.next = node;
+        } else {
+            mHead = node;
+        }
+        mTail = node;
+    }
+
+    private void unlink(Node<T> node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            mHead = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            mTail = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static final class Node<T> {
+        final T item;
+        final Object group;
+        final int byteSize;
+        Node<T> prev;
+        Node<T> next;
+
+        Node(T item, Object group, int byteSize) {
+            this.item = item;
+            this.group = group;
+            this.byteSize = byteSize;
+        }
+    }
+}
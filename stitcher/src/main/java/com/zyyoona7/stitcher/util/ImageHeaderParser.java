@@ -0,0 +1,181 @@
+package com.zyyoona7.stitcher.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 直接从内存中解析 JPEG 和 PNG 的文件头，得到宽高和 EXIF 方向
+ * 只按绝对位置读取，不改变 buffer 的 position，配合内存映射的文件只会访问文件头所在的页
+ * 不依赖 Android，可以在 JVM 上测试
+ */
+public final class ImageHeaderParser {
+    public static final String MIME_JPEG = "image/jpeg";
+    public static final String MIME_PNG = "image/png";
+
+    private static final int ORIENTATION_NORMAL = 1;
+    private static final int ORIENTATION_MAX = 8;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final byte[] PNG_SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private ImageHeaderParser() {
+    }
+
+    /**
+     * @param buffer  从 position 到 limit 是完整的图片数据
+     * @param outMeta 依次写入未旋转的宽、高和 EXIF orientation
+     * @return mime type if null 不是 JPEG、PNG 或文件头不完整
+     */
+    @Nullable
+    public static String parse(@NonNull ByteBuffer buffer, @NonNull int[] outMeta) {
+        int start = buffer.position();
+        int end = buffer.limit();
+        if (end - start >= 2 && (buffer.get(start) & 0xFF) == 0xFF
+                && (buffer.get(start + 1) & 0xFF) == 0xD8) {
+            return parseJpeg(buffer, start + 2, end, outMeta) ? MIME_JPEG : null;
+        }
+        if (startsWith(buffer, start, end, PNG_SIGNATURE)) {
+            return parsePng(buffer, start + PNG_SIGNATURE.length, end, outMeta) ? MIME_PNG : null;
+        }
+        return null;
+    }
+
+    private static boolean parseJpeg(ByteBuffer buffer, int offset, int end, int[] outMeta) {
+        int orientation = ORIENTATION_NORMAL;
+        while (offset + 4 <= end) {
+            if ((buffer.get(offset) & 0xFF) != 0xFF) {
+                return false;
+            }
+            int marker = buffer.get(offset + 1) & 0xFF;
+            //marker 前可以有任意个 0xFF 填充
+            if (marker == 0xFF) {
+                offset++;
+                continue;
+            }
+            //没有长度的独立 marker
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                offset += 2;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                return false;
+            }
+            int length = readShort(buffer, offset + 2, true);
+            int segment = offset + 4;
+            int segmentEnd = offset + 2 + length;
+            if (length < 2 || segmentEnd > end) {
+                return false;
+            }
+            if (marker == MARKER_APP1 && orientation == ORIENTATION_NORMAL
+                    && startsWith(buffer, segment, segmentEnd, EXIF_HEADER)) {
+                orientation = parseExifOrientation(buffer,
+                        segment + EXIF_HEADER.length, segmentEnd);
+            } else if (isStartOfFrame(marker)) {
+                //precision(1) height(2) width(2)
+                if (segment + 5 > segmentEnd) {
+                    return false;
+                }
+                outMeta[0] = readShort(buffer, segment + 3, true);
+                outMeta[1] = readShort(buffer, segment + 1, true);
+                outMeta[2] = orientation;
+                return outMeta[0] > 0 && outMeta[1] > 0;
+            }
+            offset = segmentEnd;
+        }
+        return false;
+    }
+
+    /**
+     * SOF0~SOF15，不包括 DHT(C4)、JPG(C8) 和 DAC(CC)
+     */
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF
+                && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * @param tiff TIFF 头的位置，IFD 中的偏移都相对于这里
+     * @return EXIF orientation，读取不到时为 ORIENTATION_NORMAL
+     */
+    private static int parseExifOrientation(ByteBuffer buffer, int tiff, int end) {
+        if (tiff + 8 > end) {
+            return ORIENTATION_NORMAL;
+        }
+        boolean bigEndian;
+        int order = readShort(buffer, tiff, true);
+        if (order == 0x4D4D) {
+            bigEndian = true;
+        } else if (order == 0x4949) {
+            bigEndian = false;
+        } else {
+            return ORIENTATION_NORMAL;
+        }
+        if (readShort(buffer, tiff + 2, bigEndian) != 42) {
+            return ORIENTATION_NORMAL;
+        }
+        long ifdOffset = readInt(buffer, tiff + 4, bigEndian) & 0xFFFFFFFFL;
+        if (ifdOffset < 8 || tiff + ifdOffset + 2 > end) {
+            return ORIENTATION_NORMAL;
+        }
+        int ifd = (int) (tiff + ifdOffset);
+        int count = readShort(buffer, ifd, bigEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                break;
+            }
+            if (readShort(buffer, entry, bigEndian) == TAG_ORIENTATION) {
+                if (readShort(buffer, entry + 2, bigEndian) != TYPE_SHORT) {
+                    break;
+                }
+                int orientation = readShort(buffer, entry + 8, bigEndian);
+                return orientation >= ORIENTATION_NORMAL && orientation <= ORIENTATION_MAX
+                        ? orientation : ORIENTATION_NORMAL;
+            }
+        }
+        return ORIENTATION_NORMAL;
+    }
+
+    private static boolean parsePng(ByteBuffer buffer, int offset, int end, int[] outMeta) {
+        //length(4) "IHDR" width(4) height(4)
+        if (offset + 16 > end || buffer.get(offset + 4) != 'I' || buffer.get(offset + 5) != 'H'
+                || buffer.get(offset + 6) != 'D' || buffer.get(offset + 7) != 'R') {
+            return false;
+        }
+        outMeta[0] = readInt(buffer, offset + 8, true);
+        outMeta[1] = readInt(buffer, offset + 12, true);
+        outMeta[2] = ORIENTATION_NORMAL;
+        return outMeta[0] > 0 && outMeta[1] > 0;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int offset, int end, byte[] prefix) {
+        if (offset + prefix.length > end) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(offset + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readShort(ByteBuffer buffer, int offset, boolean bigEndian) {
+        int b0 = buffer.get(offset) & 0xFF;
+        int b1 = buffer.get(offset + 1) & 0xFF;
+        return bigEndian ? (b0 << 8) | b1 : (b1 << 8) | b0;
+    }
+
+    private static int readInt(ByteBuffer buffer, int offset, boolean bigEndian) {
+        int high = readShort(buffer, bigEndian ? offset : offset + 2, bigEndian);
+        int low = readShort(buffer, bigEndian ? offset + 2 : offset, bigEndian);
+        return (high << 16) | low;
+    }
+}
@@ -0,0 +1,106 @@
+package com.zyyoona7.stitcher.util;
+
+import androidx.annotation.Nullable;
+
+/**
+ * 图片元信息，一次探测得到宽高、mime、EXIF 方向以及文件长度和修改时间
+ * 由 {@link ImageMetaCache} 缓存，尺寸计算和解码都复用同一份信息，避免重复读取文件头和 EXIF
+ */
+public final class ImageMeta {
+
+    private final String mPath;
+    //未旋转的原始宽高（BitmapFactory 解码出来的宽高）
+    private final int mWidth;
+    private final int mHeight;
+    @Nullable
+    private final String mMimeType;
+    //EXIF orientation 原始值
+    private final int mOrientation;
+    //根据 orientation 换算出的旋转角度 0/90/180/270
+    private final int mDegree;
+    private final long mLength;
+    private final long mLastModified;
+
+    ImageMeta(String path, int width, int height, @Nullable String mimeType,
+              int orientation, int degree, long length, long lastModified) {
+        mPath = path;
+        mWidth = width;
+        mHeight = height;
+        mMimeType = mimeType;
+        mOrientation = orientation;
+        mDegree = degree;
+        mLength = length;
+        mLastModified = lastModified;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * @return 未旋转的原始宽度
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return 未旋转的原始高度
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return 按 EXIF 旋转后的宽度，即最终显示的宽度
+     */
+    public int getRotatedWidth() {
+        return isSwapSize() ? mHeight : mWidth;
+    }
+
+    /**
+     * @return 按 EXIF 旋转后的高度，即最终显示的高度
+     */
+    public int getRotatedHeight() {
+        return isSwapSize() ? mWidth : mHeight;
+    }
+
+    @Nullable
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    public int getDegree() {
+        return mDegree;
+    }
+
+    public long getLength() {
+        return mLength;
+    }
+
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * @return 是否解码成功，宽高小于等于 0 说明文件不存在或者不是图片
+     */
+    public boolean isValid() {
+        return mWidth > 0 && mHeight > 0;
+    }
+
+    /**
+     * 文件长度和修改时间都没有变化则认为元信息仍然有效
+     */
+    boolean isSameFile(long length, long lastModified) {
+        return mLength == length && mLastModified == lastModified;
+    }
+
+    private boolean isSwapSize() {
+        return mDegree == 90 || mDegree == 270;
+    }
+}
@@ -0,0 +1,145 @@
+package com.zyyoona7.stitcher.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zyyoona7.stitcher.source.StitchSource;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 图片元信息的 LRU 缓存，同一个文件只探测一次宽高和 EXIF
+ * 以文件路径或 {@link StitchSource#getKey()} 为 key，命中时比较长度和修改时间，文件被修改过则重新探测
+ * 静态方法使用全局的实例，也可以创建独立的实例，例如每个 StitcherEngine 一个
+ */
+public class ImageMetaCache {
+    private static final int DEFAULT_MAX_SIZE = 64;
+
+    private final LinkedHashMap<String, ImageMeta> mMetaMap;
+    private int mMaxSize = DEFAULT_MAX_SIZE;
+
+    public ImageMetaCache() {
+        mMetaMap = new LinkedHashMap<String, ImageMeta>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ImageMeta> eldest) {
+                return size() > mMaxSize;
+            }
+        };
+    }
+
+    private static class Holder {
+        private static final ImageMetaCache INSTANCE = new ImageMetaCache();
+    }
+
+    private static ImageMetaCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @return 静态方法使用的全局实例
+     */
+    @NonNull
+    public static ImageMetaCache getDefault() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * 获取图片元信息，缓存中不存在或者文件已被修改时才会读取文件
+     *
+     * @param filePath 文件路径
+     * @return ImageMeta，文件不存在或不是图片时 {@link ImageMeta#isValid()} 为 false
+     */
+    @NonNull
+    public ImageMeta get(String filePath) {
+        return get(filePath, null);
+    }
+
+    /**
+     * 获取图片元信息，并累加这次探测的耗时
+     *
+     * @param filePath   文件路径
+     * @param probeNanos 长度为 2，探测宽高和读取 EXIF 的耗时分别累加到 [0] 和 [1]，命中缓存时不变
+     * @return ImageMeta
+     */
+    @NonNull
+    public ImageMeta get(String filePath, @Nullable long[] probeNanos) {
+        StitchSource source = StitchSource.forKey(filePath);
+        long length = source.getLength();
+        long lastModified = source.getLastModified();
+        ImageMeta meta;
+        synchronized (mMetaMap) {
+            meta = mMetaMap.get(filePath);
+        }
+        if (meta != null && meta.isSameFile(length, lastModified)) {
+            return meta;
+        }
+        //在锁外探测，避免慢速存储上阻塞其他线程
+        meta = StitcherUtils.probeImageMeta(source, length, lastModified, probeNanos);
+        if (meta.isValid()) {
+            synchronized (mMetaMap) {
+                mMetaMap.put(filePath, meta);
+            }
+        }
+        return meta;
+    }
+
+    public void remove(String filePath) {
+        synchronized (mMetaMap) {
+            mMetaMap.remove(filePath);
+        }
+    }
+
+    /**
+     * 设置这个实例最多缓存的元信息条数
+     */
+    public void resize(int maxSize) {
+        synchronized (mMetaMap) {
+            mMaxSize = Math.max(1, maxSize);
+            //通过 LRU 顺序把多余的移除
+            while (mMetaMap.size() > mMaxSize) {
+                String eldest = mMetaMap.keySet().iterator().next();
+                mMetaMap.remove(eldest);
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (mMetaMap) {
+            mMetaMap.clear();
+        }
+    }
+
+    /**
+     * 从全局实例获取图片元信息，见 {@link #get(String)}
+     */
+    @NonNull
+    public static ImageMeta getImageMeta(String filePath) {
+        return getInstance().get(filePath, null);
+    }
+
+    /**
+     * 从全局实例获取图片元信息，见 {@link #get(String, long[])}
+     */
+    @NonNull
+    public static ImageMeta getImageMeta(String filePath, @Nullable long[] probeNanos) {
+        return getInstance().get(filePath, probeNanos);
+    }
+
+    public static void removeImageMeta(String filePath) {
+        getInstance().remove(filePath);
+    }
+
+    /**
+     * 设置最多缓存的元信息条数
+     *
+     * @param maxSize 最大条数
+     */
+    public static void setMaxSize(int maxSize) {
+        getInstance().resize(maxSize);
+    }
+
+    public static void clearImageMeta() {
+        getInstance().clear();
+    }
+}
@@ -0,0 +1,279 @@
+package com.zyyoona7.stitcher.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 拼接结果的磁盘缓存，以源文件和拼接参数的哈希为 key，相同的拼接直接复制缓存的文件，不再解码和编码
+ * 源文件的 key 包含路径、长度和修改时间，文件被修改过 key 就会变化
+ * 缓存总大小超过上限时按 LRU 删除，写入先写临时文件再重命名，不会读到写了一半的文件
+ * 可以在多个线程共用同一个实例
+ */
+public final class ResultCache {
+    private static final String TEMP_PREFIX = "stitch";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+    //key -> 文件长度，按访问顺序排列，第一次使用时从目录中加载
+    private final LinkedHashMap<String, Long> mEntries =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long mSizeBytes;
+    private boolean mLoaded;
+
+    /**
+     * @param directory    缓存目录，只应存放这个缓存的文件
+     * @param maxSizeBytes 缓存文件的总大小上限
+     */
+    public ResultCache(@NonNull File directory, long maxSizeBytes) {
+        mDirectory = directory;
+        mMaxSizeBytes = Math.max(0, maxSizeBytes);
+    }
+
+    /**
+     * 根据源文件和拼接参数计算 key
+     *
+     * @param pathList 源文件路径列表
+     * @param params   影响输出的拼接参数，如目标尺寸、间距、填充色、输出格式和质量
+     * @return key if null 有源文件不存在，不应缓存
+     */
+    @Nullable
+    public static String createKey(@NonNull List<String> pathList, @NonNull String params) {
+        StringBuilder builder = new StringBuilder();
+        for (String path : pathList) {
+            File file = new File(path);
+            long lastModified = file.lastModified();
+            if (lastModified == 0) {
+                return null;
+            }
+            builder.append(file.getAbsolutePath()).append('\n')
+                    .append(file.length()).append('\n')
+                    .append(lastModified).append('\n');
+        }
+        builder.append(params);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(builder.toString().getBytes("UTF-8"));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param key {@link #createKey} 得到的 key
+     * @return 缓存的文件 if null 未命中，不要修改或删除这个文件
+     */
+    @Nullable
+    public synchronized File get(@NonNull String key) {
+        ensureLoaded();
+        if (mEntries.get(key) == null) {
+            return null;
+        }
+        File file = new File(mDirectory, key);
+        if (!file.isFile()) {
+            removeEntry(key);
+            return null;
+        }
+        //记录访问时间，重新加载时仍然按 LRU 排列
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * 命中时把缓存的文件复制到输出文件，先复制到同目录的临时文件再重命名
+     *
+     * @param key        {@link #createKey} 得到的 key
+     * @param outputFile 输出文件
+     * @return true 命中并复制成功
+     */
+    public boolean copyTo(@NonNull String key, @NonNull File outputFile) {
+        File cached = get(key);
+        if (cached == null) {
+            return false;
+        }
+        //复制期间缓存文件可能被淘汰，打开失败时当作未命中
+        return copyAtomically(cached, outputFile);
+    }
+
+    /**
+     * 把拼接结果放入缓存，超过上限时删除最久未使用的文件
+     *
+     * @param key  {@link #createKey} 得到的 key
+     * @param file 拼接结果
+     * @return true if successfully
+     */
+    public boolean put(@NonNull String key, @NonNull File file) {
+        long length = file.length();
+        if (length <= 0 || length > mMaxSizeBytes) {
+            return false;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return false;
+        }
+        //在锁外复制，避免阻塞其他线程的读取
+        if (!copyAtomically(file, new File(mDirectory, key))) {
+            return false;
+        }
+        synchronized (this) {
+            ensureLoaded();
+            Long previous = mEntries.put(key, length);
+            if (previous != null) {
+                mSizeBytes -= previous;
+            }
+            mSizeBytes += length;
+            trimToSize(mMaxSizeBytes);
+        }
+        return true;
+    }
+
+    public synchronized void remove(@NonNull String key) {
+        ensureLoaded();
+        if (mEntries.containsKey(key)) {
+            removeEntry(key);
+        }
+    }
+
+    /**
+     * 删除所有缓存的文件
+     */
+    public synchronized void clear() {
+        ensureLoaded();
+        trimToSize(0);
+    }
+
+    /**
+     * @return 缓存文件的总大小
+     */
+    public synchronized long getSize() {
+        ensureLoaded();
+        return mSizeBytes;
+    }
+
+    public long getMaxSize() {
+        return mMaxSizeBytes;
+    }
+
+    /**
+     * 从目录加载已有的缓存文件，按修改时间排列，删除残留的临时文件
+     */
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+        }
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long diff = lastModified[o1] - lastModified[o2];
+                return diff < 0 ? -1 : (diff == 0 ? 0 : 1);
+            }
+        });
+        for (Integer index : order) {
+            File file = files[index];
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (file.isFile()) {
+                long length = file.length();
+                mEntries.put(file.getName(), length);
+                mSizeBytes += length;
+            }
+        }
+        trimToSize(mMaxSizeBytes);
+    }
+
+    private void trimToSize(long maxSizeBytes) {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSizeBytes > maxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            mSizeBytes -= eldest.getValue();
+            new File(mDirectory, eldest.getKey()).delete();
+        }
+    }
+
+    private void removeEntry(String key) {
+        Long length = mEntries.remove(key);
+        if (length != null) {
+            mSizeBytes -= length;
+        }
+        new File(mDirectory, key).delete();
+    }
+
+    /**
+     * 复制到目标所在目录的临时文件，完成后重命名为目标文件
+     */
+    private static boolean copyAtomically(File source, File target) {
+        File parent = target.getAbsoluteFile().getParentFile();
+        File tempFile = null;
+        InputStream inputStream = null;
+        OutputStream outputStream = null;
+        boolean success = false;
+        try {
+            tempFile = File.createTempFile(TEMP_PREFIX, TEMP_SUFFIX, parent);
+            inputStream = new FileInputStream(source);
+            outputStream = new FileOutputStream(tempFile);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+            }
+            outputStream.close();
+            outputStream = null;
+            success = tempFile.renameTo(target);
+            return success;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            closeQuietly(inputStream);
+            closeQuietly(outputStream);
+            if (!success && tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
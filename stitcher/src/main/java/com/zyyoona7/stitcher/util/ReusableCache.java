@@ -2,31 +2,36 @@ package com.zyyoona7.stitcher.util;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.util.Log;
+import android.os.Build;
 
 import androidx.annotation.Nullable;
 
-import java.lang.ref.WeakReference;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-
 /**
  * 根据官方示例和 GlideBitmapPool 结合，实现简易版的 Bitmap 复用的缓存
+ * Bitmap 按 Config 和占用字节数分组存放，总字节数超过上限时按 LRU 回收，
+ * 获取时 O(log n) 查找可以用于 inBitmap 的最小 Bitmap
  * 参考 https://developer.android.google.cn/topic/performance/graphics/manage-memory.html?hl=zh-cn#java
  * 参考 https://github.com/amitshekhariitbhu/GlideBitmapPool
  * 参考 https://github.com/googlesamples/android-DisplayingBitmaps
+ * 静态方法使用全局的实例，也可以创建独立的实例，例如每个工作线程一个，互不影响淘汰和命中率
  */
 public class ReusableCache {
-    private static final int DEFAULT_MAX_SIZE = 15;
+    //默认最多占用最大堆内存的 1/8
+    private static final long DEFAULT_MAX_BYTES = Runtime.getRuntime().maxMemory() / 8;
 
-    private List<WeakReference<Bitmap>> mReusableBitmaps;
-    private final Object mLock = new Object();
+    private final BitmapPool mPool;
 
     private ReusableCache() {
-        mReusableBitmaps =
-                Collections.synchronizedList(new LinkedList<WeakReference<Bitmap>>());
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * 创建独立的缓存
+     *
+     * @param maxBytes 最多占用的字节数，超出的部分按 LRU 回收
+     */
+    public ReusableCache(long maxBytes) {
+        mPool = new BitmapPool(maxBytes);
     }
 
     private static class Holder {
@@ -37,65 +42,113 @@ public class ReusableCache {
         return Holder.INSTANCE;
     }
 
-    private void put(Bitmap bitmap) {
-        if (bitmap == null || bitmap.isRecycled()
-                || mReusableBitmaps == null) {
+    /**
+     * @return 静态方法使用的全局实例
+     */
+    public static ReusableCache getDefault() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * 放入一张不再使用的 Bitmap，不可变或放不下时直接回收
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
             return;
         }
+        //不可变的 Bitmap 不能用于 inBitmap
         if (!bitmap.isMutable()) {
             bitmap.recycle();
+            return;
         }
-        if (mReusableBitmaps.size() > DEFAULT_MAX_SIZE) {
-            mReusableBitmaps.remove(mReusableBitmaps.size() - 1);
+        //已经在池中的不会重复放入，只有超过上限时才回收
+        if (!mPool.put(bitmap)) {
+            bitmap.recycle();
         }
-        mReusableBitmaps.add(new WeakReference<>(bitmap));
     }
 
+    /**
+     * 获取一个可以作为 options.inBitmap 的 Bitmap
+     *
+     * @return Bitmap if null 缓存中没有合适的
+     */
     @Nullable
-    private Bitmap get(BitmapFactory.Options options) {
-        //BEGIN_INCLUDE(get_bitmap_from_reusable_set)
-        Bitmap bitmap = null;
-
-        if (mReusableBitmaps != null && !mReusableBitmaps.isEmpty()) {
-            synchronized (mLock) {
-                final Iterator<WeakReference<Bitmap>> iterator = mReusableBitmaps.iterator();
-                Bitmap item;
-
-                while (iterator.hasNext()) {
-                    item = iterator.next().get();
-
-                    if (null != item && item.isMutable()) {
-                        // Check to see it the item can be used for inBitmap
-                        if (StitcherUtils.canUseForInBitmap(item, options)) {
-                            bitmap = item;
-
-                            // Remove from reusable set so it can't be used again
-                            iterator.remove();
-                            break;
-                        }
-                    } else {
-                        // Remove from the set if the reference has been cleared.
-                        iterator.remove();
-                    }
-                }
+    public Bitmap get(BitmapFactory.Options options) {
+        Bitmap.Config config = options.inPreferredConfig != null
+                ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        int width = StitcherUtils.getDecodedWidth(options);
+        int height = StitcherUtils.getDecodedHeight(options);
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        //KitKat 之前只能复用不采样、不缩放的解码，先判断，不查找缓存也就不影响命中率
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && (options.inSampleSize > 1
+                || width != options.outWidth || height != options.outHeight)) {
+            return null;
+        }
+        //分组和字节数已经保证可以用于 inBitmap
+        int byteCount = width * height * StitcherUtils.getBytesPerPixel(config);
+        return mPool.get(getGroup(config, width, height), byteCount);
+    }
+
+    /**
+     * 获取一个指定尺寸的可变 Bitmap，内容是未定义的，需要调用方清空
+     *
+     * @return Bitmap if null 缓存中没有合适的
+     */
+    @Nullable
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        int byteCount = width * height * StitcherUtils.getBytesPerPixel(config);
+        Bitmap bitmap = mPool.get(getGroup(config, width, height), byteCount);
+        if (bitmap != null && (bitmap.getWidth() != width || bitmap.getHeight() != height)) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                //KitKat 以上分组只包含 Config，字节数足够即可 reconfigure
+                bitmap.reconfigure(width, height, config);
+            } else {
+                //之前的版本分组包含宽高，不会走到这里
+                mPool.put(bitmap);
+                return null;
             }
         }
-        Log.d("ReusableCache", "get: execute...bitmap=" + bitmap);
         return bitmap;
-        //END_INCLUDE(get_bitmap_from_reusable_set)
     }
 
-    private void clear() {
-        if (mReusableBitmaps != null && !mReusableBitmaps.isEmpty()) {
-            final Iterator<WeakReference<Bitmap>> iterator = mReusableBitmaps.iterator();
-            Bitmap item;
-            while (iterator.hasNext()) {
-                item = iterator.next().get();
+    /**
+     * KitKat 以上只要字节数足够就可以复用，以 Config 分组；
+     * 之前的版本要求宽高完全一致，以 Config 和宽高分组
+     */
+    private static Object getGroup(Bitmap.Config config, int width, int height) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return config;
+        }
+        return config + "_" + width + "x" + height;
+    }
+
+    private static class BitmapPool extends GroupedLruPool<Bitmap> {
+
+        BitmapPool(long maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected Object getGroup(Bitmap item) {
+            Bitmap.Config config = item.getConfig() != null
+                    ? item.getConfig() : Bitmap.Config.ARGB_8888;
+            return ReusableCache.getGroup(config, item.getWidth(), item.getHeight());
+        }
+
+        @Override
+        protected int getByteSize(Bitmap item) {
+            return StitcherUtils.getAllocationByteCount(item);
+        }
 
-                if (null != item ) {
-                    item.recycle();
-                }
-                iterator.remove();
+        @Override
+        protected void onRemoved(Bitmap item) {
+            if (!item.isRecycled()) {
+                item.recycle();
             }
         }
     }
@@ -109,7 +162,71 @@ public class ReusableCache {
         return getInstance().get(options);
     }
 
-    public static void clearBitmap(){
-        getInstance().clear();
+    /**
+     * 获取一个指定尺寸的可变 Bitmap，内容是未定义的，需要调用方清空
+     *
+     * @param width  宽度
+     * @param height 高度
+     * @param config config
+     * @return Bitmap if null 缓存中没有合适的
+     */
+    @Nullable
+    public static Bitmap getBitmap(int width, int height, Bitmap.Config config) {
+        return getInstance().get(width, height, config);
+    }
+
+    /**
+     * 清空这个实例，回收所有 Bitmap
+     */
+    public void clear() {
+        mPool.clear();
+    }
+
+    public static void clearBitmap() {
+        getInstance().mPool.clear();
+    }
+
+    /**
+     * 设置复用缓存最多占用的字节数，超出的部分按 LRU 回收
+     *
+     * @param maxBytes 字节数
+     */
+    public static void setMaxBytes(long maxBytes) {
+        getInstance().mPool.setMaxBytes(maxBytes);
+    }
+
+    public static long getMaxBytes() {
+        return getInstance().mPool.getMaxBytes();
+    }
+
+    public static long getCurrentBytes() {
+        return getInstance().mPool.getCurrentBytes();
+    }
+
+    /**
+     * @return 这个实例累计的命中次数，可以在拼接前后相减得到一次拼接的命中次数
+     */
+    public long getPoolHitCount() {
+        return mPool.getHitCount();
+    }
+
+    public long getPoolMissCount() {
+        return mPool.getMissCount();
+    }
+
+    public long getPoolEvictionCount() {
+        return mPool.getEvictionCount();
+    }
+
+    public static long getHitCount() {
+        return getInstance().mPool.getHitCount();
+    }
+
+    public static long getMissCount() {
+        return getInstance().mPool.getMissCount();
+    }
+
+    public static long getEvictionCount() {
+        return getInstance().mPool.getEvictionCount();
     }
 }
@@ -0,0 +1,52 @@
+package com.zyyoona7.stitcher.util;
+
+import android.os.Build;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 拼接各阶段的 Trace 分段，抓取 systrace / Perfetto 时可以看到每个阶段的耗时
+ * API 18 以下不做任何事，没有抓取 Trace 也没有统计监听时不做任何事
+ */
+public final class StitchTrace {
+    public static final String SECTION_PROBE = "Stitcher:probe";
+    public static final String SECTION_EXIF = "Stitcher:exif";
+    public static final String SECTION_DECODE = "Stitcher:decode";
+    public static final String SECTION_DRAW = "Stitcher:draw";
+    public static final String SECTION_ROTATE = "Stitcher:rotate";
+    public static final String SECTION_COMPRESS = "Stitcher:compress";
+    public static final String SECTION_OVERLAP = "Stitcher:overlap";
+    public static final String SECTION_PREVIEW = "Stitcher:preview";
+
+    private StitchTrace() {
+    }
+
+    /**
+     * 开始一个分段，API 29 及以上只在正在抓取 Trace 时记录，
+     * 以下版本无法查询是否在抓取，只在调用方设置了统计监听时记录，默认路径不做任何事
+     *
+     * @param listening 调用方是否设置了统计监听
+     * @return 是否开始了分段，传给 {@link #endSection(boolean)}
+     */
+    public static boolean beginSection(@NonNull String sectionName, boolean listening) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            if (!Trace.isEnabled()) {
+                return false;
+            }
+        } else if (!listening || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return false;
+        }
+        Trace.beginSection(sectionName);
+        return true;
+    }
+
+    /**
+     * @param began {@link #beginSection(String, boolean)} 的返回值，中途开始抓取时不会多结束一个分段
+     */
+    public static void endSection(boolean began) {
+        if (began) {
+            Trace.endSection();
+        }
+    }
+}
@@ -2,43 +2,152 @@ package com.zyyoona7.stitcher.util;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.os.Build;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.exifinterface.media.ExifInterface;
 
+import com.zyyoona7.stitcher.raster.RasterCompositor;
+import com.zyyoona7.stitcher.source.StitchSource;
+
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
-import java.util.Iterator;
-import java.util.Set;
+import java.io.InputStream;
 
 public class StitcherUtils {
+    private static final String TAG = "StitcherUtils";
+    //探测时缓冲的文件头，尺寸和 EXIF 都在这个范围内
+    private static final int PROBE_BUFFER_SIZE = 16 * 1024;
+    private static final int PROBE_MARK_LIMIT = 256 * 1024;
 
-    private static Set<SoftReference<Bitmap>> sReusableBitmaps;
     private StitcherUtils() {
 
     }
 
     public static int roundFloatToInt(float ratio) {
-        int result = Math.round(ratio);
-        return result == 0 ? 1 : result;
+        return RasterCompositor.roundFloatToInt(ratio);
     }
 
+    /**
+     * 获取图片的尺寸信息，宽高已按 EXIF 旋转角度互换
+     * 信息来自 {@link ImageMetaCache}，同一个文件只会读取一次
+     *
+     * @param filePath 文件路径
+     * @return options outWidth、outHeight、outMimeType 已赋值
+     */
     @NonNull
     public static BitmapFactory.Options decodeBitmapBounds(String filePath) {
-        //获取图片信息，修复图片有的手机照片旋转问题
-        int rotateDegree = getBitmapDegree(filePath);
+        return decodeBitmapBounds(ImageMetaCache.getImageMeta(filePath));
+    }
+
+    @NonNull
+    public static BitmapFactory.Options decodeBitmapBounds(@NonNull ImageMeta meta) {
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(filePath, options);
-        if (rotateDegree > 0) {
-            changeSizeByDegree(options, rotateDegree);
-        }
+        options.outWidth = meta.getWidth();
+        options.outHeight = meta.getHeight();
+        options.outMimeType = meta.getMimeType();
+        //修复图片有的手机照片旋转问题
+        changeSizeByDegree(options, meta.getDegree());
         return options;
     }
 
+    /**
+     * 读取来源获取图片元信息，只应由 {@link ImageMetaCache} 调用
+     * 内存中的来源直接解析文件头，其他来源只打开一次，先解码文件头得到尺寸，再 reset 到开头读取 EXIF
+     *
+     * @param source       图片来源
+     * @param length       数据长度
+     * @param lastModified 修改时间
+     * @return ImageMeta
+     */
+    @NonNull
+    static ImageMeta probeImageMeta(StitchSource source, long length, long lastModified,
+                                    @Nullable long[] probeNanos) {
+        boolean listening = probeNanos != null;
+        long start = listening ? System.nanoTime() : 0;
+        boolean traced = StitchTrace.beginSection(StitchTrace.SECTION_PROBE, listening);
+        int[] header = new int[3];
+        String mimeType = source.parseHeader(header);
+        StitchTrace.endSection(traced);
+        if (mimeType != null) {
+            if (probeNanos != null) {
+                probeNanos[0] += System.nanoTime() - start;
+            }
+            return new ImageMeta(source.getKey(), header[0], header[1], mimeType, header[2],
+                    orientationToDegree(header[2]), length, lastModified);
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        int orientation = ExifInterface.ORIENTATION_NORMAL;
+        InputStream inputStream = null;
+        try {
+            start = listening ? System.nanoTime() : 0;
+            traced = StitchTrace.beginSection(StitchTrace.SECTION_PROBE, listening);
+            try {
+                inputStream = source.openStream();
+                if (!inputStream.markSupported()) {
+                    inputStream = new BufferedInputStream(inputStream, PROBE_BUFFER_SIZE);
+                }
+                inputStream.mark(PROBE_MARK_LIMIT);
+                BitmapFactory.decodeStream(inputStream, null, options);
+            } finally {
+                StitchTrace.endSection(traced);
+            }
+            if (probeNanos != null) {
+                long now = System.nanoTime();
+                probeNanos[0] += now - start;
+                start = now;
+            }
+            if (hasExif(options.outMimeType)) {
+                traced = StitchTrace.beginSection(StitchTrace.SECTION_EXIF, listening);
+                try {
+                    try {
+                        inputStream.reset();
+                    } catch (IOException e) {
+                        //文件头超出了 mark 的范围，重新打开
+                        inputStream.close();
+                        inputStream = source.openStream();
+                    }
+                    orientation = new ExifInterface(inputStream).getAttributeInt(
+                            ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+                } finally {
+                    StitchTrace.endSection(traced);
+                }
+                if (probeNanos != null) {
+                    probeNanos[1] += System.nanoTime() - start;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "probe failed: " + source, e);
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return new ImageMeta(source.getKey(), options.outWidth, options.outHeight,
+                options.outMimeType, orientation, orientationToDegree(orientation),
+                length, lastModified);
+    }
+
+    /**
+     * 这些格式没有 ExifInterface 能读取的方向信息，不需要再读一遍
+     */
+    private static boolean hasExif(@Nullable String mimeType) {
+        return mimeType != null && !"image/png".equals(mimeType)
+                && !"image/gif".equals(mimeType) && !"image/bmp".equals(mimeType)
+                && !"image/webp".equals(mimeType);
+    }
+
     private static void changeSizeByDegree(@NonNull BitmapFactory.Options options,
                                            int rotateDegree) {
         if (rotateDegree <= 0) {
@@ -59,14 +168,9 @@ public class StitcherUtils {
 
     @Nullable
     public static Bitmap decodeBitmap(String filePath, BitmapFactory.Options options) {
-        options.inMutable = true;
-        Bitmap inBitmap = ReusableCache.getBitmap(options);
-        if (inBitmap != null) {
-            options.inBitmap = inBitmap;
-        }
+        Bitmap bitmap = decodeUnrotatedBitmap(filePath, options);
         //获取图片信息，修复图片有的手机照片旋转问题
-        int rotateDegree = getBitmapDegree(filePath);
-        Bitmap bitmap = BitmapFactory.decodeFile(filePath, options);
+        int rotateDegree = ImageMetaCache.getImageMeta(filePath).getDegree();
         if (rotateDegree > 0) {
             return rotateBitmapByDegree(bitmap, rotateDegree);
         }
@@ -74,36 +178,108 @@ public class StitcherUtils {
     }
 
     /**
-     * 获取图片的旋转角度
+     * 解码图片但不处理 EXIF 旋转，绘制时用 {@link #drawBitmap} 通过矩阵旋转，
+     * 不再额外创建一张旋转后的 bitmap
      *
-     * @param path 图片绝对路径
+     * @param filePath 图片路径
+     * @param options  {@link #decodeBitmapBounds} 得到的 options，宽高为旋转后的尺寸
+     * @return 未旋转的 bitmap
+     */
+    @Nullable
+    public static Bitmap decodeUnrotatedBitmap(String filePath, BitmapFactory.Options options) {
+        return decodeUnrotatedBitmap(filePath, options,
+                ImageMetaCache.getImageMeta(filePath).getDegree());
+    }
+
+    /**
+     * 解码图片但不处理 EXIF 旋转，旋转角度由调用方传入，不再查询 ImageMetaCache
+     *
+     * @param rotateDegree 探测时得到的 EXIF 旋转角度
+     */
+    @Nullable
+    public static Bitmap decodeUnrotatedBitmap(String filePath, BitmapFactory.Options options,
+                                               int rotateDegree) {
+        return decodeUnrotatedBitmap(filePath, options, rotateDegree, ReusableCache.getDefault());
+    }
+
+    /**
+     * 解码图片但不处理 EXIF 旋转，inBitmap 从指定的复用缓存中查找
+     *
+     * @param filePath     图片路径或 {@link StitchSource#getKey()}
+     * @param options      宽高为旋转后的尺寸
+     * @param rotateDegree EXIF 旋转角度
+     * @param cache        复用缓存
+     * @return 未旋转的 bitmap
+     */
+    @Nullable
+    public static Bitmap decodeUnrotatedBitmap(String filePath, BitmapFactory.Options options,
+                                               int rotateDegree, @NonNull ReusableCache cache) {
+        options.inMutable = true;
+        //复用缓存需要按实际解码（未旋转）的宽高查找
+        changeSizeByDegree(options, rotateDegree);
+        Bitmap inBitmap = cache.get(options);
+        changeSizeByDegree(options, rotateDegree);
+        if (inBitmap != null) {
+            options.inBitmap = inBitmap;
+        }
+        return StitchSource.forKey(filePath).decode(options);
+    }
+
+    /**
+     * 将未旋转的 bitmap 按旋转角度缩放绘制到目标区域
+     *
+     * @param canvas 目标 canvas
+     * @param bitmap 未旋转的 bitmap
+     * @param degree 旋转角度
+     * @param dest   目标区域
+     * @param paint  paint
+     * @param matrix 复用的 matrix，角度为 0 时不使用
+     */
+    public static void drawBitmap(@NonNull Canvas canvas, @NonNull Bitmap bitmap, int degree,
+                                  @NonNull Rect dest, @Nullable Paint paint,
+                                  @NonNull Matrix matrix) {
+        if (degree == 0) {
+            canvas.drawBitmap(bitmap, null, dest, paint);
+            return;
+        }
+        setRotateScaleMatrix(matrix, bitmap.getWidth(), bitmap.getHeight(), degree, dest);
+        canvas.drawBitmap(bitmap, matrix, paint);
+    }
+
+    /**
+     * 从输入流读取图片的旋转角度
+     *
+     * @param inputStream 输入流
      * @return 图片的旋转角度
      */
-    private static int getBitmapDegree(String path) {
-        int degree = 0;
+    public static int getBitmapDegree(InputStream inputStream) {
         try {
-            // 从指定路径下读取图片，并获取其EXIF信息
-            ExifInterface exifInterface = new ExifInterface(path);
-            // 获取图片的旋转信息
-            int orientation = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION,
-                    ExifInterface.ORIENTATION_NORMAL);
-            switch (orientation) {
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    degree = 90;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    degree = 180;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    degree = 270;
-                    break;
-                default:
-                    degree = 0;
-            }
+            ExifInterface exifInterface = new ExifInterface(inputStream);
+            return orientationToDegree(exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL));
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return degree;
+        return 0;
+    }
+
+    /**
+     * 将 EXIF 方向转换为旋转角度
+     *
+     * @param orientation EXIF orientation
+     * @return 图片的旋转角度
+     */
+    static int orientationToDegree(int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
     }
 
     /**
@@ -129,55 +305,113 @@ public class StitcherUtils {
         return newBitmap;
     }
 
+    /**
+     * 设置将 bitmap 按指定角度旋转后缩放绘制到目标区域的矩阵
+     *
+     * @param matrix       matrix
+     * @param bitmapWidth  未旋转的 bitmap 宽度
+     * @param bitmapHeight 未旋转的 bitmap 高度
+     * @param degree       旋转角度
+     * @param dest         目标区域
+     */
+    public static void setRotateScaleMatrix(@NonNull Matrix matrix, int bitmapWidth, int bitmapHeight,
+                                            int degree, @NonNull Rect dest) {
+        boolean swap = degree == 90 || degree == 270;
+        float rotatedWidth = swap ? bitmapHeight : bitmapWidth;
+        float rotatedHeight = swap ? bitmapWidth : bitmapHeight;
+        matrix.setRotate(degree);
+        //旋转后把左上角移回原点
+        switch (degree) {
+            case 90:
+                matrix.postTranslate(bitmapHeight, 0);
+                break;
+            case 180:
+                matrix.postTranslate(bitmapWidth, bitmapHeight);
+                break;
+            case 270:
+                matrix.postTranslate(0, bitmapWidth);
+                break;
+            default:
+                break;
+        }
+        matrix.postScale(dest.width() / rotatedWidth, dest.height() / rotatedHeight);
+        matrix.postTranslate(dest.left, dest.top);
+    }
+
     public static boolean isEmptyBitmap(final Bitmap src) {
         return src == null || src.getWidth() == 0 || src.getHeight() == 0;
     }
 
     public static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        // Raw height and width of image
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
-
-        if (height > reqHeight || width > reqWidth) {
-
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
+        return RasterCompositor.calculateSampleSize(options.outWidth, options.outHeight,
+                reqWidth, reqHeight);
+    }
 
-            // Calculate the largest inSampleSize value that is a power of 2 and keeps both
-            // height and width larger than the requested height and width.
-            while ((halfHeight / inSampleSize) > reqHeight
-                    && (halfWidth / inSampleSize) > reqWidth) {
-                inSampleSize *= 2;
-            }
+    /**
+     * 在 inSampleSize 的基础上通过 inDensity/inTargetDensity 缩放，使解码出的尺寸直接等于目标尺寸
+     * 绘制时就是 1:1 的拷贝，不需要再缩放；只缩小不放大
+     *
+     * @param options   已计算好 inSampleSize 的 options，outWidth/outHeight 为显示方向的尺寸
+     * @param reqWidth  目标宽度
+     * @param reqHeight 目标高度
+     */
+    public static void calculateExactScale(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int sampledWidth = options.outWidth / sampleSize;
+        int sampledHeight = options.outHeight / sampleSize;
+        //用较长的边计算缩放比例，取整误差更小
+        int density = sampledWidth >= sampledHeight ? sampledWidth : sampledHeight;
+        int targetDensity = sampledWidth >= sampledHeight ? reqWidth : reqHeight;
+        if (targetDensity <= 0 || targetDensity >= density) {
+            options.inScaled = false;
+            options.inDensity = 0;
+            options.inTargetDensity = 0;
+            return;
         }
+        options.inScaled = true;
+        options.inDensity = density;
+        options.inTargetDensity = targetDensity;
+    }
 
-        return inSampleSize;
+    /**
+     * @return 按 options 解码后 bitmap 的宽度（显示方向）
+     */
+    public static int getDecodedWidth(BitmapFactory.Options options) {
+        return DecodeMath.getDecodedSize(options.outWidth, options.inSampleSize,
+                options.inScaled, options.inDensity, options.inTargetDensity);
+    }
+
+    /**
+     * @return 按 options 解码后 bitmap 的高度（显示方向）
+     */
+    public static int getDecodedHeight(BitmapFactory.Options options) {
+        return DecodeMath.getDecodedSize(options.outHeight, options.inSampleSize,
+                options.inScaled, options.inDensity, options.inTargetDensity);
     }
 
     public static boolean canUseForInBitmap(Bitmap candidate, BitmapFactory.Options targetOptions) {
+        return DecodeMath.canReuse(Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT,
+                candidate.getWidth(), candidate.getHeight(), getAllocationByteCount(candidate),
+                getBytesPerPixel(candidate.getConfig()), targetOptions.outWidth,
+                targetOptions.outHeight, targetOptions.inSampleSize,
+                getDecodedWidth(targetOptions), getDecodedHeight(targetOptions));
+    }
 
+    /**
+     * @return bitmap 实际分配的字节数
+     */
+    public static int getAllocationByteCount(Bitmap bitmap) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            // From Android 4.4 (KitKat) onward we can re-use if the byte size of
-            // the new bitmap is smaller than the reusable bitmap candidate
-            // allocation byte count.
-            int width = targetOptions.outWidth / targetOptions.inSampleSize;
-            int height = targetOptions.outHeight / targetOptions.inSampleSize;
-            int byteCount = width * height * getBytesPerPixel(candidate.getConfig());
-
             try {
-                return byteCount <= candidate.getAllocationByteCount();
+                return bitmap.getAllocationByteCount();
             } catch (NullPointerException e) {
-                return byteCount <= candidate.getHeight() * candidate.getRowBytes();
+                return bitmap.getHeight() * bitmap.getRowBytes();
             }
         }
-        // On earlier versions, the dimensions must match exactly and the inSampleSize must be 1
-        return candidate.getWidth() == targetOptions.outWidth
-                && candidate.getHeight() == targetOptions.outHeight
-                && targetOptions.inSampleSize == 1;
+        return bitmap.getHeight() * bitmap.getRowBytes();
     }
 
-    private static int getBytesPerPixel(Bitmap.Config config) {
+    public static int getBytesPerPixel(Bitmap.Config config) {
         // A bitmap by decoding a gif has null "config" in certain environments.
         if (config == null) {
             config = Bitmap.Config.ARGB_8888;
@@ -199,39 +433,4 @@ public class StitcherUtils {
         }
         return bytesPerPixel;
     }
-
-    protected Bitmap getBitmapFromReusableSet(BitmapFactory.Options options) {
-        //BEGIN_INCLUDE(get_bitmap_from_reusable_set)
-        Bitmap bitmap = null;
-
-        if (sReusableBitmaps != null && !sReusableBitmaps.isEmpty()) {
-            synchronized (this) {
-                final Iterator<SoftReference<Bitmap>> iterator = sReusableBitmaps.iterator();
-                Bitmap item;
-
-                while (iterator.hasNext()) {
-                    item = iterator.next().get();
-
-                    if (null != item && item.isMutable()) {
-                        // Check to see it the item can be used for inBitmap
-                        if (canUseForInBitmap(item, options)) {
-                            bitmap = item;
-                            // Remove from reusable set so it can't be used again
-                            iterator.remove();
-                            break;
-                        }
-                    } else {
-                        if (item != null) {
-                            item.recycle();
-                        }
-                        // Remove from the set if the reference has been cleared.
-                        iterator.remove();
-                    }
-                }
-            }
-        }
-
-        return bitmap;
-        //END_INCLUDE(get_bitmap_from_reusable_set)
-    }
-}
+}
\ No newline at end of file
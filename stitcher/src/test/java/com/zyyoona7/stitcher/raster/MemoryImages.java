@@ -0,0 +1,73 @@
+package com.zyyoona7.stitcher.raster;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 测试用的图片来源，图片保存在内存中的 IntRaster 里，按路径读取
+ * 解码为最近邻采样，与 BitmapFactory 的 inSampleSize 一样宽高向下取整
+ */
+final class MemoryImages implements JavaRasterBackend.Decoder {
+    private final Map<String, IntRaster> mImages = new HashMap<>();
+    private final Map<String, Integer> mDegrees = new HashMap<>();
+
+    /**
+     * @param degree EXIF 旋转角度，raster 为未旋转的像素
+     */
+    void put(String path, IntRaster raster, int degree) {
+        mImages.put(path, raster);
+        mDegrees.put(path, degree);
+    }
+
+    /**
+     * 添加一张纯色图片
+     */
+    void addSolid(String path, int width, int height, int color, int degree) {
+        IntRaster raster = new IntRaster(width, height);
+        Arrays.fill(raster.getPixels(), color);
+        put(path, raster, degree);
+    }
+
+    /**
+     * 添加一张左右两半颜色不同的图片，旋转之后结果也不同
+     */
+    void addSplit(String path, int width, int height, int color, int degree) {
+        IntRaster raster = new IntRaster(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.setPixel(x, y, x < width / 2 ? color : ~color | 0xFF000000);
+            }
+        }
+        put(path, raster, degree);
+    }
+
+    @Override
+    public boolean decodeBounds(String path, int[] outMeta) {
+        IntRaster raster = mImages.get(path);
+        if (raster == null) {
+            return false;
+        }
+        outMeta[0] = raster.getWidth();
+        outMeta[1] = raster.getHeight();
+        outMeta[2] = mDegrees.get(path);
+        return true;
+    }
+
+    @Override
+    public IntRaster decode(String path, int sampleSize, JavaRasterBackend backend) {
+        IntRaster raster = mImages.get(path);
+        if (raster == null) {
+            return null;
+        }
+        int width = Math.max(1, raster.getWidth() / sampleSize);
+        int height = Math.max(1, raster.getHeight() / sampleSize);
+        IntRaster decoded = backend.obtainRaster(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                decoded.setPixel(x, y, raster.getPixel(x * sampleSize, y * sampleSize));
+            }
+        }
+        return decoded;
+    }
+}
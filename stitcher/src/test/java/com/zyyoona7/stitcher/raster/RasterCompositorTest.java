@@ -0,0 +1,207 @@
+package com.zyyoona7.stitcher.raster;
+
+import com.zyyoona7.stitcher.encoder.StripEncoder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在 JVM 上验证布局、拼接和条带编码，图片由内存中的 IntRaster 代替
+ */
+public class RasterCompositorTest {
+    private static final int RED = 0xFFFF0000;
+    private static final int GREEN = 0xFF00FF00;
+    private static final int BLUE = 0xFF0000FF;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    private final MemoryImages mImages = new MemoryImages();
+    private JavaRasterBackend mBackend;
+
+    @Before
+    public void setUp() {
+        mBackend = new JavaRasterBackend(mImages);
+    }
+
+    @Test
+    public void layoutVertical_scaleSmaller() {
+        int[] size = new int[2];
+        int[] rects = RasterCompositor.layoutVertical(new int[]{100, 200}, new int[]{50, 100},
+                RasterCompositor.SCALE_SMALLER, 10, size);
+        assertArrayEquals(new int[]{0, 0, 100, 50, 0, 60, 100, 110}, rects);
+        assertArrayEquals(new int[]{100, 110}, size);
+    }
+
+    @Test
+    public void layoutHorizontal_negativeSpacingNotCounted() {
+        int[] size = new int[2];
+        int[] rects = RasterCompositor.layoutHorizontal(new int[]{40, 20}, new int[]{20, 10},
+                RasterCompositor.SCALE_LARGER, -5, size);
+        assertArrayEquals(new int[]{0, 0, 40, 20, 35, 0, 75, 20}, rects);
+        assertArrayEquals(new int[]{80, 20}, size);
+    }
+
+    @Test
+    public void layoutOverlapped_extendsVisibleRects() {
+        int[] clips = new int[8];
+        int[] size = new int[2];
+        //第二张顶部 40 行与第一张重叠，缩小一半后延伸 20 行
+        int[] rects = RasterCompositor.layoutOverlapped(new int[]{200, 200},
+                new int[]{100, 100}, new int[]{0, 40}, new int[]{0, 0}, 100, 0, clips, size);
+        assertArrayEquals(new int[]{0, 0, 100, 50, 0, 50, 100, 80}, clips);
+        assertArrayEquals(new int[]{0, 0, 100, 50, 0, 30, 100, 80}, rects);
+        assertArrayEquals(new int[]{100, 80}, size);
+    }
+
+    @Test
+    public void scaleRects_keepsEdgesAdjacent() {
+        int[] rects = {0, 0, 100, 33, 0, 37, 100, 70};
+        assertArrayEquals(rects, RasterCompositor.scaleRects(rects, 1f));
+        //0 仍然是 0，相邻的边取整后相同
+        assertArrayEquals(new int[]{0, 0, 33, 11, 0, 12, 33, 23},
+                RasterCompositor.scaleRects(rects, 1 / 3f));
+        assertArrayEquals(new int[]{0, 0, 1, 0, 0, 0, 1, 1},
+                RasterCompositor.scaleRects(rects, 0.01f));
+    }
+
+    @Test
+    public void scaleRects_previewStartsAtOrigin() {
+        int[] size = new int[2];
+        int[] rects = RasterCompositor.layoutVertical(new int[]{1080, 1080, 720},
+                new int[]{1920, 2400, 1280}, 1080, 0, size);
+        float scale = RasterCompositor.calculatePreviewScale(size[0], size[1], 256);
+        int[] preview = RasterCompositor.scaleRects(rects, scale);
+
+        //与 renderPreview 的预览尺寸一致，第一张从 0 开始，相邻两张之间没有缝隙
+        assertEquals(0, preview[0]);
+        assertEquals(0, preview[1]);
+        for (int i = 1; i < 3; i++) {
+            assertEquals(0, preview[i * 4]);
+            assertEquals(preview[i * 4 - 1], preview[i * 4 + 1]);
+            assertEquals(RasterCompositor.roundFloatToInt(size[0] * scale), preview[i * 4 + 2]);
+        }
+        assertEquals(256, preview[11]);
+        assertEquals(RasterCompositor.roundFloatToInt(size[1] * scale), preview[11]);
+    }
+
+    @Test
+    public void mapToViewport_originMapsToZero() {
+        assertEquals(0, RasterCompositor.mapToViewport(50f, 50, 0.5f));
+        assertEquals(-5, RasterCompositor.mapToViewport(40f, 50, 0.5f));
+        assertEquals(25, RasterCompositor.mapToViewport(100f, 50, 0.5f));
+    }
+
+    @Test
+    public void layoutGrid_cropAndFit() {
+        int[] widths = {200, 100, 100};
+        int[] heights = {100, 200, 100};
+        int[] cells = new int[12];
+        int[] size = new int[2];
+        int[] crop = RasterCompositor.layoutGrid(widths, heights, 2, 50, 50, 4, 6,
+                RasterCompositor.CELL_CENTER_CROP, cells, size);
+        assertArrayEquals(new int[]{104, 106}, size);
+        assertArrayEquals(new int[]{0, 0, 50, 50, 54, 0, 104, 50, 0, 56, 50, 106}, cells);
+        //铺满单元格，超出的部分居中
+        assertArrayEquals(new int[]{-25, 0, 75, 50, 54, -25, 104, 75, 0, 56, 50, 106}, crop);
+
+        int[] fit = RasterCompositor.layoutGrid(widths, heights, 2, 50, 50, 4, 6,
+                RasterCompositor.CELL_FIT_CENTER, cells, size);
+        assertArrayEquals(new int[]{0, 12, 50, 37, 66, 0, 91, 50, 0, 56, 50, 106}, fit);
+    }
+
+    @Test
+    public void stitchVertical_fillsSpacing() {
+        mImages.addSolid("red", 4, 2, RED, 0);
+        mImages.addSolid("blue", 8, 4, BLUE, 0);
+        IntRaster result = RasterCompositor.stitchVertical(mBackend,
+                Arrays.asList("red", "blue"), 4, 1, WHITE);
+
+        assertEquals(4, result.getWidth());
+        assertEquals(5, result.getHeight());
+        assertEquals(RED, result.getPixel(0, 1));
+        assertEquals(WHITE, result.getPixel(3, 2));
+        assertEquals(BLUE, result.getPixel(3, 4));
+    }
+
+    @Test
+    public void draw_appliesExifRotation() {
+        //未旋转时左红右蓝，顺时针旋转 90 度后上红下蓝
+        mImages.put("rotated", new IntRaster(2, 1, new int[]{RED, BLUE}), 90);
+        IntRaster result = RasterCompositor.stitchVertical(mBackend,
+                Arrays.asList("rotated"), RasterCompositor.SCALE_SMALLER, 0, WHITE);
+
+        assertEquals(1, result.getWidth());
+        assertEquals(2, result.getHeight());
+        assertEquals(RED, result.getPixel(0, 0));
+        assertEquals(BLUE, result.getPixel(0, 1));
+    }
+
+    @Test
+    public void compose_reusesPooledPixels() {
+        mImages.addSolid("a", 16, 16, RED, 0);
+        mImages.addSolid("b", 16, 16, GREEN, 0);
+        List<String> pathList = Arrays.asList("a", "b");
+        mBackend.release(RasterCompositor.stitchVertical(mBackend, pathList, 16, 0, WHITE));
+        long missCount = mBackend.getPoolMissCount();
+        mBackend.release(RasterCompositor.stitchVertical(mBackend, pathList, 16, 0, WHITE));
+
+        //第二次的目标和解码都可以从池里取到
+        assertEquals(missCount, mBackend.getPoolMissCount());
+        assertTrue(mBackend.getPoolHitCount() >= 3);
+    }
+
+    @Test
+    public void encode_matchesCompose() throws Exception {
+        mImages.addSolid("a", 6, 5, RED, 0);
+        mImages.addSolid("b", 6, 9, GREEN, 180);
+        mImages.addSolid("c", 3, 4, BLUE, 0);
+        List<String> pathList = Arrays.asList("a", "b", "c");
+        int[] widths = {6, 6, 3};
+        int[] heights = {5, 9, 4};
+        int[] size = new int[2];
+        int[] rects = RasterCompositor.layoutVertical(widths, heights, 6, 2, size);
+
+        IntRaster expected = RasterCompositor.compose(mBackend, pathList, rects,
+                size[0], size[1], WHITE);
+        CollectingEncoder encoder = new CollectingEncoder();
+        RasterCompositor.encode(mBackend, pathList, rects, size[0], size[1], WHITE, 4,
+                encoder, new ByteArrayOutputStream());
+
+        assertEquals(size[1], encoder.mRows);
+        assertArrayEquals(Arrays.copyOf(expected.getPixels(), size[0] * size[1]),
+                Arrays.copyOf(encoder.mPixels, size[0] * size[1]));
+    }
+
+    private static class CollectingEncoder implements StripEncoder {
+        private int[] mPixels;
+        private int mWidth;
+        private int mRows;
+
+        @Override
+        public void begin(OutputStream out, int width, int height) {
+            mPixels = new int[width * height];
+            mWidth = width;
+        }
+
+        @Override
+        public void writeRows(int[] pixels, int offset, int stride, int rowCount) {
+            for (int row = 0; row < rowCount; row++) {
+                System.arraycopy(pixels, offset + row * stride, mPixels,
+                        (mRows + row) * mWidth, mWidth);
+            }
+            mRows += rowCount;
+        }
+
+        @Override
+        public void finish() {
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.zyyoona7.stitcher.raster;
+
+import com.zyyoona7.stitcher.encoder.StripEncoder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证引擎实例的拼接结果，以及 StitcherEngine 使用的完整循环在预热之后的对象分配
+ */
+public class RasterStitcherTest {
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int WARM_UP_COUNT = 200;
+    private static final int MEASURE_COUNT = 1000;
+
+    private final MemoryImages mImages = new MemoryImages();
+    private RasterStitcher<IntRaster> mStitcher;
+
+    @Before
+    public void setUp() {
+        mStitcher = new RasterStitcher<>(new JavaRasterBackend(mImages));
+        mImages.addSplit("a", 40, 30, 0xFFFF0000, 0);
+        mImages.addSplit("b", 60, 20, 0xFF00FF00, 90);
+        mImages.addSplit("c", 20, 50, 0xFF0000FF, 180);
+    }
+
+    @Test
+    public void stitch_matchesCompositor() {
+        List<String> pathList = Arrays.asList("a", "b", "c");
+        JavaRasterBackend backend = new JavaRasterBackend(mImages);
+        IntRaster expected = RasterCompositor.stitchVertical(backend, pathList, 40, 3, WHITE);
+        IntRaster actual = mStitcher.stitchVertical(pathList, 40, 3, WHITE);
+        assertSameRaster(expected, actual);
+
+        expected = RasterCompositor.stitchHorizontal(backend, pathList,
+                RasterCompositor.SCALE_SMALLER, 2, WHITE);
+        mStitcher.release(actual);
+        actual = mStitcher.stitchHorizontal(pathList, RasterCompositor.SCALE_SMALLER, 2, WHITE);
+        assertSameRaster(expected, actual);
+
+        assertNull(mStitcher.stitchVertical(Arrays.asList("a", "missing"), 40, 0, WHITE));
+    }
+
+    @Test
+    public void stitch_allocatesNothingAfterWarmUp() {
+        final List<String> pathList = Arrays.asList("a", "b", "c");
+        assertAllocatesNothing(new Runnable() {
+            @Override
+            public void run() {
+                mStitcher.release(mStitcher.stitchVertical(pathList, 40, 3, WHITE));
+            }
+        });
+    }
+
+    @Test
+    public void engineLoop_allocatesNothingAfterWarmUp() {
+        //与 StitcherEngine 的调用顺序一致：探测、去掉重叠、按内存计划缩小、检查取消和回调进度，
+        //再拼接和条带编码
+        final List<String> pathList = Arrays.asList("a", "b", "c");
+        final int[] topCrops = {0, 4, 6};
+        final int[] bottomCrops = {2, 0, 0};
+        final CountingCallback callback = new CountingCallback();
+        final NullEncoder encoder = new NullEncoder();
+        final OutputStream outputStream = new ByteArrayOutputStream();
+        mStitcher.setCallback(callback);
+        assertAllocatesNothing(new Runnable() {
+            @Override
+            public void run() {
+                mStitcher.probe(pathList);
+                mStitcher.layoutVertical(40, 3);
+                mStitcher.layoutOverlapped(topCrops, bottomCrops, 40, 3);
+                mStitcher.estimateDecodeBytes(0, true);
+                mStitcher.setScale(0.5f);
+                mStitcher.release(mStitcher.compose(pathList, WHITE));
+                mStitcher.setScale(1f);
+                try {
+                    mStitcher.encode(pathList, WHITE, 8, encoder, outputStream);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        assertTrue(callback.mProgressCount > 0);
+        assertEquals(mStitcher.getHeight(), encoder.mRows);
+    }
+
+    private static void assertAllocatesNothing(Runnable stitch) {
+        for (int i = 0; i < WARM_UP_COUNT; i++) {
+            stitch.run();
+        }
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long start = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURE_COUNT; i++) {
+            stitch.run();
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - start;
+
+        //JIT 编译期间可能有零星的分配，每张图片哪怕分配一个对象也至少有 16 字节
+        assertTrue("allocated " + allocated + " bytes", allocated < MEASURE_COUNT);
+    }
+
+    private static class CountingCallback implements RasterStitcher.Callback {
+        private int mProgressCount;
+
+        @Override
+        public void throwIfCanceled() {
+        }
+
+        @Override
+        public void onProgress(int completed, int total) {
+            mProgressCount++;
+        }
+    }
+
+    private static class NullEncoder implements StripEncoder {
+        private int mRows;
+
+        @Override
+        public void begin(OutputStream out, int width, int height) {
+            mRows = 0;
+        }
+
+        @Override
+        public void writeRows(int[] pixels, int offset, int stride, int rowCount) {
+            mRows += rowCount;
+        }
+
+        @Override
+        public void finish() {
+        }
+    }
+
+    private static void assertSameRaster(IntRaster expected, IntRaster actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        int length = expected.getWidth() * expected.getHeight();
+        assertArrayEquals(Arrays.copyOf(expected.getPixels(), length),
+                Arrays.copyOf(actual.getPixels(), length));
+    }
+}
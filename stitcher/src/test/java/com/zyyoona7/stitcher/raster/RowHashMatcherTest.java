@@ -0,0 +1,91 @@
+package com.zyyoona7.stitcher.raster;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用带固定头部和底部的模拟滚动截图验证重叠检测
+ */
+public class RowHashMatcherTest {
+    private static final int WIDTH = 8;
+    private static final int HEADER_COLOR = 0xFF202020;
+    private static final int FOOTER_COLOR = 0xFFE0E0E0;
+
+    @Test
+    public void match_findsOverlapBetweenFixedBars() {
+        //内容从第 0 行和第 20 行开始截取，每张 40 行内容，重叠 20 行
+        long[] prev = hashFrame(0, 40, 3, 2);
+        long[] next = hashFrame(20, 40, 3, 2);
+        int[] out = new int[3];
+
+        assertTrue(RowHashMatcher.match(prev, prev.length, next, next.length, 4, 0f, out));
+        assertArrayEquals(new int[]{3, 2, 20}, out);
+    }
+
+    @Test
+    public void match_toleratesFewMismatchedRows() {
+        long[] prev = hashFrame(0, 40, 0, 0);
+        long[] next = hashFrame(10, 40, 0, 0);
+        //重叠区域内有一行不同，如光标闪烁
+        next[5] = 0;
+        int[] out = new int[3];
+
+        assertFalse(RowHashMatcher.match(prev, 40, next, 40, 4, 0f, out));
+        assertTrue(RowHashMatcher.match(prev, 40, next, 40, 4, 0.05f, out));
+        assertArrayEquals(new int[]{0, 0, 30}, out);
+    }
+
+    @Test
+    public void applyCrops_keepsOneRowWhenNextFrameIsInsideOverlap() {
+        long[] prev = hashFrame(0, 40, 0, 0);
+        long[] next = hashFrame(20, 20, 0, 0);
+        //最后一行不同，没有固定底部，整张都在重叠区域内
+        next[19] = 0;
+        int[] out = new int[3];
+        assertTrue(RowHashMatcher.match(prev, 40, next, 20, 4, 0.05f, out));
+        assertArrayEquals(new int[]{0, 0, 20}, out);
+
+        int[][] crops = new int[2][3];
+        RowHashMatcher.applyCrops(out, 40, 20, crops, 1);
+        assertArrayEquals(new int[]{0, 19, 0}, crops[0]);
+        assertArrayEquals(new int[]{0, 0, 0}, crops[1]);
+
+        //下一张有固定底部时，顶部已经裁掉 19 行的这一张不能再裁
+        RowHashMatcher.applyCrops(new int[]{2, 5, 10}, 20, 30, crops, 2);
+        assertArrayEquals(new int[]{0, 19, 12}, crops[0]);
+        assertArrayEquals(new int[]{0, 0, 0}, crops[1]);
+    }
+
+    /**
+     * @param contentStart 内容在整个页面中的起始行
+     * @param contentRows  内容行数
+     * @param headerRows   固定头部行数
+     * @param footerRows   固定底部行数
+     */
+    private static long[] hashFrame(int contentStart, int contentRows, int headerRows,
+                                    int footerRows) {
+        int rows = headerRows + contentRows + footerRows;
+        int[] pixels = new int[WIDTH * rows];
+        for (int y = 0; y < rows; y++) {
+            int color;
+            if (y < headerRows) {
+                color = HEADER_COLOR;
+            } else if (y >= headerRows + contentRows) {
+                color = FOOTER_COLOR;
+            } else {
+                //每一行内容都不同
+                int line = contentStart + y - headerRows;
+                color = 0xFF000000 | (line * 37 % 256) << 16 | (line * 91 % 256) << 8 | line * 8 % 256;
+            }
+            for (int x = 0; x < WIDTH; x++) {
+                pixels[y * WIDTH + x] = x % 2 == 0 ? color : ~color | 0xFF000000;
+            }
+        }
+        long[] hashes = new long[rows];
+        RowHashMatcher.hashRows(pixels, 0, WIDTH, WIDTH, rows, 1, hashes, 0);
+        return hashes;
+    }
+}
@@ -0,0 +1,146 @@
+package com.zyyoona7.stitcher.source;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 验证来源在使用期间的注册和从开头读取的流
+ */
+public class StitchSourceTest {
+    private static final byte[] DATA = {1, 2, 3, 4, 5, 6, 7, 8};
+
+    @Test
+    public void forKey_resolvesSourceOnlyWhileAcquired() {
+        StitchSource source = StitchSource.fromBytes(DATA);
+        List<StitchSource> sources = Collections.singletonList(source);
+        //创建时不注册
+        assertTrue(StitchSource.forKey(source.getKey()) instanceof PathSource);
+
+        assertEquals(Collections.singletonList(source.getKey()), StitchSource.acquire(sources));
+        StitchSource.acquire(sources);
+        assertSame(source, StitchSource.forKey(source.getKey()));
+        //每次 acquire 对应一次 release，全部结束后才注销
+        StitchSource.release(sources);
+        assertSame(source, StitchSource.forKey(source.getKey()));
+        StitchSource.release(sources);
+        assertTrue(StitchSource.forKey(source.getKey()) instanceof PathSource);
+
+        assertNotEquals(source.getKey(), StitchSource.fromBytes(DATA).getKey());
+        assertEquals("/sdcard/a.jpg", StitchSource.forKey("/sdcard/a.jpg").getKey());
+        source.close();
+    }
+
+    @Test
+    public void close_unregistersSourceInUse() {
+        StitchSource source = StitchSource.fromBytes(DATA);
+        List<StitchSource> sources = Collections.singletonList(source);
+        StitchSource.acquire(sources);
+        source.close();
+        assertTrue(StitchSource.forKey(source.getKey()) instanceof PathSource);
+        //关闭后不会再注册
+        StitchSource.acquire(sources);
+        assertTrue(StitchSource.forKey(source.getKey()) instanceof PathSource);
+        StitchSource.release(sources);
+    }
+
+    @Test
+    public void pathSource_opensFileOnceWhileAcquired() throws IOException {
+        File file = createFile();
+        StitchSource source = StitchSource.fromPath(file.getPath());
+        List<StitchSource> sources = Collections.singletonList(source);
+        StitchSource.acquire(sources);
+        try {
+            assertSame(source, StitchSource.forKey(file.getPath()));
+            assertEquals(DATA.length, source.getLength());
+            assertStream(DATA, source.openStream());
+            //删除后仍然从已经打开的文件描述符读取，没有重新打开
+            assertTrue(file.delete());
+            assertEquals(DATA.length, source.getLength());
+            assertStream(DATA, source.openStream());
+        } finally {
+            StitchSource.release(sources);
+        }
+        //注销后关闭文件，每次读取重新打开
+        assertEquals(0, source.getLength());
+        try {
+            source.openStream();
+            fail("file should be reopened after release");
+        } catch (FileNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void openStream_byteBufferSupportsReset() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DATA.length);
+        buffer.put(DATA);
+        buffer.position(2);
+        StitchSource source = StitchSource.fromByteBuffer(buffer);
+
+        assertEquals(6, source.getLength());
+        assertStream(Arrays.copyOfRange(DATA, 2, DATA.length), source.openStream());
+        //不改变原 buffer 的 position
+        assertEquals(2, buffer.position());
+        source.close();
+    }
+
+    @Test
+    public void openStream_fileDescriptorReadsWithoutMovingOffset() throws IOException {
+        File file = createFile();
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            StitchSource source = StitchSource.fromFileDescriptor(inputStream.getFD());
+            assertEquals(DATA.length, source.getLength());
+            assertStream(DATA, source.openStream());
+            //两个流互不影响
+            assertStream(DATA, source.openStream());
+            assertEquals(0, inputStream.getChannel().position());
+            source.close();
+            assertNotEquals(file.getPath(), source.getKey());
+        } finally {
+            inputStream.close();
+            file.delete();
+        }
+    }
+
+    private static File createFile() throws IOException {
+        File file = File.createTempFile("source", ".bin");
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(DATA);
+        outputStream.close();
+        return file;
+    }
+
+    private static void assertStream(byte[] expected, InputStream inputStream)
+            throws IOException {
+        assertTrue(inputStream.markSupported());
+        inputStream.mark(expected.length);
+        assertEquals(expected[0], inputStream.read());
+        inputStream.reset();
+        byte[] actual = new byte[expected.length];
+        int offset = 0;
+        int count;
+        while (offset < actual.length
+                && (count = inputStream.read(actual, offset, actual.length - offset)) != -1) {
+            offset += count;
+        }
+        assertArrayEquals(expected, actual);
+        assertEquals(-1, inputStream.read());
+    }
+}
@@ -0,0 +1,121 @@
+package com.zyyoona7.stitcher.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证对象池的最佳匹配、LRU 淘汰和字节数上限
+ */
+public class GroupedLruPoolTest {
+
+    @Test
+    public void get_returnsSmallestFitInGroup() {
+        ItemPool pool = new ItemPool(10000);
+        Item small = new Item("a", 100);
+        Item large = new Item("a", 400);
+        Item medium = new Item("a", 200);
+        pool.put(small);
+        pool.put(large);
+        pool.put(medium);
+        pool.put(new Item("b", 150));
+
+        assertSame(medium, pool.get("a", 150));
+        assertSame(large, pool.get("a", 150));
+        assertNull(pool.get("a", 500));
+        //其他分组中大小合适的对象不能复用
+        assertNull(pool.get("b", 160));
+        //超过所需大小 8 倍的不取出
+        assertNull(pool.get("a", 10));
+        assertSame(small, pool.get("a", 13));
+
+        assertEquals(3, pool.getHitCount());
+        assertEquals(3, pool.getMissCount());
+        assertEquals(150, pool.getCurrentBytes());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() {
+        ItemPool pool = new ItemPool(1000);
+        Item first = new Item("a", 400);
+        Item second = new Item("b", 400);
+        Item third = new Item("a", 300);
+        pool.put(first);
+        pool.put(second);
+        //取出再放回，变成最近使用的
+        assertSame(first, pool.get("a", 400));
+        pool.put(first);
+        pool.put(third);
+
+        assertEquals(Arrays.asList(second), pool.mRemoved);
+        assertEquals(1, pool.getEvictionCount());
+        assertEquals(700, pool.getCurrentBytes());
+        assertSame(first, pool.get("a", 350));
+    }
+
+    @Test
+    public void put_respectsBudgetAndIgnoresDuplicates() {
+        ItemPool pool = new ItemPool(1000);
+        Item item = new Item("a", 600);
+        assertFalse(pool.put(new Item("a", 1200)));
+        assertTrue(pool.put(item));
+        //已经在池中，不重复计算
+        assertTrue(pool.put(item));
+        assertEquals(1, pool.getCount());
+        assertEquals(600, pool.getCurrentBytes());
+        assertTrue(pool.mRemoved.isEmpty());
+
+        pool.setMaxBytes(500);
+        assertEquals(Arrays.asList(item), pool.mRemoved);
+        assertEquals(0, pool.getCurrentBytes());
+
+        pool.put(new Item("a", 200));
+        pool.put(new Item("b", 200));
+        pool.clear();
+        assertEquals(0, pool.getCount());
+        assertEquals(3, pool.mRemoved.size());
+        //清空不计入淘汰次数
+        assertEquals(1, pool.getEvictionCount());
+    }
+
+    private static final class Item {
+        final String mGroup;
+        final int mByteSize;
+
+        Item(String group, int byteSize) {
+            mGroup = group;
+            mByteSize = byteSize;
+        }
+    }
+
+    private static final class ItemPool extends GroupedLruPool<Item> {
+        final List<Item> mRemoved = new ArrayList<>();
+
+        ItemPool(long maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected Object getGroup(Item item) {
+            return item.mGroup;
+        }
+
+        @Override
+        protected int getByteSize(Item item) {
+            return item.mByteSize;
+        }
+
+        @Override
+        protected void onRemoved(Item item) {
+            mRemoved.add(item);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.zyyoona7.stitcher.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 用手工构造的文件头验证 JPEG、PNG 的尺寸和 EXIF 方向解析
+ */
+public class ImageHeaderParserTest {
+
+    @Test
+    public void parse_jpegWithExifOrientation() {
+        int[] meta = new int[3];
+        assertEquals(ImageHeaderParser.MIME_JPEG,
+                ImageHeaderParser.parse(ByteBuffer.wrap(jpeg(4000, 3000, 6, true)), meta));
+        assertArrayEquals(new int[]{4000, 3000, 6}, meta);
+
+        assertEquals(ImageHeaderParser.MIME_JPEG,
+                ImageHeaderParser.parse(ByteBuffer.wrap(jpeg(640, 480, 8, false)), meta));
+        assertArrayEquals(new int[]{640, 480, 8}, meta);
+    }
+
+    @Test
+    public void parse_jpegWithoutExifAtBufferPosition() {
+        byte[] data = jpeg(100, 50, 0, true);
+        //前面有其他数据，从 position 开始解析
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 3);
+        buffer.position(3);
+        buffer.put(data);
+        buffer.position(3);
+        int[] meta = new int[3];
+
+        assertEquals(ImageHeaderParser.MIME_JPEG, ImageHeaderParser.parse(buffer, meta));
+        assertArrayEquals(new int[]{100, 50, 1}, meta);
+        assertEquals(3, buffer.position());
+    }
+
+    @Test
+    public void parse_png() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n');
+        write(out, 0, 0, 0, 13, 'I', 'H', 'D', 'R');
+        write(out, 0, 0, 0x04, 0x38, 0, 0, 0x07, 0x80);
+        int[] meta = new int[3];
+
+        assertEquals(ImageHeaderParser.MIME_PNG,
+                ImageHeaderParser.parse(ByteBuffer.wrap(out.toByteArray()), meta));
+        assertArrayEquals(new int[]{1080, 1920, 1}, meta);
+    }
+
+    @Test
+    public void parse_rejectsTruncatedAndUnknown() {
+        byte[] data = jpeg(100, 50, 6, true);
+        ByteBuffer truncated = ByteBuffer.wrap(data, 0, data.length - 10).slice();
+        int[] meta = new int[3];
+
+        assertNull(ImageHeaderParser.parse(truncated, meta));
+        assertNull(ImageHeaderParser.parse(ByteBuffer.wrap(new byte[]{'R', 'I', 'F', 'F'}), meta));
+    }
+
+    /**
+     * @param orientation 0 不写入 EXIF
+     */
+    private static byte[] jpeg(int width, int height, int orientation, boolean bigEndian) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, 0xFF, 0xD8);
+        //APP0 JFIF
+        write(out, 0xFF, 0xE0, 0, 7, 'J', 'F', 'I', 'F', 0);
+        if (orientation > 0) {
+            //Exif 头 6 + TIFF 头 8 + IFD 数量 2 + 两个 entry 24 + 下一个 IFD 4
+            write(out, 0xFF, 0xE1, 0, 2 + 6 + 8 + 2 + 24 + 4);
+            write(out, 'E', 'x', 'i', 'f', 0, 0);
+            if (bigEndian) {
+                write(out, 'M', 'M', 0, 42, 0, 0, 0, 8);
+                write(out, 0, 2);
+                //ImageWidth，不是要找的 tag
+                write(out, 0x01, 0x00, 0, 3, 0, 0, 0, 1, 0, 1, 0, 0);
+                write(out, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, orientation, 0, 0);
+            } else {
+                write(out, 'I', 'I', 42, 0, 8, 0, 0, 0);
+                write(out, 2, 0);
+                write(out, 0x00, 0x01, 3, 0, 1, 0, 0, 0, 1, 0, 0, 0);
+                write(out, 0x12, 0x01, 3, 0, 1, 0, 0, 0, orientation, 0, 0, 0);
+            }
+            write(out, 0, 0, 0, 0);
+        }
+        //填充的 0xFF 和 DQT
+        write(out, 0xFF, 0xFF, 0xDB, 0, 3, 0);
+        //SOF2 progressive
+        write(out, 0xFF, 0xC2, 0, 17, 8, height >> 8, height & 0xFF, width >> 8, width & 0xFF,
+                3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1);
+        write(out, 0xFF, 0xDA, 0, 2, 0xFF, 0xD9);
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, int... values) {
+        for (int value : values) {
+            out.write(value);
+        }
+    }
+}
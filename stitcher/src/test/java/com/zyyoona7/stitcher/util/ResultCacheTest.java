@@ -0,0 +1,142 @@
+package com.zyyoona7.stitcher.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证结果缓存的 key、复制和 LRU 淘汰
+ */
+public class ResultCacheTest {
+    private File mRoot;
+    private File mCacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = File.createTempFile("result", "cache");
+        mRoot.delete();
+        mRoot.mkdirs();
+        mCacheDir = new File(mRoot, "cache");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(mRoot);
+    }
+
+    @Test
+    public void createKey_changesWithSourceAndParams() throws IOException {
+        File source = writeFile("a.png", 10);
+        String key = ResultCache.createKey(Collections.singletonList(source.getPath()), "v,100");
+
+        assertNotNull(key);
+        assertEquals(key, ResultCache.createKey(
+                Collections.singletonList(source.getPath()), "v,100"));
+        assertNotEquals(key, ResultCache.createKey(
+                Collections.singletonList(source.getPath()), "v,200"));
+        //源文件被修改过
+        writeFile("a.png", 11);
+        assertNotEquals(key, ResultCache.createKey(
+                Collections.singletonList(source.getPath()), "v,100"));
+        //源文件不存在时不缓存
+        assertNull(ResultCache.createKey(
+                Arrays.asList(source.getPath(), new File(mRoot, "missing").getPath()), "v,100"));
+    }
+
+    @Test
+    public void copyTo_returnsCachedContent() throws IOException {
+        ResultCache cache = new ResultCache(mCacheDir, 1024);
+        File result = writeFile("result.png", 100);
+        File output = new File(mRoot, "output.png");
+
+        assertFalse(cache.copyTo("key", output));
+        assertTrue(cache.put("key", result));
+        assertTrue(cache.copyTo("key", output));
+        assertArrayEquals(readFile(result), readFile(output));
+        assertEquals(100, cache.getSize());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() throws IOException {
+        ResultCache cache = new ResultCache(mCacheDir, 250);
+        cache.put("a", writeFile("a", 100));
+        cache.put("b", writeFile("b", 100));
+        //访问 a 之后 b 是最久未使用的
+        assertNotNull(cache.get("a"));
+        cache.put("c", writeFile("c", 100));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(200, cache.getSize());
+        assertFalse(new File(mCacheDir, "b").exists());
+    }
+
+    @Test
+    public void load_restoresEntriesAndDropsTempFiles() throws IOException {
+        new ResultCache(mCacheDir, 1024).put("a", writeFile("a", 100));
+        File temp = new File(mCacheDir, "stitch123.tmp");
+        new FileOutputStream(temp).close();
+
+        ResultCache cache = new ResultCache(mCacheDir, 1024);
+        assertEquals(100, cache.getSize());
+        assertNotNull(cache.get("a"));
+        assertFalse(temp.exists());
+    }
+
+    private File writeFile(String name, int length) throws IOException {
+        File file = new File(mRoot, name);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+        //修改时间精度可能只有秒，直接设置一个不同的值
+        file.setLastModified(file.lastModified() + length * 1000L);
+        return file;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += inputStream.read(data, offset, data.length - offset);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return data;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}